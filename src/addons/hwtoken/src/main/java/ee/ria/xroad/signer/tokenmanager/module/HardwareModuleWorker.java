@@ -151,6 +151,7 @@ public class HardwareModuleWorker extends AbstractModuleWorker {
                 tokenInfo.getLabel().trim(), // PKCS11 gives us only 32 bytes.
                 module.isPinVerificationPerSigning(),
                 module.isBatchSigningEnabled(),
+                module.getSignSessionPoolSize(),
                 module.getSignMechanismName(),
                 module.getPrivKeyAttributes(),
                 module.getPubKeyAttributes()
@@ -0,0 +1,331 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.signer.tokenmanager.token;
+
+import ee.ria.xroad.common.util.ProcessMetrics;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import iaik.pkcs.pkcs11.Mechanism;
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.State;
+import iaik.pkcs.pkcs11.Token;
+import iaik.pkcs.pkcs11.objects.RSAPrivateKey;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Exception;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static iaik.pkcs.pkcs11.Token.SessionType.SERIAL_SESSION;
+
+/**
+ * Pool of PKCS#11 sessions used for signing on a hardware token. Every
+ * session has its own signing thread, so that as many signatures are
+ * calculated concurrently as there are sessions.
+ *
+ * The login state is shared by all sessions of a token. If the token reports
+ * that the user is not logged in, the session logs in again with the PIN
+ * given by the PIN provider (which returns null if the token must stay logged
+ * out) and retries the signature once.
+ *
+ * For every session, a timer of the signatures and the utilization (the share
+ * of time spent signing since the previous read) are published in the
+ * process metrics.
+ */
+@Slf4j
+final class HardwareTokenSessionPool {
+
+    private static final int QUEUE_SIZE_PER_SESSION = 16;
+
+    private final Token token;
+
+    private final Callable<char[]> pinProvider;
+
+    private final String metricPrefix;
+
+    private final List<PooledSession> sessions = new ArrayList<>();
+
+    private final BlockingQueue<PooledSession> idleSessions;
+
+    private final ExecutorService executor;
+
+    /**
+     * Opens the sessions of the pool.
+     * @param tokenId the token ID, used in thread and metric names
+     * @param token the token
+     * @param size the number of sessions
+     * @param pinProvider returns the PIN for logging in again, or null if logging in is not allowed
+     * @throws Exception if a session cannot be opened
+     */
+    HardwareTokenSessionPool(String tokenId, Token token, int size, Callable<char[]> pinProvider) throws Exception {
+        this.token = token;
+        this.pinProvider = pinProvider;
+        this.metricPrefix = MetricRegistry.name("signer", "hardwareToken", tokenId, "session");
+        this.idleSessions = new ArrayBlockingQueue<>(size);
+
+        try {
+            for (int i = 0; i < size; i++) {
+                PooledSession session = new PooledSession(i, openSession());
+
+                sessions.add(session);
+                idleSessions.add(session);
+            }
+        } catch (Exception e) {
+            closeSessions();
+
+            throw e;
+        }
+
+        executor = createExecutor(tokenId, size);
+    }
+
+    private static ExecutorService createExecutor(String tokenId, int threads) {
+        AtomicInteger threadCounter = new AtomicInteger();
+        ThreadFactory threadFactory = r -> {
+            Thread signingThread = new Thread(r);
+            signingThread.setName("hardware-token-sign-" + tokenId + "-" + threadCounter.incrementAndGet());
+            signingThread.setDaemon(true);
+
+            return signingThread;
+        };
+
+        // when the queue is full, the caller signs itself, which slows down accepting further requests
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(threads * QUEUE_SIZE_PER_SESSION), threadFactory,
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * @return the number of sessions in the pool
+     */
+    int size() {
+        return sessions.size();
+    }
+
+    /**
+     * Runs the signing task in a signing thread.
+     * @param task the signing task
+     */
+    void execute(Runnable task) {
+        executor.execute(task);
+    }
+
+    /**
+     * Signs the data in an idle session, waiting until one is available.
+     * @param mechanism the signing mechanism
+     * @param key the private key
+     * @param data the data to sign
+     * @return the signature
+     * @throws Exception in case of any errors
+     */
+    byte[] sign(Mechanism mechanism, RSAPrivateKey key, byte[] data) throws Exception {
+        PooledSession session = idleSessions.take();
+
+        try {
+            return session.sign(mechanism, key, data);
+        } finally {
+            idleSessions.add(session);
+        }
+    }
+
+    /**
+     * Checks the sessions that are currently idle. Sessions that are no
+     * longer valid are reopened and sessions that are not logged in log in
+     * again, if allowed by the PIN provider.
+     */
+    void checkHealth() {
+        List<PooledSession> checked = new ArrayList<>();
+        idleSessions.drainTo(checked);
+
+        try {
+            for (PooledSession session : checked) {
+                session.checkHealth();
+            }
+        } finally {
+            idleSessions.addAll(checked);
+        }
+    }
+
+    /**
+     * Stops the signing threads and closes the sessions. Signing tasks
+     * that have already been queued are run before the sessions are closed.
+     */
+    void close() {
+        executor.shutdown();
+
+        try {
+            if (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                log.warn("Signing on token {} did not finish in time", metricPrefix);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        closeSessions();
+    }
+
+    private void closeSessions() {
+        for (PooledSession session : sessions) {
+            session.close();
+        }
+
+        sessions.clear();
+        idleSessions.clear();
+
+        ProcessMetrics.getRegistry().removeMatching((name, metric) -> name.startsWith(metricPrefix + "."));
+    }
+
+    private Session openSession() throws Exception {
+        return token.openSession(SERIAL_SESSION, true, null, null);
+    }
+
+    private boolean login(Session session) throws Exception {
+        char[] pin = pinProvider.call();
+
+        if (pin == null) {
+            return false;
+        }
+
+        HardwareTokenUtil.login(session, pin);
+
+        return true;
+    }
+
+    private static boolean isLoggedIn(Session session) throws Exception {
+        State state = session.getSessionInfo().getState();
+
+        return State.RO_USER_FUNCTIONS.equals(state) || State.RW_USER_FUNCTIONS.equals(state);
+    }
+
+    private final class PooledSession {
+        private final int index;
+
+        private final Timer signatures;
+
+        private long busyNanos;
+
+        private long readBusyNanos;
+
+        private long readTime = System.nanoTime();
+
+        private Session session;
+
+        PooledSession(int index, Session session) {
+            this.index = index;
+            this.session = session;
+
+            MetricRegistry registry = ProcessMetrics.getRegistry();
+            String name = MetricRegistry.name(metricPrefix, String.valueOf(index));
+
+            signatures = registry.timer(MetricRegistry.name(name, "signatures"));
+
+            registry.remove(MetricRegistry.name(name, "utilization"));
+            registry.register(MetricRegistry.name(name, "utilization"), (Gauge<Double>) this::readUtilization);
+        }
+
+        byte[] sign(Mechanism mechanism, RSAPrivateKey key, byte[] data) throws Exception {
+            long start = System.nanoTime();
+
+            try {
+                return signOnce(mechanism, key, data);
+            } catch (PKCS11Exception e) {
+                if (e.getErrorCode() != PKCS11Constants.CKR_USER_NOT_LOGGED_IN || !login(session)) {
+                    throw e;
+                }
+
+                log.info("Session #{} of token {} logged in again", index, metricPrefix);
+
+                return signOnce(mechanism, key, data);
+            } finally {
+                long elapsed = System.nanoTime() - start;
+
+                signatures.update(elapsed, TimeUnit.NANOSECONDS);
+                addBusyNanos(elapsed);
+            }
+        }
+
+        private byte[] signOnce(Mechanism mechanism, RSAPrivateKey key, byte[] data) throws Exception {
+            session.signInit(mechanism, key);
+
+            return session.sign(data);
+        }
+
+        void checkHealth() {
+            try {
+                if (!isLoggedIn(session)) {
+                    login(session);
+                }
+            } catch (Exception e) {
+                log.warn("Session #{} of token {} is not usable, reopening it", index, metricPrefix, e);
+
+                reopen();
+            }
+        }
+
+        private void reopen() {
+            close();
+
+            try {
+                session = openSession();
+                login(session);
+            } catch (Exception e) {
+                log.error("Failed to reopen session #{} of token {}", index, metricPrefix, e);
+            }
+        }
+
+        void close() {
+            try {
+                session.closeSession();
+            } catch (Exception e) {
+                log.warn("Failed to close session #{} of token {}", index, metricPrefix, e);
+            }
+        }
+
+        private synchronized void addBusyNanos(long nanos) {
+            busyNanos += nanos;
+        }
+
+        private synchronized double readUtilization() {
+            long now = System.nanoTime();
+            long elapsed = now - readTime;
+            double utilization = elapsed > 0 ? (double) (busyNanos - readBusyNanos) / elapsed : 0;
+
+            readTime = now;
+            readBusyNanos = busyNanos;
+
+            return Math.min(utilization, 1);
+        }
+    }
+}
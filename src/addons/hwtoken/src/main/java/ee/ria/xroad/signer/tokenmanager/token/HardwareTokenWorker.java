@@ -33,8 +33,11 @@ import ee.ria.xroad.signer.protocol.message.ActivateToken;
 import ee.ria.xroad.signer.protocol.message.GenerateKey;
 import ee.ria.xroad.signer.tokenmanager.TokenManager;
 import ee.ria.xroad.signer.tokenmanager.module.ModuleConf;
+import ee.ria.xroad.signer.util.CalculateSignature;
+import ee.ria.xroad.signer.util.CalculatedSignature;
 import ee.ria.xroad.signer.util.SignerUtil;
 
+import akka.actor.ActorRef;
 import iaik.pkcs.pkcs11.Mechanism;
 import iaik.pkcs.pkcs11.Session;
 import iaik.pkcs.pkcs11.Token;
@@ -66,6 +69,7 @@ import static ee.ria.xroad.signer.tokenmanager.TokenManager.addCert;
 import static ee.ria.xroad.signer.tokenmanager.TokenManager.addKey;
 import static ee.ria.xroad.signer.tokenmanager.TokenManager.getKeyInfo;
 import static ee.ria.xroad.signer.tokenmanager.TokenManager.isKeyAvailable;
+import static ee.ria.xroad.signer.tokenmanager.TokenManager.isTokenActive;
 import static ee.ria.xroad.signer.tokenmanager.TokenManager.isTokenAvailable;
 import static ee.ria.xroad.signer.tokenmanager.TokenManager.listKeys;
 import static ee.ria.xroad.signer.tokenmanager.TokenManager.setKeyAvailable;
@@ -108,6 +112,9 @@ public class HardwareTokenWorker extends AbstractTokenWorker {
 
     private Session activeSession;
 
+    // sessions for concurrent signing, exists only while logged in
+    private HardwareTokenSessionPool sessionPool;
+
     /**
      * @param tokenInfo the token info
      * @param tokenType the token type
@@ -203,6 +210,10 @@ public class HardwareTokenWorker extends AbstractTokenWorker {
     protected void onUpdate() throws Exception {
         log.trace("onUpdate()");
 
+        if (sessionPool != null) {
+            sessionPool.checkHealth();
+        }
+
         if (isTokenAvailable(tokenId) && activeSession != null) {
             findKeysNotInConf();
             findPublicKeysForPrivateKeys();
@@ -213,7 +224,11 @@ public class HardwareTokenWorker extends AbstractTokenWorker {
     @Override
     protected void onMessage(Object message) throws Exception {
         try {
-            super.onMessage(message);
+            if (message instanceof CalculateSignature && sessionPool != null) {
+                handleCalculateSignatureInPool((CalculateSignature) message);
+            } else {
+                super.onMessage(message);
+            }
         } finally {
             updateTokenInfo();
         }
@@ -407,6 +422,53 @@ public class HardwareTokenWorker extends AbstractTokenWorker {
             }
         }
 
+        try {
+            RSAPrivateKey key = getSigningKey(keyId, signatureAlgorithmId);
+            Mechanism signMechanism = getSignMechanism(signatureAlgorithmId);
+
+            activeSession.signInit(signMechanism, key);
+
+            return activeSession.sign(data);
+        } finally {
+            if (tokenType.isPinVerificationPerSigning()) {
+                try {
+                    logout();
+                } catch (Exception e) {
+                    log.error("Logout failed", e);
+                }
+            }
+        }
+    }
+
+    private void handleCalculateSignatureInPool(CalculateSignature signRequest) {
+        ActorRef sender = getSender();
+        ActorRef self = getSelf();
+
+        try {
+            byte[] data = SignerUtil.createDataToSign(signRequest.getDigest(), signRequest.getSignatureAlgorithmId());
+            RSAPrivateKey key = getSigningKey(signRequest.getKeyId(), signRequest.getSignatureAlgorithmId());
+            Mechanism signMechanism = getSignMechanism(signRequest.getSignatureAlgorithmId());
+            HardwareTokenSessionPool pool = sessionPool;
+
+            pool.execute(() -> {
+                CalculatedSignature response;
+
+                try {
+                    response = new CalculatedSignature(signRequest, pool.sign(signMechanism, key, data), null);
+                } catch (Exception e) {
+                    response = signingFailed(signRequest, customizeException(e));
+                }
+
+                if (sender != ActorRef.noSender()) {
+                    sender.tell(response, self);
+                }
+            });
+        } catch (Exception e) {
+            sendResponse(signingFailed(signRequest, e));
+        }
+    }
+
+    private RSAPrivateKey getSigningKey(String keyId, String signatureAlgorithmId) {
         if (!isKeyAvailable(keyId)) {
             throw keyNotAvailable(keyId);
         }
@@ -420,26 +482,18 @@ public class HardwareTokenWorker extends AbstractTokenWorker {
 
         log.debug("Signing with key '{}' and signature algorithm '{}'", keyId, signatureAlgorithmId);
 
-        try {
-            Mechanism signMechanism = signMechanisms.get(signatureAlgorithmId);
-
-            if (signMechanism == null) {
-                throw CodedException.tr(X_UNSUPPORTED_SIGN_ALGORITHM, "unsupported_sign_algorithm",
-                        "Unsupported signature algorithm '%s'", signatureAlgorithmId);
-            }
+        return key;
+    }
 
-            activeSession.signInit(signMechanism, key);
+    private Mechanism getSignMechanism(String signatureAlgorithmId) {
+        Mechanism signMechanism = signMechanisms.get(signatureAlgorithmId);
 
-            return activeSession.sign(data);
-        } finally {
-            if (tokenType.isPinVerificationPerSigning()) {
-                try {
-                    logout();
-                } catch (Exception e) {
-                    log.error("Logout failed", e);
-                }
-            }
+        if (signMechanism == null) {
+            throw CodedException.tr(X_UNSUPPORTED_SIGN_ALGORITHM, "unsupported_sign_algorithm",
+                    "Unsupported signature algorithm '%s'", signatureAlgorithmId);
         }
+
+        return signMechanism;
     }
 
     // ------------------------------------------------------------------------
@@ -589,6 +643,7 @@ public class HardwareTokenWorker extends AbstractTokenWorker {
             setTokenStatus(tokenId, TokenStatusInfo.OK);
             setTokenActive(tokenId, true);
             loadPrivateKeys();
+            openSessionPool();
         } catch (PKCS11Exception e) {
             setTokenStatusFromErrorCode(e.getErrorCode());
 
@@ -602,6 +657,7 @@ public class HardwareTokenWorker extends AbstractTokenWorker {
         }
 
         privateKeys.clear();
+        closeSessionPool();
 
         log.trace("logout()");
 
@@ -620,6 +676,31 @@ public class HardwareTokenWorker extends AbstractTokenWorker {
         }
     }
 
+    private void openSessionPool() {
+        // with PIN verification per signing, the login state cannot be shared by concurrent signings
+        if (sessionPool != null || tokenType.getSignSessionPoolSize() <= 1
+                || tokenType.isPinVerificationPerSigning()) {
+            return;
+        }
+
+        try {
+            sessionPool = new HardwareTokenSessionPool(tokenId, getToken(), tokenType.getSignSessionPoolSize(),
+                    () -> isTokenActive(tokenId) ? PasswordStore.getPassword(tokenId) : null);
+
+            log.info("Opened {} signing session(s) on token '{}'", sessionPool.size(), getWorkerId());
+        } catch (Exception e) {
+            log.error("Failed to open signing sessions on token '{}', signing in the active session",
+                    getWorkerId(), e);
+        }
+    }
+
+    private void closeSessionPool() {
+        if (sessionPool != null) {
+            sessionPool.close();
+            sessionPool = null;
+        }
+    }
+
     private void createSession() throws Exception {
         closeActiveSession();
 
@@ -0,0 +1,283 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.signer.tokenmanager.token;
+
+import ee.ria.xroad.common.util.CryptoUtils;
+import ee.ria.xroad.common.util.ProcessMetrics;
+import ee.ria.xroad.signer.util.SignerUtil;
+
+import com.codahale.metrics.Timer;
+import iaik.pkcs.pkcs11.DefaultInitializeArgs;
+import iaik.pkcs.pkcs11.Mechanism;
+import iaik.pkcs.pkcs11.Module;
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.Slot;
+import iaik.pkcs.pkcs11.Token;
+import iaik.pkcs.pkcs11.objects.KeyPair;
+import iaik.pkcs.pkcs11.objects.RSAPrivateKey;
+import iaik.pkcs.pkcs11.objects.RSAPublicKey;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Exception;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.math.BigInteger;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.spec.RSAPublicKeySpec;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static iaik.pkcs.pkcs11.Token.SessionType.SERIAL_SESSION;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Tests signing in a pool of sessions on a SoftHSM token. The tests are
+ * skipped if the SoftHSM library is not installed. The token is expected to
+ * be initialized beforehand, for example:
+ *
+ * softhsm2-util --init-token --free --label xroad-test --pin 1234 --so-pin 1234
+ *
+ * The library, the token label and the PIN can be changed with the system
+ * properties 'softhsm.library', 'softhsm.token' and 'softhsm.pin'.
+ */
+public class HardwareTokenSessionPoolTest {
+
+    private static final String LIBRARY = System.getProperty("softhsm.library", "/usr/lib/softhsm/libsofthsm2.so");
+    private static final String TOKEN_LABEL = System.getProperty("softhsm.token", "xroad-test");
+    private static final char[] PIN = System.getProperty("softhsm.pin", "1234").toCharArray();
+
+    private static final String TOKEN_ID = "softhsm";
+    private static final int POOL_SIZE = 4;
+
+    private static final Mechanism SIGN_MECHANISM = Mechanism.get(PKCS11Constants.CKM_RSA_PKCS);
+
+    private static Module module;
+    private static Token token;
+    private static Session keySession;
+    private static RSAPrivateKey privateKey;
+    private static PublicKey publicKey;
+
+    private HardwareTokenSessionPool pool;
+
+    /**
+     * Logs in to the token and generates the signing key.
+     * @throws Exception in case of any errors
+     */
+    @BeforeClass
+    public static void setUpToken() throws Exception {
+        assumeTrue("SoftHSM library not found: " + LIBRARY, new File(LIBRARY).isFile());
+
+        module = Module.getInstance(LIBRARY);
+        module.initialize(new DefaultInitializeArgs());
+
+        for (Slot slot : module.getSlotList(Module.SlotRequirement.TOKEN_PRESENT)) {
+            if (TOKEN_LABEL.equals(slot.getToken().getTokenInfo().getLabel().trim())) {
+                token = slot.getToken();
+            }
+        }
+
+        assumeTrue("SoftHSM token not found: " + TOKEN_LABEL, token != null);
+
+        keySession = token.openSession(SERIAL_SESSION, true, null, null);
+        HardwareTokenUtil.login(keySession, PIN);
+
+        generateKeyPair();
+    }
+
+    private static void generateKeyPair() throws Exception {
+        RSAPublicKey publicKeyTemplate = new RSAPublicKey();
+        publicKeyTemplate.getToken().setBooleanValue(false);
+        publicKeyTemplate.getVerify().setBooleanValue(true);
+        publicKeyTemplate.getModulusBits().setLongValue(2048L);
+        publicKeyTemplate.getPublicExponent().setByteArrayValue(BigInteger.valueOf(65537).toByteArray());
+
+        RSAPrivateKey privateKeyTemplate = new RSAPrivateKey();
+        privateKeyTemplate.getToken().setBooleanValue(false);
+        privateKeyTemplate.getSign().setBooleanValue(true);
+        privateKeyTemplate.getSensitive().setBooleanValue(true);
+
+        // session objects are visible in all sessions while the generating session is open
+        KeyPair keyPair = keySession.generateKeyPair(Mechanism.get(PKCS11Constants.CKM_RSA_PKCS_KEY_PAIR_GEN),
+                publicKeyTemplate, privateKeyTemplate);
+
+        RSAPublicKey generatedPublicKey = (RSAPublicKey) keyPair.getPublicKey();
+
+        privateKey = (RSAPrivateKey) keyPair.getPrivateKey();
+        publicKey = KeyFactory.getInstance("RSA").generatePublic(new RSAPublicKeySpec(
+                new BigInteger(1, generatedPublicKey.getModulus().getByteArrayValue()),
+                new BigInteger(1, generatedPublicKey.getPublicExponent().getByteArrayValue())));
+    }
+
+    /**
+     * Closes the key session and finalizes the module.
+     * @throws Exception in case of any errors
+     */
+    @AfterClass
+    public static void tearDownToken() throws Exception {
+        if (keySession != null) {
+            keySession.closeSession();
+        }
+
+        if (module != null) {
+            module.finalize(null);
+        }
+    }
+
+    /**
+     * Closes the pool.
+     */
+    @After
+    public void tearDown() {
+        if (pool != null) {
+            pool.close();
+        }
+    }
+
+    /**
+     * Test that concurrent signatures in the pool are valid and measured.
+     * @throws Exception in case of any errors
+     */
+    @Test
+    public void signsConcurrently() throws Exception {
+        pool = new HardwareTokenSessionPool(TOKEN_ID, token, POOL_SIZE, () -> PIN);
+
+        int signatureCount = POOL_SIZE * 25;
+        ExecutorService clients = Executors.newFixedThreadPool(POOL_SIZE * 2);
+
+        try {
+            List<Future<?>> results = new ArrayList<>();
+
+            for (int i = 0; i < signatureCount; i++) {
+                byte[] data = createDataToSign(i);
+
+                results.add(clients.submit(() -> {
+                    assertValidSignature(data, pool.sign(SIGN_MECHANISM, privateKey, data));
+
+                    return null;
+                }));
+            }
+
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } finally {
+            clients.shutdownNow();
+        }
+
+        long measured = 0;
+
+        for (int i = 0; i < POOL_SIZE; i++) {
+            Timer timer = ProcessMetrics.getRegistry().getTimers().get(
+                    "signer.hardwareToken." + TOKEN_ID + ".session." + i + ".signatures");
+
+            measured += timer.getCount();
+        }
+
+        assertEquals(signatureCount, measured);
+        assertTrue(ProcessMetrics.getRegistry().getGauges().containsKey(
+                "signer.hardwareToken." + TOKEN_ID + ".session.0.utilization"));
+    }
+
+    /**
+     * Test that the session logs in again if the token has been logged out.
+     * @throws Exception in case of any errors
+     */
+    @Test
+    public void logsInAgainWhenNotLoggedIn() throws Exception {
+        pool = new HardwareTokenSessionPool(TOKEN_ID, token, 1, () -> PIN);
+
+        HardwareTokenUtil.logout(keySession);
+
+        try {
+            byte[] data = createDataToSign(0);
+
+            assertValidSignature(data, pool.sign(SIGN_MECHANISM, privateKey, data));
+        } finally {
+            HardwareTokenUtil.login(keySession, PIN);
+        }
+    }
+
+    /**
+     * Test that the session stays logged out if no PIN is given.
+     * @throws Exception in case of any errors
+     */
+    @Test
+    public void doesNotLogInWithoutPin() throws Exception {
+        pool = new HardwareTokenSessionPool(TOKEN_ID, token, 1, () -> null);
+
+        HardwareTokenUtil.logout(keySession);
+
+        try {
+            pool.checkHealth();
+            pool.sign(SIGN_MECHANISM, privateKey, createDataToSign(0));
+
+            fail("Should not sign when logged out");
+        } catch (PKCS11Exception expected) {
+            assertEquals(PKCS11Constants.CKR_USER_NOT_LOGGED_IN, expected.getErrorCode());
+        } finally {
+            HardwareTokenUtil.login(keySession, PIN);
+        }
+    }
+
+    /**
+     * Test that the health check logs in idle sessions again.
+     * @throws Exception in case of any errors
+     */
+    @Test
+    public void healthCheckLogsIn() throws Exception {
+        pool = new HardwareTokenSessionPool(TOKEN_ID, token, POOL_SIZE, () -> PIN);
+
+        HardwareTokenUtil.logout(keySession);
+
+        pool.checkHealth();
+
+        byte[] data = createDataToSign(0);
+
+        assertValidSignature(data, pool.sign(SIGN_MECHANISM, privateKey, data));
+    }
+
+    private static byte[] createDataToSign(int i) throws Exception {
+        byte[] digest = CryptoUtils.calculateDigest(CryptoUtils.SHA256_ID, String.valueOf(i).getBytes());
+
+        return SignerUtil.createDataToSign(digest, CryptoUtils.SHA256WITHRSA_ID);
+    }
+
+    private static void assertValidSignature(byte[] data, byte[] signature) throws Exception {
+        Signature verifier = Signature.getInstance("NONEwithRSA");
+        verifier.initVerify(publicKey);
+        verifier.update(data);
+
+        assertTrue(verifier.verify(signature));
+    }
+}
@@ -56,7 +56,6 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.List;
-import java.util.stream.Collectors;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -212,88 +211,53 @@ class AsicContainerClientRequestProcessor extends MessageProcessorBase {
 
     private void writeAllContainers(ClientId clientId, String queryId, AsicContainerNameGenerator nameGen)
             throws Exception {
-        String filename = AsicUtils.escapeString(queryId);
-        List<MessageRecord> requests = timestampedRecords(clientId, queryId, false);
-        List<MessageRecord> responses = timestampedRecords(clientId, queryId, true);
-
-        if (!requests.isEmpty() || !responses.isEmpty()) {
-            try (ZipOutputStream zos = startZipResponse(filename)) {
-                writeContainers(requests, queryId, nameGen, zos, "request");
-                writeContainers(responses, queryId, nameGen, zos, "response");
-            }
-        } else {
-            throw new CodedExceptionWithHttpStatus(HttpServletResponse.SC_NOT_FOUND, ErrorCodes.X_NOT_FOUND,
-                    DOCUMENTS_NOT_FOUND_FAULT_MESSAGE);
-        }
+        writeContainers(clientId, queryId, nameGen, AsicUtils.escapeString(queryId), false, true);
     }
 
     private void writeRequestContainers(ClientId clientId, String queryId, AsicContainerNameGenerator nameGen)
             throws Exception {
-        String filename = AsicUtils.escapeString(queryId) + "-request";
-        List<MessageRecord> records = timestampedRecords(clientId, queryId, false);
-
-        if (!records.isEmpty()) {
-            try (ZipOutputStream zos = startZipResponse(filename)) {
-                writeContainers(records, queryId, nameGen, zos, "request");
-            }
-        } else {
-            throw new CodedExceptionWithHttpStatus(HttpServletResponse.SC_NOT_FOUND, ErrorCodes.X_NOT_FOUND,
-                    DOCUMENTS_NOT_FOUND_FAULT_MESSAGE);
-        }
+        writeContainers(clientId, queryId, nameGen, AsicUtils.escapeString(queryId) + "-request", false);
     }
 
     private void writeResponseContainers(ClientId clientId, String queryId, AsicContainerNameGenerator nameGen)
             throws Exception {
-        String filename = AsicUtils.escapeString(queryId) + "-response";
-        List<MessageRecord> records = timestampedRecords(clientId, queryId, true);
-
-        if (!records.isEmpty()) {
-            try (ZipOutputStream zos = startZipResponse(filename)) {
-                writeContainers(records, queryId, nameGen, zos, "response");
-            }
-        } else {
-            throw new CodedExceptionWithHttpStatus(HttpServletResponse.SC_NOT_FOUND, ErrorCodes.X_NOT_FOUND,
-                    DOCUMENTS_NOT_FOUND_FAULT_MESSAGE);
-        }
+        writeContainers(clientId, queryId, nameGen, AsicUtils.escapeString(queryId) + "-response", true);
     }
 
-    private List<MessageRecord> timestampedRecords(ClientId clientId, String queryId, boolean response)
-            throws Exception {
-        List<MessageRecord> allRecords = LogRecordManager.getByQueryId(queryId, clientId, response);
-        List<MessageRecord> timestampedRecords;
-
-        if (hasParameter(PARAM_FORCE)) {
-            timestampedRecords = allRecords.stream()
-                    .map(this::ensureRecordTimestamped)
-                    .collect(Collectors.toList());
-        } else {
-            verifyAllRecordsTimestamped(allRecords);
-            timestampedRecords = allRecords;
+    /**
+     * Streams the ASiC containers of the requests and/or responses into a ZIP response, one record at a time.
+     * Missing time-stamps are checked (or created, if forced) before anything is written to the response.
+     */
+    private void writeContainers(ClientId clientId, String queryId, AsicContainerNameGenerator nameGen,
+            String filename, boolean... responses) throws Exception {
+        for (boolean response : responses) {
+            ensureRecordsTimestamped(clientId, queryId, response);
         }
 
-        return timestampedRecords;
-    }
+        try (ContainerZipWriter writer = new ContainerZipWriter(filename)) {
+            for (boolean response : responses) {
+                String type = response ? "response" : "request";
 
-    private void verifyAllRecordsTimestamped(List<MessageRecord> allRecords) throws Exception {
-        int allCount = allRecords.size();
-        List<MessageRecord> timestampedRecords = allRecords.stream()
-                .filter(r -> r.getTimestampRecord() != null)
-                .collect(Collectors.toList());
-        int timestampedCount = timestampedRecords.size();
+                LogRecordManager.forEachTimestampedByQueryId(queryId, clientId, response,
+                        record -> writer.write(nameGen.getArchiveFilename(queryId, type), record));
+            }
 
-        if (allCount != timestampedCount) {
-            throw new Exception(MISSING_TIMESTAMPS_FAULT_MESSAGE);
+            if (writer.isEmpty()) {
+                throw new CodedExceptionWithHttpStatus(HttpServletResponse.SC_NOT_FOUND, ErrorCodes.X_NOT_FOUND,
+                        DOCUMENTS_NOT_FOUND_FAULT_MESSAGE);
+            }
         }
     }
 
-    private void writeContainers(List<MessageRecord> requests, String queryId, AsicContainerNameGenerator nameGen,
-            ZipOutputStream zos, String type) throws Exception {
+    private void ensureRecordsTimestamped(ClientId clientId, String queryId, boolean response) throws Exception {
+        List<MessageRecord> records = LogRecordManager.getNotTimestampedByQueryId(queryId, clientId, response);
 
-        for (MessageRecord record : requests) {
-            String filename = nameGen.getArchiveFilename(queryId, type);
-            zos.putNextEntry(new ZipEntry(filename));
-            zos.write(record.toAsicContainer().getBytes());
-            zos.closeEntry();
+        if (!records.isEmpty()) {
+            if (!hasParameter(PARAM_FORCE)) {
+                throw new Exception(MISSING_TIMESTAMPS_FAULT_MESSAGE);
+            }
+
+            records.forEach(this::ensureRecordTimestamped);
         }
     }
 
@@ -305,7 +269,7 @@ class AsicContainerClientRequestProcessor extends MessageProcessorBase {
         servletResponse.setContentType(MimeTypes.ASIC_ZIP);
         servletResponse.setHeader("Content-Disposition", "filename=\"" + filename + "\"");
 
-        servletResponse.getOutputStream().write(request.toAsicContainer().getBytes());
+        request.toAsicContainer().writeTo(servletResponse.getOutputStream());
     }
 
     @SneakyThrows
@@ -375,6 +339,42 @@ class AsicContainerClientRequestProcessor extends MessageProcessorBase {
         return RandomStringUtils.randomAlphanumeric(RANDOM_LENGTH);
     }
 
+    /**
+     * Writes ASiC containers as the entries of a ZIP response. The response is started with the first container,
+     * so that an error can still be returned if there are none.
+     */
+    private final class ContainerZipWriter implements Closeable {
+
+        private final String filename;
+
+        private ZipOutputStream zos;
+
+        ContainerZipWriter(String filename) {
+            this.filename = filename;
+        }
+
+        void write(String entryName, MessageRecord record) throws Exception {
+            if (zos == null) {
+                zos = startZipResponse(filename);
+            }
+
+            zos.putNextEntry(new ZipEntry(entryName));
+            record.toAsicContainer().writeTo(zos);
+            zos.closeEntry();
+        }
+
+        boolean isEmpty() {
+            return zos == null;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (zos != null) {
+                zos.close();
+            }
+        }
+    }
+
     private static class VerificationConfWriter implements FileConsumer, Closeable {
 
         private static final String PREFIX = "verificationconf/";
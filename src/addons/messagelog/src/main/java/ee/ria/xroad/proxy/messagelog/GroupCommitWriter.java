@@ -0,0 +1,233 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.proxy.messagelog;
+
+import ee.ria.xroad.common.CodedException;
+import ee.ria.xroad.common.messagelog.MessageRecord;
+import ee.ria.xroad.common.util.ProcessMetrics;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static ee.ria.xroad.common.ErrorCodes.X_INTERNAL_ERROR;
+
+/**
+ * Writes message records to the database in group commits. Records submitted concurrently are queued in a bounded
+ * queue, from which a single writer thread takes them in batches, saves each batch in one transaction and then
+ * completes the futures of the submitters. The submitters still learn about the outcome only after the commit, but
+ * the database commits (and fsyncs) once per batch instead of once per record.
+ */
+@Slf4j
+class GroupCommitWriter {
+
+    static final String QUEUE_DEPTH_METRIC = "messagelog.groupCommit.queueDepth";
+    static final String COMMIT_LATENCY_METRIC = "messagelog.groupCommit.commitLatency";
+    static final String BATCH_SIZE_METRIC = "messagelog.groupCommit.batchSize";
+
+    private static final long POLL_TIMEOUT_MS = 100;
+    private static final long JOIN_TIMEOUT_MS = 30000;
+
+    private final BlockingQueue<PendingRecord> queue;
+    private final int batchSize;
+    private final long maxLingerNanos;
+
+    private final Timer commitLatency;
+    private final Histogram batchSizes;
+
+    private final Thread writerThread;
+
+    // Guards accepting records against the final drain of the queue when the writer thread exits.
+    private final Object submitLock = new Object();
+
+    private volatile boolean running = true;
+
+    /**
+     * Creates the writer and starts the writer thread.
+     * @param queueSize maximum number of records waiting to be committed
+     * @param batchSize maximum number of records committed in one transaction
+     * @param maxLingerMillis maximum time to wait for more records before committing a partial batch
+     */
+    GroupCommitWriter(int queueSize, int batchSize, int maxLingerMillis) {
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.batchSize = batchSize;
+        this.maxLingerNanos = TimeUnit.MILLISECONDS.toNanos(maxLingerMillis);
+
+        MetricRegistry registry = ProcessMetrics.getRegistry();
+        registry.remove(QUEUE_DEPTH_METRIC);
+        registry.register(QUEUE_DEPTH_METRIC, (Gauge<Integer>) queue::size);
+
+        this.commitLatency = registry.timer(COMMIT_LATENCY_METRIC);
+        this.batchSizes = registry.histogram(BATCH_SIZE_METRIC);
+
+        this.writerThread = new Thread(this::run, "MessageLogGroupCommitWriter");
+        this.writerThread.start();
+    }
+
+    /**
+     * Queues the message record for saving.
+     * @param messageRecord the message record
+     * @return future that completes after the record has been committed
+     */
+    CompletableFuture<MessageRecord> submit(MessageRecord messageRecord) {
+        CompletableFuture<MessageRecord> future = new CompletableFuture<>();
+
+        synchronized (submitLock) {
+            if (!running) {
+                future.completeExceptionally(new CodedException(X_INTERNAL_ERROR,
+                        "Message log group commit writer is stopped"));
+            } else if (!queue.offer(new PendingRecord(messageRecord, future))) {
+                future.completeExceptionally(new CodedException(X_INTERNAL_ERROR,
+                        "Message log group commit queue is full"));
+            }
+        }
+
+        return future;
+    }
+
+    /**
+     * @return the number of records waiting to be committed
+     */
+    int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * Stops accepting new records, commits the queued ones and waits for the writer thread to finish.
+     * @throws InterruptedException if interrupted while waiting
+     */
+    void stop() throws InterruptedException {
+        running = false;
+
+        writerThread.join(JOIN_TIMEOUT_MS);
+    }
+
+    private void run() {
+        while (running || !queue.isEmpty()) {
+            try {
+                List<PendingRecord> batch = takeBatch();
+
+                if (!batch.isEmpty()) {
+                    commit(batch);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+
+                break;
+            }
+        }
+
+        // Records offered after the loop ended would never be committed, so they are failed here. Once
+        // running is cleared under the lock, no more records can be queued.
+        synchronized (submitLock) {
+            running = false;
+
+            failPending(new CodedException(X_INTERNAL_ERROR, "Message log group commit writer is stopped"));
+        }
+    }
+
+    private List<PendingRecord> takeBatch() throws InterruptedException {
+        List<PendingRecord> batch = new ArrayList<>(batchSize);
+
+        PendingRecord first = queue.poll(POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        if (first == null) {
+            return batch;
+        }
+
+        batch.add(first);
+
+        long deadline = System.nanoTime() + maxLingerNanos;
+
+        while (batch.size() < batchSize) {
+            queue.drainTo(batch, batchSize - batch.size());
+
+            long remaining = deadline - System.nanoTime();
+            if (batch.size() >= batchSize || remaining <= 0) {
+                break;
+            }
+
+            PendingRecord next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                break;
+            }
+
+            batch.add(next);
+        }
+
+        return batch;
+    }
+
+    private void commit(List<PendingRecord> batch) {
+        log.trace("commit({})", batch.size());
+
+        List<MessageRecord> records = new ArrayList<>(batch.size());
+        for (PendingRecord pending : batch) {
+            records.add(pending.messageRecord);
+        }
+
+        Timer.Context timerContext = commitLatency.time();
+
+        try {
+            LogRecordManager.saveMessageRecords(records);
+        } catch (Exception e) {
+            log.error("Failed to save {} message records", batch.size(), e);
+
+            for (PendingRecord pending : batch) {
+                pending.future.completeExceptionally(e);
+            }
+
+            return;
+        } finally {
+            timerContext.stop();
+            batchSizes.update(batch.size());
+        }
+
+        for (PendingRecord pending : batch) {
+            pending.future.complete(pending.messageRecord);
+        }
+    }
+
+    private void failPending(Exception cause) {
+        PendingRecord pending;
+
+        while ((pending = queue.poll()) != null) {
+            pending.future.completeExceptionally(cause);
+        }
+    }
+
+    @RequiredArgsConstructor
+    private static final class PendingRecord {
+        private final MessageRecord messageRecord;
+        private final CompletableFuture<MessageRecord> future;
+    }
+}
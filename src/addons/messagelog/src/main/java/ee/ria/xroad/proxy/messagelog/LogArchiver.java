@@ -31,6 +31,7 @@ import ee.ria.xroad.common.messagelog.TimestampRecord;
 import ee.ria.xroad.common.messagelog.archive.DigestEntry;
 import ee.ria.xroad.common.messagelog.archive.LogArchiveBase;
 import ee.ria.xroad.common.messagelog.archive.LogArchiveWriter;
+import ee.ria.xroad.common.util.ProcessMetrics;
 
 import akka.actor.UntypedActor;
 import lombok.Getter;
@@ -39,9 +40,7 @@ import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.io.output.NullOutputStream;
-import org.hibernate.Criteria;
 import org.hibernate.Session;
-import org.hibernate.criterion.Order;
 import org.hibernate.criterion.Projections;
 import org.hibernate.criterion.Restrictions;
 
@@ -52,6 +51,10 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static ee.ria.xroad.common.messagelog.MessageLogProperties.getArchiveTransferCommand;
 import static ee.ria.xroad.proxy.messagelog.MessageLogDatabaseCtx.doInTransaction;
@@ -61,19 +64,42 @@ import static org.apache.commons.lang3.StringUtils.isBlank;
 /**
  * Reads all non-archived time-stamped records from the database, writes them
  * to archive file and marks the records as archived.
+ *
+ * Time-stamp records are processed in pages ordered by id. Message records of
+ * a page are read in keyset-ordered pages, their ASiC containers are built on
+ * a worker pool and written to the archive in message record id order, so the
+ * hash linking order does not depend on the number of workers. Each written
+ * page of messages is marked archived, and the time-stamps of a page once all
+ * of their messages have been written. The bulk updates are restricted to the
+ * ids of the records that were actually selected and written, the id lists
+ * are bounded by the page sizes.
  */
 @Slf4j
 @RequiredArgsConstructor
 public class LogArchiver extends UntypedActor {
 
-    private static final int MAX_RECORDS_IN_ARCHIVE = 10;
-    private static final int MAX_RECORDS_IN_PATCHS = 360;
+    private static final int TIMESTAMP_PAGE_SIZE = 360;
+    private static final int MESSAGE_PAGE_SIZE = 1000;
+
+    static final String ARCHIVED_RECORDS_METRIC = "messagelog.archive.records";
 
     public static final String START_ARCHIVING = "doArchive";
 
     private final Path archivePath;
-    private final Path workingPath;
-    private boolean safeTransactionBatch;
+
+    private ExecutorService containerBuilders;
+
+    @Override
+    public void preStart() throws Exception {
+        containerBuilders = Executors.newFixedThreadPool(MessageLogProperties.getArchiveWorkerCount());
+    }
+
+    @Override
+    public void postStop() throws Exception {
+        if (containerBuilders != null) {
+            containerBuilders.shutdownNow();
+        }
+    }
 
     @Override
     public void onReceive(Object message) throws Exception {
@@ -95,8 +121,8 @@ public class LogArchiver extends UntypedActor {
 
     private boolean handleArchive(long maxTimestampId) throws Exception {
         return doInTransaction(session -> {
-            List<LogRecord> records = getRecordsToBeArchived(session, maxTimestampId);
-            if (records == null || records.isEmpty()) {
+            List<Long> timestampIds = getNonArchivedTimestampRecordIds(session, TIMESTAMP_PAGE_SIZE, maxTimestampId);
+            if (timestampIds.isEmpty()) {
                 log.info("No records to be archived at this time");
                 return false;
             }
@@ -107,47 +133,102 @@ public class LogArchiver extends UntypedActor {
             int recordsArchived = 0;
 
             try (LogArchiveWriter archiveWriter = createLogArchiveWriter(session)) {
-                while (!records.isEmpty()) {
-                    archive(archiveWriter, records);
+                while (!timestampIds.isEmpty()) {
+                    recordsArchived += archive(session, archiveWriter, timestampIds);
                     runTransferCommand(getArchiveTransferCommand());
-                    recordsArchived += records.size();
 
-                    //flush changes (records marked as archived) and free memory
-                    //used up by cached records retrieved previously in the session
-                    session.flush();
-                    session.clear();
-
-                    if (safeTransactionBatch
-                            && recordsArchived >= MessageLogProperties.getArchiveTransactionBatchSize()) {
-                        log.info("Archived {} log records in {} ms", recordsArchived,
-                                System.currentTimeMillis() - start);
+                    if (recordsArchived >= MessageLogProperties.getArchiveTransactionBatchSize()) {
+                        logArchived(recordsArchived, start);
                         return true;
                     }
 
-                    records = getRecordsToBeArchived(session, maxTimestampId);
+                    timestampIds = getNonArchivedTimestampRecordIds(session, TIMESTAMP_PAGE_SIZE, maxTimestampId);
                 }
             } catch (Exception e) {
                 throw new CodedException(ErrorCodes.X_INTERNAL_ERROR, e);
             }
 
-            log.info("Archived {} log records in {} ms", recordsArchived,
-                    System.currentTimeMillis() - start);
+            logArchived(recordsArchived, start);
 
             return false;
         });
     }
 
-    private void archive(LogArchiveWriter archiveWriter,
-            List<LogRecord> records) throws Exception {
-        for (LogRecord record : records) {
-            archiveWriter.write(record);
+    private static void logArchived(int recordsArchived, long start) {
+        long duration = Math.max(System.currentTimeMillis() - start, 1);
+
+        log.info("Archived {} log records in {} ms ({} records/s)", recordsArchived, duration,
+                recordsArchived * TimeUnit.SECONDS.toMillis(1) / duration);
+    }
+
+    /**
+     * Archives the message records of the given time-stamp records and marks all of them archived.
+     * @return the number of records archived
+     */
+    private int archive(Session session, LogArchiveWriter archiveWriter, List<Long> timestampIds)
+            throws Exception {
+        int archived = 0;
+        long lastMessageId = 0;
+
+        List<MessageRecord> messages = getNonArchivedMessageRecords(session, timestampIds, lastMessageId,
+                MESSAGE_PAGE_SIZE);
+
+        while (!messages.isEmpty()) {
+            lastMessageId = messages.get(messages.size() - 1).getId();
+
+            write(archiveWriter, messages);
+
+            // Only the records actually written are marked, ids are allocated before commit so a range
+            // could cover records of transactions that committed after the records were selected
+            archived += markMessageRecordsArchived(session, getIds(messages));
+
+            // flush changes (digest entries of rotated archives) and free memory
+            // used up by the records retrieved previously in the session
+            session.flush();
+            session.clear();
+
+            messages = getNonArchivedMessageRecords(session, timestampIds, lastMessageId, MESSAGE_PAGE_SIZE);
+        }
+
+        archived += markTimestampRecordsArchived(session, timestampIds);
+
+        log.debug("Archived {} log records of {} time-stamps #{}..#{}", archived, timestampIds.size(),
+                timestampIds.get(0), timestampIds.get(timestampIds.size() - 1));
+
+        ProcessMetrics.getRegistry().meter(ARCHIVED_RECORDS_METRIC).mark(archived);
+
+        return archived;
+    }
+
+    private static List<Long> getIds(List<MessageRecord> messages) {
+        List<Long> ids = new ArrayList<>(messages.size());
+
+        for (MessageRecord message : messages) {
+            ids.add(message.getId());
+        }
+
+        return ids;
+    }
+
+    private void write(LogArchiveWriter archiveWriter, List<MessageRecord> messages) throws Exception {
+        List<Future<byte[]>> containers = new ArrayList<>(messages.size());
+
+        for (MessageRecord message : messages) {
+            containers.add(containerBuilders.submit(() -> message.toAsicContainer().getBytes()));
+        }
+
+        try {
+            for (int i = 0; i < messages.size(); i++) {
+                archiveWriter.write(messages.get(i), containers.get(i).get());
+            }
+        } finally {
+            containers.forEach(container -> container.cancel(true));
         }
     }
 
     private LogArchiveWriter createLogArchiveWriter(Session session) {
         return new LogArchiveWriter(
             getArchivePath(),
-            getWorkingPath(),
             this.new HibernateLogArchiveBase(session)
         );
     }
@@ -166,57 +247,15 @@ public class LogArchiver extends UntypedActor {
         return archivePath;
     }
 
-    private Path getWorkingPath() {
-        if (!Files.isDirectory(workingPath)) {
-            throw new RuntimeException(
-                    "Log working path (" + workingPath + ") must be directory");
-        }
-
-        if (!Files.isWritable(workingPath)) {
-            throw new RuntimeException(
-                    "Log working path (" + workingPath + ") must be writable");
-        }
-
-        return workingPath;
-    }
-
-    protected List<LogRecord> getRecordsToBeArchived(Session session, long maxTimestampId) {
-        List<LogRecord> recordsToArchive = new ArrayList<>();
-        safeTransactionBatch = false;
-        int allowedInArchiveCount = MAX_RECORDS_IN_ARCHIVE;
-        for (TimestampRecord ts : getNonArchivedTimestampRecords(session, MAX_RECORDS_IN_PATCHS, maxTimestampId)) {
-            List<MessageRecord> messages =
-                    getNonArchivedMessageRecords(session, ts.getId(),
-                            allowedInArchiveCount);
-            if (allTimestampMessagesArchived(session, ts.getId())) {
-                log.trace("Timestamp record #{} will be archived",
-                        ts.getId());
-                recordsToArchive.add(ts);
-                safeTransactionBatch = true;
-            } else {
-                log.trace("Timestamp record #{} still related to"
-                                + " non-archived message records",
-                        ts.getId());
-            }
-
-            recordsToArchive.addAll(messages);
-            allowedInArchiveCount -= messages.size();
-            if (safeTransactionBatch || allowedInArchiveCount <= 0) {
-                break;
-            }
-        }
-        return recordsToArchive;
-    }
-
     @SuppressWarnings("unchecked")
-    protected List<TimestampRecord> getNonArchivedTimestampRecords(
+    protected List<Long> getNonArchivedTimestampRecordIds(
             Session session, int maxRecordsToGet, long maxTimestampId) {
-        Criteria criteria = session.createCriteria(TimestampRecord.class);
-        criteria.add(Restrictions.eq("archived", false));
-        criteria.add(Restrictions.le("id", maxTimestampId));
-        criteria.setMaxResults(maxRecordsToGet);
-        criteria.addOrder(Order.asc("id"));
-        return criteria.list();
+        return session
+                .createQuery("select t.id from TimestampRecord t where t.archived = false"
+                        + " and t.id <= :maxTimestampId order by t.id")
+                .setParameter("maxTimestampId", maxTimestampId)
+                .setMaxResults(maxRecordsToGet)
+                .list();
     }
 
     @SuppressWarnings("unchecked")
@@ -230,26 +269,33 @@ public class LogArchiver extends UntypedActor {
 
     @SuppressWarnings("unchecked")
     protected List<MessageRecord> getNonArchivedMessageRecords(Session session,
-            Long timestampRecordNumber, int maxRecordsToGet) {
+            List<Long> timestampIds, long afterMessageId, int maxRecordsToGet) {
         return session
-                .createCriteria(MessageRecord.class)
-                .add(Restrictions.eq("archived", false))
-                .add(Restrictions.eq("timestampRecord.id",
-                        timestampRecordNumber))
+                .createQuery("select m from MessageRecord m join fetch m.timestampRecord"
+                        + " where m.archived = false"
+                        + " and m.timestampRecord.id in (:timestampIds)"
+                        + " and m.id > :afterMessageId order by m.id")
+                .setParameterList("timestampIds", timestampIds)
+                .setParameter("afterMessageId", afterMessageId)
+                .setReadOnly(true)
                 .setMaxResults(maxRecordsToGet)
                 .list();
     }
 
-    protected boolean allTimestampMessagesArchived(Session session,
-            Long timestampRecordNumber) {
-        Long result = (Long) session
-                .createCriteria(MessageRecord.class)
-                .add(Restrictions.eq("archived", false))
-                .add(Restrictions.eq("timestampRecord.id",
-                        timestampRecordNumber))
-                .setProjection(Projections.rowCount())
-                .uniqueResult();
-        return result == 0;
+    protected int markMessageRecordsArchived(Session session, List<Long> messageIds) {
+        return session
+                .createQuery("update MessageRecord m set m.archived = true"
+                        + " where m.id in (:messageIds) and m.archived = false")
+                .setParameterList("messageIds", messageIds)
+                .executeUpdate();
+    }
+
+    protected int markTimestampRecordsArchived(Session session, List<Long> timestampIds) {
+        return session
+                .createQuery("update TimestampRecord t set t.archived = true"
+                        + " where t.id in (:timestampIds) and t.archived = false")
+                .setParameterList("timestampIds", timestampIds)
+                .executeUpdate();
     }
 
     protected void markArchiveCreated(final DigestEntry lastArchive,
@@ -323,11 +369,8 @@ public class LogArchiver extends UntypedActor {
 
         @Override
         public void markRecordArchived(LogRecord logRecord) throws Exception {
-            log.trace("Setting {} #{} archived",
-                    logRecord.getClass().getName(), logRecord.getId());
-
-            logRecord.setArchived(true);
-            session.saveOrUpdate(logRecord);
+            // Records are marked archived in bulk once all the records of
+            // the time-stamp page have been written to the archive.
         }
 
         @Override
@@ -22,11 +22,11 @@
  */
 package ee.ria.xroad.proxy.messagelog;
 
+import ee.ria.xroad.common.db.ChunkedDelete;
 import ee.ria.xroad.common.messagelog.MessageLogProperties;
 
 import akka.actor.UntypedActor;
 import lombok.extern.slf4j.Slf4j;
-import org.hibernate.Session;
 import org.joda.time.DateTime;
 
 import static ee.ria.xroad.proxy.messagelog.MessageLogDatabaseCtx.doInTransaction;
@@ -34,7 +34,9 @@ import static ee.ria.xroad.proxy.messagelog.MessageLogDatabaseCtx.doInTransactio
 
 
 /**
- * Deletes all archived log records from the database.
+ * Deletes all archived log records from the database. If a clean chunk size
+ * is configured, the records are deleted in chunks of bounded id ranges,
+ * each committed in a transaction of its own.
  */
 @Slf4j
 public class LogCleaner extends UntypedActor {
@@ -47,10 +49,7 @@ public class LogCleaner extends UntypedActor {
 
         if (message.equals(START_CLEANING)) {
             try {
-                doInTransaction(session -> {
-                    handleClean(session);
-                    return null;
-                });
+                handleClean();
             } catch (Exception e) {
                 log.error("Failed to clean archived records from database", e);
             }
@@ -59,13 +58,23 @@ public class LogCleaner extends UntypedActor {
         }
     }
 
-    protected void handleClean(Session session) {
+    protected void handleClean() throws Exception {
         DateTime date = new DateTime();
         date = date.minusDays(MessageLogProperties.getKeepRecordsForDays());
 
-        String hql = "delete AbstractLogRecord r where r.archived = true and "
-                + "r.time <= " + date.getMillis();
-        int removed = session.createQuery(hql).executeUpdate();
+        String condition = "r.archived = true and r.time <= " + date.getMillis();
+        int chunkSize = MessageLogProperties.getCleanChunkSize();
+
+        int removed;
+
+        if (chunkSize > 0) {
+            removed = new ChunkedDelete(MessageLogDatabaseCtx.get(), "AbstractLogRecord", condition)
+                    .execute(chunkSize, MessageLogProperties.getCleanChunkPause());
+        } else {
+            String hql = "delete AbstractLogRecord r where " + condition;
+            removed = doInTransaction(session -> session.createQuery(hql).executeUpdate());
+        }
+
         if (removed == 0) {
             log.info("No archived records to remove from database");
         } else {
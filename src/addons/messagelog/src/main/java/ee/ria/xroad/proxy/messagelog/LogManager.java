@@ -27,11 +27,11 @@ import ee.ria.xroad.common.CommonMessages;
 import ee.ria.xroad.common.DiagnosticsErrorCodes;
 import ee.ria.xroad.common.DiagnosticsStatus;
 import ee.ria.xroad.common.DiagnosticsUtils;
-import ee.ria.xroad.common.SystemProperties;
 import ee.ria.xroad.common.conf.globalconf.GlobalConf;
 import ee.ria.xroad.common.conf.serverconf.ServerConf;
 import ee.ria.xroad.common.message.SoapMessageImpl;
 import ee.ria.xroad.common.messagelog.AbstractLogManager;
+import ee.ria.xroad.common.messagelog.LogMessage;
 import ee.ria.xroad.common.messagelog.LogRecord;
 import ee.ria.xroad.common.messagelog.MessageLogProperties;
 import ee.ria.xroad.common.messagelog.MessageRecord;
@@ -94,9 +94,17 @@ public class LogManager extends AbstractLogManager {
 
     private ActorRef timestamper;
 
+    // Writes message records in group commits, null if group commit is disabled
+    private GroupCommitWriter groupCommitWriter;
+
     LogManager(JobManager jobManager) throws Exception {
         super(jobManager);
 
+        if (MessageLogProperties.isGroupCommitEnabled()) {
+            groupCommitWriter = new GroupCommitWriter(MessageLogProperties.getGroupCommitQueueSize(),
+                    MessageLogProperties.getGroupCommitBatchSize(), MessageLogProperties.getGroupCommitMaxLinger());
+        }
+
         createTaskQueue();
 
         createTimestamper();
@@ -188,6 +196,8 @@ public class LogManager extends AbstractLogManager {
                 getSender().tell(statusMap, getSelf());
             } else if (message instanceof SetTimestampingStatusMessage) {
                 setTimestampingStatus((SetTimestampingStatusMessage) message);
+            } else if (message instanceof LogMessage && groupCommitWriter != null && !shouldTimestampImmediately()) {
+                logInGroupCommit((LogMessage) message);
             } else {
                 super.onReceive(message);
             }
@@ -196,6 +206,37 @@ public class LogManager extends AbstractLogManager {
         }
     }
 
+    @Override
+    public void postStop() throws Exception {
+        if (groupCommitWriter != null) {
+            groupCommitWriter.stop();
+        }
+
+        super.postStop();
+    }
+
+    /**
+     * Hands the message record over to the group commit writer and replies to the sender once the record has been
+     * committed, so that the actor can process further log messages while the batch is being collected.
+     */
+    private void logInGroupCommit(LogMessage message) throws Exception {
+        verifyCanLogMessage(false);
+
+        MessageRecord messageRecord = createMessageRecord(message.getMessage(), message.getSignature(),
+                message.isClientSide());
+
+        ActorRef sender = getSender();
+        ActorRef self = getSelf();
+
+        groupCommitWriter.submit(messageRecord).whenComplete((record, error) -> {
+            if (error == null) {
+                sender.tell(new Object(), self);
+            } else {
+                sender.tell(error instanceof Exception ? error : new RuntimeException(error), self);
+            }
+        });
+    }
+
     // ------------------------------------------------------------------------
 
     protected Props getTaskQueueImpl() {
@@ -207,8 +248,7 @@ public class LogManager extends AbstractLogManager {
     }
 
     protected Props getArchiverImpl() {
-        return Props.create(LogArchiver.class, Paths.get(MessageLogProperties.getArchivePath()),
-                Paths.get(SystemProperties.getTempFilesPath()));
+        return Props.create(LogArchiver.class, Paths.get(MessageLogProperties.getArchivePath()));
     }
 
     protected Props getCleanerImpl() {
@@ -32,6 +32,9 @@ import ee.ria.xroad.common.messagelog.TimestampRecord;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 import org.hibernate.Criteria;
+import org.hibernate.Query;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.hibernate.Session;
 import org.hibernate.criterion.Restrictions;
 
@@ -56,6 +59,15 @@ public final class LogRecordManager {
     private static final String UPDATE_LOG_RECORD_STATEMENT = "UPDATE logrecord SET timestamprecord = ?, "
             + "timestamphashchain = ?, signaturehash = NULL WHERE id = ? AND timestamprecord IS NULL";
 
+    // Reads only the fields that make up the ASiC container of a time-stamped message record.
+    private static final String TIMESTAMPED_RECORDS_QUERY = "select m.message, m.signature, m.hashChain, "
+            + "m.hashChainResult, m.timestampHashChain, t.timestamp, t.hashChainResult "
+            + "from MessageRecord m join m.timestampRecord t "
+            + "where m.queryId = :queryId and m.memberClass = :memberClass and m.memberCode = :memberCode "
+            + "and %s and m.response = :response order by m.id";
+
+    private static final int TIMESTAMPED_RECORDS_FETCH_SIZE = 10;
+
     private static final int INDEX_1 = 1;
     private static final int INDEX_2 = 2;
     private static final int INDEX_3 = 3;
@@ -108,6 +120,43 @@ public final class LogRecordManager {
         return doInTransaction(session -> getMessageRecords(session, queryId, clientId, isResponse));
     }
 
+    /**
+     * Passes the time-stamped message records for a given message Query Id and sender Client Id to the consumer one
+     * at a time, in the order they were logged. Only the fields needed for the ASiC containers of the records are
+     * read from the database, and the records are not kept in memory.
+     * @param queryId the message query id.
+     * @param clientId the sender client id.
+     * @param isResponse whether the response records should be retrieved.
+     * @param consumer the consumer of the records.
+     * @return the number of records passed to the consumer.
+     * @throws Exception if an error occurs while communicating with database or in the consumer.
+     */
+    public static int forEachTimestampedByQueryId(String queryId, ClientId clientId, boolean isResponse,
+            MessageRecordConsumer consumer) throws Exception {
+        log.trace("forEachTimestampedByQueryId({}, {}, {})", queryId, clientId, isResponse);
+
+        return doInTransaction(session -> forEachTimestampedRecord(session, queryId, clientId, isResponse,
+                consumer));
+    }
+
+    /**
+     * Returns the message records for a given message Query Id and sender Client Id that have not been time-stamped.
+     * @param queryId the message query id.
+     * @param clientId the sender client id.
+     * @param isResponse whether the response records should be retrieved.
+     * @return the log record list or empty list, if all the records have been time-stamped.
+     * @throws Exception if an error occurs while communicating with database.
+     */
+    @SuppressWarnings("unchecked")
+    public static List<MessageRecord> getNotTimestampedByQueryId(String queryId, ClientId clientId,
+            boolean isResponse) throws Exception {
+        log.trace("getNotTimestampedByQueryId({}, {}, {})", queryId, clientId, isResponse);
+
+        return doInTransaction(session -> createRecordCriteria(session, queryId, clientId, isResponse)
+                .add(Restrictions.isNull("timestampRecord"))
+                .list());
+    }
+
     /**
      * Returns a log record for a given log record number.
      * @param number the log record number.
@@ -133,6 +182,21 @@ public final class LogRecordManager {
         });
     }
 
+    /**
+     * Saves the message records to database in a single transaction.
+     * @param messageRecords the message records to be saved.
+     * @throws Exception if an error occurs while communicating with database.
+     */
+    static void saveMessageRecords(List<MessageRecord> messageRecords) throws Exception {
+        doInTransaction(session -> {
+            for (MessageRecord messageRecord : messageRecords) {
+                save(session, messageRecord);
+            }
+
+            return null;
+        });
+    }
+
     /**
      * Saves the message record in the database.
      * @param messageRecord the message record to be updated.
@@ -276,6 +340,61 @@ public final class LogRecordManager {
         return criteria;
     }
 
+    @SneakyThrows
+    private static int forEachTimestampedRecord(Session session, String queryId, ClientId clientId,
+            boolean isResponse, MessageRecordConsumer consumer) {
+        String subsystemCode = clientId.getSubsystemCode();
+        Query query = session.createQuery(String.format(TIMESTAMPED_RECORDS_QUERY, subsystemCode == null
+                ? "m.subsystemCode is null" : "m.subsystemCode = :subsystemCode"));
+
+        query.setString("queryId", queryId);
+        query.setString("memberClass", clientId.getMemberClass());
+        query.setString("memberCode", clientId.getMemberCode());
+        query.setBoolean("response", isResponse);
+
+        if (subsystemCode != null) {
+            query.setString("subsystemCode", subsystemCode);
+        }
+
+        query.setReadOnly(true);
+        query.setFetchSize(TIMESTAMPED_RECORDS_FETCH_SIZE);
+
+        ScrollableResults results = query.scroll(ScrollMode.FORWARD_ONLY);
+        int count = 0;
+
+        try {
+            while (results.next()) {
+                consumer.accept(toTimestampedRecord(results.get(), queryId, clientId, isResponse));
+                count++;
+            }
+        } finally {
+            results.close();
+        }
+
+        return count;
+    }
+
+    private static MessageRecord toTimestampedRecord(Object[] row, String queryId, ClientId clientId,
+            boolean isResponse) {
+        // the columns in the order of TIMESTAMPED_RECORDS_QUERY
+        int column = 0;
+
+        String message = (String) row[column++];
+        String signature = (String) row[column++];
+
+        MessageRecord messageRecord = new MessageRecord(queryId, message, signature, isResponse, clientId);
+        messageRecord.setHashChain((String) row[column++]);
+        messageRecord.setHashChainResult((String) row[column++]);
+        messageRecord.setTimestampHashChain((String) row[column++]);
+
+        TimestampRecord timestampRecord = new TimestampRecord();
+        timestampRecord.setTimestamp((String) row[column++]);
+        timestampRecord.setHashChainResult((String) row[column]);
+        messageRecord.setTimestampRecord(timestampRecord);
+
+        return messageRecord;
+    }
+
     private static int getConfiguredBatchSize(Session session) {
         if (configuredBatchSize == 0) {
             configuredBatchSize = HibernateUtil.getConfiguredBatchSize(session, DEFAULT_BATCH_SIZE);
@@ -283,4 +402,16 @@ public final class LogRecordManager {
 
         return configuredBatchSize;
     }
+
+    /**
+     * Consumer of message records read from the database.
+     */
+    @FunctionalInterface
+    public interface MessageRecordConsumer {
+        /**
+         * @param messageRecord the message record.
+         * @throws Exception in case of any errors.
+         */
+        void accept(MessageRecord messageRecord) throws Exception;
+    }
 }
@@ -0,0 +1,210 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.proxy.messagelog;
+
+import ee.ria.xroad.common.identifier.ClientId;
+import ee.ria.xroad.common.messagelog.MessageRecord;
+import ee.ria.xroad.common.messagelog.TimestampRecord;
+import ee.ria.xroad.common.util.CryptoUtils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
+
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static ee.ria.xroad.proxy.messagelog.MessageLogDatabaseCtx.doInTransaction;
+
+/**
+ * Measures the time spent and the bytes allocated per ASiC container retrieval of a query from a message log
+ * that also holds a large number of records of other queries, before and after creating the query ID index.
+ * The records are retrieved once as a list of message records whose containers are serialized into byte arrays,
+ * like the ASiC retrieval used to do, and once by streaming the containers straight into the ZIP output.
+ *
+ * Usage: gradle runAsicRetrievalBenchmark -Pargs="[rows] [seconds]"
+ */
+@Slf4j
+public final class AsicRetrievalBenchmark {
+
+    private static final int DEFAULT_ROWS = 200_000;
+    private static final int DEFAULT_SECONDS = 5;
+    private static final int WARMUP_SECONDS = 2;
+
+    private static final int RECORDS_PER_QUERY = 20;
+    private static final int BATCH_SIZE = 1000;
+
+    private static final String QUERY_ID = "benchmark-query";
+    private static final ClientId CLIENT_ID = ClientId.create("EE", "BUSINESS", "consumer", "subsystem");
+
+    private static final String INSERT_RECORD = "INSERT INTO LOGRECORD (DISCRIMINATOR, TIME, ARCHIVED, QUERYID, "
+            + "MESSAGE, SIGNATURE, MEMBERCLASS, MEMBERCODE, SUBSYSTEMCODE, RESPONSE) "
+            + "VALUES ('m', ?, FALSE, ?, 'message', 'signature', ?, ?, ?, FALSE)";
+
+    private static final String CREATE_INDEX = "CREATE INDEX IX_QUERYID_CLIENT_LOGRECORD ON LOGRECORD "
+            + "(QUERYID, MEMBERCLASS, MEMBERCODE, SUBSYSTEMCODE, RESPONSE)";
+
+    private AsicRetrievalBenchmark() {
+    }
+
+    /**
+     * Main function.
+     * @param args optional number of other records in the message log and measurement time per case
+     * @throws Exception if an error occurs
+     */
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ROWS;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_SECONDS;
+
+        TestUtil.initForTest();
+        TestUtil.cleanUpDatabase();
+
+        try {
+            seed(rows);
+
+            run("list, no index", AsicRetrievalBenchmark::retrieveAsList, seconds);
+            run("stream, no index", AsicRetrievalBenchmark::retrieveAsStream, seconds);
+
+            doInTransaction(session -> session.createSQLQuery(CREATE_INDEX).executeUpdate());
+
+            run("list, index", AsicRetrievalBenchmark::retrieveAsList, seconds);
+            run("stream, index", AsicRetrievalBenchmark::retrieveAsStream, seconds);
+        } finally {
+            TestUtil.cleanUpDatabase();
+        }
+    }
+
+    private static void seed(int rows) throws Exception {
+        String message = TestUtil.createMessage(QUERY_ID).getXml();
+        String signature = TestUtil.createSignature().getSignatureXml();
+        String timestamp;
+
+        try (InputStream in = new FileInputStream("src/test/resources/tsp.response")) {
+            timestamp = CryptoUtils.encodeBase64(IOUtils.toByteArray(in));
+        }
+
+        doInTransaction(session -> {
+            session.doWork(connection -> {
+                try (PreparedStatement statement = connection.prepareStatement(INSERT_RECORD)) {
+                    for (int i = 0; i < rows; i++) {
+                        statement.setLong(1, System.currentTimeMillis());
+                        statement.setString(2, "query-" + i);
+                        statement.setString(3, CLIENT_ID.getMemberClass());
+                        statement.setString(4, CLIENT_ID.getMemberCode());
+                        statement.setString(5, CLIENT_ID.getSubsystemCode());
+                        statement.addBatch();
+
+                        if ((i + 1) % BATCH_SIZE == 0 || i == rows - 1) {
+                            statement.executeBatch();
+                        }
+                    }
+                }
+            });
+
+            for (int i = 0; i < RECORDS_PER_QUERY; i++) {
+                TimestampRecord timestampRecord = new TimestampRecord();
+                timestampRecord.setTime(System.currentTimeMillis());
+                timestampRecord.setTimestamp(timestamp);
+                session.save(timestampRecord);
+
+                MessageRecord messageRecord = new MessageRecord(QUERY_ID, message, signature, false, CLIENT_ID);
+                messageRecord.setTime(System.currentTimeMillis());
+                messageRecord.setTimestampRecord(timestampRecord);
+                session.save(messageRecord);
+            }
+
+            return null;
+        });
+
+        log.info("Seeded {} other records and {} records of the retrieved query", rows, RECORDS_PER_QUERY);
+    }
+
+    private static int retrieveAsList(ZipOutputStream zos) throws Exception {
+        int count = 0;
+
+        for (MessageRecord record : LogRecordManager.getByQueryId(QUERY_ID, CLIENT_ID, false)) {
+            zos.putNextEntry(new ZipEntry("message-" + count++ + ".asice"));
+            zos.write(record.toAsicContainer().getBytes());
+            zos.closeEntry();
+        }
+
+        return count;
+    }
+
+    private static int retrieveAsStream(ZipOutputStream zos) throws Exception {
+        int[] count = new int[1];
+
+        LogRecordManager.forEachTimestampedByQueryId(QUERY_ID, CLIENT_ID, false, record -> {
+            zos.putNextEntry(new ZipEntry("message-" + count[0]++ + ".asice"));
+            record.toAsicContainer().writeTo(zos);
+            zos.closeEntry();
+        });
+
+        return count[0];
+    }
+
+    private static void run(String name, Retrieval retrieval, int seconds) throws Exception {
+        measure(retrieval, WARMUP_SECONDS);
+
+        long[] result = measure(retrieval, seconds);
+        long ops = Math.max(result[0], 1);
+
+        log.info("{}: {} retrievals/s, {} us per retrieval, {} bytes allocated per retrieval", name,
+                ops / seconds, TimeUnit.SECONDS.toMicros(seconds) / ops, result[1] / ops);
+    }
+
+    private static long[] measure(Retrieval retrieval, int seconds) throws Exception {
+        com.sun.management.ThreadMXBean threadBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        long ops = 0;
+
+        long allocatedBefore = threadBean.getThreadAllocatedBytes(threadId);
+
+        while (System.nanoTime() < end) {
+            try (ZipOutputStream zos = new ZipOutputStream(new NullOutputStream(), StandardCharsets.UTF_8)) {
+                int count = retrieval.retrieve(zos);
+
+                if (count != RECORDS_PER_QUERY) {
+                    throw new IllegalStateException("Unexpected number of containers: " + count);
+                }
+            }
+
+            ops++;
+        }
+
+        return new long[] {ops, threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore};
+    }
+
+    @FunctionalInterface
+    private interface Retrieval {
+        int retrieve(ZipOutputStream zos) throws Exception;
+    }
+}
@@ -0,0 +1,171 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.proxy.messagelog;
+
+import ee.ria.xroad.common.CodedException;
+import ee.ria.xroad.common.identifier.ClientId;
+import ee.ria.xroad.common.messagelog.MessageRecord;
+import ee.ria.xroad.common.util.ProcessMetrics;
+
+import com.codahale.metrics.Histogram;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static ee.ria.xroad.proxy.messagelog.TestUtil.assertTaskQueueSize;
+import static ee.ria.xroad.proxy.messagelog.TestUtil.cleanUpDatabase;
+import static ee.ria.xroad.proxy.messagelog.TestUtil.createMessage;
+import static ee.ria.xroad.proxy.messagelog.TestUtil.initForTest;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests group commit of message records.
+ */
+public class GroupCommitWriterTest {
+
+    private static final int BATCH_SIZE = 10;
+    private static final int RECORD_COUNT = 55;
+
+    private GroupCommitWriter writer;
+
+    /**
+     * Sets up the database.
+     */
+    @Before
+    public void setUp() {
+        initForTest();
+
+        ProcessMetrics.getRegistry().remove(GroupCommitWriter.BATCH_SIZE_METRIC);
+
+        writer = new GroupCommitWriter(1000, BATCH_SIZE, 50);
+    }
+
+    /**
+     * Stops the writer and cleans up the database.
+     * @throws Exception in case of any unexpected errors
+     */
+    @After
+    public void tearDown() throws Exception {
+        writer.stop();
+
+        cleanUpDatabase();
+    }
+
+    /**
+     * Test that all submitted records are committed in batches no larger than the batch size.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void commitsSubmittedRecordsInBatches() throws Exception {
+        List<CompletableFuture<MessageRecord>> futures = new ArrayList<>();
+
+        for (int i = 0; i < RECORD_COUNT; i++) {
+            futures.add(writer.submit(createMessageRecord("query" + i)));
+        }
+
+        for (CompletableFuture<MessageRecord> future : futures) {
+            MessageRecord record = future.get(10, TimeUnit.SECONDS);
+
+            assertNotNull(record.getId());
+        }
+
+        assertEquals(0, writer.getQueueDepth());
+        assertTaskQueueSize(RECORD_COUNT);
+
+        Histogram batchSizes = ProcessMetrics.getRegistry().histogram(GroupCommitWriter.BATCH_SIZE_METRIC);
+        assertTrue(batchSizes.getCount() >= RECORD_COUNT / BATCH_SIZE);
+        assertTrue(batchSizes.getSnapshot().getMax() <= BATCH_SIZE);
+    }
+
+    /**
+     * Test that records submitted after the writer has been stopped are rejected.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void rejectsRecordsAfterStop() throws Exception {
+        writer.stop();
+
+        try {
+            writer.submit(createMessageRecord("query")).get(10, TimeUnit.SECONDS);
+
+            fail("Expected submit to fail after stop");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof CodedException);
+        }
+    }
+
+    /**
+     * Test that records submitted concurrently with stopping the writer are either committed or rejected, but
+     * never left pending.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void completesRecordsSubmittedDuringStop() throws Exception {
+        List<CompletableFuture<MessageRecord>> futures = Collections.synchronizedList(new ArrayList<>());
+        ClientId client = createMessage().getClient();
+        CountDownLatch submitting = new CountDownLatch(1);
+
+        Thread submitter = new Thread(() -> {
+            for (int i = 0; i < RECORD_COUNT * 10; i++) {
+                MessageRecord record = new MessageRecord("query" + i, "message", "signature", false, client);
+                record.setTime(System.currentTimeMillis());
+                record.setSignatureHash("hash-" + i);
+
+                futures.add(writer.submit(record));
+                submitting.countDown();
+            }
+        });
+
+        submitter.start();
+        submitting.await(10, TimeUnit.SECONDS);
+
+        writer.stop();
+        submitter.join(TimeUnit.SECONDS.toMillis(30));
+
+        synchronized (futures) {
+            for (CompletableFuture<MessageRecord> future : futures) {
+                assertTrue(future.isDone());
+            }
+        }
+    }
+
+    private static MessageRecord createMessageRecord(String queryId) throws Exception {
+        MessageRecord record = new MessageRecord(queryId, "message", "signature", false,
+                createMessage().getClient());
+        record.setTime(System.currentTimeMillis());
+        record.setSignatureHash("hash-" + queryId);
+
+        return record;
+    }
+}
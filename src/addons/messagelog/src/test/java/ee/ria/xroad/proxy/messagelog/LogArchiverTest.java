@@ -0,0 +1,213 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.proxy.messagelog;
+
+import ee.ria.xroad.common.identifier.ClientId;
+import ee.ria.xroad.common.messagelog.MessageRecord;
+import ee.ria.xroad.common.messagelog.TimestampRecord;
+import ee.ria.xroad.common.util.CryptoUtils;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import akka.testkit.TestActorRef;
+import com.typesafe.config.ConfigFactory;
+import org.apache.commons.io.FileUtils;
+import org.hibernate.Session;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import scala.concurrent.Await;
+import scala.concurrent.duration.Duration;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static ee.ria.xroad.proxy.messagelog.MessageLogDatabaseCtx.doInTransaction;
+import static ee.ria.xroad.proxy.messagelog.TestUtil.cleanUpDatabase;
+import static ee.ria.xroad.proxy.messagelog.TestUtil.createMessage;
+import static ee.ria.xroad.proxy.messagelog.TestUtil.createSignature;
+import static ee.ria.xroad.proxy.messagelog.TestUtil.initForTest;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that the log archiver marks archived only the records it has written.
+ */
+public class LogArchiverTest {
+
+    private static final int TIMESTAMP_COUNT = 3;
+    private static final int MESSAGES_PER_TIMESTAMP = 2;
+
+    private static Long invisibleTimestampId;
+
+    @Rule
+    public TemporaryFolder archiveDir = new TemporaryFolder();
+
+    private ActorSystem actorSystem;
+
+    /**
+     * Sets up the database and the actor system.
+     */
+    @Before
+    public void setUp() {
+        initForTest();
+
+        actorSystem = ActorSystem.create("Proxy", ConfigFactory.load().getConfig("proxy"));
+    }
+
+    /**
+     * Stops the actor system and cleans up the database.
+     * @throws Exception in case of any unexpected errors
+     */
+    @After
+    public void tearDown() throws Exception {
+        invisibleTimestampId = null;
+
+        Await.ready(actorSystem.terminate(), Duration.Inf());
+
+        cleanUpDatabase();
+    }
+
+    /**
+     * Test that all time-stamped records are archived.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void archivesTimestampedRecords() throws Exception {
+        List<TimestampRecord> timestamps = createTimestampedRecords();
+
+        archive();
+
+        for (TimestampRecord timestamp : timestamps) {
+            assertArchived(timestamp.getId(), true);
+        }
+
+        assertEquals(1, FileUtils.listFiles(archiveDir.getRoot(), new String[] {"zip"}, false).size());
+    }
+
+    /**
+     * Test that a time-stamp that was not yet committed when the page of time-stamps was selected, but has an id
+     * inside the page, is not marked archived together with its message records.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void doesNotArchiveTimestampCommittedAfterSelection() throws Exception {
+        List<TimestampRecord> timestamps = createTimestampedRecords();
+
+        invisibleTimestampId = timestamps.get(1).getId();
+
+        archive();
+
+        assertArchived(timestamps.get(0).getId(), true);
+        assertArchived(invisibleTimestampId, false);
+        assertArchived(timestamps.get(2).getId(), true);
+    }
+
+    private void archive() {
+        TestActorRef<LogArchiver> archiver = TestActorRef.create(actorSystem,
+                Props.create(SelectingLogArchiver.class, archiveDir.getRoot().toPath()));
+
+        archiver.tell(LogArchiver.START_ARCHIVING, ActorRef.noSender());
+    }
+
+    private static List<TimestampRecord> createTimestampedRecords() throws Exception {
+        ClientId client = createMessage().getClient();
+        String message = createMessage().getXml();
+        String signature = createSignature().getSignatureXml();
+        String timestamp = CryptoUtils.encodeBase64(FileUtils.readFileToByteArray(
+                new File("src/test/resources/tsp.response")));
+
+        return doInTransaction(session -> {
+            List<TimestampRecord> timestamps = new ArrayList<>();
+
+            for (int i = 0; i < TIMESTAMP_COUNT; i++) {
+                TimestampRecord timestampRecord = new TimestampRecord();
+                timestampRecord.setTime(System.currentTimeMillis());
+                timestampRecord.setTimestamp(timestamp);
+                session.save(timestampRecord);
+
+                for (int j = 0; j < MESSAGES_PER_TIMESTAMP; j++) {
+                    MessageRecord messageRecord = new MessageRecord("query" + i + "-" + j, message, signature,
+                            false, client);
+                    messageRecord.setTime(System.currentTimeMillis());
+                    messageRecord.setTimestampRecord(timestampRecord);
+                    session.save(messageRecord);
+                }
+
+                timestamps.add(timestampRecord);
+            }
+
+            return timestamps;
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void assertArchived(long timestampId, boolean archived) throws Exception {
+        doInTransaction(session -> {
+            TimestampRecord timestamp = (TimestampRecord) session.get(TimestampRecord.class, timestampId);
+            assertEquals(archived, timestamp.isArchived());
+
+            List<MessageRecord> messages = session
+                    .createQuery("select m from MessageRecord m where m.timestampRecord.id = :timestampId")
+                    .setParameter("timestampId", timestampId)
+                    .list();
+            assertEquals(MESSAGES_PER_TIMESTAMP, messages.size());
+
+            for (MessageRecord messageRecord : messages) {
+                if (archived) {
+                    assertTrue(messageRecord.isArchived());
+                } else {
+                    assertFalse(messageRecord.isArchived());
+                }
+            }
+
+            return null;
+        });
+    }
+
+    /**
+     * Log archiver that does not see the invisible time-stamp when selecting the time-stamps to be archived, like
+     * a time-stamp whose transaction commits only after the selection.
+     */
+    static class SelectingLogArchiver extends LogArchiver {
+
+        SelectingLogArchiver(Path archivePath) {
+            super(archivePath);
+        }
+
+        @Override
+        protected List<Long> getNonArchivedTimestampRecordIds(Session session, int maxRecordsToGet,
+                long maxTimestampId) {
+            return super.getNonArchivedTimestampRecordIds(session, maxRecordsToGet, maxTimestampId).stream()
+                    .filter(id -> !id.equals(invisibleTimestampId))
+                    .collect(Collectors.toList());
+        }
+    }
+}
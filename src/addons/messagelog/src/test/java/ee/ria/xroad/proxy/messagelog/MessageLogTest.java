@@ -24,7 +24,9 @@ package ee.ria.xroad.proxy.messagelog;
 
 import ee.ria.xroad.common.CodedException;
 import ee.ria.xroad.common.ExpectedCodedException;
+import ee.ria.xroad.common.asic.AsicContainer;
 import ee.ria.xroad.common.conf.serverconf.ServerConf;
+import ee.ria.xroad.common.identifier.ClientId;
 import ee.ria.xroad.common.message.SoapMessageImpl;
 import ee.ria.xroad.common.messagelog.AbstractLogManager;
 import ee.ria.xroad.common.messagelog.AbstractLogRecord;
@@ -56,7 +58,9 @@ import java.io.File;
 import java.io.FileFilter;
 import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
@@ -353,6 +357,46 @@ public class MessageLogTest extends AbstractMessageLogTest {
         assertNull(findByQueryId("foo", "02-04-2014 12:34:56.100", "02-04-2014 12:34:59.100"));
     }
 
+    /**
+     * Streams the time-stamped records of a query and lists the records that are not time-stamped.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void forEachTimestampedByQueryId() throws Exception {
+        log.trace("forEachTimestampedByQueryId()");
+
+        log("02-04-2014 12:34:56.100", createMessage("streamed"));
+        log("02-04-2014 12:34:57.100", createMessage("streamed"));
+
+        MessageRecord record = (MessageRecord) findByQueryId("streamed", "02-04-2014 12:34:56.000",
+                "02-04-2014 12:34:56.200");
+        ClientId clientId = ClientId.create("EE", record.getMemberClass(), record.getMemberCode(),
+                record.getSubsystemCode());
+
+        assertEquals(2, LogRecordManager.getNotTimestampedByQueryId("streamed", clientId, false).size());
+        assertEquals(0, LogRecordManager.forEachTimestampedByQueryId("streamed", clientId, false,
+                r -> fail("Record is not time-stamped")));
+
+        TimestampRecord timestamp = timestamp(record);
+        assertNotNull(timestamp);
+
+        List<MessageRecord> notTimestamped = LogRecordManager.getNotTimestampedByQueryId("streamed", clientId, false);
+        assertEquals(1, notTimestamped.size());
+        assertTrue(notTimestamped.get(0).getId() > record.getId());
+
+        List<AsicContainer> containers = new ArrayList<>();
+
+        assertEquals(1, LogRecordManager.forEachTimestampedByQueryId("streamed", clientId, false,
+                r -> containers.add(r.toAsicContainer())));
+        AsicContainer expected = ((MessageRecord) LogRecordManager.get(record.getId())).toAsicContainer();
+        assertEquals(expected.getMessage(), containers.get(0).getMessage());
+        assertEquals(expected.getSignature(), containers.get(0).getSignature());
+        assertEquals(expected.getTimestamp(), containers.get(0).getTimestamp());
+
+        assertEquals(0, LogRecordManager.forEachTimestampedByQueryId("streamed", clientId, true,
+                r -> fail("Record is not a response")));
+    }
+
     /**
      * Wants to time-stamp, but no TSP urls configured.
      * @throws Exception in case of any unexpected errors
@@ -599,7 +643,7 @@ public class MessageLogTest extends AbstractMessageLogTest {
 
         @Override
         protected Props getArchiverImpl() {
-            return Props.create(TestLogArchiver.class, Paths.get("build"), Paths.get("build/tmp"));
+            return Props.create(TestLogArchiver.class, Paths.get("build"));
         }
 
         @Override
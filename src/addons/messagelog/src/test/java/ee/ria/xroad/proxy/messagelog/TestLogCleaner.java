@@ -22,8 +22,6 @@
  */
 package ee.ria.xroad.proxy.messagelog;
 
-import org.hibernate.Session;
-
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
@@ -40,8 +38,8 @@ class TestLogCleaner extends LogCleaner {
     }
 
     @Override
-    protected void handleClean(Session session) {
-        super.handleClean(session);
+    protected void handleClean() throws Exception {
+        super.handleClean();
 
         gate.countDown();
     }
@@ -28,13 +28,14 @@ import ee.ria.xroad.common.opmonitoring.OpMonitoringDaemonHttpClient;
 import ee.ria.xroad.common.opmonitoring.OpMonitoringData;
 import ee.ria.xroad.common.opmonitoring.OpMonitoringSystemProperties;
 import ee.ria.xroad.common.opmonitoring.StoreOpMonitoringDataRequest;
-import ee.ria.xroad.common.util.JsonUtils;
+import ee.ria.xroad.common.util.ProcessMetrics;
 import ee.ria.xroad.common.util.TimeUtils;
 
 import akka.actor.ActorRef;
 import akka.actor.Cancellable;
 import akka.actor.Props;
-import com.google.gson.Gson;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.io.IOUtils;
@@ -42,11 +43,14 @@ import org.apache.http.impl.client.CloseableHttpClient;
 import scala.concurrent.duration.FiniteDuration;
 
 import java.net.NetworkInterface;
-import java.util.HashSet;
-import java.util.LinkedHashMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static java.net.NetworkInterface.getNetworkInterfaces;
 import static java.util.Collections.list;
@@ -55,18 +59,26 @@ import static java.util.Collections.list;
  * Operational monitoring buffer. This buffer is used for gathering
  * operational data and for periodically sending the data to the operational
  * monitoring daemon (using OpMonitoringDaemonSender).
+ *
+ * The request threads store the data directly into a striped buffer, the actor
+ * mailbox is only used for coordinating the sending. Up to
+ * MAX_CONCURRENT_SENDS messages are in flight at a time, each handled by
+ * its own sender actor.
  */
 @Slf4j
 public class OpMonitoringBuffer extends AbstractOpMonitoringBuffer {
     public static final String OP_MONITORING_DAEMON_SENDER = "OpMonitoringDaemonSender";
 
+    static final String DROPPED_RECORDS_METRIC = "opmonitoring.buffer.dropped";
+    static final String BUFFER_SIZE_METRIC = "opmonitoring.buffer.size";
+
     private static final String NO_ADDRESS_FOUND = "No suitable IP address is bound to the network interface ";
     private static final String NO_INTERFACE_FOUND = "No non-loopback network interface found";
 
-    private static final long MAX_BUFFER_SIZE = OpMonitoringSystemProperties.getOpMonitorBufferSize();
-
     private static final int MAX_RECORDS_IN_MESSAGE =
             OpMonitoringSystemProperties.getOpMonitorBufferMaxRecordsInMessage();
+    private static final int MAX_CONCURRENT_SENDS =
+            Math.max(1, OpMonitoringSystemProperties.getOpMonitorBufferMaxConcurrentSends());
     private static final long SENDING_INTERVAL_SECONDS =
             OpMonitoringSystemProperties.getOpMonitorBufferSendingIntervalSeconds();
 
@@ -76,31 +88,23 @@ public class OpMonitoringBuffer extends AbstractOpMonitoringBuffer {
     private static final int CLIENT_SOCKET_TIMEOUT_MILLISECONDS = TimeUtils.secondsToMillis(
             OpMonitoringSystemProperties.getOpMonitorBufferSocketTimeoutSeconds());
 
-    private static final Gson GSON = JsonUtils.getSerializer();
+    private static final int STRIPE_COUNT = Runtime.getRuntime().availableProcessors();
 
-    private Cancellable tick;
+    private final long maxBufferSize = OpMonitoringSystemProperties.getOpMonitorBufferSize();
 
-    final Map<Long, OpMonitoringData> buffer =
-            new LinkedHashMap<Long, OpMonitoringData>() {
-                @Override
-                protected boolean removeEldestEntry(Map.Entry eldest) {
-                    boolean overflow = size() > MAX_BUFFER_SIZE;
+    private Cancellable tick;
 
-                    if (overflow) {
-                        log.warn("Operational monitoring buffer overflow, removing eldest record: {}", eldest.getKey());
-                    }
+    final StripedRecordBuffer buffer;
 
-                    return overflow;
-                }
-            };
+    private final Deque<ActorRef> idleSenders = new ArrayDeque<>();
 
-    private long bufferIndex = 0;
+    final Map<ActorRef, List<OpMonitoringData>> inFlight = new HashMap<>();
 
-    private final Set<Long> processedBufferIndices = new HashSet<>();
+    private final AtomicBoolean sendRequested = new AtomicBoolean();
 
     private final CloseableHttpClient httpClient;
 
-    private final ActorRef sender;
+    private volatile ActorRef self;
 
     private static String ipAddress;
 
@@ -109,93 +113,121 @@ public class OpMonitoringBuffer extends AbstractOpMonitoringBuffer {
      * @throws Exception if an error occurs
      */
     public OpMonitoringBuffer() throws Exception {
+        MetricRegistry registry = ProcessMetrics.getRegistry();
+
+        buffer = new StripedRecordBuffer(maxBufferSize, STRIPE_COUNT, registry.counter(DROPPED_RECORDS_METRIC));
+
+        registry.remove(BUFFER_SIZE_METRIC);
+        registry.register(BUFFER_SIZE_METRIC, (Gauge<Long>) buffer::size);
+
         if (ignoreOpMonitoringData()) {
             log.info("Operational monitoring buffer is switched off, no operational monitoring data is stored");
 
             httpClient = null;
-            sender = null;
         } else {
             httpClient = createHttpClient();
-            sender = createSender();
+            idleSenders.addAll(createSenders());
         }
     }
 
     CloseableHttpClient createHttpClient() throws Exception {
-        return OpMonitoringDaemonHttpClient.createHttpClient(ServerConf.getSSLKey(), 1, 1,
-                CLIENT_CONNECTION_TIMEOUT_MILLISECONDS, CLIENT_SOCKET_TIMEOUT_MILLISECONDS);
+        return OpMonitoringDaemonHttpClient.createHttpClient(ServerConf.getSSLKey(), MAX_CONCURRENT_SENDS,
+                MAX_CONCURRENT_SENDS, CLIENT_CONNECTION_TIMEOUT_MILLISECONDS, CLIENT_SOCKET_TIMEOUT_MILLISECONDS);
     }
 
-    ActorRef createSender() {
-        return getContext().system().actorOf(Props.create(OpMonitoringDaemonSender.class, httpClient),
-                OP_MONITORING_DAEMON_SENDER);
+    List<ActorRef> createSenders() {
+        List<ActorRef> senders = new ArrayList<>();
+
+        for (int i = 0; i < MAX_CONCURRENT_SENDS; i++) {
+            senders.add(getContext().system().actorOf(Props.create(OpMonitoringDaemonSender.class, httpClient),
+                    OP_MONITORING_DAEMON_SENDER + (i == 0 ? "" : "-" + i)));
+        }
+
+        return senders;
     }
 
     @Override
     protected void store(OpMonitoringData data) throws Exception {
+        add(data);
+    }
+
+    /**
+     * Adds the data to the buffer. Called directly by the request threads, so
+     * may only touch the thread-safe state of the actor.
+     */
+    void add(OpMonitoringData data) {
         if (ignoreOpMonitoringData()) {
             return;
         }
 
         data.setSecurityServerInternalIp(getIpAddress());
 
-        buffer.put(getNextBufferIndex(), data);
+        buffer.add(data);
 
-        send();
+        if (sendRequested.compareAndSet(false, true)) {
+            self.tell(SEND_MONITORING_DATA, ActorRef.noSender());
+        }
     }
 
     @Override
     protected void send() throws Exception {
-        if (!canSend()) {
-            return;
-        }
-
-        String json = prepareMonitoringMessage();
+        sendRequested.set(false);
 
-        sender.tell(json, getSelf());
-    }
+        while (!idleSenders.isEmpty() && !buffer.isEmpty()) {
+            List<OpMonitoringData> batch = buffer.drain(MAX_RECORDS_IN_MESSAGE);
 
-    private boolean canSend() {
-        return !buffer.isEmpty() && processedBufferIndices.isEmpty();
-    }
+            if (batch.isEmpty()) {
+                break;
+            }
 
-    private String prepareMonitoringMessage() {
-        StoreOpMonitoringDataRequest request = new StoreOpMonitoringDataRequest();
+            ActorRef sender = idleSenders.poll();
 
-        for (Map.Entry<Long, OpMonitoringData> entry : buffer.entrySet()) {
-            processedBufferIndices.add(entry.getKey());
-            request.addRecord(entry.getValue().getData());
+            inFlight.put(sender, batch);
+            sender.tell(prepareMonitoringMessage(batch), getSelf());
+        }
 
-            if (request.getRecords().size() == MAX_RECORDS_IN_MESSAGE) {
-                break;
-            }
+        if (idleSenders.isEmpty()) {
+            // All senders are busy, the next completed send picks up the new records
+            sendRequested.set(true);
         }
 
         log.debug("Op monitoring buffer records count: {}", buffer.size());
+    }
+
+    private static StoreOpMonitoringDataRequest prepareMonitoringMessage(List<OpMonitoringData> batch) {
+        StoreOpMonitoringDataRequest request = new StoreOpMonitoringDataRequest();
+
+        batch.forEach(data -> request.addRecord(data.getData()));
 
-        return GSON.toJson(request);
+        return request;
     }
 
     @Override
     protected void sendingSuccess() throws Exception {
-        processedBufferIndices.forEach(buffer::remove);
-        processedBufferIndices.clear();
-
-        if (canSend()) {
+        if (releaseSender() != null) {
             send();
         }
     }
 
     @Override
     protected void sendingFailure() throws Exception {
-        processedBufferIndices.clear();
+        List<OpMonitoringData> batch = releaseSender();
+
+        if (batch != null) {
+            buffer.addAll(batch);
+        }
 
         // Do not worry, scheduled sending retries..
     }
 
-    long getNextBufferIndex() {
-        bufferIndex = bufferIndex == Long.MAX_VALUE ? 0 : bufferIndex + 1;
+    private List<OpMonitoringData> releaseSender() {
+        List<OpMonitoringData> batch = inFlight.remove(getSender());
 
-        return bufferIndex;
+        if (batch != null) {
+            idleSenders.add(getSender());
+        }
+
+        return batch;
     }
 
     private void scheduleSendMonitoringData() {
@@ -211,11 +243,17 @@ public class OpMonitoringBuffer extends AbstractOpMonitoringBuffer {
             return;
         }
 
+        self = getSelf();
+
+        OpMonitoring.setDirectStore(this::add);
+
         scheduleSendMonitoringData();
     }
 
     @Override
     public void postStop() throws Exception {
+        OpMonitoring.setDirectStore(null);
+
         if (tick != null) {
             tick.cancel();
         }
@@ -226,7 +264,7 @@ public class OpMonitoringBuffer extends AbstractOpMonitoringBuffer {
     }
 
     private boolean ignoreOpMonitoringData() {
-        return MAX_BUFFER_SIZE < 1;
+        return maxBufferSize < 1;
     }
 
     private static String getIpAddress() {
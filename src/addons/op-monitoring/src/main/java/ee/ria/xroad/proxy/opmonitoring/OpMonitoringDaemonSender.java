@@ -25,6 +25,7 @@ package ee.ria.xroad.proxy.opmonitoring;
 import ee.ria.xroad.common.opmonitoring.AbstractOpMonitoringBuffer;
 import ee.ria.xroad.common.opmonitoring.OpMonitoringDaemonEndpoints;
 import ee.ria.xroad.common.opmonitoring.OpMonitoringSystemProperties;
+import ee.ria.xroad.common.opmonitoring.StoreOpMonitoringDataRequest;
 import ee.ria.xroad.common.opmonitoring.StoreOpMonitoringDataResponse;
 import ee.ria.xroad.common.util.HttpSender;
 import ee.ria.xroad.common.util.JsonUtils;
@@ -32,16 +33,21 @@ import ee.ria.xroad.common.util.MimeTypes;
 import ee.ria.xroad.common.util.MimeUtils;
 import ee.ria.xroad.common.util.TimeUtils;
 
-import akka.actor.ActorRef;
 import akka.actor.UntypedActor;
 import com.google.gson.Gson;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.EntityTemplate;
 import org.apache.http.impl.client.CloseableHttpClient;
 
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
 
 import static ee.ria.xroad.common.opmonitoring.StoreOpMonitoringDataResponse.STATUS_ERROR;
 import static ee.ria.xroad.common.opmonitoring.StoreOpMonitoringDataResponse.STATUS_OK;
@@ -69,13 +75,13 @@ public class OpMonitoringDaemonSender extends UntypedActor {
 
     @Override
     public void onReceive(Object message) throws Exception {
-        if (message instanceof String) {
-            String json = (String) message;
+        if (message instanceof StoreOpMonitoringDataRequest) {
+            StoreOpMonitoringDataRequest request = (StoreOpMonitoringDataRequest) message;
 
-            log.trace("onReceive: {}", json);
+            log.trace("onReceive: {} records", request.getRecords().size());
 
             try {
-                send(json);
+                send(request);
                 success();
             } catch (Exception e) {
                 log.error("Sending operational monitoring data failed", e);
@@ -88,19 +94,19 @@ public class OpMonitoringDaemonSender extends UntypedActor {
     }
 
     private void success() {
-        getSender().tell(AbstractOpMonitoringBuffer.SENDING_SUCCESS, ActorRef.noSender());
+        getSender().tell(AbstractOpMonitoringBuffer.SENDING_SUCCESS, getSelf());
     }
 
     private void failure() {
-        getSender().tell(AbstractOpMonitoringBuffer.SENDING_FAILURE, ActorRef.noSender());
+        getSender().tell(AbstractOpMonitoringBuffer.SENDING_FAILURE, getSelf());
     }
 
-    private void send(String json) throws Exception {
+    private void send(StoreOpMonitoringDataRequest request) throws Exception {
         try (HttpSender sender = new HttpSender(httpClient)) {
             sender.setConnectionTimeout(CONNECTION_TIMEOUT_MILLISECONDS);
             sender.setSocketTimeout(SOCKET_TIMEOUT_MILLISECONDS);
 
-            sender.doPost(getAddress(), json, MimeTypes.JSON);
+            sender.doPost(getAddress(), createJsonEntity(request));
 
             String responseJson = IOUtils.toString(sender.getResponseContent(), MimeUtils.UTF8);
             StoreOpMonitoringDataResponse response;
@@ -131,4 +137,22 @@ public class OpMonitoringDaemonSender extends UntypedActor {
                 OpMonitoringSystemProperties.getOpMonitorHost(), OpMonitoringSystemProperties.getOpMonitorPort(),
                 OpMonitoringDaemonEndpoints.STORE_DATA_PATH, null, null);
     }
+
+    /**
+     * Creates an entity that serializes the request straight into the connection output stream,
+     * without building the JSON string in memory first. Sent using chunked encoding.
+     */
+    private static HttpEntity createJsonEntity(StoreOpMonitoringDataRequest request) {
+        EntityTemplate entity = new EntityTemplate(out -> {
+            Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+
+            GSON.toJson(request, StoreOpMonitoringDataRequest.class, writer);
+            writer.flush();
+        });
+
+        entity.setContentType(ContentType.create(MimeTypes.JSON, MimeUtils.UTF8).toString());
+        entity.setChunked(true);
+
+        return entity;
+    }
 }
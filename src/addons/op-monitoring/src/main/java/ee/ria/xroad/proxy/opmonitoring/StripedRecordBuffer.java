@@ -0,0 +1,165 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.proxy.opmonitoring;
+
+import ee.ria.xroad.common.opmonitoring.OpMonitoringData;
+
+import com.codahale.metrics.Counter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded buffer of operational monitoring records that the request threads can write concurrently
+ * without locking. The records are kept in stripes (one per core by default), each writing thread is
+ * mapped to a stripe by its id. When the buffer is full, the eldest record of the writer's stripe is
+ * dropped. The buffer is drained by a single thread, the buffer actor, which also adds back the records of
+ * failed sends.
+ */
+@Slf4j
+class StripedRecordBuffer {
+
+    private final long capacity;
+
+    private final List<Queue<OpMonitoringData>> stripes = new ArrayList<>();
+
+    // Records of failed sends, drained before the stripes
+    private final Deque<OpMonitoringData> retries = new ConcurrentLinkedDeque<>();
+
+    private final AtomicLong size = new AtomicLong();
+
+    private final Counter droppedRecords;
+
+    private int drainStripe;
+
+    StripedRecordBuffer(long capacity, int stripeCount, Counter droppedRecords) {
+        this.capacity = capacity;
+        this.droppedRecords = droppedRecords;
+
+        for (int i = 0; i < Math.max(1, stripeCount); i++) {
+            stripes.add(new ConcurrentLinkedQueue<>());
+        }
+    }
+
+    /**
+     * Adds the record to the stripe of the calling thread. Drops the eldest record in case of overflow.
+     * @param data the record
+     */
+    void add(OpMonitoringData data) {
+        int index = (int) (Thread.currentThread().getId() % stripes.size());
+
+        stripes.get(index).offer(data);
+
+        if (size.incrementAndGet() > capacity) {
+            dropEldest(index, data);
+        }
+    }
+
+    /**
+     * Adds back the records of a batch that could not be sent. The records are drained again before any other
+     * records, in their original order. They do not count towards the capacity, so re-adding them never drops
+     * other records. Must be called by the draining thread.
+     * @param batch the records
+     */
+    void addAll(List<OpMonitoringData> batch) {
+        for (int i = batch.size() - 1; i >= 0; i--) {
+            retries.addFirst(batch.get(i));
+        }
+    }
+
+    /**
+     * Removes at most the given number of records from the buffer, taking the records to be retried first and
+     * then the records of the stripes in turns. Must be called by one thread at a time.
+     * @param maxRecords maximum number of records to remove
+     * @return the removed records
+     */
+    List<OpMonitoringData> drain(int maxRecords) {
+        List<OpMonitoringData> batch = new ArrayList<>(maxRecords);
+
+        while (batch.size() < maxRecords && !retries.isEmpty()) {
+            batch.add(retries.pollFirst());
+        }
+
+        int retried = batch.size();
+        int lastDrained = -1;
+
+        for (int i = 0; i < stripes.size() && batch.size() < maxRecords; i++) {
+            Queue<OpMonitoringData> stripe = stripes.get((drainStripe + i) % stripes.size());
+
+            while (batch.size() < maxRecords) {
+                OpMonitoringData data = stripe.poll();
+
+                if (data == null) {
+                    break;
+                }
+
+                batch.add(data);
+                lastDrained = i;
+            }
+        }
+
+        // The next drain starts from the stripe after the last one drained
+        drainStripe = (drainStripe + lastDrained + 1) % stripes.size();
+        size.addAndGet(retried - batch.size());
+
+        return batch;
+    }
+
+    long size() {
+        return size.get() + retries.size();
+    }
+
+    boolean isEmpty() {
+        return size.get() <= 0 && retries.isEmpty();
+    }
+
+    private void dropEldest(int index, OpMonitoringData added) {
+        OpMonitoringData eldest = null;
+
+        // Prefer the writer's own stripe unless the record just added is the only one in it
+        for (int i = 0; i < stripes.size() && eldest == null; i++) {
+            Queue<OpMonitoringData> stripe = stripes.get((index + i) % stripes.size());
+
+            if (i > 0 || stripe.peek() != added) {
+                eldest = stripe.poll();
+            }
+        }
+
+        if (eldest == null) {
+            eldest = stripes.get(index).poll();
+        }
+
+        if (eldest != null) {
+            size.decrementAndGet();
+            droppedRecords.inc();
+
+            log.warn("Operational monitoring buffer overflow, removing eldest record");
+        }
+    }
+}
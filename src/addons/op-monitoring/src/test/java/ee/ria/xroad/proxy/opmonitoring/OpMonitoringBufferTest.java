@@ -22,16 +22,27 @@
  */
 package ee.ria.xroad.proxy.opmonitoring;
 
+import ee.ria.xroad.common.opmonitoring.AbstractOpMonitoringBuffer;
 import ee.ria.xroad.common.opmonitoring.OpMonitoringData;
+import ee.ria.xroad.common.opmonitoring.StoreOpMonitoringDataRequest;
+import ee.ria.xroad.common.util.ProcessMetrics;
 
 import akka.actor.ActorRef;
 import akka.actor.ActorSystem;
 import akka.actor.Props;
+import akka.testkit.JavaTestKit;
 import akka.testkit.TestActorRef;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.junit.AfterClass;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Tests operational monitoring buffer.
@@ -39,6 +50,8 @@ import static org.junit.Assert.assertEquals;
 public class OpMonitoringBufferTest {
     private static final ActorSystem ACTOR_SYSTEM = ActorSystem.create();
 
+    private static final List<JavaTestKit> SENDERS = new ArrayList<>();
+
     private static class TestOpMonitoringBuffer extends OpMonitoringBuffer {
         TestOpMonitoringBuffer() throws Exception {
             super();
@@ -50,16 +63,27 @@ public class OpMonitoringBufferTest {
         }
 
         @Override
-        ActorRef createSender() {
-            return null;
+        List<ActorRef> createSenders() {
+            List<ActorRef> senders = new ArrayList<>();
+
+            for (JavaTestKit sender : SENDERS) {
+                senders.add(sender.getRef());
+            }
+
+            return senders;
         }
 
         @Override
         protected void store(OpMonitoringData data) throws Exception {
-            buffer.put(getNextBufferIndex(), data);
+            buffer.add(data);
         }
     }
 
+    @AfterClass
+    public static void tearDown() {
+        JavaTestKit.shutdownActorSystem(ACTOR_SYSTEM);
+    }
+
     @Test
     public void bufferOverflow() throws Exception {
         System.setProperty("xroad.op-monitor-buffer.size", "2");
@@ -71,15 +95,112 @@ public class OpMonitoringBufferTest {
         TestOpMonitoringBuffer opMonitoringBuffer =
                 testActorRef.underlyingActor();
 
-        OpMonitoringData opMonitoringData = new OpMonitoringData(
-                OpMonitoringData.SecurityServerType.CLIENT, 100);
+        OpMonitoringData data1 = createData();
+        OpMonitoringData data2 = createData();
+        OpMonitoringData data3 = createData();
+
+        long dropped = droppedRecords();
 
-        opMonitoringBuffer.store(opMonitoringData);
-        opMonitoringBuffer.store(opMonitoringData);
-        opMonitoringBuffer.store(opMonitoringData);
+        opMonitoringBuffer.store(data1);
+        opMonitoringBuffer.store(data2);
+        opMonitoringBuffer.store(data3);
 
         assertEquals(2, opMonitoringBuffer.buffer.size());
-        assertEquals(true, opMonitoringBuffer.buffer.containsKey(2L));
-        assertEquals(true, opMonitoringBuffer.buffer.containsKey(3L));
+        assertEquals(dropped + 1, droppedRecords());
+        assertEquals(Arrays.asList(data2, data3), opMonitoringBuffer.buffer.drain(10));
+    }
+
+    @Test
+    public void failedRecordsRetriedFirstWithoutOverflow() throws Exception {
+        System.setProperty("xroad.op-monitor-buffer.size", "2");
+
+        final TestActorRef<TestOpMonitoringBuffer> testActorRef = TestActorRef.create(ACTOR_SYSTEM,
+                Props.create(TestOpMonitoringBuffer.class), "retryTestActorRef");
+
+        TestOpMonitoringBuffer opMonitoringBuffer = testActorRef.underlyingActor();
+
+        OpMonitoringData data1 = createData();
+        OpMonitoringData data2 = createData();
+        OpMonitoringData data3 = createData();
+        OpMonitoringData data4 = createData();
+
+        opMonitoringBuffer.store(data1);
+        opMonitoringBuffer.store(data2);
+
+        List<OpMonitoringData> failed = opMonitoringBuffer.buffer.drain(10);
+
+        opMonitoringBuffer.store(data3);
+        opMonitoringBuffer.store(data4);
+
+        long dropped = droppedRecords();
+
+        opMonitoringBuffer.buffer.addAll(failed);
+
+        assertEquals(dropped, droppedRecords());
+        assertEquals(4, opMonitoringBuffer.buffer.size());
+        assertEquals(Arrays.asList(data1, data2, data3, data4), opMonitoringBuffer.buffer.drain(10));
+        assertTrue(opMonitoringBuffer.buffer.isEmpty());
+    }
+
+    @Test
+    public void pipelinedSendsAndFailure() throws Exception {
+        System.setProperty("xroad.op-monitor-buffer.size", "1000");
+
+        SENDERS.clear();
+        SENDERS.add(new JavaTestKit(ACTOR_SYSTEM));
+        SENDERS.add(new JavaTestKit(ACTOR_SYSTEM));
+
+        final TestActorRef<TestOpMonitoringBuffer> testActorRef = TestActorRef.create(ACTOR_SYSTEM,
+                Props.create(TestOpMonitoringBuffer.class), "pipelinedTestActorRef");
+
+        TestOpMonitoringBuffer opMonitoringBuffer = testActorRef.underlyingActor();
+
+        // Three full messages, only two senders
+        for (int i = 0; i < 300; i++) {
+            opMonitoringBuffer.store(createData());
+        }
+
+        testActorRef.tell(AbstractOpMonitoringBuffer.SEND_MONITORING_DATA, ActorRef.noSender());
+
+        StoreOpMonitoringDataRequest first =
+                SENDERS.get(0).expectMsgClass(StoreOpMonitoringDataRequest.class);
+        StoreOpMonitoringDataRequest second =
+                SENDERS.get(1).expectMsgClass(StoreOpMonitoringDataRequest.class);
+
+        assertEquals(100, first.getRecords().size());
+        assertEquals(100, second.getRecords().size());
+        assertEquals(2, opMonitoringBuffer.inFlight.size());
+        assertEquals(100, opMonitoringBuffer.buffer.size());
+
+        // Failed records are put back into the buffer
+        testActorRef.tell(AbstractOpMonitoringBuffer.SENDING_FAILURE, SENDERS.get(0).getRef());
+
+        assertEquals(1, opMonitoringBuffer.inFlight.size());
+        assertEquals(200, opMonitoringBuffer.buffer.size());
+
+        // Successful send takes the next message right away
+        testActorRef.tell(AbstractOpMonitoringBuffer.SENDING_SUCCESS, SENDERS.get(1).getRef());
+
+        StoreOpMonitoringDataRequest third =
+                SENDERS.get(1).expectMsgClass(StoreOpMonitoringDataRequest.class);
+
+        assertEquals(100, third.getRecords().size());
+        assertTrue(opMonitoringBuffer.inFlight.containsKey(SENDERS.get(1).getRef()));
+        assertSame(opMonitoringBuffer.inFlight.get(SENDERS.get(1).getRef()).get(0).getData(),
+                third.getRecords().get(0));
+
+        // The failed records are sent before the newer ones, by the sender idle the longest
+        StoreOpMonitoringDataRequest retried =
+                SENDERS.get(0).expectMsgClass(StoreOpMonitoringDataRequest.class);
+
+        assertSame(first.getRecords().get(0), retried.getRecords().get(0));
+    }
+
+    private static OpMonitoringData createData() {
+        return new OpMonitoringData(OpMonitoringData.SecurityServerType.CLIENT, 100);
+    }
+
+    private static long droppedRecords() {
+        return ProcessMetrics.getRegistry().counter(OpMonitoringBuffer.DROPPED_RECORDS_METRIC).getCount();
     }
 }
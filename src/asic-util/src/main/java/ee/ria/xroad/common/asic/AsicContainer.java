@@ -25,6 +25,8 @@ package ee.ria.xroad.common.asic;
 import ee.ria.xroad.common.signature.SignatureData;
 import ee.ria.xroad.common.util.MimeTypes;
 
+import org.apache.commons.io.output.CloseShieldOutputStream;
+
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
@@ -230,6 +232,17 @@ public class AsicContainer {
         }
     }
 
+    /**
+     * Write this container to the given output stream in ZIP format and
+     * leave the stream open, e.g. for writing the container as an entry of
+     * another ZIP file.
+     * @param out the stream for writing container
+     * @throws Exception if errors occurred when writing ZIP entries
+     */
+    public void writeTo(OutputStream out) throws Exception {
+        write(new CloseShieldOutputStream(out));
+    }
+
     private void createManifests() throws Exception {
         createOpenDocumentManifest();
         createAsicManifest();
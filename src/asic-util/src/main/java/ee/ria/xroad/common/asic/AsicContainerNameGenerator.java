@@ -24,8 +24,8 @@ package ee.ria.xroad.common.asic;
 
 import lombok.RequiredArgsConstructor;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.function.Supplier;
 
 /**
@@ -37,7 +37,7 @@ public class AsicContainerNameGenerator {
     private static final int MAX_QUERY_LENGTH = 225;
     private final Supplier<String> randomGenerator;
     private final int maxAttempts;
-    private final List<String> existingFilenames = new ArrayList<>();
+    private final Set<String> existingFilenames = new HashSet<>();
 
     /**
      * Attempts to generate a unique filename with a random part and given
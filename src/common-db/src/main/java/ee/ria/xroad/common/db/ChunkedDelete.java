@@ -0,0 +1,103 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.db;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.Session;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deletes the rows of an entity matching a condition in bounded id ranges, committing every chunk in a transaction
+ * of its own. Compared to a single delete statement, locks are held only for the duration of a chunk and the
+ * transaction log does not grow with the total number of rows deleted. Since every chunk is committed separately,
+ * an interrupted cleanup simply continues from the remaining rows the next time it is run.
+ */
+@Slf4j
+@RequiredArgsConstructor
+public class ChunkedDelete {
+
+    private final DatabaseCtx databaseCtx;
+
+    // HQL entity name, the entity must have a numeric id property 'id'
+    private final String entityName;
+
+    // HQL condition of the rows to be deleted, the entity alias is 'r'
+    private final String condition;
+
+    /**
+     * Deletes the matching rows.
+     * @param chunkSize maximum number of rows deleted in one transaction
+     * @param pauseMillis time to pause between the chunks in milliseconds, 0 for no pause
+     * @return the total number of rows deleted
+     * @throws Exception if an error occurs
+     */
+    public int execute(int chunkSize, long pauseMillis) throws Exception {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size must be positive");
+        }
+
+        long start = System.currentTimeMillis();
+        int total = 0;
+        int removed;
+
+        do {
+            removed = databaseCtx.doInTransaction(session -> deleteChunk(session, chunkSize));
+            total += removed;
+
+            log.debug("Deleted {} {} rows, {} in total", removed, entityName, total);
+
+            if (removed == chunkSize && pauseMillis > 0) {
+                Thread.sleep(pauseMillis);
+            }
+        } while (removed == chunkSize);
+
+        long duration = Math.max(System.currentTimeMillis() - start, 1);
+
+        log.info("Deleted {} {} rows in {} ms ({} rows/s)", total, entityName, duration,
+                total * TimeUnit.SECONDS.toMillis(1) / duration);
+
+        return total;
+    }
+
+    @SuppressWarnings("unchecked")
+    private int deleteChunk(Session session, int chunkSize) {
+        List<Long> ids = session
+                .createQuery("select r.id from " + entityName + " r where " + condition + " order by r.id")
+                .setMaxResults(chunkSize)
+                .list();
+
+        if (ids.isEmpty()) {
+            return 0;
+        }
+
+        return session
+                .createQuery("delete " + entityName + " r where r.id between :firstId and :lastId and ("
+                        + condition + ")")
+                .setParameter("firstId", ids.get(0))
+                .setParameter("lastId", ids.get(ids.size() - 1))
+                .executeUpdate();
+    }
+}
@@ -51,6 +51,12 @@ public final class MessageLogProperties {
 
     private static final int DEFAULT_ARCHIVE_TRANSACTION_BATCH_SIZE = 10000;
 
+    private static final int DEFAULT_GROUP_COMMIT_BATCH_SIZE = 100;
+
+    private static final int DEFAULT_GROUP_COMMIT_MAX_LINGER = 5;
+
+    private static final int DEFAULT_GROUP_COMMIT_QUEUE_SIZE = 10000;
+
     private static final String PREFIX = "xroad.message-log.";
 
     /** Property name of the timestamper client connect timeout (milliseconds). */
@@ -75,8 +81,29 @@ public final class MessageLogProperties {
 
     public static final String ARCHIVE_TRANSACTION_BATCH = PREFIX + "archive-transaction-batch";
 
+    /** Property name of the number of threads building ASiC containers during archiving **/
+    public static final String ARCHIVE_WORKER_COUNT = PREFIX + "archive-worker-count";
+
     public static final String CLEAN_INTERVAL = PREFIX + "clean-interval";
 
+    /** Property name of the maximum number of records deleted in one transaction when cleaning **/
+    public static final String CLEAN_CHUNK_SIZE = PREFIX + "clean-chunk-size";
+
+    /** Property name of the pause (milliseconds) between the chunks deleted when cleaning **/
+    public static final String CLEAN_CHUNK_PAUSE = PREFIX + "clean-chunk-pause";
+
+    /** Property name for toggling group commit of logged message records on/off **/
+    public static final String GROUP_COMMIT_ENABLED = PREFIX + "group-commit-enabled";
+
+    /** Property name of the maximum number of message records committed in one transaction **/
+    public static final String GROUP_COMMIT_BATCH_SIZE = PREFIX + "group-commit-batch-size";
+
+    /** Property name of the maximum time (milliseconds) a group commit waits for more records **/
+    public static final String GROUP_COMMIT_MAX_LINGER = PREFIX + "group-commit-max-linger";
+
+    /** Property name of the maximum number of message records waiting for group commit **/
+    public static final String GROUP_COMMIT_QUEUE_SIZE = PREFIX + "group-commit-queue-size";
+
     public static final String HASH_ALGO_ID = PREFIX + "hash-algo-id";
 
     public static final String ARCHIVE_TRANSFER_COMMAND = PREFIX + "archive-transfer-command";
@@ -161,6 +188,45 @@ public final class MessageLogProperties {
         return getInt(System.getProperty(ARCHIVE_TRANSACTION_BATCH), DEFAULT_ARCHIVE_TRANSACTION_BATCH_SIZE);
     }
 
+    /**
+     * @return the number of threads building ASiC containers during archiving, the number of available processors
+     * by default.
+     */
+    public static int getArchiveWorkerCount() {
+        return getInt(System.getProperty(ARCHIVE_WORKER_COUNT), Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @return true if message records are saved to the database in group commits, where records logged concurrently
+     * are written by a single writer thread and committed in one transaction. 'false' by default.
+     */
+    public static boolean isGroupCommitEnabled() {
+        return "true".equalsIgnoreCase(System.getProperty(GROUP_COMMIT_ENABLED, "false"));
+    }
+
+    /**
+     * @return the maximum number of message records committed in one group commit transaction. '100' by default.
+     */
+    public static int getGroupCommitBatchSize() {
+        return getInt(System.getProperty(GROUP_COMMIT_BATCH_SIZE), DEFAULT_GROUP_COMMIT_BATCH_SIZE);
+    }
+
+    /**
+     * @return the maximum time in milliseconds a group commit waits for more records to arrive before
+     * committing a partial batch. '5' by default.
+     */
+    public static int getGroupCommitMaxLinger() {
+        return getInt(System.getProperty(GROUP_COMMIT_MAX_LINGER), DEFAULT_GROUP_COMMIT_MAX_LINGER);
+    }
+
+    /**
+     * @return the maximum number of message records waiting for group commit. When the queue is full, logging
+     * fails. '10000' by default.
+     */
+    public static int getGroupCommitQueueSize() {
+        return getInt(System.getProperty(GROUP_COMMIT_QUEUE_SIZE), DEFAULT_GROUP_COMMIT_QUEUE_SIZE);
+    }
+
     /**
      * @return the time interval as Cron expression for cleaning archived records from online database.
      */
@@ -168,6 +234,21 @@ public final class MessageLogProperties {
         return System.getProperty(CLEAN_INTERVAL, "0 0 0/12 1/1 * ? *");
     }
 
+    /**
+     * @return the maximum number of archived records deleted in one transaction when cleaning. If 0, all the
+     * records are deleted in a single transaction. '0' by default.
+     */
+    public static int getCleanChunkSize() {
+        return getInt(System.getProperty(CLEAN_CHUNK_SIZE), 0);
+    }
+
+    /**
+     * @return the pause in milliseconds between the chunks deleted when cleaning. '0' by default.
+     */
+    public static int getCleanChunkPause() {
+        return getInt(System.getProperty(CLEAN_CHUNK_PAUSE), 0);
+    }
+
     /**
      * @return the time in days to keep time-stamped and archived records in the database.
      */
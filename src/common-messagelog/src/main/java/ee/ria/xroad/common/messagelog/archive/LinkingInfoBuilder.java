@@ -28,13 +28,13 @@ import lombok.Getter;
 import lombok.SneakyThrows;
 
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
-import java.util.List;
 
 import static org.apache.commons.lang3.StringUtils.isBlank;
 
 /**
- * Creates linking info for the log archive file.
+ * Creates linking info for the log archive file. The entries are appended
+ * as the files are added, so building the linking info at rotation does not
+ * need another pass over the archived files.
  */
 class LinkingInfoBuilder {
     private final String hashAlgoId;
@@ -47,8 +47,7 @@ class LinkingInfoBuilder {
     @Getter
     private String createdArchiveLastDigest;
 
-    @Getter
-    private List<DigestEntry> digestsForFiles = new ArrayList<>();
+    private StringBuilder linkingInfoEntries = new StringBuilder();
 
     LinkingInfoBuilder(String hashAlgoId, LogArchiveBase archiveBase) {
         this.hashAlgoId = hashAlgoId;
@@ -64,13 +63,13 @@ class LinkingInfoBuilder {
         String currentDigest =
                 hexDigest(combinedDigests.getBytes(StandardCharsets.UTF_8));
 
-        digestsForFiles.add(new DigestEntry(currentDigest, fileName));
+        linkingInfoEntries.append(new DigestEntry(currentDigest, fileName).toLinkingInfoEntry()).append('\n');
 
         lastDigest = currentDigest;
     }
 
     void afterArchiveCreated() {
-        digestsForFiles = new ArrayList<>();
+        linkingInfoEntries = new StringBuilder();
         createdArchiveLastDigest = lastDigest;
         lastDigest = lastArchive.getDigest();
     }
@@ -86,9 +85,7 @@ class LinkingInfoBuilder {
                 .append(getWritable(lastArchive.getFileName())).append(" ")
                 .append(hashAlgoId).append('\n');
 
-        digestsForFiles.forEach(each ->
-            builder.append(each.toLinkingInfoEntry()).append('\n')
-        );
+        builder.append(linkingInfoEntries);
 
         return builder.toString().getBytes(StandardCharsets.UTF_8);
     }
@@ -22,44 +22,35 @@
  */
 package ee.ria.xroad.common.messagelog.archive;
 
-import ee.ria.xroad.common.CodedException;
 import ee.ria.xroad.common.asic.AsicContainerNameGenerator;
 import ee.ria.xroad.common.messagelog.MessageRecord;
 
-import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CloseShieldOutputStream;
 
+import java.io.BufferedOutputStream;
 import java.io.Closeable;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.util.ArrayList;
 import java.util.Date;
-import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.function.Supplier;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
-import static ee.ria.xroad.common.ErrorCodes.X_IO_ERROR;
 import static ee.ria.xroad.common.messagelog.MessageLogProperties.getArchiveMaxFilesize;
 import static ee.ria.xroad.common.messagelog.archive.LogArchiveWriter.MAX_RANDOM_GEN_ATTEMPTS;
 
 /**
- * Encapsulates logic of creating log archive from ASiC containers.
+ * Encapsulates logic of creating log archive from ASiC containers. The containers are streamed directly into the
+ * archive zip as they are added, the linking info is appended when the archive is finished.
  */
 @Slf4j
 class LogArchiveCache implements Closeable {
 
+    private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+
     private enum State {
         NEW,
         ADDING,
@@ -68,81 +59,84 @@ class LogArchiveCache implements Closeable {
 
     private final Supplier<String> randomGenerator;
     private final LinkingInfoBuilder linkingInfoBuilder;
-    private final Path workingDir;
 
     private AsicContainerNameGenerator nameGenerator;
     private State state = State.NEW;
 
-    private File archiveContentDir;
-    private File tempArchive;
+    private ZipOutputStream archiveOut;
 
-    private List<String> archiveFileNames;
     private Set<Date> creationTimes;
     private long archivesTotalSize;
 
     LogArchiveCache(Supplier<String> randomGenerator,
-                    LinkingInfoBuilder linkingInfoBuilder,
-                    Path workingDir) {
+                    LinkingInfoBuilder linkingInfoBuilder) {
         this.randomGenerator = randomGenerator;
         this.linkingInfoBuilder = linkingInfoBuilder;
-        this.workingDir = workingDir;
-        reset();
-    }
-
-    void add(MessageRecord messageRecord) throws Exception {
-        try {
-            validateMessageRecord(messageRecord);
-            handleRotation();
-            cacheRecord(messageRecord);
-            updateState();
-        } catch (Exception e) {
-            handleCacheError(e);
-        }
+        resetCacheState();
     }
 
-    InputStream getArchiveFile() throws IOException {
-        tempArchive = File.createTempFile(
-                "xroad-log-archive-zip", ".tmp", workingDir.toFile());
-        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(tempArchive))) {
-            addAsicContainersToArchive(out);
-            addLinkingInfoToArchive(out);
-        } catch (Exception e) {
-            handleCacheError(e);
-        }
+    /**
+     * Starts a new archive that is written to the given output. The output is not closed by the cache, but the zip
+     * stream on top of it is, so that its deflater releases the native memory it holds.
+     * @param out the archive output
+     */
+    void open(OutputStream out) {
+        resetCacheState();
 
-        return new FileInputStream(tempArchive);
+        archiveOut = new ZipOutputStream(new BufferedOutputStream(new CloseShieldOutputStream(out),
+                OUTPUT_BUFFER_SIZE));
     }
 
-    @SneakyThrows
-    private void handleCacheError(Exception e) {
-        deleteArchiveArtifacts();
+    boolean isOpen() {
+        return archiveOut != null;
+    }
 
-        throw e;
+    void add(MessageRecord messageRecord) throws Exception {
+        add(messageRecord, null);
     }
 
-    private void addAsicContainersToArchive(ZipOutputStream zipOut)
-            throws IOException {
-        for (String eachName : archiveFileNames) {
-            ZipEntry entry = new ZipEntry(eachName);
+    /**
+     * Adds the message record to the archive.
+     * @param messageRecord the message record
+     * @param containerBytes the ASiC container of the record, or null if it should be created here
+     * @throws Exception in case of any errors
+     */
+    void add(MessageRecord messageRecord, byte[] containerBytes) throws Exception {
+        validateMessageRecord(messageRecord);
 
-            zipOut.putNextEntry(entry);
+        if (archiveOut == null) {
+            throw new IllegalStateException("Log archive has not been opened");
+        }
+
+        creationTimes.add(new Date(messageRecord.getTime()));
 
-            try (InputStream archiveInput =
-                    Files.newInputStream(createTempAsicPath(eachName))) {
-                IOUtils.copy(archiveInput, zipOut);
-            }
+        addContainerToArchive(messageRecord, containerBytes != null
+                ? containerBytes : messageRecord.toAsicContainer().getBytes());
+        updateState();
+    }
 
-            zipOut.closeEntry();
+    /**
+     * Appends the linking info and completes the zip structure of the current archive.
+     * @throws IOException if writing to the archive output fails
+     */
+    void finish() throws IOException {
+        if (archiveOut == null) {
+            return;
         }
+
+        addLinkingInfoToArchive();
+
+        // Closing finishes the zip structure and flushes it, the underlying output stays open
+        archiveOut.close();
+        archiveOut = null;
     }
 
-    private void addLinkingInfoToArchive(ZipOutputStream zipOut)
-            throws IOException {
+    private void addLinkingInfoToArchive() throws IOException {
         ZipEntry linkingInfoEntry = new ZipEntry("linkinginfo");
 
-        zipOut.putNextEntry(linkingInfoEntry);
-        zipOut.write(linkingInfoBuilder.build());
-        zipOut.closeEntry();
+        archiveOut.putNextEntry(linkingInfoEntry);
+        archiveOut.write(linkingInfoBuilder.build());
+        archiveOut.closeEntry();
 
         linkingInfoBuilder.afterArchiveCreated();
     }
@@ -161,31 +155,28 @@ class LogArchiveCache implements Closeable {
 
     @Override
     public void close() throws IOException {
-        deleteArchiveArtifacts();
+        if (archiveOut == null) {
+            return;
+        }
+
+        // The underlying output belongs to the writer and an unfinished archive is abandoned, the zip stream is
+        // closed only to release its deflater
+        try {
+            archiveOut.close();
+        } catch (IOException e) {
+            log.debug("Failed to close abandoned log archive", e);
+        } finally {
+            archiveOut = null;
+        }
     }
 
-    private void validateMessageRecord(MessageRecord record)
-            throws IOException {
+    private void validateMessageRecord(MessageRecord record) {
         if (record == null) {
             throw new IllegalArgumentException(
                     "Message record to be archived must not be null");
         }
     }
 
-    private void handleRotation() throws IOException {
-        if (state != State.ROTATING) {
-            return;
-        }
-
-        reset();
-    }
-
-    private void cacheRecord(MessageRecord messageRecord) throws Exception {
-        creationTimes.add(new Date(messageRecord.getTime()));
-
-        addContainerToArchive(messageRecord);
-    }
-
     private void updateState() {
         state = archiveExceedsRotationSize() ? State.ROTATING : State.ADDING;
     }
@@ -194,53 +185,20 @@ class LogArchiveCache implements Closeable {
         return archivesTotalSize > getArchiveMaxFilesize();
     }
 
-    private void addContainerToArchive(MessageRecord record) throws Exception {
-        byte[] containerBytes = record.toAsicContainer().getBytes();
-
+    private void addContainerToArchive(MessageRecord record, byte[] containerBytes) throws IOException {
         String archiveFilename =
                 nameGenerator.getArchiveFilename(record.getQueryId(), record.isResponse() ? "response" : "request");
 
+        archiveOut.putNextEntry(new ZipEntry(archiveFilename));
+        archiveOut.write(containerBytes);
+        archiveOut.closeEntry();
+
         linkingInfoBuilder.addNextFile(archiveFilename, containerBytes);
-        archiveFileNames.add(archiveFilename);
         archivesTotalSize += containerBytes.length;
-
-        try (OutputStream os =
-                Files.newOutputStream(createTempAsicPath(archiveFilename))) {
-            os.write(containerBytes);
-        }
-    }
-
-    private Path createTempAsicPath(String archiveFilename) {
-        return Paths.get(archiveContentDir.getAbsolutePath(), archiveFilename);
-    }
-
-    private void reset() {
-        try {
-            resetArchive();
-            resetCacheState();
-        } catch (IOException e) {
-            log.error("Resetting log archive cache failed, cause:", e);
-            throw new CodedException(X_IO_ERROR,
-                    "Failed to reset log archive cache");
-        }
-    }
-
-    private void resetArchive() throws IOException {
-        deleteArchiveArtifacts();
-
-        archiveContentDir = Files.createTempDirectory(
-                    workingDir,
-                    "xroad-log-archive"
-                ).toFile();
-    }
-
-    private void deleteArchiveArtifacts() {
-        FileUtils.deleteQuietly(archiveContentDir);
-        FileUtils.deleteQuietly(tempArchive);
     }
 
     private void resetCacheState() {
-        archiveFileNames = new ArrayList<>();
+        state = State.NEW;
         creationTimes = new TreeSet<>();
         archivesTotalSize = 0;
 
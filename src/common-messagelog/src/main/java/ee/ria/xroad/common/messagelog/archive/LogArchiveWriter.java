@@ -27,14 +27,11 @@ import ee.ria.xroad.common.messagelog.MessageLogProperties;
 import ee.ria.xroad.common.messagelog.MessageRecord;
 
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.ArrayUtils;
 
 import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.nio.channels.Channels;
 import java.nio.channels.WritableByteChannel;
 import java.nio.charset.Charset;
@@ -55,7 +52,8 @@ import static org.apache.commons.lang3.RandomStringUtils.randomAlphanumeric;
 
 /**
  * Class for writing log records to zip file containing ASiC containers
- * (archive).
+ * (archive). The containers are streamed into the archive output in a
+ * single pass, no intermediate files are created.
  */
 @Slf4j
 public class LogArchiveWriter implements Closeable {
@@ -83,11 +81,9 @@ public class LogArchiveWriter implements Closeable {
     /**
      * Creates new LogArchiveWriter
      * @param outputPath directory where the log archive is created.
-     * @param workingPath directory where the temporary files are stored
      * @param archiveBase interface to archive database.
      */
-    public LogArchiveWriter(Path outputPath, Path workingPath,
-            LogArchiveBase archiveBase) {
+    public LogArchiveWriter(Path outputPath, LogArchiveBase archiveBase) {
         this.outputPath = outputPath;
         this.archiveBase = archiveBase;
 
@@ -98,8 +94,7 @@ public class LogArchiveWriter implements Closeable {
 
         this.logArchiveCache = new LogArchiveCache(
             LogArchiveWriter::generateRandom,
-            linkingInfoBuilder,
-            workingPath
+            linkingInfoBuilder
         );
     }
 
@@ -109,6 +104,23 @@ public class LogArchiveWriter implements Closeable {
      * @throws Exception in case of any errors
      */
     public void write(LogRecord logRecord) throws Exception {
+        writeRecord(logRecord, null);
+    }
+
+    /**
+     * Write a message log record whose ASiC container has already been
+     * created, e.g. by a worker thread.
+     * @param messageRecord the message record
+     * @param asicContainer bytes of the ASiC container of the record
+     * @throws Exception in case of any errors
+     */
+    public void write(MessageRecord messageRecord, byte[] asicContainer)
+            throws Exception {
+        writeRecord(messageRecord, asicContainer);
+    }
+
+    private void writeRecord(LogRecord logRecord, byte[] asicContainer)
+            throws Exception {
         if (logRecord == null) {
             throw new IllegalArgumentException("log record must not be null");
         }
@@ -120,7 +132,7 @@ public class LogArchiveWriter implements Closeable {
         log.trace("write({})", logRecord.getId());
 
         if (logRecord instanceof MessageRecord) {
-            logArchiveCache.add((MessageRecord) logRecord);
+            logArchiveCache.add((MessageRecord) logRecord, asicContainer);
         }
 
         archiveBase.markRecordArchived(logRecord);
@@ -135,14 +147,13 @@ public class LogArchiveWriter implements Closeable {
         log.trace("Closing log archive writer ...");
 
         try {
-            if (archiveAsicContainers()) {
+            if (finishArchive()) {
                 closeOutputs();
 
                 saveArchive();
-
-                logArchiveCache.close();
             }
         } finally {
+            logArchiveCache.close();
             clearTempArchive();
         }
     }
@@ -176,7 +187,7 @@ public class LogArchiveWriter implements Closeable {
 
     protected void rotate() throws Exception {
         log.trace("rotate()");
-        archiveAsicContainers();
+        logArchiveCache.finish();
 
         closeOutputs();
         archiveOut = null;
@@ -187,10 +198,13 @@ public class LogArchiveWriter implements Closeable {
         lastHashStepTmp = null;
     }
 
-    private boolean archiveAsicContainers() {
-        try (InputStream input = logArchiveCache.getArchiveFile();
-                OutputStream output = Channels.newOutputStream(archiveOut)) {
-            IOUtils.copy(input, output);
+    private boolean finishArchive() {
+        if (!logArchiveCache.isOpen()) {
+            return false;
+        }
+
+        try {
+            logArchiveCache.finish();
         } catch (IOException e) {
             log.error("Failed to archive ASiC containers due to IO error", e);
             return false;
@@ -215,6 +229,8 @@ public class LogArchiveWriter implements Closeable {
         }
 
         archiveOut = createArchiveOutput();
+
+        logArchiveCache.open(Channels.newOutputStream(archiveOut));
     }
 
     private void saveArchive() throws IOException {
@@ -28,7 +28,6 @@ import ee.ria.xroad.common.messagelog.MessageRecord;
 
 import lombok.RequiredArgsConstructor;
 import lombok.Value;
-import org.apache.commons.io.IOUtils;
 import org.hamcrest.Description;
 import org.hamcrest.Matcher;
 import org.hamcrest.TypeSafeMatcher;
@@ -37,10 +36,10 @@ import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
@@ -79,6 +78,8 @@ public class LogArchiveCacheTest {
     private static final long LOG_TIME_REQUEST_LARGE_EARLIEST = 1428664660610L;
     private static final long LOG_TIME_RESPONSE_NORMAL = 1428664927050L;
 
+    private ByteArrayOutputStream archiveOutput;
+
     private LogArchiveCache cache = createCache(getMockRandomGenerator());
 
     @Rule
@@ -97,7 +98,6 @@ public class LogArchiveCacheTest {
         cache.add(createRequestRecordNormal());
 
         // Then
-        assertZip(expectedNormalSizeRequestEntryName(), getArchiveBytes());
         assertFalse(
                 "Should not rotate, as entry is small enough to fit in.",
                 cache.isRotating());
@@ -105,6 +105,8 @@ public class LogArchiveCacheTest {
         Date expectedCreationTime = normalRequestCreationTime();
         assertEquals(expectedCreationTime, cache.getStartTime());
         assertEquals(expectedCreationTime, cache.getEndTime());
+
+        assertZip(expectedNormalSizeRequestEntryName(), getArchiveBytes());
     }
 
     /**
@@ -120,10 +122,10 @@ public class LogArchiveCacheTest {
         cache.add(createRequestRecordTooLarge());
 
         // Then
-        assertZip(expectedLargeSizeRequestEntryName(), getArchiveBytes());
         assertTrue(
                 "Entry is so large that rotation must take place",
                 cache.isRotating());
+        assertZip(expectedLargeSizeRequestEntryName(), getArchiveBytes());
     }
 
     /**
@@ -150,18 +152,18 @@ public class LogArchiveCacheTest {
         // First record
         cache.add(createRequestRecordNormal());
 
-        assertZip(expectedNormalSizeRequestEntryName(), getArchiveBytes());
         assertFalse("Step 1: no need to rotate yet.", cache.isRotating());
 
         // Second record
         cache.add(createRequestRecordTooLarge());
 
-        assertZip(expectedNormalAndLargeRequestEntryNames(), getArchiveBytes());
         assertTrue("Step 2: should be rotated.", cache.isRotating());
         assertEquals(largeRequestCreationTime(), cache.getStartTime());
         assertEquals(normalRequestCreationTime(), cache.getEndTime());
+        assertZip(expectedNormalAndLargeRequestEntryNames(), getArchiveBytes());
 
-        // Third record
+        // Third record goes to the next archive
+        openArchive();
         cache.add(createResponseRecordNormal());
 
         assertZip(expectedNormalSizeResponseEntryName(), getArchiveBytes());
@@ -184,15 +186,63 @@ public class LogArchiveCacheTest {
 
         // First record
         cache.add(createRequestRecordNormal());
-        assertZip(expectedNormalSizeRequestEntryName(), getArchiveBytes());
 
         // Record with conflicting name
         cache.add(createRequestRecordNormal());
         assertZip(expectedConflictingEntryNames(), getArchiveBytes());
     }
 
+    /**
+     * Test to ensure records cannot be added before the archive is opened.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void doNotAllowAddingToArchiveNotOpened() throws Exception {
+        setMaxArchiveSizeDefault();
+
+        cache.add(createRequestRecordNormal());
+        getArchiveBytes();
+
+        thrown.expect(IllegalStateException.class);
+
+        cache.add(createRequestRecordNormal());
+    }
+
+    /**
+     * Test to ensure the archive output is left open when the archive is finished or abandoned.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void leaveArchiveOutputOpen() throws Exception {
+        setMaxArchiveSizeDefault();
+
+        CloseTrackingOutputStream output = new CloseTrackingOutputStream();
+
+        cache.open(output);
+        cache.add(createRequestRecordNormal());
+        cache.finish();
+
+        assertFalse("Finishing must not close the output", output.closed);
+        assertZip(expectedNormalSizeRequestEntryName(), output.toByteArray());
+
+        cache.open(output);
+        cache.add(createRequestRecordNormal());
+        cache.close();
+
+        assertFalse("Abandoning must not close the output", output.closed);
+        assertFalse(cache.isOpen());
+    }
+
+    private void openArchive() {
+        archiveOutput = new ByteArrayOutputStream();
+
+        cache.open(archiveOutput);
+    }
+
     private byte[] getArchiveBytes() throws IOException {
-        return IOUtils.toByteArray(cache.getArchiveFile());
+        cache.finish();
+
+        return archiveOutput.toByteArray();
     }
 
     private void setMaxArchiveSizeSmall() {
@@ -369,11 +419,15 @@ public class LogArchiveCacheTest {
     }
 
     private LogArchiveCache createCache(Supplier<String> randomGenerator) {
-        return new LogArchiveCache(
+        LogArchiveCache newCache = new LogArchiveCache(
             randomGenerator,
-            mockLinkingInfoBuilder(),
-            Paths.get("build/tmp/")
+            mockLinkingInfoBuilder()
         );
+
+        archiveOutput = new ByteArrayOutputStream();
+        newCache.open(archiveOutput);
+
+        return newCache;
     }
 
     @RequiredArgsConstructor
@@ -421,4 +475,15 @@ public class LogArchiveCacheTest {
             return result;
         }
     }
+
+    private static class CloseTrackingOutputStream extends ByteArrayOutputStream {
+        private boolean closed;
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+
+            super.close();
+        }
+    }
 }
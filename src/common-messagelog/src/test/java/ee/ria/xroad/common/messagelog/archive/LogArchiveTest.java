@@ -106,7 +106,6 @@ public class LogArchiveTest {
     private LogArchiveWriter getWriter() {
         return new LogArchiveWriter(
                 Paths.get("build/slog"),
-                Paths.get("build/tmp"),
                 dummyLogArchiveBase()) {
             @Override
             protected WritableByteChannel createArchiveOutput()
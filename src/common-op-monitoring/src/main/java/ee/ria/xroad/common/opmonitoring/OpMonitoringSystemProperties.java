@@ -52,6 +52,13 @@ public final class OpMonitoringSystemProperties {
     private static final String OP_MONITOR_BUFFER_MAX_RECORDS_IN_MESSAGE =
             PREFIX + "op-monitor-buffer.max-records-in-message";
 
+    /**
+     * Property name of the maximum number of messages the operational monitoring buffer sends concurrently to the
+     * operational monitoring daemon.
+     */
+    private static final String OP_MONITOR_BUFFER_MAX_CONCURRENT_SENDS =
+            PREFIX + "op-monitor-buffer.max-concurrent-sends";
+
     /**
      * Property name of the operational monitoring buffer sending interval seconds.
      */
@@ -144,6 +151,19 @@ public final class OpMonitoringSystemProperties {
     private static final String OP_MONITOR_CLEAN_INTERVAL =
             PREFIX + "op-monitor.clean-interval";
 
+    /**
+     * Property name of the maximum number of operational data records deleted in one transaction by the cleanup
+     * operation.
+     */
+    private static final String OP_MONITOR_CLEAN_CHUNK_SIZE =
+            PREFIX + "op-monitor.clean-chunk-size";
+
+    /**
+     * Property name of the pause in milliseconds between the chunks deleted by the cleanup operation.
+     */
+    private static final String OP_MONITOR_CLEAN_CHUNK_PAUSE_MILLIS =
+            PREFIX + "op-monitor.clean-chunk-pause-millis";
+
     /**
      * Property name of the maximum records in the get operational data response payload.
      */
@@ -168,6 +188,13 @@ public final class OpMonitoringSystemProperties {
         return Integer.parseInt(System.getProperty(OP_MONITOR_BUFFER_MAX_RECORDS_IN_MESSAGE, "100"));
     }
 
+    /**
+     * @return max number of messages sent concurrently to the operational monitoring daemon, '4' by default.
+     */
+    public static int getOpMonitorBufferMaxConcurrentSends() {
+        return Integer.parseInt(System.getProperty(OP_MONITOR_BUFFER_MAX_CONCURRENT_SENDS, "4"));
+    }
+
     /**
      * @return the interval in seconds at which operational monitoring buffer additionally tries to send records to the
      * operational monitoring daemon, '5' by default.
@@ -264,6 +291,21 @@ public final class OpMonitoringSystemProperties {
         return System.getProperty(OP_MONITOR_CLEAN_INTERVAL, "0 0 0/12 1/1 * ? *");
     }
 
+    /**
+     * @return the maximum number of operational data records deleted in one transaction by the cleanup operation,
+     * 0 by default. In case the chunk size < 1, all the outdated records are deleted in a single transaction.
+     */
+    public static int getOpMonitorCleanChunkSize() {
+        return Integer.parseInt(System.getProperty(OP_MONITOR_CLEAN_CHUNK_SIZE, "0"));
+    }
+
+    /**
+     * @return the pause in milliseconds between the chunks deleted by the cleanup operation, 0 by default.
+     */
+    public static long getOpMonitorCleanChunkPauseMillis() {
+        return Long.parseLong(System.getProperty(OP_MONITOR_CLEAN_CHUNK_PAUSE_MILLIS, "0"));
+    }
+
     /**
      * @return the maximum records in the get operational data response payload, 10000 by default.
      */
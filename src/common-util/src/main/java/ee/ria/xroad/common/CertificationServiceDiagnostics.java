@@ -25,8 +25,8 @@ package ee.ria.xroad.common;
 import lombok.Getter;
 
 import java.io.Serializable;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Diagnostics information for certification services
@@ -37,6 +37,6 @@ public class CertificationServiceDiagnostics implements Serializable {
   private Map<String, CertificationServiceStatus> certificationServiceStatusMap;
 
   public CertificationServiceDiagnostics() {
-    certificationServiceStatusMap = new HashMap<>();
+    certificationServiceStatusMap = new ConcurrentHashMap<>();
   }
 }
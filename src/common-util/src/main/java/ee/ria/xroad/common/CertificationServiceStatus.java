@@ -25,8 +25,8 @@ package ee.ria.xroad.common;
 import lombok.Getter;
 
 import java.io.Serializable;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Diagnostics status for certification service
@@ -40,6 +40,6 @@ public class CertificationServiceStatus implements Serializable {
 
   public CertificationServiceStatus(String name) {
     this.name = name;
-    ocspResponderStatusMap = new HashMap<>();
+    ocspResponderStatusMap = new ConcurrentHashMap<>();
   }
 }
@@ -36,4 +36,10 @@ public class OcspResponderStatus implements Serializable {
   private String url;
   private LocalTime prevUpdate;
   private LocalTime nextUpdate;
+  /** Duration of the latest request to the responder in milliseconds */
+  private long responseTimeMillis;
+  /** Number of successful requests to the responder since startup */
+  private long successCount;
+  /** Number of failed requests to the responder since startup */
+  private long failureCount;
 }
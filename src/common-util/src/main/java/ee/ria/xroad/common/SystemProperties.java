@@ -48,6 +48,10 @@ public final class SystemProperties {
     public static final String CONFIGURATION_PATH =
             PREFIX + "common.configuration-path";
 
+    /** Property name of the global configuration snapshot mode switch. */
+    public static final String CONFIGURATION_SNAPSHOT_ENABLED =
+            PREFIX + "common.configuration-snapshot-enabled";
+
     /** Current version number of the global configuration **/
     public static final int CURRENT_GLOBAL_CONFIGURATION_VERSION = 2;
 
@@ -158,6 +162,10 @@ public final class SystemProperties {
     public static final String SERVER_CONF_CACHE_PERIOD =
             PREFIX + "proxy.server-conf-cache-period";
 
+    /** Property name of the flag for serving server conf from an in-memory snapshot */
+    public static final String SERVER_CONF_SNAPSHOT_ENABLED =
+            PREFIX + "proxy.server-conf-snapshot-enabled";
+
     /** Property name of the idle time that connections to the ServerProxy Connector are allowed, in milliseconds */
     private static final String SERVERPROXY_CONNECTOR_MAX_IDLE_TIME =
             PREFIX + "proxy.server-connector-max-idle-time";
@@ -186,6 +194,35 @@ public final class SystemProperties {
     private static final String CLIENTPROXY_HTTPCLIENT_SO_LINGER =
             PREFIX + "proxy.client-httpclient-so-linger";
 
+    /** Property name of the time the batch signer collects signing requests for a batch, in microseconds */
+    private static final String PROXY_BATCH_SIGNER_WINDOW_MICROS =
+            PREFIX + "proxy.batch-signer-window-micros";
+
+    /** Property name of the maximum number of signing requests the batch signer collects for a batch */
+    private static final String PROXY_BATCH_SIGNER_MAX_BATCH_SIZE =
+            PREFIX + "proxy.batch-signer-max-batch-size";
+
+    /** Property name of the on/off switch for rendering message signatures from precomputed XML templates */
+    private static final String PROXY_SIGNATURE_XML_TEMPLATES_ENABLED =
+            PREFIX + "proxy.signature-xml-templates-enabled";
+
+    /** Property name of the size up to which the attachments of a message are cached in memory, in bytes */
+    private static final String PROXY_ATTACHMENT_CACHE_MEMORY_THRESHOLD =
+            PREFIX + "proxy.attachment-cache-memory-threshold";
+
+    /** Property name of the total size of the memory buffers for caching attachments, in bytes */
+    private static final String PROXY_ATTACHMENT_CACHE_BUFFER_POOL_SIZE =
+            PREFIX + "proxy.attachment-cache-buffer-pool-size";
+
+    /** Property name of the maximum number of threads reading and signing client requests in ClientProxy */
+    private static final String CLIENTPROXY_SOAP_HANDLER_THREADS =
+            PREFIX + "proxy.client-soap-handler-threads";
+
+    /** Property name of the size of the buffer between the ClientProxy request reader and the HTTP sender, in
+     * bytes */
+    private static final String CLIENTPROXY_REQUEST_BUFFER_SIZE =
+            PREFIX + "proxy.client-request-buffer-size";
+
     private static final String CLIENTPROXY_POOL_IDLE_MONITOR_INTERVAL =
             PREFIX + "proxy.client-idle-connection-monitor-interval";
 
@@ -233,6 +270,20 @@ public final class SystemProperties {
 
     private static final String DEFAULT_CLIENTPROXY_HTTPCLIENT_SO_LINGER = "-1";
 
+    private static final String DEFAULT_PROXY_BATCH_SIGNER_WINDOW_MICROS = "0";
+
+    private static final String DEFAULT_PROXY_BATCH_SIGNER_MAX_BATCH_SIZE = "100";
+
+    private static final String DEFAULT_PROXY_SIGNATURE_XML_TEMPLATES_ENABLED = "true";
+
+    private static final String DEFAULT_PROXY_ATTACHMENT_CACHE_MEMORY_THRESHOLD = "65536";
+
+    private static final String DEFAULT_PROXY_ATTACHMENT_CACHE_BUFFER_POOL_SIZE = "33554432";
+
+    private static final String DEFAULT_CLIENTPROXY_SOAP_HANDLER_THREADS = "256";
+
+    private static final String DEFAULT_CLIENTPROXY_REQUEST_BUFFER_SIZE = "65536";
+
     private static final String DEFAULT_CLIENTPROXY_POOL_IDLE_MONITOR_INTERVAL = "30000";
 
     private static final String DEFAULT_CLIENTPROXY_POOL_IDLE_MONITOR_IDLE_TIME = "60000";
@@ -304,6 +355,14 @@ public final class SystemProperties {
     public static final String OCSP_RESPONSE_RETRIEVAL_ACTIVE =
             PREFIX + "signer.ocsp-response-retrieval-active";
 
+    /** Property name of the number of threads used for fetching OCSP responses in parallel */
+    public static final String SIGNER_OCSP_FETCH_THREADS =
+            PREFIX + "signer.ocsp-fetch-threads";
+
+    /** Property name of the number of threads calculating software token signatures in parallel */
+    public static final String SIGNER_SOFTWARE_TOKEN_SIGNING_THREADS =
+            PREFIX + "signer.software-token-signing-threads";
+
     // AntiDos ----------------------------------------------------------------
 
     /** Property name of the AntiDos on/off switch */
@@ -595,6 +654,15 @@ public final class SystemProperties {
                 getConfPath() + DefaultFilepaths.CONFIGURATION_ANCHOR_FILE);
     }
 
+    /**
+     * @return whether the global configuration is read from immutable snapshots that are replaced in the
+     * background when the configuration directory changes, instead of checking the configuration files for
+     * changes on access, 'true' by default.
+     */
+    public static boolean isConfigurationSnapshotEnabled() {
+        return "true".equalsIgnoreCase(System.getProperty(CONFIGURATION_SNAPSHOT_ENABLED, "true"));
+    }
+
     /**
      * @return path to the directory where the downloaded global configuration is placed,
      * '/etc/xroad/globalconf/' by default.
@@ -782,6 +850,22 @@ public final class SystemProperties {
         return "true".equalsIgnoreCase(System.getProperty(OCSP_RESPONSE_RETRIEVAL_ACTIVE, "true"));
     }
 
+    /**
+     * @return the number of threads used for fetching OCSP responses from different certification services in
+     * parallel, '4' by default.
+     */
+    public static int getOcspFetchThreads() {
+        return Math.max(1, Integer.parseInt(System.getProperty(SIGNER_OCSP_FETCH_THREADS, "4")));
+    }
+
+    /**
+     * @return the number of threads calculating software token signatures in parallel, '4' by default. If 0, the
+     * signatures are calculated one at a time by the token worker.
+     */
+    public static int getSoftwareTokenSigningThreads() {
+        return Math.max(0, Integer.parseInt(System.getProperty(SIGNER_SOFTWARE_TOKEN_SIGNING_THREADS, "4")));
+    }
+
     /**
      * @return the HTTP port on which the configuration client is listening, '5665' by default.
      */
@@ -1138,6 +1222,14 @@ public final class SystemProperties {
         return Integer.parseInt(System.getProperty(SERVER_CONF_CACHE_PERIOD, "60"));
     }
 
+    /**
+     * @return whether server conf is served from an immutable in-memory snapshot that is reloaded
+     * every server conf cache period, 'false' by default
+     */
+    public static boolean isServerConfSnapshotEnabled() {
+        return "true".equalsIgnoreCase(System.getProperty(SERVER_CONF_SNAPSHOT_ENABLED, "false"));
+    }
+
     /**
      *
      * @return the interval in seconds at which verifier caches results.
@@ -1235,6 +1327,69 @@ public final class SystemProperties {
                 DEFAULT_SERVERPROXY_SUPPORT_CLIENTS_POOLED_CONNECTIONS));
     }
 
+    /**
+     * @return the time the batch signer keeps collecting signing requests for a batch after the first one, in
+     * microseconds, '0' by default (the requests already waiting are collected)
+     */
+    public static long getBatchSignerWindowMicros() {
+        return Long.parseLong(System.getProperty(PROXY_BATCH_SIGNER_WINDOW_MICROS,
+                DEFAULT_PROXY_BATCH_SIGNER_WINDOW_MICROS));
+    }
+
+    /**
+     * @return the maximum number of signing requests the batch signer collects for a batch before signing,
+     * '100' by default
+     */
+    public static int getBatchSignerMaxBatchSize() {
+        return Integer.parseInt(System.getProperty(PROXY_BATCH_SIGNER_MAX_BATCH_SIZE,
+                DEFAULT_PROXY_BATCH_SIGNER_MAX_BATCH_SIZE));
+    }
+
+    /**
+     * @return true if message signatures are rendered from precomputed XML templates instead of building them
+     * through DOM, 'true' by default
+     */
+    public static boolean isSignatureXmlTemplatesEnabled() {
+        return Boolean.parseBoolean(System.getProperty(PROXY_SIGNATURE_XML_TEMPLATES_ENABLED,
+                DEFAULT_PROXY_SIGNATURE_XML_TEMPLATES_ENABLED));
+    }
+
+    /**
+     * @return the size up to which the attachments of a message are cached in memory before they are written to
+     * a temporary file, in bytes, '65536' by default (0 caches all attachments in temporary files)
+     */
+    public static int getAttachmentCacheMemoryThreshold() {
+        return Integer.parseInt(System.getProperty(PROXY_ATTACHMENT_CACHE_MEMORY_THRESHOLD,
+                DEFAULT_PROXY_ATTACHMENT_CACHE_MEMORY_THRESHOLD));
+    }
+
+    /**
+     * @return the total size of the memory buffers shared by all messages for caching attachments, in bytes,
+     * '33554432' by default
+     */
+    public static int getAttachmentCacheBufferPoolSize() {
+        return Integer.parseInt(System.getProperty(PROXY_ATTACHMENT_CACHE_BUFFER_POOL_SIZE,
+                DEFAULT_PROXY_ATTACHMENT_CACHE_BUFFER_POOL_SIZE));
+    }
+
+    /**
+     * @return the maximum number of threads that read, sign and encode client requests in ClientProxy,
+     * '256' by default
+     */
+    public static int getClientProxySoapHandlerThreads() {
+        return Integer.parseInt(System.getProperty(CLIENTPROXY_SOAP_HANDLER_THREADS,
+                DEFAULT_CLIENTPROXY_SOAP_HANDLER_THREADS));
+    }
+
+    /**
+     * @return the size of the buffer the encoded client request is passed through to the HTTP sender, in bytes,
+     * '65536' by default
+     */
+    public static int getClientProxyRequestBufferSize() {
+        return Integer.parseInt(System.getProperty(CLIENTPROXY_REQUEST_BUFFER_SIZE,
+                DEFAULT_CLIENTPROXY_REQUEST_BUFFER_SIZE));
+    }
+
     public static int getClientProxyPoolTotalMaxConnections() {
         return Integer.parseInt(System.getProperty(CLIENTPROXY_POOL_TOTAL_MAX_CONNECTIONS,
                 DEFAULT_CLIENTPROXY_POOL_TOTAL_MAX_CONNECTIONS));
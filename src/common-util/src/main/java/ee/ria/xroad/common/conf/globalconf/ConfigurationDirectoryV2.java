@@ -55,7 +55,8 @@ import static ee.ria.xroad.common.conf.globalconf.ConfigurationUtils.escapeInsta
  * Each sub directory must contain private and/or shared parameters.
  *
  * When querying the parameters from this class, the parameters XML is checked for modifications and if the XML has
- * been modified, the parameters are reloaded from the XML.
+ * been modified, the parameters are reloaded from the XML. Without the automatic reload, the parameters are read
+ * without locking.
  */
 @Slf4j
 public class ConfigurationDirectoryV2 implements ConfigurationDirectory {
@@ -68,10 +69,10 @@ public class ConfigurationDirectoryV2 implements ConfigurationDirectory {
     private Path path;
     private final boolean reloadIfChanged;
 
-    private String instanceIdentifier;
+    private volatile String instanceIdentifier;
 
-    private Map<String, PrivateParametersV2> privateParameters = new HashMap<>();
-    private Map<String, SharedParametersV2> sharedParameters = new HashMap<>();
+    private volatile Map<String, PrivateParametersV2> privateParameters = new HashMap<>();
+    private volatile Map<String, SharedParametersV2> sharedParameters = new HashMap<>();
 
     // ------------------------------------------------------------------------
 
@@ -150,17 +151,21 @@ public class ConfigurationDirectoryV2 implements ConfigurationDirectory {
      * @return private parameters or null, if no private parameters exist for given instance identifier
      * @throws Exception if an error occurs while reading parameters
      */
-    public synchronized PrivateParametersV2 getPrivate(String instanceId) throws Exception {
+    public PrivateParametersV2 getPrivate(String instanceId) throws Exception {
+        if (!reloadIfChanged) {
+            return privateParameters.get(escapeInstanceIdentifier(instanceId));
+        }
+
+        return getPrivateReloadIfChanged(instanceId);
+    }
+
+    private synchronized PrivateParametersV2 getPrivateReloadIfChanged(String instanceId) throws Exception {
         String safeInstanceId = escapeInstanceIdentifier(instanceId);
 
         log.trace("getPrivate(instance = {}, directory = {})", instanceId, safeInstanceId);
 
         PrivateParametersV2 parameters = privateParameters.get(safeInstanceId);
 
-        if (!reloadIfChanged) {
-            return parameters;
-        }
-
         if (parameters != null && parameters.hasChanged()) {
             parameters.reload();
         } else if (parameters == null) {
@@ -179,17 +184,21 @@ public class ConfigurationDirectoryV2 implements ConfigurationDirectory {
      * @return shared parameters or null, if no shared parameters exist for given instance identifier
      * @throws Exception if an error occurs while reading parameters
      */
-    public synchronized SharedParametersV2 getShared(String instanceId) throws Exception {
+    public SharedParametersV2 getShared(String instanceId) throws Exception {
+        if (!reloadIfChanged) {
+            return sharedParameters.get(escapeInstanceIdentifier(instanceId));
+        }
+
+        return getSharedReloadIfChanged(instanceId);
+    }
+
+    private synchronized SharedParametersV2 getSharedReloadIfChanged(String instanceId) throws Exception {
         String safeInstanceId = escapeInstanceIdentifier(instanceId);
 
         log.trace("getShared(instance = {}, directory = {})", instanceId, safeInstanceId);
 
         SharedParametersV2 parameters = sharedParameters.get(safeInstanceId);
 
-        if (!reloadIfChanged) {
-            return parameters;
-        }
-
         if (parameters != null && parameters.hasChanged()) {
             parameters.reload();
         } else if (parameters == null) {
@@ -204,8 +213,14 @@ public class ConfigurationDirectoryV2 implements ConfigurationDirectory {
     /**
      * @return all known shared parameters
      */
-    public synchronized List<SharedParametersV2> getShared() {
-        return new ArrayList<>(sharedParameters.values());
+    public List<SharedParametersV2> getShared() {
+        if (!reloadIfChanged) {
+            return new ArrayList<>(sharedParameters.values());
+        }
+
+        synchronized (this) {
+            return new ArrayList<>(sharedParameters.values());
+        }
     }
 
     /**
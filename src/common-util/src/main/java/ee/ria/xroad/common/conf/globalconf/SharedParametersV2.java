@@ -38,6 +38,7 @@ import ee.ria.xroad.common.conf.globalconf.sharedparameters.v2.SubsystemType;
 import ee.ria.xroad.common.identifier.ClientId;
 import ee.ria.xroad.common.identifier.GlobalGroupId;
 import ee.ria.xroad.common.identifier.SecurityServerId;
+import ee.ria.xroad.common.identifier.ServiceId;
 
 import lombok.AccessLevel;
 import lombok.Getter;
@@ -78,7 +79,8 @@ public class SharedParametersV2 extends AbstractXmlConf<SharedParametersTypeV2>
     private final Map<X509Certificate, List<OcspInfoType>> caCertsAndOcspData =
             new HashMap<>();
     private final Map<ClientId, Set<String>> memberAddresses = new HashMap<>();
-    private final Map<ClientId, Set<byte[]>> memberAuthCerts = new HashMap<>();
+    // Base64 encoded hashes, byte arrays cannot be looked up from sets
+    private final Map<ClientId, Set<String>> memberAuthCerts = new HashMap<>();
     private final Map<String, SecurityServerType> serverByAuthCert =
             new HashMap<>();
     private final Map<SecurityServerId, Set<ClientId>> securityServerClients =
@@ -86,6 +88,10 @@ public class SharedParametersV2 extends AbstractXmlConf<SharedParametersTypeV2>
     private final List<X509Certificate> verificationCaCerts = new ArrayList<>();
     private final Set<String> knownAddresses = new HashSet<>();
     private final Map<SecurityServerId, SecurityServerType> securityServersById = new HashMap<>();
+    private final Map<String, GlobalGroupType> globalGroupsByCode = new HashMap<>();
+    private final Map<GlobalGroupId, Set<ClientId>> globalGroupMembers = new HashMap<>();
+    private final Map<X509Certificate, Set<X509Certificate>> caCertsAndOcspResponderCerts = new HashMap<>();
+    private final Map<String, ServiceId> centralServiceImplementations = new HashMap<>();
 
     SharedParametersV2() {
         super(ObjectFactory.class, SharedParametersSchemaValidatorV2.class);
@@ -145,9 +151,7 @@ public class SharedParametersV2 extends AbstractXmlConf<SharedParametersTypeV2>
             return null;
         }
 
-        return confType.getGlobalGroup().stream()
-                .filter(g -> g.getGroupCode().equals(groupId.getGroupCode()))
-                .findFirst().orElse(null);
+        return globalGroupsByCode.get(groupId.getGroupCode());
     }
 
     X509Certificate getCaCertForSubject(X509Certificate subject)
@@ -174,6 +178,8 @@ public class SharedParametersV2 extends AbstractXmlConf<SharedParametersTypeV2>
             cacheCaCerts();
             cacheKnownAddresses();
             cacheSecurityServers();
+            cacheGlobalGroups();
+            cacheCentralServices();
         } catch (Exception e) {
             throw translateException(e);
         }
@@ -200,6 +206,10 @@ public class SharedParametersV2 extends AbstractXmlConf<SharedParametersTypeV2>
         verificationCaCerts.clear();
         knownAddresses.clear();
         securityServersById.clear();
+        globalGroupsByCode.clear();
+        globalGroupMembers.clear();
+        caCertsAndOcspResponderCerts.clear();
+        centralServiceImplementations.clear();
     }
 
     private void cacheCaCerts() throws CertificateException, IOException {
@@ -288,7 +298,7 @@ public class SharedParametersV2 extends AbstractXmlConf<SharedParametersTypeV2>
 
         // Add the mapping from client to authentication certificate.
         for (byte[] authCert : server.getAuthCertHash()) {
-            addToMap(memberAuthCerts, client, authCert);
+            addToMap(memberAuthCerts, client, encodeBase64(authCert));
         }
 
         MemberType owner = getOwner(server);
@@ -300,6 +310,24 @@ public class SharedParametersV2 extends AbstractXmlConf<SharedParametersTypeV2>
         addToMap(securityServerClients, securityServerId, client);
     }
 
+    private void cacheGlobalGroups() {
+        for (GlobalGroupType globalGroup : confType.getGlobalGroup()) {
+            // The first group with the code wins, as in a linear search
+            if (globalGroupsByCode.putIfAbsent(globalGroup.getGroupCode(), globalGroup) == null) {
+                globalGroupMembers.put(createGlobalGroupId(globalGroup), new HashSet<>(globalGroup.getGroupMember()));
+            }
+        }
+    }
+
+    private void cacheCentralServices() {
+        for (CentralServiceType centralService : confType.getCentralService()) {
+            if (centralService.getImplementingService() != null) {
+                centralServiceImplementations.putIfAbsent(centralService.getServiceCode(),
+                        centralService.getImplementingService());
+            }
+        }
+    }
+
     private Map<String, ClientId> getClientIds() {
         Map<String, ClientId> ret = new HashMap<>();
 
@@ -321,6 +349,16 @@ public class SharedParametersV2 extends AbstractXmlConf<SharedParametersTypeV2>
             X509Certificate cert = readCertificate(caType.getCert());
             List<OcspInfoType> caOcspTypes = caType.getOcsp();
             caCertsAndOcspData.put(cert, caOcspTypes);
+
+            Set<X509Certificate> responderCerts = new HashSet<>();
+
+            for (OcspInfoType caOcspType : caOcspTypes) {
+                if (caOcspType.getCert() != null) {
+                    responderCerts.add(readCertificate(caOcspType.getCert()));
+                }
+            }
+
+            caCertsAndOcspResponderCerts.put(cert, responderCerts);
         }
     }
 
@@ -0,0 +1,219 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.conf.globalconf;
+
+import ee.ria.xroad.common.CodedException;
+
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.FileUtils;
+import org.joda.time.DateTime;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static ee.ria.xroad.common.ErrorCodes.X_MALFORMED_GLOBALCONF;
+import static ee.ria.xroad.common.ErrorCodes.X_OUTDATED_GLOBALCONF;
+
+/**
+ * Configuration directory that is loaded once and never reloaded. The parameters, the instance identifier and the
+ * expiration dates of the configuration files are read when the snapshot is created, so querying the snapshot does
+ * not touch the file system and does not take locks. Changes in the directory are picked up by loading a new
+ * snapshot when {@link #isStale()} returns true.
+ */
+@Slf4j
+public final class SnapshotConfigurationDirectory extends ConfigurationDirectoryV2 {
+
+    private final DirectoryState state;
+
+    private final String snapshotInstanceIdentifier;
+
+    // Null if the file list is missing
+    private volatile Map<Path, DateTime> expirationDates;
+
+    private SnapshotConfigurationDirectory(String directoryPath, DirectoryState state) throws Exception {
+        super(directoryPath, false);
+
+        this.state = state;
+        this.snapshotInstanceIdentifier = readInstanceIdentifier();
+
+        refreshExpirationDates();
+    }
+
+    /**
+     * Loads a snapshot of the given directory.
+     * @param directoryPath the path to the directory
+     * @return the snapshot
+     * @throws Exception if loading the configuration fails
+     */
+    public static SnapshotConfigurationDirectory load(String directoryPath) throws Exception {
+        // The state is taken before loading, so that a change made during the loading makes the snapshot stale
+        DirectoryState state = DirectoryState.read(Paths.get(directoryPath));
+
+        return new SnapshotConfigurationDirectory(directoryPath, state);
+    }
+
+    /**
+     * Checks whether the directory has changed since the snapshot was loaded. Only the instance identifier, the list
+     * of configuration files and the modification times and sizes of the listed files are compared, the contents of
+     * the configuration files are not read.
+     * @return true if a new snapshot should be loaded
+     */
+    public boolean isStale() {
+        try {
+            return !state.equals(DirectoryState.read(getPath()));
+        } catch (Exception e) {
+            log.error("Failed to check configuration directory {} for changes", getPath(), e);
+
+            return true;
+        }
+    }
+
+    /**
+     * Re-reads the expiration dates of the configuration files. The configuration client updates the expiration dates
+     * without changing the configuration files, so this must be done even if the snapshot is not stale.
+     */
+    public void refreshExpirationDates() {
+        List<Path> files = state.getFiles();
+
+        if (files == null) {
+            expirationDates = null;
+
+            return;
+        }
+
+        Map<Path, DateTime> dates = new HashMap<>();
+
+        for (Path file : files) {
+            try {
+                dates.put(file, getMetadata(file).getExpirationDate());
+            } catch (Exception e) {
+                log.error("Failed to get expiration date of file " + file, e);
+            }
+        }
+
+        expirationDates = dates;
+    }
+
+    @Override
+    public String getInstanceIdentifier() {
+        return snapshotInstanceIdentifier != null ? snapshotInstanceIdentifier : super.getInstanceIdentifier();
+    }
+
+    @Override
+    public void verifyUpToDate() throws Exception {
+        Map<Path, DateTime> dates = expirationDates;
+
+        if (dates == null) {
+            throw new CodedException(X_MALFORMED_GLOBALCONF, "File 'files' is missing");
+        }
+
+        for (Map.Entry<Path, DateTime> entry : dates.entrySet()) {
+            if (entry.getValue() != null && entry.getValue().isBeforeNow()) {
+                log.info("{} expired on {}", entry.getKey(), entry.getValue());
+
+                throw new CodedException(X_OUTDATED_GLOBALCONF, "%s is too old", entry.getKey());
+            }
+        }
+    }
+
+    private String readInstanceIdentifier() {
+        try {
+            return super.getInstanceIdentifier();
+        } catch (Exception e) {
+            // Reported when the instance identifier is queried
+            return null;
+        }
+    }
+
+    /**
+     * The parts of a configuration directory that are compared to detect changes.
+     */
+    @Value
+    private static class DirectoryState {
+        String instanceIdentifier;
+
+        List<Path> files;
+
+        List<FileState> fileStates;
+
+        static DirectoryState read(Path directory) throws Exception {
+            File instanceIdentifierFile = directory.resolve(INSTANCE_IDENTIFIER_FILE).toFile();
+            String instanceIdentifier = instanceIdentifierFile.isFile()
+                    ? FileUtils.readFileToString(instanceIdentifierFile, StandardCharsets.UTF_8).trim() : null;
+
+            File filesFile = directory.resolve(FILES).toFile();
+
+            if (!filesFile.isFile()) {
+                return new DirectoryState(instanceIdentifier, null, Collections.emptyList());
+            }
+
+            List<Path> files = new ArrayList<>();
+            List<FileState> fileStates = new ArrayList<>();
+
+            for (String line : FileUtils.readLines(filesFile, StandardCharsets.UTF_8)) {
+                Path file = Paths.get(line);
+
+                files.add(file);
+                fileStates.add(FileState.read(file));
+            }
+
+            Collections.sort(files);
+            fileStates.sort(null);
+
+            return new DirectoryState(instanceIdentifier, files, fileStates);
+        }
+    }
+
+    @Value
+    private static class FileState implements Comparable<FileState> {
+        Path file;
+
+        // Null if the file does not exist
+        FileTime lastModified;
+
+        long size;
+
+        static FileState read(Path file) throws Exception {
+            if (!Files.exists(file)) {
+                return new FileState(file, null, -1);
+            }
+
+            return new FileState(file, Files.getLastModifiedTime(file), Files.size(file));
+        }
+
+        @Override
+        public int compareTo(FileState other) {
+            return file.compareTo(other.file);
+        }
+    }
+}
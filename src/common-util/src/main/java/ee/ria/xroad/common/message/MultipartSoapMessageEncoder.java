@@ -25,6 +25,7 @@ package ee.ria.xroad.common.message;
 import ee.ria.xroad.common.util.MimeTypes;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CloseShieldOutputStream;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -99,6 +100,28 @@ public class MultipartSoapMessageEncoder implements SoapMessageEncoder {
         IOUtils.copy(content, multipart);
     }
 
+    /**
+     * Starts a new attachment part and returns a stream for writing the
+     * attachment content directly into the message. The part ends when the
+     * next part is started or the encoder is closed. Closing the returned
+     * stream does not close the encoder.
+     * @param contentType content type of the attachment
+     * @param additionalHeaders additional headers of the attachment part
+     * @return the output stream for the attachment content
+     * @throws IOException if an I/O error occurs
+     */
+    public OutputStream attachment(String contentType,
+                                   Map<String, String> additionalHeaders) throws IOException {
+        String[] headers = {};
+        if (additionalHeaders != null && !additionalHeaders.isEmpty()) {
+            headers = convertHeaders(additionalHeaders);
+        }
+
+        multipart.startPart(contentType, headers);
+
+        return new CloseShieldOutputStream(multipart);
+    }
+
     private static String[] convertHeaders(Map<String, String> headers) {
         return headers.entrySet().stream()
             .map(e -> e.getKey() + ": " + e.getValue())
@@ -40,21 +40,22 @@ import org.apache.commons.io.input.TeeInputStream;
 import org.apache.commons.lang3.StringEscapeUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 import org.xml.sax.SAXParseException;
 import org.xml.sax.XMLReader;
 import org.xml.sax.ext.DefaultHandler2;
 
 import javax.xml.namespace.QName;
-import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
 import javax.xml.soap.SOAPException;
 
 import java.io.BufferedWriter;
-import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
@@ -167,6 +168,13 @@ public class SaxSoapParserImpl implements SoapParser {
 
     private static final SAXParserFactory PARSER_FACTORY = createSaxParserFactory();
 
+    // XMLReader instances are expensive to create and not thread-safe, so every
+    // thread keeps one and resets its handlers after each parse
+    private static final ThreadLocal<XMLReader> XML_READER = ThreadLocal.withInitial(
+            SaxSoapParserImpl::createXmlReader);
+
+    private static final DefaultHandler2 NO_OP_HANDLER = new DefaultHandler2();
+
     @Override
     public Soap parse(String contentType, InputStream is) {
         String mimeType = MimeUtils.getBaseContentType(contentType);
@@ -190,41 +198,53 @@ public class SaxSoapParserImpl implements SoapParser {
     private Soap parseMessage(InputStream is, String mimeType, String contentType, String charset) throws Exception {
         log.trace("parseMessage({}, {})", mimeType, charset);
 
-        ByteArrayOutputStream rawXml = new ByteArrayOutputStream();
-        ByteArrayOutputStream processedXml = new ByteArrayOutputStream();
+        // The raw XML is always needed for SOAP faults, the processed XML only
+        // by parsers that may rewrite the message. Once the first body element
+        // shows which one the message will use, the other buffer is released.
+        XmlBuffer rawXml = new XmlBuffer();
+        XmlBuffer processedXml = isProcessedXmlSupported() ? new XmlBuffer() : null;
 
         InputStream proxyStream = excludeUtf8Bom(contentType, new TeeInputStream(is, rawXml));
-        Writer outputWriter = new OutputStreamWriter(processedXml, charset);
-        XRoadSoapHandler handler = handleSoap(outputWriter, proxyStream);
+        Writer outputWriter = processedXml != null ? new OutputStreamWriter(processedXml, charset) : null;
+        XRoadSoapHandler handler = handleSoap(outputWriter, proxyStream, rawXml, processedXml);
 
         CodedException fault = handler.getFault();
         if (fault != null) {
-            return createSoapFault(charset, rawXml, fault);
+            return createSoapFault(charset, rawXml.toByteArray(), fault);
         }
 
-        byte[] xmlBytes = isProcessedXmlRequired() ? processedXml.toByteArray() : rawXml.toByteArray();
+        byte[] xmlBytes = processedXml != null && isProcessedXmlRequired()
+                ? processedXml.toByteArray() : rawXml.toByteArray();
 
         return createSoapMessage(contentType, charset, handler, xmlBytes);
     }
 
-    private XRoadSoapHandler handleSoap(Writer writer, InputStream inputStream)
-            throws Exception {
-        try (BufferedWriter out = new BufferedWriter(writer)) {
-            XRoadSoapHandler handler = new XRoadSoapHandler(out);
-            SAXParser saxParser = PARSER_FACTORY.newSAXParser();
-            XMLReader xmlReader = saxParser.getXMLReader();
-            xmlReader.setProperty(LEXICAL_HANDLER_PROPERTY, handler);
-            // ensure both builtin entities and character entities are reported to the parser
-            xmlReader.setFeature("http://apache.org/xml/features/scanner/notify-char-refs", true);
-            xmlReader.setFeature("http://apache.org/xml/features/scanner/notify-builtin-refs", true);
-
-            saxParser.parse(inputStream, handler);
+    private XRoadSoapHandler handleSoap(Writer writer, InputStream inputStream, XmlBuffer rawXml,
+            XmlBuffer processedXml) throws Exception {
+        XMLReader xmlReader = XML_READER.get();
+
+        try (BufferedWriter out = writer != null ? new BufferedWriter(writer) : null) {
+            XRoadSoapHandler handler = new XRoadSoapHandler(out, rawXml, processedXml);
+            setHandler(xmlReader, handler);
+
+            xmlReader.parse(new InputSource(inputStream));
             return handler;
         } catch (SAXException ex) {
             throw new SOAPException(ex);
+        } finally {
+            // do not keep the message buffers reachable from the thread
+            setHandler(xmlReader, NO_OP_HANDLER);
         }
     }
 
+    private static void setHandler(XMLReader xmlReader, DefaultHandler2 handler) throws SAXException {
+        xmlReader.setContentHandler(handler);
+        xmlReader.setErrorHandler(handler);
+        xmlReader.setEntityResolver(handler);
+        xmlReader.setDTDHandler(handler);
+        xmlReader.setProperty(LEXICAL_HANDLER_PROPERTY, handler);
+    }
+
     private static Soap createSoapMessage(String contentType, String charset,
             XRoadSoapHandler handler, byte[] xmlBytes) throws Exception {
         return new SoapMessageImpl(xmlBytes, charset, handler.getHeader(),
@@ -232,10 +252,10 @@ public class SaxSoapParserImpl implements SoapParser {
     }
 
     private static Soap createSoapFault(String charset,
-            ByteArrayOutputStream rawXml, CodedException fault) {
+            byte[] rawXml, CodedException fault) {
         return new SoapFault(fault.getFaultCode(), fault.getFaultString(),
                 fault.getFaultActor(), fault.getFaultDetail(),
-                rawXml.toByteArray(), charset);
+                rawXml, charset);
     }
 
     @SneakyThrows
@@ -251,6 +271,26 @@ public class SaxSoapParserImpl implements SoapParser {
         return factory;
     }
 
+    @SneakyThrows
+    private static XMLReader createXmlReader() {
+        XMLReader xmlReader = PARSER_FACTORY.newSAXParser().getXMLReader();
+        // ensure both builtin entities and character entities are reported to the parser
+        xmlReader.setFeature("http://apache.org/xml/features/scanner/notify-char-refs", true);
+        xmlReader.setFeature("http://apache.org/xml/features/scanner/notify-builtin-refs", true);
+        return xmlReader;
+    }
+
+    /**
+     * Determines before parsing whether this parser may ever need the
+     * processed XML. If not, the message is only copied into the raw XML
+     * buffer. Subclasses overriding {@link #isProcessedXmlRequired()} must
+     * also override this method.
+     * @return false by default
+     */
+    protected boolean isProcessedXmlSupported() {
+        return false;
+    }
+
     /**
      * Determines whether the raw XML of the SOAP message should be re-encoded
      * or if the original should be used in the output.
@@ -295,13 +335,16 @@ public class SaxSoapParserImpl implements SoapParser {
         return new SoapHeaderHandler(header);
     }
 
-    @RequiredArgsConstructor
     private class XRoadSoapHandler extends DefaultHandler2 {
         private static final String NAMESPACE_PREFIX_SEPARATOR = ":";
 
         private static final String XML_VERSION_ENCODING = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>";
 
-        private final BufferedWriter out;
+        private BufferedWriter out;
+
+        private XmlBuffer rawXml;
+
+        private XmlBuffer processedXml;
 
         private char[] xmlEntity;
 
@@ -312,6 +355,12 @@ public class SaxSoapParserImpl implements SoapParser {
         @Getter
         private SoapHeader header;
 
+        XRoadSoapHandler(BufferedWriter out, XmlBuffer rawXml, XmlBuffer processedXml) {
+            this.out = out;
+            this.rawXml = rawXml;
+            this.processedXml = processedXml;
+        }
+
         public String getServiceName() {
             return envelopeHandler != null ? envelopeHandler.getServiceName() : null;
         }
@@ -337,7 +386,7 @@ public class SaxSoapParserImpl implements SoapParser {
             log.trace("startDocument()");
             reset();
 
-            if (isProcessedXmlRequired()) {
+            if (isWritingProcessedXml()) {
                 writeXmlDeclaration();
             }
         }
@@ -349,15 +398,55 @@ public class SaxSoapParserImpl implements SoapParser {
             if (elementHandlers.isEmpty()) {
                 handleRootElement(attributes, element);
             } else {
+                if (elementHandlers.peek() instanceof SoapBodyHandler) {
+                    selectXmlBuffer(element);
+                }
+
                 handleElement(attributes, element);
             }
 
-            if (isProcessedXmlRequired()) {
+            if (isWritingProcessedXml()) {
                 String prefix = findNamespacePrefix(qName);
                 writeStartElementXml(prefix, element, attributes, out);
             }
         }
 
+        private boolean isWritingProcessedXml() {
+            return out != null && isProcessedXmlRequired();
+        }
+
+        // The first body element determines whether the message is a fault
+        // (which always uses the raw XML) and, since the header has been
+        // parsed by then, whether the processed XML is required.
+        private void selectXmlBuffer(QName element) {
+            if (element.equals(QNAME_SOAP_FAULT)) {
+                if (rawXml == null) {
+                    throw new CodedException(X_INVALID_BODY, INVALID_BODY_MESSAGE);
+                }
+
+                discardProcessedXml();
+            } else if (isWritingProcessedXml()) {
+                discardRawXml();
+            } else {
+                discardProcessedXml();
+            }
+        }
+
+        private void discardRawXml() {
+            if (rawXml != null) {
+                rawXml.discard();
+                rawXml = null;
+            }
+        }
+
+        private void discardProcessedXml() {
+            if (processedXml != null) {
+                processedXml.discard();
+                processedXml = null;
+                out = null;
+            }
+        }
+
         private void handleElement(Attributes attributes, QName element) {
             XmlElementHandler elementHandler = elementHandlers.peek().getChildElementHandler(element);
             elementHandler.setAttributes(attributes);
@@ -382,7 +471,7 @@ public class SaxSoapParserImpl implements SoapParser {
             XmlElementHandler elementParser = elementHandlers.peek();
             elementParser.characters(ch, start, length);
 
-            if (isProcessedXmlRequired()) {
+            if (isWritingProcessedXml()) {
                 // Make sure XML entities are not resolved in processed XML
                 if (xmlEntity != null) {
                     writeCharactersXml(ENTITY_START, 0, 1, out);
@@ -397,7 +486,7 @@ public class SaxSoapParserImpl implements SoapParser {
 
         @Override
         public void comment(char[] ch, int start, int length) {
-            if (isProcessedXmlRequired()) {
+            if (isWritingProcessedXml()) {
                 writeCharactersXml(COMMENT_START, 0, COMMENT_START.length, out);
                 writeCharactersXml(ch, start, length, out);
                 writeCharactersXml(COMMENT_END, 0, COMMENT_END.length, out);
@@ -406,21 +495,21 @@ public class SaxSoapParserImpl implements SoapParser {
 
         @Override
         public void startEntity(String name) {
-            if (isProcessedXmlRequired()) {
+            if (isWritingProcessedXml()) {
                 xmlEntity = name.toCharArray();
             }
         }
 
         @Override
         public void startCDATA() {
-            if (isProcessedXmlRequired()) {
+            if (isWritingProcessedXml()) {
                 writeCharactersXml(CDATA_START, 0, CDATA_START.length, out);
             }
         }
 
         @Override
         public void endCDATA() {
-            if (isProcessedXmlRequired()) {
+            if (isWritingProcessedXml()) {
                 writeCharactersXml(CDATA_END, 0, CDATA_END.length, out);
             }
         }
@@ -432,7 +521,7 @@ public class SaxSoapParserImpl implements SoapParser {
             elementHandler.valueInternal();
             elementHandler.closeTag();
 
-            if (isProcessedXmlRequired()) {
+            if (isWritingProcessedXml()) {
                 QName element = new QName(uri, localName);
                 String prefix = findNamespacePrefix(qName);
                 writeEndElementXml(prefix, element, attributes, out);
@@ -442,7 +531,7 @@ public class SaxSoapParserImpl implements SoapParser {
         @Override
         public void endDocument() {
             log.trace("endDocument()");
-            if (isProcessedXmlRequired()) {
+            if (isWritingProcessedXml()) {
                 writeNewLine();
             }
         }
@@ -477,6 +566,93 @@ public class SaxSoapParserImpl implements SoapParser {
         }
     }
 
+    /**
+     * Growable buffer for the message XML. Unlike ByteArrayOutputStream it is
+     * unsynchronized, never copies its content while growing (it adds chunks
+     * of increasing size instead) and can be discarded once the parser knows
+     * its content will not be used. A message that fits into the first chunk
+     * exactly is returned without copying.
+     */
+    private static final class XmlBuffer extends OutputStream {
+        private static final int INITIAL_CHUNK_SIZE = 4096;
+        private static final int MAX_CHUNK_SIZE = 1024 * 1024;
+
+        private final List<byte[]> chunks = new ArrayList<>();
+        private byte[] chunk = new byte[INITIAL_CHUNK_SIZE];
+        private int chunkCount;
+        private int count;
+        private boolean discarded;
+
+        @Override
+        public void write(int b) {
+            if (!discarded) {
+                if (chunkCount == chunk.length) {
+                    nextChunk();
+                }
+
+                chunk[chunkCount++] = (byte) b;
+                count++;
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            if (discarded) {
+                return;
+            }
+
+            int offset = off;
+            int remaining = len;
+
+            while (remaining > 0) {
+                if (chunkCount == chunk.length) {
+                    nextChunk();
+                }
+
+                int length = Math.min(remaining, chunk.length - chunkCount);
+                System.arraycopy(b, offset, chunk, chunkCount, length);
+
+                chunkCount += length;
+                offset += length;
+                remaining -= length;
+            }
+
+            count += len;
+        }
+
+        void discard() {
+            discarded = true;
+            chunks.clear();
+            chunk = new byte[0];
+            chunkCount = 0;
+            count = 0;
+        }
+
+        byte[] toByteArray() {
+            if (chunks.isEmpty() && chunkCount == chunk.length) {
+                return chunk;
+            }
+
+            byte[] result = new byte[count];
+            int offset = 0;
+
+            for (byte[] full : chunks) {
+                System.arraycopy(full, 0, result, offset, full.length);
+                offset += full.length;
+            }
+
+            System.arraycopy(chunk, 0, result, offset, chunkCount);
+
+            return result;
+        }
+
+        private void nextChunk() {
+            chunks.add(chunk);
+            chunk = new byte[Math.min(chunk.length << 1, MAX_CHUNK_SIZE)];
+            chunkCount = 0;
+        }
+    }
+
     private static void validateDuplicateHeader(QName qName,
             Object existing) {
         if (existing != null) {
@@ -0,0 +1,103 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.util;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded pool of fixed size heap buffers. At most {@code capacity} buffers are handed out at the same time;
+ * released buffers are kept for reuse, so a busy process does not allocate new buffers for every message.
+ */
+final class BufferPool {
+
+    private final int bufferSize;
+    private final int capacity;
+
+    private final Queue<byte[]> free = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger freeCount = new AtomicInteger();
+    private final AtomicInteger inUseCount = new AtomicInteger();
+
+    /**
+     * Creates a new pool.
+     * @param bufferSize the size of a buffer in bytes
+     * @param capacity the maximum number of buffers in use at the same time
+     */
+    BufferPool(int bufferSize, int capacity) {
+        this.bufferSize = bufferSize;
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return the size of a buffer in bytes
+     */
+    int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * @return a buffer or null, if the capacity of the pool is used up
+     */
+    byte[] acquire() {
+        if (inUseCount.incrementAndGet() > capacity) {
+            inUseCount.decrementAndGet();
+
+            return null;
+        }
+
+        byte[] buffer = free.poll();
+
+        if (buffer == null) {
+            return new byte[bufferSize];
+        }
+
+        freeCount.decrementAndGet();
+
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer acquired from this pool.
+     * @param buffer the buffer
+     */
+    void release(byte[] buffer) {
+        free.offer(buffer);
+        freeCount.incrementAndGet();
+        inUseCount.decrementAndGet();
+    }
+
+    /**
+     * @return the number of bytes in buffers currently in use
+     */
+    long getInUseBytes() {
+        return (long) inUseCount.get() * bufferSize;
+    }
+
+    /**
+     * @return the number of bytes in buffers kept for reuse
+     */
+    long getPooledBytes() {
+        return (long) freeCount.get() * bufferSize;
+    }
+}
@@ -24,42 +24,136 @@ package ee.ria.xroad.common.util;
 
 import ee.ria.xroad.common.DefaultFilepaths;
 import ee.ria.xroad.common.ErrorCodes;
+import ee.ria.xroad.common.SystemProperties;
 
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
 import lombok.extern.slf4j.Slf4j;
 
-import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.channels.Channels;
 import java.nio.channels.SeekableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
- * Caches stuff in a temporary file.
+ * Caches stuff in memory and, beyond the memory threshold, in a temporary file.
+ *
+ * The memory is taken in fixed size buffers from a pool shared by all caching streams. The content is moved to
+ * a temporary file when it grows over the threshold or when the pool is used up. The number of streams moved to
+ * temporary files and the pool occupancy are reported in the process metrics as {@code cachingStream.spills},
+ * {@code cachingStream.bufferPool.inUseBytes} and {@code cachingStream.bufferPool.pooledBytes}.
  */
 @Slf4j
-public class CachingStream extends FilterOutputStream {
+public class CachingStream extends OutputStream {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final BufferPool POOL = new BufferPool(BUFFER_SIZE,
+            SystemProperties.getAttachmentCacheBufferPoolSize() / BUFFER_SIZE);
+
+    private static final Counter SPILLS;
+
+    static {
+        MetricRegistry registry = ProcessMetrics.getRegistry();
+
+        SPILLS = registry.counter("cachingStream.spills");
+
+        registry.remove("cachingStream.bufferPool.inUseBytes");
+        registry.register("cachingStream.bufferPool.inUseBytes", (Gauge<Long>) POOL::getInUseBytes);
+
+        registry.remove("cachingStream.bufferPool.pooledBytes");
+        registry.register("cachingStream.bufferPool.pooledBytes", (Gauge<Long>) POOL::getPooledBytes);
+    }
+
+    private final int memoryThreshold;
+    private final BufferPool pool;
+
+    private final List<byte[]> buffers = new ArrayList<>();
+    private int size;
+
     private SeekableByteChannel channel;
     private Path tempFile;
+    private OutputStream fileOut;
+
+    private volatile boolean consumed;
 
     /**
-     * Constructs a new caching stream that caches data in a temporary file.
-     * @throws IOException if I/O errors occurred
+     * Constructs a new caching stream that caches data in memory up to the configured threshold and beyond that
+     * in a temporary file.
      */
-    public CachingStream() throws IOException {
-        // Construct the parent class with null stream and replace it later.
-        super(null);
+    public CachingStream() {
+        this(SystemProperties.getAttachmentCacheMemoryThreshold(), POOL);
+    }
 
-        tempFile = DefaultFilepaths.createTempFile("tmpattach", null);
-        channel = Files.newByteChannel(tempFile, StandardOpenOption.CREATE,
-                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING,
-                StandardOpenOption.READ, StandardOpenOption.DELETE_ON_CLOSE);
+    CachingStream(int memoryThreshold, BufferPool pool) {
+        this.memoryThreshold = memoryThreshold;
+        this.pool = pool;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (fileOut == null && size + 1 > memoryThreshold) {
+            spill();
+        }
+
+        byte[] buffer = fileOut == null ? currentBuffer() : null;
+
+        if (buffer == null) {
+            fileOut.write(b);
 
-        // Now that we are set up, we can set the output stream in the
-        // parent class.
-        out = Channels.newOutputStream(channel);
+            return;
+        }
+
+        buffer[size % pool.getBufferSize()] = (byte) b;
+        size++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (fileOut == null && size + len > memoryThreshold) {
+            spill();
+        }
+
+        if (fileOut != null) {
+            fileOut.write(b, off, len);
+
+            return;
+        }
+
+        int offset = off;
+        int remaining = len;
+
+        while (remaining > 0) {
+            byte[] buffer = currentBuffer();
+
+            if (buffer == null) {
+                fileOut.write(b, offset, remaining);
+
+                return;
+            }
+
+            int position = size % pool.getBufferSize();
+            int count = Math.min(remaining, pool.getBufferSize() - position);
+            System.arraycopy(b, offset, buffer, position, count);
+
+            size += count;
+            offset += count;
+            remaining -= count;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (fileOut != null) {
+            fileOut.flush();
+        }
     }
 
     @Override
@@ -68,11 +162,11 @@ public class CachingStream extends FilterOutputStream {
         flush();
     }
 
-    @Override
-    public void write(byte[] b, int off, int len)
-            throws IOException {
-        // prevent FilterOutputStream from writing inefficiently
-        out.write(b, off, len);
+    /**
+     * @return true if the contents are cached in a temporary file
+     */
+    public boolean isSpilled() {
+        return channel != null;
     }
 
     /**
@@ -84,6 +178,10 @@ public class CachingStream extends FilterOutputStream {
             // Flush any unwritten data, just in case.
             flush();
 
+            if (channel == null) {
+                return new BuffersInputStream();
+            }
+
             // the channel will be closed when the stream is closed
             return Channels.newInputStream(channel.position(0));
         } catch (IOException ex) { // the position shouldn't really throw
@@ -92,14 +190,127 @@ public class CachingStream extends FilterOutputStream {
     }
 
     /**
-     * Finalize caching stream. Use to avoid file handle leaks.
+     * Finalize caching stream. Use to avoid file handle leaks and to return the memory buffers to the pool.
      */
     public void consume() {
-        try {
-            channel.close();
-        } catch (IOException e) {
-            log.warn("Error closing channel of the temporary file '{}'",
-                    tempFile.toString(), e);
+        if (consumed) {
+            return;
+        }
+
+        consumed = true;
+
+        releaseBuffers();
+
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.warn("Error closing channel of the temporary file '{}'",
+                        tempFile.toString(), e);
+            }
+        }
+    }
+
+    /**
+     * Returns the buffer the next byte goes to, taking a new one from the pool when the last one is full. When the
+     * pool is used up, the contents are moved to a temporary file and null is returned.
+     */
+    private byte[] currentBuffer() throws IOException {
+        if (size == buffers.size() * pool.getBufferSize()) {
+            byte[] buffer = pool.acquire();
+
+            if (buffer == null) {
+                spill();
+
+                return null;
+            }
+
+            buffers.add(buffer);
+        }
+
+        return buffers.get(buffers.size() - 1);
+    }
+
+    private void spill() throws IOException {
+        tempFile = DefaultFilepaths.createTempFile("tmpattach", null);
+        channel = Files.newByteChannel(tempFile, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.DELETE_ON_CLOSE);
+        fileOut = Channels.newOutputStream(channel);
+
+        int remaining = size;
+
+        for (byte[] buffer : buffers) {
+            int count = Math.min(remaining, buffer.length);
+            fileOut.write(buffer, 0, count);
+            remaining -= count;
+        }
+
+        releaseBuffers();
+
+        SPILLS.inc();
+
+        log.trace("Cached contents moved to temporary file '{}'", tempFile);
+    }
+
+    private void releaseBuffers() {
+        buffers.forEach(pool::release);
+        buffers.clear();
+    }
+
+    /**
+     * Reads the contents cached in memory. Fails once the caching stream is consumed, because the buffers are
+     * then back in the pool.
+     */
+    private final class BuffersInputStream extends InputStream {
+        private final int length = size;
+        private int position;
+
+        @Override
+        public int read() throws IOException {
+            checkNotConsumed();
+
+            if (position >= length) {
+                return -1;
+            }
+
+            int bufferSize = pool.getBufferSize();
+            byte b = buffers.get(position / bufferSize)[position % bufferSize];
+            position++;
+
+            return Byte.toUnsignedInt(b);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            checkNotConsumed();
+
+            if (len == 0) {
+                return 0;
+            }
+
+            if (position >= length) {
+                return -1;
+            }
+
+            int bufferSize = pool.getBufferSize();
+            int count = Math.min(len, Math.min(length - position, bufferSize - position % bufferSize));
+
+            System.arraycopy(buffers.get(position / bufferSize), position % bufferSize, b, off, count);
+            position += count;
+
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return length - position;
+        }
+
+        private void checkNotConsumed() throws IOException {
+            if (consumed) {
+                throw new IOException("Cached contents have already been consumed");
+            }
         }
     }
 }
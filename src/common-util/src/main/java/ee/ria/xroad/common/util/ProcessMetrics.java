@@ -0,0 +1,67 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.util;
+
+import com.codahale.metrics.JmxReporter;
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * Holds the metric registry of the current process. Components register their
+ * internal metrics (queue depths, latencies, cache hit rates) here and the
+ * registry is published over JMX while the process is running.
+ */
+public final class ProcessMetrics implements StartStop {
+
+    private static final MetricRegistry REGISTRY = new MetricRegistry();
+
+    private final JmxReporter reporter;
+
+    /**
+     * Creates the JMX reporter for the process metric registry.
+     * @param domain the JMX domain the metrics are published in
+     */
+    public ProcessMetrics(String domain) {
+        reporter = JmxReporter.forRegistry(REGISTRY).inDomain(domain).build();
+    }
+
+    /**
+     * @return the metric registry of the current process
+     */
+    public static MetricRegistry getRegistry() {
+        return REGISTRY;
+    }
+
+    @Override
+    public void start() throws Exception {
+        reporter.start();
+    }
+
+    @Override
+    public void stop() throws Exception {
+        reporter.stop();
+    }
+
+    @Override
+    public void join() throws InterruptedException {
+    }
+}
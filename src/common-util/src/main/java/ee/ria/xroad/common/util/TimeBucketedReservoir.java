@@ -0,0 +1,351 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.util;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Reservoir;
+import com.codahale.metrics.Snapshot;
+
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A reservoir that keeps the values of a sliding time window in a ring of
+ * buckets, each covering an equal slice of the window. A bucket records the
+ * count, minimum, maximum, mean and variance of its values exactly and their
+ * distribution in a log-linear histogram (the bucketing scheme of
+ * HdrHistogram), so that quantiles have a relative error of at most 1/32.
+ *
+ * Memory use depends on the number of buckets and the range of the values
+ * and the cost of a snapshot on the number of buckets, but neither depends on
+ * the number of values. The window slides one bucket at a time, so a
+ * snapshot covers the last window minus at most one bucket.
+ */
+public class TimeBucketedReservoir implements Reservoir {
+
+    // Values below 2^SUB_BUCKET_BITS are counted exactly, larger values
+    // with SUB_BUCKET_BITS - 1 significant bits.
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_HALF_COUNT_BITS = SUB_BUCKET_BITS - 1;
+    private static final int SUB_BUCKET_HALF_COUNT = 1 << SUB_BUCKET_HALF_COUNT_BITS;
+
+    private final Clock clock;
+
+    private final long bucketNanos;
+
+    private final Bucket[] buckets;
+
+    /**
+     * Creates a reservoir with the given window of time.
+     * @param window the window of time
+     * @param windowUnit the unit of {@code window}
+     * @param bucketCount the number of buckets the window is divided into
+     */
+    public TimeBucketedReservoir(long window, TimeUnit windowUnit, int bucketCount) {
+        this(window, windowUnit, bucketCount, Clock.defaultClock());
+    }
+
+    /**
+     * Creates a reservoir with the given window of time.
+     * @param window the window of time
+     * @param windowUnit the unit of {@code window}
+     * @param bucketCount the number of buckets the window is divided into
+     * @param clock the clock used for dividing values into buckets
+     */
+    public TimeBucketedReservoir(long window, TimeUnit windowUnit, int bucketCount, Clock clock) {
+        if (bucketCount <= 0) {
+            throw new IllegalArgumentException("Bucket count must be positive");
+        }
+
+        this.clock = clock;
+        this.bucketNanos = Math.max(1, windowUnit.toNanos(window) / bucketCount);
+        this.buckets = new Bucket[bucketCount];
+
+        for (int i = 0; i < bucketCount; i++) {
+            buckets[i] = new Bucket();
+        }
+    }
+
+    @Override
+    public synchronized int size() {
+        long epoch = currentEpoch();
+        long count = 0;
+
+        for (Bucket bucket : buckets) {
+            if (isLive(bucket, epoch)) {
+                count += bucket.count;
+            }
+        }
+
+        return (int) Math.min(count, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public synchronized void update(long value) {
+        long epoch = currentEpoch();
+        Bucket bucket = buckets[(int) Math.floorMod(epoch, (long) buckets.length)];
+
+        if (bucket.epoch != epoch) {
+            bucket.reset(epoch);
+        }
+
+        bucket.record(value);
+    }
+
+    @Override
+    public Snapshot getSnapshot() {
+        BucketedSnapshot snapshot = new BucketedSnapshot();
+
+        synchronized (this) {
+            long epoch = currentEpoch();
+
+            for (Bucket bucket : buckets) {
+                if (isLive(bucket, epoch)) {
+                    snapshot.add(bucket);
+                }
+            }
+        }
+
+        return snapshot;
+    }
+
+    private long currentEpoch() {
+        return Math.floorDiv(clock.getTick(), bucketNanos);
+    }
+
+    private boolean isLive(Bucket bucket, long epoch) {
+        return bucket.count > 0 && bucket.epoch > epoch - buckets.length;
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) Math.max(value, 0);
+        }
+
+        int magnitude = Long.SIZE - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+
+        return (magnitude << SUB_BUCKET_HALF_COUNT_BITS) + (int) (value >>> magnitude);
+    }
+
+    static long lowestValueAt(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+
+        int magnitude = (index >> SUB_BUCKET_HALF_COUNT_BITS) - 1;
+        long subBucket = (index & (SUB_BUCKET_HALF_COUNT - 1)) + SUB_BUCKET_HALF_COUNT;
+
+        return subBucket << magnitude;
+    }
+
+    static long widthAt(int index) {
+        return index < SUB_BUCKET_COUNT ? 1 : 1L << ((index >> SUB_BUCKET_HALF_COUNT_BITS) - 1);
+    }
+
+    private static final class Bucket {
+        private static final int[] NO_COUNTS = new int[0];
+
+        private long epoch = Long.MIN_VALUE;
+
+        private int[] counts = NO_COUNTS;
+
+        private long count;
+
+        private long min;
+
+        private long max;
+
+        private double mean;
+
+        private double squaredDeviations;
+
+        void reset(long newEpoch) {
+            epoch = newEpoch;
+            count = 0;
+            mean = 0;
+            squaredDeviations = 0;
+
+            Arrays.fill(counts, 0);
+        }
+
+        void record(long value) {
+            int index = indexOf(value);
+
+            if (index >= counts.length) {
+                // grow by whole magnitudes to avoid copying on every new value
+                counts = Arrays.copyOf(counts, (index | (SUB_BUCKET_HALF_COUNT - 1)) + 1);
+            }
+
+            counts[index]++;
+
+            if (count == 0) {
+                min = value;
+                max = value;
+            } else {
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+
+            // Welford's online algorithm
+            count++;
+
+            double delta = value - mean;
+            mean += delta / count;
+            squaredDeviations += delta * (value - mean);
+        }
+    }
+
+    private static final class BucketedSnapshot extends Snapshot {
+        private long[] counts = new long[0];
+
+        private long count;
+
+        private long min;
+
+        private long max;
+
+        private double mean;
+
+        private double squaredDeviations;
+
+        void add(Bucket bucket) {
+            if (bucket.counts.length > counts.length) {
+                counts = Arrays.copyOf(counts, bucket.counts.length);
+            }
+
+            for (int i = 0; i < bucket.counts.length; i++) {
+                counts[i] += bucket.counts[i];
+            }
+
+            if (count == 0) {
+                min = bucket.min;
+                max = bucket.max;
+            } else {
+                min = Math.min(min, bucket.min);
+                max = Math.max(max, bucket.max);
+            }
+
+            // combining the variances of two sets (Chan et al.)
+            long total = count + bucket.count;
+            double delta = bucket.mean - mean;
+
+            squaredDeviations += bucket.squaredDeviations + delta * delta * count * bucket.count / total;
+            mean += delta * bucket.count / total;
+            count = total;
+        }
+
+        @Override
+        public double getValue(double quantile) {
+            if (quantile < 0.0 || quantile > 1.0 || Double.isNaN(quantile)) {
+                throw new IllegalArgumentException(quantile + " is not in [0..1]");
+            }
+
+            if (count == 0) {
+                return 0.0;
+            }
+
+            long rank = Math.max(1, (long) Math.ceil(quantile * count));
+
+            if (rank >= count) {
+                return max;
+            }
+
+            long seen = 0;
+
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+
+                if (seen >= rank) {
+                    return valueAt(i);
+                }
+            }
+
+            return max;
+        }
+
+        /**
+         * @return the values of the window, each replaced with the middle
+         * value of its histogram bucket. The length of the array is the
+         * number of values, so prefer the other methods of the snapshot.
+         */
+        @Override
+        public long[] getValues() {
+            long[] values = new long[size()];
+            int position = 0;
+
+            for (int i = 0; i < counts.length && position < values.length; i++) {
+                int end = (int) Math.min(values.length, position + counts[i]);
+
+                Arrays.fill(values, position, end, valueAt(i));
+                position = end;
+            }
+
+            return values;
+        }
+
+        private long valueAt(int index) {
+            long value = lowestValueAt(index) + (widthAt(index) >> 1);
+
+            return Math.max(min, Math.min(max, value));
+        }
+
+        @Override
+        public int size() {
+            return (int) Math.min(count, Integer.MAX_VALUE);
+        }
+
+        @Override
+        public long getMax() {
+            return max;
+        }
+
+        @Override
+        public double getMean() {
+            return mean;
+        }
+
+        @Override
+        public long getMin() {
+            return min;
+        }
+
+        @Override
+        public double getStdDev() {
+            return count > 1 ? Math.sqrt(squaredDeviations / (count - 1)) : 0.0;
+        }
+
+        @Override
+        public void dump(OutputStream output) {
+            try (PrintWriter out = new PrintWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8))) {
+                for (long value : getValues()) {
+                    out.printf("%d%n", value);
+                }
+            }
+        }
+    }
+}
@@ -140,7 +140,12 @@ public final class FileWatcherRunner {
 
     private FileWatcherRunner(FileWatcher watcher) {
         this.watcher = requireNonNull(watcher);
-        this.executor = Executors.newSingleThreadExecutor();
+        // the watcher must not keep the process alive if the owner does not stop it
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "FileWatcherRunner");
+            thread.setDaemon(true);
+            return thread;
+        });
     }
 
     private FileWatcherRunner start() {
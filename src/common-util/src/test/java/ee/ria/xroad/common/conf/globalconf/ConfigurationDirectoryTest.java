@@ -24,16 +24,23 @@ package ee.ria.xroad.common.conf.globalconf;
 
 import ee.ria.xroad.common.util.ExpectedCodedException;
 
+import org.apache.commons.io.FileUtils;
 import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import java.io.File;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Paths;
+import java.util.Collections;
 
 import static ee.ria.xroad.common.ErrorCodes.X_MALFORMED_GLOBALCONF;
 import static ee.ria.xroad.common.ErrorCodes.X_OUTDATED_GLOBALCONF;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Tests to verify configuration directories are read correctly.
@@ -43,6 +50,9 @@ public class ConfigurationDirectoryTest {
     @Rule
     public ExpectedCodedException thrown = ExpectedCodedException.none();
 
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
     /**
      * Test to ensure a correct configuration directory is read properly.
      *
@@ -108,6 +118,37 @@ public class ConfigurationDirectoryTest {
                 + ConfigurationDirectoryV2.PRIVATE_PARAMETERS_XML));
     }
 
+    /**
+     * Test to ensure a configuration snapshot is read properly and detects changes in the directory.
+     *
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void readSnapshotDirectory() throws Exception {
+        File dir = tempFolder.newFolder("globalconf");
+        FileUtils.copyDirectory(new File("src/test/resources/globalconf_good_v2"), dir);
+
+        File sharedParams = new File(dir, "foo/" + ConfigurationDirectoryV2.SHARED_PARAMETERS_XML);
+        FileUtils.writeLines(new File(dir, ConfigurationDirectoryV2.FILES), StandardCharsets.UTF_8.name(),
+                Collections.singletonList(sharedParams.getPath()));
+
+        SnapshotConfigurationDirectory snapshot = SnapshotConfigurationDirectory.load(dir.getPath());
+
+        assertEquals("EE", snapshot.getInstanceIdentifier());
+        assertEquals("foo", snapshot.getShared("foo").getInstanceIdentifier());
+        assertNotNull(snapshot.getPrivate("foo"));
+        assertFalse(snapshot.isStale());
+
+        snapshot.verifyUpToDate();
+
+        FileUtils.writeStringToFile(new File(dir, ConfigurationDirectoryV2.INSTANCE_IDENTIFIER_FILE), "XX",
+                StandardCharsets.UTF_8);
+
+        assertTrue(snapshot.isStale());
+        assertEquals("EE", snapshot.getInstanceIdentifier());
+        assertEquals("XX", SnapshotConfigurationDirectory.load(dir.getPath()).getInstanceIdentifier());
+    }
+
     /**
      * Test to ensure a correct configuration directory is read properly.
      *
@@ -0,0 +1,128 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.message;
+
+import ee.ria.xroad.common.util.MimeTypes;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayInputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import static ee.ria.xroad.common.message.SoapMessageTestUtil.fileToBytes;
+
+/**
+ * Measures the bytes allocated and the time spent per parsed message by the SAX SOAP parser, for different
+ * message sizes. Messages are parsed once as-is (raw XML) and once by a parser that requires the processed XML,
+ * like the response parser of the server proxy.
+ *
+ * Usage: gradle runSaxSoapParserBenchmark -Pargs="[seconds]"
+ */
+@Slf4j
+public final class SaxSoapParserBenchmark {
+
+    private static final int DEFAULT_SECONDS = 5;
+    private static final int WARMUP_SECONDS = 2;
+
+    private static final int[] MESSAGE_SIZES = {1024, 64 * 1024, 1024 * 1024};
+
+    private static final String BODY_END = "</ns1:testQuery>";
+    private static final String ITEM = "            <item>abcdefghijklmnopqrstuvwxyz0123456789</item>\n";
+
+    private SaxSoapParserBenchmark() {
+    }
+
+    /**
+     * Main function.
+     * @param args optional measurement time per message size
+     * @throws Exception if an error occurs
+     */
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_SECONDS;
+
+        String template = new String(fileToBytes("simple.query"), StandardCharsets.UTF_8);
+
+        for (int size : MESSAGE_SIZES) {
+            byte[] message = createMessage(template, size);
+
+            run("raw", new SaxSoapParserImpl(), message, seconds);
+            run("processed", new ProcessedXmlSoapParserImpl(), message, seconds);
+        }
+    }
+
+    private static byte[] createMessage(String template, int size) {
+        StringBuilder items = new StringBuilder();
+
+        while (template.length() + items.length() < size) {
+            items.append(ITEM);
+        }
+
+        return template.replace(BODY_END, items + BODY_END).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void run(String name, SoapParser parser, byte[] message, int seconds) throws Exception {
+        measure(parser, message, WARMUP_SECONDS);
+
+        long[] result = measure(parser, message, seconds);
+        long ops = Math.max(result[0], 1);
+
+        log.info("{}: {} byte message, {} messages/s, {} us per message, {} bytes allocated per message", name,
+                message.length, ops / seconds, TimeUnit.SECONDS.toMicros(seconds) / ops, result[1] / ops);
+    }
+
+    private static long[] measure(SoapParser parser, byte[] message, int seconds) throws Exception {
+        com.sun.management.ThreadMXBean threadBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        long ops = 0;
+
+        long allocatedBefore = threadBean.getThreadAllocatedBytes(threadId);
+
+        while (System.nanoTime() < end) {
+            Soap soap = parser.parse(MimeTypes.TEXT_XML_UTF8, new ByteArrayInputStream(message));
+
+            if (!(soap instanceof SoapMessageImpl)) {
+                throw new IllegalStateException("Unexpected result: " + soap);
+            }
+
+            ops++;
+        }
+
+        return new long[] {ops, threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore};
+    }
+
+    private static class ProcessedXmlSoapParserImpl extends SaxSoapParserImpl {
+        @Override
+        protected boolean isProcessedXmlSupported() {
+            return true;
+        }
+
+        @Override
+        protected boolean isProcessedXmlRequired() {
+            return true;
+        }
+    }
+}
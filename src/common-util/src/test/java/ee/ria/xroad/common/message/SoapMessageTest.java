@@ -22,11 +22,13 @@
  */
 package ee.ria.xroad.common.message;
 
+import ee.ria.xroad.common.CodedException;
 import ee.ria.xroad.common.identifier.CentralServiceId;
 import ee.ria.xroad.common.identifier.ClientId;
 import ee.ria.xroad.common.identifier.ServiceId;
 import ee.ria.xroad.common.util.ExpectedCodedException;
 import ee.ria.xroad.common.util.MimeTypes;
+import ee.ria.xroad.common.util.MimeUtils;
 
 import org.apache.commons.io.IOUtils;
 import org.bouncycastle.util.Arrays;
@@ -39,6 +41,7 @@ import javax.xml.soap.SOAPException;
 
 import java.io.ByteArrayInputStream;
 import java.io.FileInputStream;
+import java.io.Writer;
 import java.util.List;
 
 import static ee.ria.xroad.common.ErrorCodes.X_DUPLICATE_HEADER_FIELD;
@@ -46,6 +49,7 @@ import static ee.ria.xroad.common.ErrorCodes.X_INCONSISTENT_HEADERS;
 import static ee.ria.xroad.common.ErrorCodes.X_INVALID_BODY;
 import static ee.ria.xroad.common.ErrorCodes.X_INVALID_CONTENT_TYPE;
 import static ee.ria.xroad.common.ErrorCodes.X_INVALID_PROTOCOL_VERSION;
+import static ee.ria.xroad.common.ErrorCodes.X_INVALID_SOAP;
 import static ee.ria.xroad.common.ErrorCodes.X_MISSING_BODY;
 import static ee.ria.xroad.common.ErrorCodes.X_MISSING_HEADER;
 import static ee.ria.xroad.common.ErrorCodes.X_MISSING_HEADER_FIELD;
@@ -60,6 +64,7 @@ import static ee.ria.xroad.common.message.SoapUtils.getChildElements;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  * This class tests the basic functionality (parsing the soap message etc.) of the SoapMessage class.
@@ -421,4 +426,69 @@ public class SoapMessageTest {
         thrown.expectError(X_INVALID_PROTOCOL_VERSION);
         createRequest("wrong-version.query");
     }
+
+    /**
+     * Test that a parser requiring processed XML returns the processed XML
+     * of a regular message.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void shouldReturnProcessedXml() throws Exception {
+        Soap message = new UpperCaseSoapParserImpl().parse(MimeTypes.TEXT_XML_UTF8,
+                new ByteArrayInputStream(fileToBytes("simple.query")));
+
+        assertTrue(message instanceof SoapMessageImpl);
+        assertEquals("testQuery", ((SoapMessageImpl) message).getService().getServiceCode());
+        assertTrue(message.getXml().contains("TESTQUERY"));
+    }
+
+    /**
+     * Test that a parser requiring processed XML returns the raw XML of a fault.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void shouldReturnRawFaultXmlFromProcessingParser() throws Exception {
+        byte[] in = SoapFault.createFaultXml("foo.bar", "baz", "xxx", "yyy").getBytes(MimeUtils.UTF8);
+        Soap message = new UpperCaseSoapParserImpl().parse(MimeTypes.TEXT_XML_UTF8, new ByteArrayInputStream(in));
+
+        assertTrue(message instanceof SoapFault);
+        assertEquals("baz", ((SoapFault) message).getString());
+        assertEquals(new String(in, MimeUtils.UTF8), message.getXml());
+    }
+
+    /**
+     * Test that the parser can be used again on the same thread after a failed parse.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void shouldParseAfterMalformedXml() throws Exception {
+        try {
+            new SaxSoapParserImpl().parse(MimeTypes.TEXT_XML_UTF8,
+                    new ByteArrayInputStream("<SOAP-ENV:Envelope".getBytes(MimeUtils.UTF8)));
+            fail("Malformed XML should not be parsed");
+        } catch (CodedException expected) {
+            assertEquals(X_INVALID_SOAP, expected.getFaultCode());
+        }
+
+        byte[] in = fileToBytes("simple.query");
+        assertTrue(Arrays.areEqual(in, messageToBytes(createSoapMessage(in))));
+    }
+
+    private static class UpperCaseSoapParserImpl extends SaxSoapParserImpl {
+        @Override
+        protected boolean isProcessedXmlSupported() {
+            return true;
+        }
+
+        @Override
+        protected boolean isProcessedXmlRequired() {
+            return true;
+        }
+
+        @Override
+        protected void writeCharactersXml(char[] characters, int start, int length, Writer writer) {
+            char[] upperCase = new String(characters, start, length).toUpperCase().toCharArray();
+            super.writeCharactersXml(upperCase, 0, upperCase.length, writer);
+        }
+    }
 }
@@ -0,0 +1,215 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.util;
+
+import ee.ria.xroad.common.SystemProperties;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the hybrid memory and temporary file caching of {@link CachingStream}.
+ */
+public class CachingStreamTest {
+
+    private static final int BUFFER_SIZE = 1024;
+    private static final int THRESHOLD = 4 * BUFFER_SIZE;
+
+    /**
+     * Keep the spilled temporary files in the build directory.
+     */
+    @BeforeClass
+    public static void setUpBeforeClass() {
+        System.setProperty(SystemProperties.TEMP_FILES_PATH, "build/");
+    }
+
+    /**
+     * Contents under the threshold are kept in memory and the buffers are returned to the pool.
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void smallContentsStayInMemory() throws Exception {
+        BufferPool pool = new BufferPool(BUFFER_SIZE, 16);
+        byte[] data = randomBytes(THRESHOLD - 1);
+
+        CachingStream stream = write(new CachingStream(THRESHOLD, pool), data);
+
+        assertFalse(stream.isSpilled());
+        assertEquals(4L * BUFFER_SIZE, pool.getInUseBytes());
+        assertArrayEquals(data, read(stream));
+        assertArrayEquals(data, read(stream));
+
+        stream.consume();
+
+        assertEquals(0L, pool.getInUseBytes());
+        assertEquals(4L * BUFFER_SIZE, pool.getPooledBytes());
+    }
+
+    /**
+     * Contents over the threshold are moved to a temporary file.
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void largeContentsSpillToFile() throws Exception {
+        BufferPool pool = new BufferPool(BUFFER_SIZE, 16);
+        byte[] data = randomBytes(3 * THRESHOLD + 17);
+
+        CachingStream stream = write(new CachingStream(THRESHOLD, pool), data);
+
+        assertTrue(stream.isSpilled());
+        assertEquals(0L, pool.getInUseBytes());
+        assertArrayEquals(data, read(stream));
+
+        stream.consume();
+    }
+
+    /**
+     * Contents are moved to a temporary file when the pool is used up.
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void exhaustedPoolSpillsToFile() throws Exception {
+        BufferPool pool = new BufferPool(BUFFER_SIZE, 2);
+        byte[] data = randomBytes(THRESHOLD);
+
+        CachingStream stream = write(new CachingStream(THRESHOLD, pool), data);
+
+        assertTrue(stream.isSpilled());
+        assertEquals(0L, pool.getInUseBytes());
+        assertArrayEquals(data, read(stream));
+
+        stream.consume();
+    }
+
+    /**
+     * Single byte writes and reads cross the buffer boundaries and spill to a temporary file like the array ones.
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void singleByteWritesAndReads() throws Exception {
+        BufferPool pool = new BufferPool(BUFFER_SIZE, 16);
+        byte[] data = randomBytes(THRESHOLD);
+
+        CachingStream stream = writeBytes(new CachingStream(THRESHOLD, pool), data);
+
+        assertFalse(stream.isSpilled());
+        assertArrayEquals(data, readBytes(stream));
+
+        stream.consume();
+
+        byte[] large = randomBytes(THRESHOLD + 1);
+        CachingStream spilled = writeBytes(new CachingStream(THRESHOLD, pool), large);
+
+        assertTrue(spilled.isSpilled());
+        assertEquals(0L, pool.getInUseBytes());
+        assertArrayEquals(large, readBytes(spilled));
+
+        spilled.consume();
+
+        CachingStream exhausted = writeBytes(new CachingStream(THRESHOLD, new BufferPool(BUFFER_SIZE, 2)), data);
+
+        assertTrue(exhausted.isSpilled());
+        assertArrayEquals(data, readBytes(exhausted));
+
+        exhausted.consume();
+    }
+
+    /**
+     * Reading the contents after the stream is consumed fails instead of reading reused buffers.
+     * @throws Exception if an error occurs
+     */
+    @Test(expected = IOException.class)
+    public void readAfterConsumeFails() throws Exception {
+        CachingStream stream = write(new CachingStream(THRESHOLD, new BufferPool(BUFFER_SIZE, 16)),
+                randomBytes(BUFFER_SIZE));
+
+        InputStream contents = stream.getCachedContents();
+        stream.consume();
+
+        contents.read();
+    }
+
+    private static CachingStream write(CachingStream stream, byte[] data) throws IOException {
+        // write in uneven pieces to cross the buffer boundaries
+        int offset = 0;
+        int piece = 1;
+
+        while (offset < data.length) {
+            int count = Math.min(piece, data.length - offset);
+            stream.write(data, offset, count);
+            offset += count;
+            piece = piece * 3 + 1;
+        }
+
+        stream.close();
+
+        return stream;
+    }
+
+    private static CachingStream writeBytes(CachingStream stream, byte[] data) throws IOException {
+        for (byte b : data) {
+            stream.write(b);
+        }
+
+        stream.close();
+
+        return stream;
+    }
+
+    private static byte[] readBytes(CachingStream stream) throws IOException {
+        try (InputStream contents = stream.getCachedContents()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            int b;
+
+            while ((b = contents.read()) != -1) {
+                out.write(b);
+            }
+
+            return out.toByteArray();
+        }
+    }
+
+    private static byte[] read(CachingStream stream) throws IOException {
+        try (InputStream contents = stream.getCachedContents()) {
+            return IOUtils.toByteArray(contents);
+        }
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+
+        return bytes;
+    }
+}
@@ -0,0 +1,175 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.util;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Snapshot;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link TimeBucketedReservoir}.
+ */
+public class TimeBucketedReservoirTest {
+
+    private ManualClock clock;
+
+    private TimeBucketedReservoir reservoir;
+
+    /**
+     * Creates a reservoir with a 60 second window in per-second buckets.
+     */
+    @Before
+    public void setUp() {
+        clock = new ManualClock();
+        reservoir = new TimeBucketedReservoir(60, TimeUnit.SECONDS, 60, clock);
+    }
+
+    @Test
+    public void emptySnapshot() {
+        Snapshot snapshot = reservoir.getSnapshot();
+
+        assertEquals(0, snapshot.size());
+        assertEquals(0, snapshot.getMin());
+        assertEquals(0, snapshot.getMax());
+        assertEquals(0.0, snapshot.getMean(), 0.0);
+        assertEquals(0.0, snapshot.getStdDev(), 0.0);
+        assertEquals(0.0, snapshot.getMedian(), 0.0);
+    }
+
+    @Test
+    public void exactStatistics() {
+        reservoir.update(10);
+        clock.advance(1);
+        reservoir.update(100);
+        clock.advance(1);
+        reservoir.update(1000);
+
+        Snapshot snapshot = reservoir.getSnapshot();
+
+        assertEquals(3, snapshot.size());
+        assertEquals(10, snapshot.getMin());
+        assertEquals(1000, snapshot.getMax());
+        assertEquals(370.0, snapshot.getMean(), 1e-9);
+        // sample standard deviation of 10, 100 and 1000
+        assertEquals(547.4486, snapshot.getStdDev(), 1e-4);
+    }
+
+    @Test
+    public void quantilesWithinRelativeError() {
+        for (long value = 1; value <= 100_000; value++) {
+            reservoir.update(value);
+        }
+
+        Snapshot snapshot = reservoir.getSnapshot();
+
+        assertEquals(100_000, snapshot.size());
+        assertRelativeError(50_000, snapshot.getMedian());
+        assertRelativeError(99_000, snapshot.get99thPercentile());
+        assertRelativeError(99_900, snapshot.get999thPercentile());
+        assertEquals(1, snapshot.getValue(0.0), 0.0);
+        assertEquals(100_000, snapshot.getValue(1.0), 0.0);
+    }
+
+    @Test
+    public void smallValuesAreExact() {
+        reservoir.update(3);
+        reservoir.update(3);
+        reservoir.update(5);
+        reservoir.update(63);
+
+        assertArrayEquals(new long[] {3, 3, 5, 63}, reservoir.getSnapshot().getValues());
+    }
+
+    @Test
+    public void expiredBucketsAreDropped() {
+        reservoir.update(1);
+        clock.advance(30);
+        reservoir.update(2);
+        clock.advance(29);
+
+        assertEquals(2, reservoir.size());
+
+        clock.advance(1);
+
+        assertEquals(1, reservoir.size());
+        assertEquals(2, reservoir.getSnapshot().getMin());
+
+        clock.advance(30);
+
+        assertEquals(0, reservoir.getSnapshot().size());
+    }
+
+    @Test
+    public void bucketIsReusedAfterWindow() {
+        reservoir.update(1000);
+        clock.advance(60);
+        reservoir.update(1);
+
+        Snapshot snapshot = reservoir.getSnapshot();
+
+        assertEquals(1, snapshot.size());
+        assertEquals(1, snapshot.getMax());
+    }
+
+    @Test
+    public void bucketIndexesAreContiguous() {
+        int previous = TimeBucketedReservoir.indexOf(0);
+
+        for (long value = 1; value < 1 << 20; value++) {
+            int index = TimeBucketedReservoir.indexOf(value);
+
+            assertTrue(index == previous || index == previous + 1);
+            assertTrue(TimeBucketedReservoir.lowestValueAt(index) <= value);
+            assertTrue(value < TimeBucketedReservoir.lowestValueAt(index)
+                    + TimeBucketedReservoir.widthAt(index));
+
+            previous = index;
+        }
+
+        assertTrue(TimeBucketedReservoir.indexOf(Long.MAX_VALUE) < 2048);
+    }
+
+    private static void assertRelativeError(double expected, double actual) {
+        assertEquals(expected, actual, expected / 32);
+    }
+
+    private static final class ManualClock extends Clock {
+        private long tick = TimeUnit.DAYS.toNanos(1);
+
+        void advance(long seconds) {
+            tick += TimeUnit.SECONDS.toNanos(seconds);
+        }
+
+        @Override
+        public long getTick() {
+            return tick;
+        }
+    }
+}
@@ -23,12 +23,15 @@
 package ee.ria.xroad.common.cert;
 
 import ee.ria.xroad.common.CodedException;
+import ee.ria.xroad.common.SystemProperties;
 import ee.ria.xroad.common.conf.globalconf.GlobalConf;
 import ee.ria.xroad.common.conf.globalconfextension.GlobalConfExtensions;
 import ee.ria.xroad.common.ocsp.OcspVerifier;
 import ee.ria.xroad.common.ocsp.OcspVerifierOptions;
 
+import org.bouncycastle.cert.ocsp.BasicOCSPResp;
 import org.bouncycastle.cert.ocsp.OCSPResp;
+import org.bouncycastle.cert.ocsp.SingleResp;
 
 import java.security.cert.CertPath;
 import java.security.cert.CertPathBuilder;
@@ -47,6 +50,7 @@ import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import static ee.ria.xroad.common.ErrorCodes.X_CANNOT_CREATE_CERT_PATH;
 import static ee.ria.xroad.common.ErrorCodes.X_CERT_VALIDATION;
@@ -62,6 +66,14 @@ public class CertChainVerifier {
     /** Default validation algorithm type is PKIX. */
     private static final String VALIDATION_ALGORITHM = "PKIX";
 
+    private static final int MAX_CACHED_CHAINS = 10000;
+
+    private static final int CACHE_PERIOD_SECONDS = SystemProperties.getOcspVerifierCachePeriod();
+
+    /** Holds the certificate paths of chains that have been verified with OCSP responses. */
+    private static final VerificationCache<CertPath> CACHE = new VerificationCache<>("certChainVerifier.cache",
+            CACHE_PERIOD_SECONDS, MAX_CACHED_CHAINS);
+
     /** Holds the PKIX algorithm parameters. */
     private final PKIXBuilderParameters pkixParams;
 
@@ -71,6 +83,10 @@ public class CertChainVerifier {
     /** Holds the cert chain to be verified. */
     private CertChain certChain;
 
+    /** Start and end of the dates at which the verification result holds. */
+    private long validFrom;
+    private long validUntil;
+
     /**
      * Builds the certificate path for the target certificate using a list
      * of trust anchors and a list of intermediate certificates.
@@ -139,7 +155,48 @@ public class CertChainVerifier {
                     "List of OCSP responses cannot be null or empty");
         }
 
+        String key = cacheKey(ocspResponses, atDate);
+
+        CertPath cachedPath = key != null ? CACHE.get(key, atDate) : null;
+        if (cachedPath != null) {
+            certPath = cachedPath;
+            return;
+        }
+
         verifyImpl(ocspResponses, atDate);
+
+        if (key != null) {
+            CACHE.put(key, certPath, validFrom, validUntil);
+        }
+    }
+
+    // The verification date is bucketed by the cache period, so that
+    // results for historical dates do not share entries with current ones.
+    private String cacheKey(List<OCSPResp> ocspResponses, Date atDate) {
+        if (CACHE_PERIOD_SECONDS <= 0) {
+            return null;
+        }
+
+        try {
+            VerificationCache.KeyBuilder key = VerificationCache.key()
+                    .add(certChain.getInstanceIdentifier())
+                    .add(atDate.getTime() / TimeUnit.SECONDS.toMillis(CACHE_PERIOD_SECONDS))
+                    .add(certChain.getEndEntityCert())
+                    .add(certChain.getTrustedRootCert());
+
+            for (X509Certificate cert : certChain.getAdditionalCerts()) {
+                key.add(cert);
+            }
+
+            for (OCSPResp response : ocspResponses) {
+                key.add(response);
+            }
+
+            return key.build();
+        } catch (Exception e) {
+            // The chain is verified without the cache, which reports the problem
+            return null;
+        }
     }
 
     private void verifyImpl(List<OCSPResp> ocspResponses, Date atDate) {
@@ -147,6 +204,15 @@ public class CertChainVerifier {
         try {
             certPath = buildCertPath(pkixParams);
 
+            validFrom = Long.MIN_VALUE;
+            validUntil = Long.MAX_VALUE;
+
+            for (X509Certificate cert : getCerts()) {
+                restrictValidity(cert);
+            }
+
+            restrictValidity(certChain.getTrustedRootCert());
+
             PKIXCertPathValidatorResult pkixResult =
                     verifyCertPath(certPath, pkixParams);
 
@@ -176,10 +242,36 @@ public class CertChainVerifier {
                         + subject.getSubjectX500Principal().getName());
             }
 
-            OcspVerifier verifier = new OcspVerifier(GlobalConf.getOcspFreshnessSeconds(false),
-                    new OcspVerifierOptions(GlobalConfExtensions.getInstance().shouldVerifyOcspNextUpdate()));
+            int freshnessSeconds = GlobalConf.getOcspFreshnessSeconds(false);
+            boolean verifyNextUpdate = GlobalConfExtensions.getInstance().shouldVerifyOcspNextUpdate();
+
+            OcspVerifier verifier = new OcspVerifier(freshnessSeconds,
+                    new OcspVerifierOptions(verifyNextUpdate));
             verifier.verifyValidityAndStatus(response, subject, issuer,
                     atDate);
+
+            restrictValidity(response, freshnessSeconds, verifyNextUpdate);
+        }
+    }
+
+    private void restrictValidity(X509Certificate cert) {
+        validFrom = Math.max(validFrom, cert.getNotBefore().getTime());
+        validUntil = Math.min(validUntil, cert.getNotAfter().getTime());
+    }
+
+    // The OCSP response stops being acceptable when it is no longer fresh
+    // or, if it is verified, when its nextUpdate has passed.
+    private void restrictValidity(OCSPResp response, int freshnessSeconds,
+            boolean verifyNextUpdate) throws Exception {
+        SingleResp singleResp =
+                ((BasicOCSPResp) response.getResponseObject()).getResponses()[0];
+
+        validUntil = Math.min(validUntil, singleResp.getThisUpdate().getTime()
+                + TimeUnit.SECONDS.toMillis(freshnessSeconds));
+
+        if (verifyNextUpdate && singleResp.getNextUpdate() != null) {
+            validUntil = Math.min(validUntil,
+                    singleResp.getNextUpdate().getTime());
         }
     }
 
@@ -0,0 +1,273 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.cert;
+
+import ee.ria.xroad.common.conf.globalconf.GlobalConf;
+import ee.ria.xroad.common.util.ProcessMetrics;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.bouncycastle.cert.ocsp.OCSPResp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import static ee.ria.xroad.common.util.CryptoUtils.encodeBase64;
+
+/**
+ * Concurrent cache for certificate and OCSP verification results.
+ *
+ * Entries are keyed by a SHA-256 digest over the encoded certificates and
+ * OCSP responses that were verified, so equal inputs share an entry
+ * regardless of object identity. An entry is used only while it is younger
+ * than the cache period, while the global configuration version is the same
+ * as when the entry was added and, if the entry has a validity window, only
+ * for verification dates inside that window. Only successful verifications
+ * are cached.
+ *
+ * Hits and misses are counted in the process metrics as
+ * {@code <name>.hits} and {@code <name>.misses}.
+ *
+ * @param <V> the type of the cached results
+ */
+@Slf4j
+public final class VerificationCache<V> {
+
+    private final long periodMillis;
+
+    private final int maxEntries;
+
+    private final Counter hits;
+
+    private final Counter misses;
+
+    private final ConcurrentMap<String, Entry<V>> entries =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Creates a new cache.
+     * @param name the metric name prefix of the cache
+     * @param periodSeconds how long entries are kept, 0 disables the cache
+     * @param maxEntries the maximum number of entries
+     */
+    public VerificationCache(String name, int periodSeconds, int maxEntries) {
+        this.periodMillis = TimeUnit.SECONDS.toMillis(periodSeconds);
+        this.maxEntries = maxEntries;
+
+        MetricRegistry registry = ProcessMetrics.getRegistry();
+
+        this.hits = registry.counter(name + ".hits");
+        this.misses = registry.counter(name + ".misses");
+    }
+
+    /**
+     * @return a builder for cache keys
+     */
+    public static KeyBuilder key() {
+        return new KeyBuilder();
+    }
+
+    /**
+     * Returns the cached result, if the entry is valid at the given date.
+     * @param key the key
+     * @param atDate the verification date
+     * @return the result or null, if there is no valid entry
+     */
+    public V get(String key, Date atDate) {
+        Entry<V> entry = entries.get(key);
+
+        if (entry != null && !isCurrent(entry)) {
+            entries.remove(key, entry);
+            entry = null;
+        }
+
+        if (entry == null || !entry.isValidAt(atDate.getTime())) {
+            misses.inc();
+
+            return null;
+        }
+
+        hits.inc();
+
+        return entry.value;
+    }
+
+    /**
+     * Adds a result that does not depend on the verification date.
+     * @param key the key
+     * @param value the result
+     */
+    public void put(String key, V value) {
+        put(key, value, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * Adds a result that is valid for verification dates from validFrom
+     * (inclusive) until validUntil (exclusive).
+     * @param key the key
+     * @param value the result
+     * @param validFrom start of the validity window in milliseconds
+     * @param validUntil end of the validity window in milliseconds
+     */
+    public void put(String key, V value, long validFrom, long validUntil) {
+        if (periodMillis <= 0 || validFrom >= validUntil) {
+            return;
+        }
+
+        if (entries.size() >= maxEntries) {
+            entries.values().removeIf(e -> !isCurrent(e));
+
+            if (entries.size() >= maxEntries) {
+                log.trace("Verification cache is full, not caching the result");
+
+                return;
+            }
+        }
+
+        entries.put(key, new Entry<>(value, validFrom, validUntil,
+                System.currentTimeMillis() + periodMillis,
+                GlobalConf.getVersion()));
+    }
+
+    /**
+     * Removes all entries.
+     */
+    public void clear() {
+        entries.clear();
+    }
+
+    /**
+     * @return the number of entries, including stale ones
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    private static boolean isCurrent(Entry<?> entry) {
+        return entry.expiresAt > System.currentTimeMillis()
+                && entry.confVersion == GlobalConf.getVersion();
+    }
+
+    private static final class Entry<V> {
+        private final V value;
+        private final long validFrom;
+        private final long validUntil;
+        private final long expiresAt;
+        private final long confVersion;
+
+        Entry(V value, long validFrom, long validUntil, long expiresAt,
+                long confVersion) {
+            this.value = value;
+            this.validFrom = validFrom;
+            this.validUntil = validUntil;
+            this.expiresAt = expiresAt;
+            this.confVersion = confVersion;
+        }
+
+        boolean isValidAt(long atDate) {
+            return atDate >= validFrom && atDate < validUntil;
+        }
+    }
+
+    /**
+     * Builds a cache key as a digest over length-prefixed parts.
+     */
+    public static final class KeyBuilder {
+
+        private final MessageDigest digest;
+
+        private KeyBuilder() {
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        /**
+         * @param data the data to add
+         * @return this builder
+         */
+        public KeyBuilder add(byte[] data) {
+            digest.update(ByteBuffer.allocate(Integer.BYTES)
+                    .putInt(data.length).array());
+            digest.update(data);
+
+            return this;
+        }
+
+        /**
+         * @param value the string to add, may be null
+         * @return this builder
+         */
+        public KeyBuilder add(String value) {
+            return add(value != null
+                    ? value.getBytes(StandardCharsets.UTF_8) : new byte[0]);
+        }
+
+        /**
+         * @param value the number to add
+         * @return this builder
+         */
+        public KeyBuilder add(long value) {
+            return add(ByteBuffer.allocate(Long.BYTES).putLong(value).array());
+        }
+
+        /**
+         * @param cert the certificate to add
+         * @return this builder
+         * @throws CertificateEncodingException if the certificate cannot
+         * be encoded
+         */
+        public KeyBuilder add(X509Certificate cert)
+                throws CertificateEncodingException {
+            return add(cert.getEncoded());
+        }
+
+        /**
+         * @param response the OCSP response to add
+         * @return this builder
+         * @throws IOException if the response cannot be encoded
+         */
+        public KeyBuilder add(OCSPResp response) throws IOException {
+            return add(response.getEncoded());
+        }
+
+        /**
+         * @return the key
+         */
+        public String build() {
+            return encodeBase64(digest.digest());
+        }
+    }
+}
@@ -35,6 +35,7 @@ import ee.ria.xroad.common.identifier.SecurityServerId;
 import ee.ria.xroad.common.identifier.ServiceId;
 
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
 
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -42,6 +43,7 @@ import java.security.cert.X509Certificate;
 import java.util.Collection;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static ee.ria.xroad.common.ErrorCodes.X_INTERNAL_ERROR;
 import static ee.ria.xroad.common.ErrorCodes.X_OUTDATED_GLOBALCONF;
@@ -67,6 +69,14 @@ public final class GlobalConf {
 
     private static volatile GlobalConfProvider instance;
 
+    // Snapshots are not used with a custom provider class
+    private static final boolean SNAPSHOT_ENABLED = SystemProperties.isConfigurationSnapshotEnabled()
+            && StringUtils.isEmpty(System.getProperty(GlobalConfProviderFactory.GLOBALCONF_PROVIDER_CLASS));
+
+    private static volatile GlobalConfUpdater updater;
+
+    private static final AtomicLong VERSION = new AtomicLong();
+
     private GlobalConf() {
     }
 
@@ -79,7 +89,7 @@ public final class GlobalConf {
         }
 
         if (instance == null) {
-            instance = instanceFactory.createInstance(true);
+            instance = createInstance(true);
         }
 
         return instance;
@@ -94,18 +104,45 @@ public final class GlobalConf {
         log.trace("initForCurrentThread()");
 
         if (instance == null) {
-            instance = instanceFactory.createInstance(false);
+            instance = createInstance(false);
         }
 
-        reloadIfChanged();
+        if (updater == null) {
+            reloadIfChanged();
+        }
 
         THREAD_LOCAL.set(instance);
     }
 
     /**
-     * Reloads the configuration.
+     * Returns the version of the global configuration. The version changes
+     * when a configuration snapshot is published, when the configuration is
+     * explicitly reloaded with {@link #reload()} outside of snapshot mode and
+     * when the configuration instance is replaced, so results derived from
+     * the configuration can be cached until the version changes.
+     * @return the configuration version
+     */
+    public static long getVersion() {
+        return VERSION.get();
+    }
+
+    /**
+     * Reloads the configuration. In snapshot mode, a new snapshot is loaded
+     * if the configuration directory has changed.
      */
-    public static synchronized void reload() {
+    public static void reload() {
+        GlobalConfUpdater snapshotUpdater = updater;
+
+        if (snapshotUpdater != null) {
+            checkSnapshot(snapshotUpdater);
+        } else {
+            reloadInstance();
+        }
+    }
+
+    private static synchronized void reloadInstance() {
+        VERSION.incrementAndGet();
+
         if (instance != null) {
             try {
                 log.trace("reload called");
@@ -115,7 +152,7 @@ public final class GlobalConf {
             }
         } else {
             log.trace("reload called, create new GlobalConfImpl");
-            instance = instanceFactory.createInstance(true);
+            instance = createInstance(true);
         }
     }
 
@@ -125,15 +162,32 @@ public final class GlobalConf {
      */
     public static void reload(GlobalConfProvider conf) {
         log.trace("reload called with parameter class {}", conf.getClass());
+
+        // The given instance is not replaced by snapshots
+        stopUpdater();
+
         instance = conf;
+
+        VERSION.incrementAndGet();
     }
 
     /**
      * Reloads the configuration if the underlying configuration
      * file has changed.
      */
-    public static synchronized void reloadIfChanged() {
+    public static void reloadIfChanged() {
         log.trace("reloadIfChanged called");
+
+        GlobalConfUpdater snapshotUpdater = updater;
+
+        if (snapshotUpdater != null) {
+            checkSnapshot(snapshotUpdater);
+        } else {
+            reloadInstanceIfChanged();
+        }
+    }
+
+    private static synchronized void reloadInstanceIfChanged() {
         if (instance != null) {
             try {
                 instance.load(null);
@@ -143,6 +197,62 @@ public final class GlobalConf {
         }
     }
 
+    private static GlobalConfProvider createInstance(boolean reloadIfChanged) {
+        if (SNAPSHOT_ENABLED) {
+            return startUpdater();
+        }
+
+        return instanceFactory.createInstance(reloadIfChanged);
+    }
+
+    private static synchronized GlobalConfProvider startUpdater() {
+        if (instance != null) {
+            return instance;
+        }
+
+        stopUpdater();
+
+        GlobalConfUpdater snapshotUpdater = new GlobalConfUpdater(GlobalConf::publishSnapshot);
+
+        try {
+            GlobalConfProvider snapshot = snapshotUpdater.start();
+            updater = snapshotUpdater;
+
+            return snapshot;
+        } catch (Exception e) {
+            snapshotUpdater.stop();
+
+            log.error("Could not load global configuration snapshot", e);
+
+            return null;
+        }
+    }
+
+    private static void stopUpdater() {
+        GlobalConfUpdater snapshotUpdater = updater;
+        updater = null;
+
+        if (snapshotUpdater != null) {
+            snapshotUpdater.stop();
+        }
+    }
+
+    private static synchronized void publishSnapshot(GlobalConfProvider previous, GlobalConfProvider snapshot) {
+        if (instance == previous) {
+            instance = snapshot;
+
+            VERSION.incrementAndGet();
+        }
+    }
+
+    private static void checkSnapshot(GlobalConfUpdater snapshotUpdater) {
+        try {
+            snapshotUpdater.check();
+        } catch (Exception e) {
+            throw translateException(e);
+        }
+    }
+
     // ------------------------------------------------------------------------
 
     /**
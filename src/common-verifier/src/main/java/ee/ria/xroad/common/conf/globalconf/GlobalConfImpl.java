@@ -29,7 +29,6 @@ import ee.ria.xroad.common.certificateprofile.CertificateProfileInfoProvider;
 import ee.ria.xroad.common.certificateprofile.GetCertificateProfile;
 import ee.ria.xroad.common.certificateprofile.SignCertificateProfileInfo;
 import ee.ria.xroad.common.conf.globalconf.sharedparameters.v2.ApprovedTSAType;
-import ee.ria.xroad.common.conf.globalconf.sharedparameters.v2.CentralServiceType;
 import ee.ria.xroad.common.conf.globalconf.sharedparameters.v2.GlobalGroupType;
 import ee.ria.xroad.common.conf.globalconf.sharedparameters.v2.MemberClassType;
 import ee.ria.xroad.common.conf.globalconf.sharedparameters.v2.MemberType;
@@ -128,15 +127,10 @@ public class GlobalConfImpl implements GlobalConfProvider {
     public ServiceId getServiceId(CentralServiceId serviceId) {
         SharedParametersV2 p = getSharedParameters(serviceId.getXRoadInstance());
 
-        for (CentralServiceType centralServiceType : p.getCentralServices()) {
-            if (centralServiceType.getImplementingService() == null) {
-                continue;
-            }
+        ServiceId implementingService = p.getCentralServiceImplementations().get(serviceId.getServiceCode());
 
-            if (serviceId.getServiceCode().equals(
-                    centralServiceType.getServiceCode())) {
-                return centralServiceType.getImplementingService();
-            }
+        if (implementingService != null) {
+            return implementingService;
         }
 
         throw new CodedException(X_INTERNAL_ERROR,
@@ -282,19 +276,19 @@ public class GlobalConfImpl implements GlobalConfProvider {
             throws Exception {
         List<String> responders = new ArrayList<>();
 
-        for (SharedParametersV2 p : getSharedParameters()) {
-            List<OcspInfoType> caOcspData = null;
-            X509Certificate caCert;
-            try {
-                if (!certificateIsCA) {
-                    caCert = getCaCert(null, certificate);
-                } else {
-                    caCert = certificate;
-                }
-                caOcspData = p.getCaCertsAndOcspData().get(caCert);
-            } catch (CodedException e) {
-                log.error("Unable to determine OCSP responders: {}", e);
+        X509Certificate caCert = null;
+        try {
+            if (!certificateIsCA) {
+                caCert = getCaCert(null, certificate);
+            } else {
+                caCert = certificate;
             }
+        } catch (CodedException e) {
+            log.error("Unable to determine OCSP responders: {}", e);
+        }
+
+        for (SharedParametersV2 p : getSharedParameters()) {
+            List<OcspInfoType> caOcspData = caCert != null ? p.getCaCertsAndOcspData().get(caCert) : null;
             if (caOcspData == null) {
                 continue;
             }
@@ -407,12 +401,8 @@ public class GlobalConfImpl implements GlobalConfProvider {
     public boolean isOcspResponderCert(X509Certificate ca,
             X509Certificate ocspCert) {
         return getSharedParameters().stream()
-                .map(p -> p.getCaCertsAndOcspData().get(ca))
-                .filter(Objects::nonNull).flatMap(o -> o.stream())
-                .map(OcspInfoType::getCert).filter(Objects::nonNull)
-                .map(CryptoUtils::readCertificate)
-                .filter(c -> c.equals(ocspCert))
-                .findFirst().isPresent();
+                .map(p -> p.getCaCertsAndOcspResponderCerts().get(ca))
+                .anyMatch(c -> c != null && c.contains(ocspCert));
     }
 
     @Override
@@ -460,12 +450,10 @@ public class GlobalConfImpl implements GlobalConfProvider {
     @Override
     public boolean authCertMatchesMember(X509Certificate cert,
             ClientId memberId) throws Exception {
-        byte[] inputCertHash = certHash(cert);
+        String inputCertHash = encodeBase64(certHash(cert));
         return getSharedParameters().stream()
                 .map(p -> p.getMemberAuthCerts().get(memberId))
-                .filter(Objects::nonNull).flatMap(h -> h.stream())
-                .filter(h -> Arrays.equals(inputCertHash, h)).findFirst()
-                .isPresent();
+                .anyMatch(h -> h != null && h.contains(inputCertHash));
     }
 
     @Override
@@ -566,13 +554,9 @@ public class GlobalConfImpl implements GlobalConfProvider {
             return false;
         }
 
-        GlobalGroupType group = p.findGlobalGroup(groupId);
-        if (group == null) {
-            return false;
-        }
+        Set<ClientId> members = p.getGlobalGroupMembers().get(groupId);
 
-        return group.getGroupMember().stream().filter(m -> m.equals(subjectId))
-                .findFirst().isPresent();
+        return members != null && members.contains(subjectId);
     }
 
     @Override
@@ -0,0 +1,134 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.conf.globalconf;
+
+import ee.ria.xroad.common.SystemProperties;
+import ee.ria.xroad.common.util.filewatcher.FileWatcherRunner;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.file.Paths;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * Keeps the global configuration snapshot up to date. The file list written by the configuration client at the end
+ * of each download is watched for changes and, in case an event is missed, the directory is also checked at the
+ * configuration client update interval. When the directory has changed, a new snapshot is loaded in the background
+ * and handed over to the publisher, the threads reading the global configuration never wait for the loading.
+ */
+@Slf4j
+final class GlobalConfUpdater {
+
+    private final BiConsumer<GlobalConfProvider, GlobalConfProvider> publisher;
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "GlobalConfUpdater");
+        thread.setDaemon(true);
+
+        return thread;
+    });
+
+    private FileWatcherRunner watcher;
+
+    private SnapshotConfigurationDirectory directory;
+
+    private GlobalConfProvider snapshot;
+
+    /**
+     * @param publisher called with the previous and the new snapshot when the configuration has changed
+     */
+    GlobalConfUpdater(BiConsumer<GlobalConfProvider, GlobalConfProvider> publisher) {
+        this.publisher = publisher;
+    }
+
+    /**
+     * Loads the first snapshot and starts watching the configuration directory.
+     * @return the snapshot
+     * @throws Exception if loading the configuration fails
+     */
+    synchronized GlobalConfProvider start() throws Exception {
+        String configurationPath = SystemProperties.getConfigurationPath();
+
+        directory = SnapshotConfigurationDirectory.load(configurationPath);
+        snapshot = new GlobalConfImpl(directory);
+
+        watcher = FileWatcherRunner.create()
+                .watchForChangesIn(Paths.get(configurationPath, ConfigurationDirectory.FILES))
+                .listenToCreate().listenToModify()
+                .andOnChangeNotify(() -> executor.execute(this::checkQuietly))
+                .buildAndStartWatcher();
+
+        long interval = SystemProperties.getConfigurationClientUpdateIntervalSeconds();
+        executor.scheduleWithFixedDelay(this::checkQuietly, interval, interval, TimeUnit.SECONDS);
+
+        return snapshot;
+    }
+
+    /**
+     * Loads a new snapshot if the configuration directory has changed, otherwise refreshes the expiration dates of
+     * the current snapshot.
+     * @throws Exception if loading the changed configuration fails
+     */
+    synchronized void check() throws Exception {
+        if (directory == null) {
+            return;
+        }
+
+        if (!directory.isStale()) {
+            directory.refreshExpirationDates();
+
+            return;
+        }
+
+        log.debug("Global configuration has changed, loading a new snapshot");
+
+        SnapshotConfigurationDirectory newDirectory =
+                SnapshotConfigurationDirectory.load(SystemProperties.getConfigurationPath());
+        GlobalConfProvider previous = snapshot;
+
+        directory = newDirectory;
+        snapshot = new GlobalConfImpl(newDirectory);
+
+        publisher.accept(previous, snapshot);
+    }
+
+    synchronized void stop() {
+        if (watcher != null) {
+            watcher.stop();
+        }
+
+        executor.shutdownNow();
+    }
+
+    private void checkQuietly() {
+        try {
+            check();
+        } catch (Exception e) {
+            // The previous snapshot stays in use
+            log.error("Failed to reload global configuration", e);
+        }
+    }
+}
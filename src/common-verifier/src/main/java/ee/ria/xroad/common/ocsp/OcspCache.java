@@ -26,23 +26,36 @@ import ee.ria.xroad.common.conf.globalconf.GlobalConf;
 import ee.ria.xroad.common.conf.globalconfextension.GlobalConfExtensions;
 
 import lombok.extern.slf4j.Slf4j;
+import org.bouncycastle.cert.ocsp.BasicOCSPResp;
 import org.bouncycastle.cert.ocsp.OCSPResp;
+import org.bouncycastle.cert.ocsp.SingleResp;
 
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Holds OCSP response per key. When getting the response, it is checked
  * if the response is expired at the specified date, and if it is, the
  * response is removed from the cache and null is returned.
+ *
+ * The thisUpdate and nextUpdate of a response are parsed when the response
+ * is added, and the expiration time is computed from them using the OCSP
+ * freshness settings of the global configuration. The expiration time is
+ * recomputed only when the global configuration changes, so checking
+ * whether a cached response has expired is a timestamp comparison.
  */
 @Slf4j
 public class OcspCache {
 
-    protected final Map<String, OCSPResp> cache = new ConcurrentHashMap<>();
+    protected final Map<String, CachedResponse> cache = new ConcurrentHashMap<>();
+
+    private volatile ExpirationSettings expirationSettings;
 
     /**
      * @param key the key
@@ -67,11 +80,21 @@ public class OcspCache {
      * Associates a key with the OCSP response.
      * @param key the key
      * @param value the OCSP response
-     * @return the OCSP response
+     * @return the previous OCSP response for the key or null
      */
     public OCSPResp put(String key, OCSPResp value) {
         log.trace("Setting OCSP response for '{}'", key);
-        return cache.put(key, value);
+
+        CachedResponse previous;
+        try {
+            previous = cache.put(key, new CachedResponse(value));
+        } catch (Exception e) {
+            log.error("Failed to parse OCSP response for '{}'", key, e);
+
+            previous = cache.remove(key);
+        }
+
+        return previous != null ? previous.getResponse() : null;
     }
 
     /**
@@ -82,37 +105,137 @@ public class OcspCache {
     }
 
     /**
-     * @return a Set view of the mappings contained in this map.
+     * @return a snapshot of the mappings contained in this cache
      */
     public Set<Entry<String, OCSPResp>> entrySet() {
-        return cache.entrySet();
+        Map<String, OCSPResp> responses = new HashMap<>();
+
+        cache.forEach((key, value) -> responses.put(key, value.getResponse()));
+
+        return Collections.unmodifiableMap(responses).entrySet();
     }
 
     protected OCSPResp getResponse(Object key, Date atDate) {
         log.trace("Retrieving OCSP response for certificate '{}' at {}", key,
                 atDate);
 
-        OCSPResp cachedResponse = cache.get(key);
+        CachedResponse cachedResponse = cache.get(key);
+        if (cachedResponse == null) {
+            return null;
+        }
+
         try {
-            if (cachedResponse != null && isExpired(cachedResponse, atDate)) {
+            if (isExpired(cachedResponse, atDate)) {
                 log.trace("Cached OCSP response for certificate "
                         + "'{}' has expired", key);
-                cache.remove(key);
+                cache.remove(key, cachedResponse);
                 return null;
             }
         } catch (Exception e) {
             log.error("Failed to check if OCSP response is expired", e);
-            cache.remove(key);
+            cache.remove(key, cachedResponse);
             return null;
         }
 
-        return cachedResponse;
+        return cachedResponse.getResponse();
     }
 
-    protected static boolean isExpired(OCSPResp response, Date atDate)
-            throws Exception {
-        OcspVerifier verifier = new OcspVerifier(GlobalConf.getOcspFreshnessSeconds(true),
-                new OcspVerifierOptions(GlobalConfExtensions.getInstance().shouldVerifyOcspNextUpdate()));
-        return verifier.isExpired(response, atDate);
+    /**
+     * Returns true if the response is expired at the given date according
+     * to the current global configuration.
+     * @param response the cached response
+     * @param atDate the date
+     * @return true, if the response is expired
+     */
+    protected boolean isExpired(CachedResponse response, Date atDate) {
+        return atDate.getTime() > response.getExpiresAt(getExpirationSettings());
+    }
+
+    private ExpirationSettings getExpirationSettings() {
+        ExpirationSettings settings = expirationSettings;
+        long version = GlobalConf.getVersion();
+
+        if (settings == null || settings.confVersion != version) {
+            settings = new ExpirationSettings(version,
+                    GlobalConf.getOcspFreshnessSeconds(true),
+                    GlobalConfExtensions.getInstance().shouldVerifyOcspNextUpdate());
+
+            expirationSettings = settings;
+        }
+
+        return settings;
+    }
+
+    /**
+     * The global configuration settings that the expiration time of
+     * a response depends on.
+     */
+    private static final class ExpirationSettings {
+        private final long confVersion;
+        private final long freshnessMillis;
+        private final boolean verifyNextUpdate;
+
+        ExpirationSettings(long confVersion, int freshnessSeconds,
+                boolean verifyNextUpdate) {
+            this.confVersion = confVersion;
+            this.freshnessMillis = TimeUnit.SECONDS.toMillis(freshnessSeconds);
+            this.verifyNextUpdate = verifyNextUpdate;
+        }
+    }
+
+    /**
+     * OCSP response with its parsed update times.
+     */
+    protected static final class CachedResponse {
+        private final OCSPResp response;
+        private final long thisUpdate;
+        private final Long nextUpdate;
+
+        // Expiration time with the settings it was computed with
+        private volatile Expiration expiration;
+
+        CachedResponse(OCSPResp response) throws Exception {
+            SingleResp singleResp = ((BasicOCSPResp) response.getResponseObject()).getResponses()[0];
+
+            this.response = response;
+            this.thisUpdate = singleResp.getThisUpdate().getTime();
+            this.nextUpdate = singleResp.getNextUpdate() != null ? singleResp.getNextUpdate().getTime() : null;
+        }
+
+        /**
+         * @return the OCSP response
+         */
+        public OCSPResp getResponse() {
+            return response;
+        }
+
+        // The response is expired when thisUpdate is older than the freshness
+        // period, or when nextUpdate has passed if nextUpdate is verified.
+        long getExpiresAt(ExpirationSettings current) {
+            Expiration computed = expiration;
+
+            if (computed == null || computed.settings != current) {
+                long expiresAt = thisUpdate + current.freshnessMillis;
+
+                if (current.verifyNextUpdate && nextUpdate != null) {
+                    expiresAt = Math.min(expiresAt, nextUpdate);
+                }
+
+                computed = new Expiration(current, expiresAt);
+                expiration = computed;
+            }
+
+            return computed.expiresAt;
+        }
+    }
+
+    private static final class Expiration {
+        private final ExpirationSettings settings;
+        private final long expiresAt;
+
+        Expiration(ExpirationSettings settings, long expiresAt) {
+            this.settings = settings;
+            this.expiresAt = expiresAt;
+        }
     }
 }
@@ -24,8 +24,8 @@ package ee.ria.xroad.common.ocsp;
 
 import ee.ria.xroad.common.CodedException;
 import ee.ria.xroad.common.SystemProperties;
+import ee.ria.xroad.common.cert.VerificationCache;
 import ee.ria.xroad.common.conf.globalconf.GlobalConf;
-import ee.ria.xroad.common.conf.globalconf.TimeBasedObjectCache;
 
 import lombok.extern.slf4j.Slf4j;
 import org.apache.xml.security.algorithms.MessageDigestAlgorithm;
@@ -66,16 +66,15 @@ public final class OcspVerifier {
 
     private static final String ID_KP_OCSPSIGNING = "1.3.6.1.5.5.7.3.9";
 
-    private static final String SINGLE_RESP = "single_resp";
-    private static final String SIGNATURE = "signature";
-    private static final String CERTIFICATE = "certificate";
+    private static final int MAX_CACHED_RESPONSES = 10000;
 
     private final int ocspFreshnessSeconds;
 
     private final OcspVerifierOptions options;
 
-    private static final TimeBasedObjectCache CACHE = new TimeBasedObjectCache(SystemProperties
-            .getOcspVerifierCachePeriod());;
+    // Results of the checks that do not depend on the verification date
+    private static final VerificationCache<SingleResp> CACHE = new VerificationCache<>("ocspVerifier.cache",
+            SystemProperties.getOcspVerifierCachePeriod(), MAX_CACHED_RESPONSES);
 
     /**
      * Constructor
@@ -180,15 +179,19 @@ public final class OcspVerifier {
         }
     }
 
-    private synchronized SingleResp verifyResponseValidityCached(OCSPResp response, X509Certificate subject,
-                                                                 X509Certificate issuer)
-            throws Exception {
-        String key = SINGLE_RESP + response.hashCode() + subject.hashCode() + issuer.hashCode();
-        if (!CACHE.isValid(key)) {
-            CACHE.setValue(key, verifyResponseValidity(response, subject, issuer));
+    private SingleResp verifyResponseValidityCached(OCSPResp response, X509Certificate subject,
+            X509Certificate issuer) throws Exception {
+        String key = VerificationCache.key().add(response).add(subject).add(issuer).build();
+
+        SingleResp singleResp = CACHE.get(key, new Date());
+
+        if (singleResp == null) {
+            singleResp = verifyResponseValidity(response, subject, issuer);
+
+            CACHE.put(key, singleResp);
         }
 
-        return (SingleResp) CACHE.getValue(key);
+        return singleResp;
     }
 
     private SingleResp verifyResponseValidity(OCSPResp response, X509Certificate subject, X509Certificate issuer)
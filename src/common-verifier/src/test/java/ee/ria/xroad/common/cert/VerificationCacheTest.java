@@ -0,0 +1,118 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.cert;
+
+import ee.ria.xroad.common.TestCertUtil;
+import ee.ria.xroad.common.conf.globalconf.EmptyGlobalConf;
+import ee.ria.xroad.common.conf.globalconf.GlobalConf;
+import ee.ria.xroad.common.util.ProcessMetrics;
+
+import org.junit.Test;
+
+import java.security.cert.X509Certificate;
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests the verification result cache.
+ */
+public class VerificationCacheTest {
+
+    private static final long NOW = System.currentTimeMillis();
+
+    /**
+     * Tests that keys are built from the content of the objects.
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void keysDependOnContent() throws Exception {
+        X509Certificate producer = TestCertUtil.getProducer().certChain[0];
+        X509Certificate consumer = TestCertUtil.getConsumer().certChain[0];
+
+        assertEquals(VerificationCache.key().add(producer).add(consumer).build(),
+                VerificationCache.key().add(producer.getEncoded()).add(consumer.getEncoded()).build());
+        assertNotEquals(VerificationCache.key().add(producer).add(consumer).build(),
+                VerificationCache.key().add(consumer).add(producer).build());
+        assertNotEquals(VerificationCache.key().add("ab").add("c").build(),
+                VerificationCache.key().add("a").add("bc").build());
+    }
+
+    /**
+     * Tests that entries are returned only for dates inside their validity window.
+     */
+    @Test
+    public void validityWindow() {
+        VerificationCache<String> cache = new VerificationCache<>("test.window", 60, 10);
+
+        cache.put("key", "value", NOW - 1000, NOW + 1000);
+
+        assertEquals("value", cache.get("key", new Date(NOW)));
+        assertNull(cache.get("key", new Date(NOW + 1000)));
+        assertNull(cache.get("key", new Date(NOW - 1001)));
+        assertNull(cache.get("other", new Date(NOW)));
+
+        assertEquals(1, ProcessMetrics.getRegistry().counter("test.window.hits").getCount());
+        assertEquals(3, ProcessMetrics.getRegistry().counter("test.window.misses").getCount());
+    }
+
+    /**
+     * Tests that entries are dropped when the global configuration changes.
+     */
+    @Test
+    public void invalidatedOnConfigurationChange() {
+        VerificationCache<String> cache = new VerificationCache<>("test.conf", 60, 10);
+
+        cache.put("key", "value");
+        assertEquals("value", cache.get("key", new Date(NOW)));
+
+        GlobalConf.reload(new EmptyGlobalConf());
+
+        assertNull(cache.get("key", new Date(NOW)));
+        assertEquals(0, cache.size());
+    }
+
+    /**
+     * Tests that the cache does not grow over the maximum size and that
+     * a zero period disables caching.
+     */
+    @Test
+    public void limits() {
+        VerificationCache<String> cache = new VerificationCache<>("test.limits", 60, 2);
+
+        cache.put("a", "a");
+        cache.put("b", "b");
+        cache.put("c", "c");
+
+        assertEquals(2, cache.size());
+        assertNull(cache.get("c", new Date(NOW)));
+
+        VerificationCache<String> disabled = new VerificationCache<>("test.disabled", 0, 2);
+
+        disabled.put("a", "a");
+
+        assertEquals(0, disabled.size());
+    }
+}
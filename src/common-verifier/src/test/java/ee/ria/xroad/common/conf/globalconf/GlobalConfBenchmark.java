@@ -0,0 +1,284 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.conf.globalconf;
+
+import ee.ria.xroad.common.TestCertUtil;
+import ee.ria.xroad.common.identifier.CentralServiceId;
+import ee.ria.xroad.common.identifier.ClientId;
+import ee.ria.xroad.common.identifier.GlobalGroupId;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.cert.X509Certificate;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntPredicate;
+
+import static ee.ria.xroad.common.util.CryptoUtils.certHash;
+import static ee.ria.xroad.common.util.CryptoUtils.encodeBase64;
+
+/**
+ * Measures the throughput of the global configuration lookups done by
+ * the proxy for every message, against a generated federation-sized
+ * shared parameters file. Group membership is also measured with a
+ * linear scan over the group members for comparison.
+ *
+ * Usage: gradle runGlobalConfBenchmark -Pargs="[members] [threads] [seconds]"
+ */
+@Slf4j
+public final class GlobalConfBenchmark {
+
+    private static final String INSTANCE = "EE";
+    private static final String MEMBER_CLASS = "BUSINESS";
+    private static final String GROUP_CODE = "federation";
+
+    private static final int MEMBERS_PER_SERVER = 10;
+    private static final int CENTRAL_SERVICES = 1000;
+
+    private static final int DEFAULT_MEMBERS = 50000;
+    private static final int DEFAULT_THREADS = 16;
+    private static final int DEFAULT_SECONDS = 10;
+    private static final int WARMUP_SECONDS = 3;
+
+    private GlobalConfBenchmark() {
+    }
+
+    /**
+     * Main function.
+     * @param args optional number of members, reader threads and
+     * measurement time
+     * @throws Exception if an error occurs
+     */
+    public static void main(String[] args) throws Exception {
+        int members = args.length > 0
+                ? Integer.parseInt(args[0]) : DEFAULT_MEMBERS;
+        int threads = args.length > 1
+                ? Integer.parseInt(args[1]) : DEFAULT_THREADS;
+        int seconds = args.length > 2
+                ? Integer.parseInt(args[2]) : DEFAULT_SECONDS;
+
+        X509Certificate caCert = TestCertUtil.getCaCert();
+        X509Certificate ocspCert = TestCertUtil.getOcspSigner().certChain[0];
+        X509Certificate authCert = TestCertUtil.getConsumer().certChain[0];
+
+        Path confDir = Files.createTempDirectory("globalconf-benchmark");
+
+        try {
+            writeConfiguration(confDir, members, caCert, ocspCert, authCert);
+
+            GlobalConfImpl conf = new GlobalConfImpl(
+                    new ConfigurationDirectoryV2(confDir.toString()));
+            SharedParametersV2 p = conf.getSharedParameters(INSTANCE);
+
+            GlobalGroupId groupId = GlobalGroupId.create(INSTANCE, GROUP_CODE);
+            ClientId lastMember = member(members - 1);
+
+            log.info("Loaded {} members, {} security servers", members,
+                    p.getSecurityServers().size());
+
+            run("isSubjectInGlobalGroup", threads, seconds,
+                    i -> conf.isSubjectInGlobalGroup(
+                            member(i % members), groupId));
+            run("isSubjectInGlobalGroup (linear scan)", threads, seconds,
+                    i -> p.findGlobalGroup(groupId).getGroupMember()
+                            .contains(member(i % members)));
+            run("authCertMatchesMember", threads, seconds,
+                    i -> authCertMatchesMember(conf, authCert, lastMember));
+            run("isOcspResponderCert", threads, seconds,
+                    i -> conf.isOcspResponderCert(caCert, ocspCert));
+            run("getServiceId", threads, seconds,
+                    i -> conf.getServiceId(CentralServiceId.create(INSTANCE,
+                            centralService(i % CENTRAL_SERVICES))) != null);
+        } finally {
+            FileUtils.deleteDirectory(confDir.toFile());
+        }
+    }
+
+    private static boolean authCertMatchesMember(GlobalConfImpl conf,
+            X509Certificate cert, ClientId memberId) {
+        try {
+            return conf.authCertMatchesMember(cert, memberId);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void run(String name, int threads, int seconds,
+            IntPredicate lookup) throws Exception {
+        measure(lookup, threads, WARMUP_SECONDS);
+
+        long ops = measure(lookup, threads, seconds);
+
+        log.info("{}: {} threads, {} lookups/s", name, threads, ops / seconds);
+    }
+
+    private static long measure(IntPredicate lookup, int threads, int seconds)
+            throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        AtomicBoolean running = new AtomicBoolean(true);
+        CountDownLatch started = new CountDownLatch(threads);
+        LongAdder ops = new LongAdder();
+
+        for (int t = 0; t < threads; t++) {
+            int offset = t * 7919;
+
+            executor.execute(() -> {
+                started.countDown();
+
+                int i = offset;
+                while (running.get()) {
+                    lookup.test(i);
+
+                    ops.increment();
+                    i++;
+                }
+            });
+        }
+
+        started.await();
+        TimeUnit.SECONDS.sleep(seconds);
+        running.set(false);
+
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+
+        return ops.sum();
+    }
+
+    private static ClientId member(int i) {
+        return ClientId.create(INSTANCE, MEMBER_CLASS, memberCode(i));
+    }
+
+    private static String memberCode(int i) {
+        return "member" + i;
+    }
+
+    private static String centralService(int i) {
+        return "central" + i;
+    }
+
+    private static void writeConfiguration(Path confDir, int members,
+            X509Certificate caCert, X509Certificate ocspCert,
+            X509Certificate authCert) throws Exception {
+        FileUtils.writeStringToFile(
+                confDir.resolve(ConfigurationDirectory.INSTANCE_IDENTIFIER_FILE)
+                        .toFile(), INSTANCE, StandardCharsets.UTF_8);
+
+        File instanceDir = confDir.resolve(INSTANCE).toFile();
+        instanceDir.mkdirs();
+
+        File sharedParams = new File(instanceDir,
+                ConfigurationDirectoryV2.SHARED_PARAMETERS_XML);
+
+        try (Writer out = Files.newBufferedWriter(sharedParams.toPath(),
+                StandardCharsets.UTF_8)) {
+            out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                    + "<tns:conf xmlns:id=\"http://x-road.eu/xsd/identifiers\""
+                    + " xmlns:tns=\"http://x-road.eu/xsd/xroad.xsd\">\n");
+            out.write("<instanceIdentifier>" + INSTANCE
+                    + "</instanceIdentifier>\n");
+
+            out.write("<approvedCA><name>ca</name><topCA><cert>"
+                    + encodeBase64(caCert.getEncoded()) + "</cert>"
+                    + "<ocsp><url>http://127.0.0.1:8082/ocsp</url><cert>"
+                    + encodeBase64(ocspCert.getEncoded()) + "</cert></ocsp>"
+                    + "</topCA><certificateProfileInfo>ee.ria.xroad.common."
+                    + "certificateprofile.impl.TestCertificateProfileInfoProvider"
+                    + "</certificateProfileInfo></approvedCA>\n");
+
+            for (int i = 0; i < members; i++) {
+                out.write("<member id=\"m" + i + "\"><memberClass><code>"
+                        + MEMBER_CLASS + "</code><description>Business"
+                        + "</description></memberClass><memberCode>"
+                        + memberCode(i) + "</memberCode><name>Member " + i
+                        + "</name></member>\n");
+            }
+
+            int servers = (members + MEMBERS_PER_SERVER - 1)
+                    / MEMBERS_PER_SERVER;
+
+            for (int s = 0; s < servers; s++) {
+                int owner = s * MEMBERS_PER_SERVER;
+                // The last server gets the real authentication certificate
+                String hash = s == servers - 1
+                        ? encodeBase64(certHash(authCert))
+                        : encodeBase64(certHash(("server" + s).getBytes(
+                                StandardCharsets.UTF_8)));
+
+                out.write("<securityServer><owner>m" + owner + "</owner>"
+                        + "<serverCode>server" + s + "</serverCode>"
+                        + "<address>10.0." + (s / 256) % 256 + "." + s % 256
+                        + "</address><authCertHash>" + hash
+                        + "</authCertHash>");
+
+                for (int c = owner + 1;
+                        c < Math.min(owner + MEMBERS_PER_SERVER, members);
+                        c++) {
+                    out.write("<client>m" + c + "</client>");
+                }
+
+                out.write("</securityServer>\n");
+            }
+
+            out.write("<globalGroup><groupCode>" + GROUP_CODE + "</groupCode>"
+                    + "<description>All members</description>\n");
+
+            for (int i = 0; i < members; i++) {
+                out.write("<groupMember id:objectType=\"MEMBER\">"
+                        + "<id:xRoadInstance>" + INSTANCE + "</id:xRoadInstance>"
+                        + "<id:memberClass>" + MEMBER_CLASS + "</id:memberClass>"
+                        + "<id:memberCode>" + memberCode(i) + "</id:memberCode>"
+                        + "</groupMember>\n");
+            }
+
+            out.write("</globalGroup>\n");
+
+            for (int i = 0; i < CENTRAL_SERVICES; i++) {
+                out.write("<centralService><serviceCode>" + centralService(i)
+                        + "</serviceCode><implementingService"
+                        + " id:objectType=\"SERVICE\"><id:xRoadInstance>"
+                        + INSTANCE + "</id:xRoadInstance><id:memberClass>"
+                        + MEMBER_CLASS + "</id:memberClass><id:memberCode>"
+                        + memberCode(i) + "</id:memberCode><id:serviceCode>"
+                        + "service" + i + "</id:serviceCode>"
+                        + "</implementingService></centralService>\n");
+            }
+
+            out.write("<globalSettings><memberClass><code>" + MEMBER_CLASS
+                    + "</code><description>Business</description>"
+                    + "</memberClass><ocspFreshnessSeconds>600"
+                    + "</ocspFreshnessSeconds></globalSettings>\n");
+            out.write("</tns:conf>\n");
+        }
+    }
+}
@@ -22,10 +22,11 @@
  */
 package ee.ria.xroad.monitor;
 
+import ee.ria.xroad.common.util.TimeBucketedReservoir;
+
 import com.codahale.metrics.Gauge;
 import com.codahale.metrics.Histogram;
 import com.codahale.metrics.MetricRegistry;
-import com.codahale.metrics.SlidingTimeWindowReservoir;
 
 import java.io.Serializable;
 import java.util.concurrent.TimeUnit;
@@ -92,6 +93,7 @@ public final class MetricRegistryHolder {
 
 
     private Histogram createDefaultHistogram() {
-        return new Histogram(new SlidingTimeWindowReservoir(MINUTES_IN_HOUR, TimeUnit.MINUTES));
+        // one bucket per minute
+        return new Histogram(new TimeBucketedReservoir(MINUTES_IN_HOUR, TimeUnit.MINUTES, MINUTES_IN_HOUR));
     }
 }
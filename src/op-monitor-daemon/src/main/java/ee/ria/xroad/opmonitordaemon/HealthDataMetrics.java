@@ -25,12 +25,12 @@ package ee.ria.xroad.opmonitordaemon;
 import ee.ria.xroad.common.identifier.ServiceId;
 import ee.ria.xroad.common.opmonitoring.OpMonitoringData;
 import ee.ria.xroad.common.opmonitoring.OpMonitoringSystemProperties;
+import ee.ria.xroad.common.util.TimeBucketedReservoir;
 
 import com.codahale.metrics.Counter;
 import com.codahale.metrics.Gauge;
 import com.codahale.metrics.Histogram;
 import com.codahale.metrics.MetricRegistry;
-import com.codahale.metrics.SlidingTimeWindowReservoir;
 import lombok.extern.slf4j.Slf4j;
 
 import java.util.HashMap;
@@ -56,6 +56,13 @@ final class HealthDataMetrics {
             OpMonitoringSystemProperties
                     .getOpMonitorHealthStatisticsPeriodSeconds();
 
+    // The health statistics period is divided into per-second buckets, or
+    // into this many longer buckets if the period is longer.
+    private static final int MAX_HEALTH_STATS_BUCKETS = 60;
+
+    private static final int HEALTH_STATS_BUCKETS = Math.max(1, Math.min(
+            OP_MONITOR_HEALTH_STATS_PERIOD_SECONDS, MAX_HEALTH_STATS_BUCKETS));
+
     // The names of metrics that are registered when the operational
     // monitoring daemon starts.
     static final String STATISTICS_PERIOD_SECONDS = "statisticsPeriodSeconds";
@@ -149,7 +156,8 @@ final class HealthDataMetrics {
         if (counter == null) {
             // Register and increment a new counter.
             counter = new SlidingTimeWindowCounter(
-                    OP_MONITOR_HEALTH_STATS_PERIOD_SECONDS, TimeUnit.SECONDS);
+                    OP_MONITOR_HEALTH_STATS_PERIOD_SECONDS, TimeUnit.SECONDS,
+                    HEALTH_STATS_BUCKETS);
             registry.register(expectedCounterName, counter);
         }
 
@@ -174,9 +182,9 @@ final class HealthDataMetrics {
         if (histogram == null) {
             // Add a histogram corresponding to the service and update it.
             histogram = registry.register(histogramName,
-                new Histogram(new SlidingTimeWindowReservoir(
+                new Histogram(new TimeBucketedReservoir(
                         OP_MONITOR_HEALTH_STATS_PERIOD_SECONDS,
-                        TimeUnit.SECONDS)));
+                        TimeUnit.SECONDS, HEALTH_STATS_BUCKETS)));
         }
 
         histogram.update(newValue);
@@ -72,7 +72,7 @@ class OpMonitorDaemonRequestHandler extends HandlerBase {
             if (STORE_DATA_PATH.equals(target)) {
                 handleStoreRequest(request, response);
             } else if (QUERY_DATA_PATH.equals(target)) {
-                handleQueryRequest(request, response);
+                handleQueryRequest(baseRequest, request, response);
             } else {
                 handleBadRequest(response);
             }
@@ -83,8 +83,9 @@ class OpMonitorDaemonRequestHandler extends HandlerBase {
 
     // Queries for operational data are SOAP messages. Errors must be
     // reported via SOAP faults, not plain HTTP responses.
-    private void handleQueryRequest(HttpServletRequest request,
-            HttpServletResponse response) throws IOException {
+    private void handleQueryRequest(Request baseRequest,
+            HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
         try {
             if (!isPostRequest(request)) {
                 throw new CodedException(X_INVALID_HTTP_METHOD,
@@ -102,16 +103,33 @@ class OpMonitorDaemonRequestHandler extends HandlerBase {
 
             log.info("Received query request from {}", request.getRemoteAddr());
 
-            new QueryRequestProcessor(request, response,
-                    healthMetricRegistry).process();
+            processQueryRequest(request, response);
         } catch (Throwable t) { // We want to catch serious errors as well
             log.error("Error while handling query request", t);
 
+            if (response.isCommitted()) {
+                // Part of the multipart response has already been sent, a
+                // SOAP fault appended to it would not be recognized by the
+                // client. Abort the connection so that the client sees an
+                // incomplete response instead.
+                baseRequest.getHttpChannel().abort(t);
+
+                return;
+            }
+
+            response.resetBuffer();
+
             sendErrorResponse(response, translateWithPrefix(
                     SERVER_SERVER_PROXY_OPMONITOR_X, t));
         }
     }
 
+    void processQueryRequest(HttpServletRequest request,
+            HttpServletResponse response) throws Exception {
+        new QueryRequestProcessor(request, response,
+                healthMetricRegistry).process();
+    }
+
     // Requests to store data are HTTP requests with JSON payload. Errors
     // must be reported in JSON format.
     private void handleStoreRequest(HttpServletRequest request,
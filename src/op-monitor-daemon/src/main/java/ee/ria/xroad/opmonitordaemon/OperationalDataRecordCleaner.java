@@ -22,6 +22,7 @@
  */
 package ee.ria.xroad.opmonitordaemon;
 
+import ee.ria.xroad.common.db.ChunkedDelete;
 import ee.ria.xroad.common.opmonitoring.OpMonitoringSystemProperties;
 import ee.ria.xroad.common.util.JobManager;
 import ee.ria.xroad.common.util.MessageSendingJob;
@@ -40,7 +41,9 @@ import java.util.concurrent.TimeUnit;
 import static ee.ria.xroad.opmonitordaemon.OpMonitorDaemonDatabaseCtx.doInTransaction;
 
 /**
- * Deletes outdated operational data records from the database.
+ * Deletes outdated operational data records from the database. If a clean
+ * chunk size is configured, the records are deleted in chunks of bounded id
+ * ranges, each committed in a transaction of its own.
  */
 @Slf4j
 final class OperationalDataRecordCleaner extends UntypedActor {
@@ -89,23 +92,31 @@ final class OperationalDataRecordCleaner extends UntypedActor {
     static int cleanRecords(DateTime before) throws Exception {
         log.trace("cleanRecords({})", before);
 
-        return doInTransaction(session -> {
-            String hql =
-                    "delete OperationalDataRecord r where r.monitoringDataTs < "
-                    + TimeUnit.MILLISECONDS.toSeconds(before.getMillis());
+        String condition = "r.monitoringDataTs < "
+                + TimeUnit.MILLISECONDS.toSeconds(before.getMillis());
 
-            int removed = session.createQuery(hql).executeUpdate();
+        int chunkSize = OpMonitoringSystemProperties.getOpMonitorCleanChunkSize();
+        int removed;
 
-            if (removed == 0) {
-                log.info("No outdated operational data records to remove from"
-                        + " the database");
-            } else {
-                log.info("Removed {} outdated operational data records from"
-                        + " the database", removed);
-            }
+        if (chunkSize > 0) {
+            removed = new ChunkedDelete(OpMonitorDaemonDatabaseCtx.get(),
+                    "OperationalDataRecord", condition).execute(chunkSize,
+                    OpMonitoringSystemProperties.getOpMonitorCleanChunkPauseMillis());
+        } else {
+            removed = doInTransaction(session -> session.createQuery(
+                    "delete OperationalDataRecord r where " + condition)
+                    .executeUpdate());
+        }
+
+        if (removed == 0) {
+            log.info("No outdated operational data records to remove from"
+                    + " the database");
+        } else {
+            log.info("Removed {} outdated operational data records from"
+                    + " the database", removed);
+        }
 
-            return removed;
-        });
+        return removed;
     }
 
     private static void registerCronJob(JobManager jobManager,
@@ -29,6 +29,8 @@ import ee.ria.xroad.common.opmonitoring.OpMonitoringSystemProperties;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 import org.hibernate.Criteria;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.hibernate.Session;
 import org.hibernate.criterion.Criterion;
 import org.hibernate.criterion.Order;
@@ -37,10 +39,11 @@ import org.hibernate.criterion.Projections;
 import org.hibernate.criterion.Restrictions;
 import org.hibernate.transform.Transformers;
 
-import java.util.Collections;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.function.Consumer;
 
 import static ee.ria.xroad.common.opmonitoring.OpMonitoringData.CLIENT_MEMBER_CLASS;
 import static ee.ria.xroad.common.opmonitoring.OpMonitoringData.CLIENT_MEMBER_CODE;
@@ -64,6 +67,10 @@ final class OperationalDataRecordManager {
 
     private static final int DEFAULT_BATCH_SIZE = 50;
 
+    private static final int STREAM_FETCH_SIZE = 100;
+
+    private static final String ID = "id";
+
     @Setter
     private static int maxRecordsInPayload = OpMonitoringSystemProperties.getOpMonitorMaxRecordsInPayload();
 
@@ -91,14 +98,50 @@ final class OperationalDataRecordManager {
 
     static OperationalDataRecords queryRecords(long recordsFrom, long recordsTo, ClientId clientFilter,
             ClientId serviceProviderFilter, Set<String> outputFields) throws Exception {
-        OperationalDataRecords records = doInTransaction(session -> queryOperationalDataInTransaction(session,
-                recordsFrom, recordsTo, clientFilter, serviceProviderFilter, outputFields));
+        OperationalDataSelection selection = selectRecords(recordsFrom, recordsTo, clientFilter,
+                serviceProviderFilter, outputFields);
+        List<OperationalDataRecord> recordList = new ArrayList<>();
 
-        removeMonitoringDataTsIfNotSpecified(records, outputFields);
+        streamRecords(selection, recordList::add);
+
+        OperationalDataRecords records = new OperationalDataRecords(recordList);
+        records.setNextRecordsFrom(selection.getNextRecordsFrom());
 
         return records;
     }
 
+    /**
+     * Selects the operational data records matching the search criteria parameters without loading them. The
+     * number of selected records is limited by the configured value maxRecordsInPayload plus overflow records with
+     * the same monitoringDataTs timestamp as the last included record. The selection ends with the
+     * (monitoringDataTs, id) key of the last included record.
+     * @param recordsFrom records from timestamp seconds
+     * @param recordsTo records to timestamp seconds
+     * @param clientFilter filter records by client (if not null)
+     * @param serviceProviderFilter filter records by service provider (if not null)
+     * @param outputFields list of the requested operational data field
+     * @return the selection to be passed to {@link #streamRecords(OperationalDataSelection, Consumer)}
+     * @throws Exception if an error occurs
+     */
+    static OperationalDataSelection selectRecords(long recordsFrom, long recordsTo, ClientId clientFilter,
+            ClientId serviceProviderFilter, Set<String> outputFields) throws Exception {
+        return doInTransaction(session -> selectInTransaction(session, recordsFrom, recordsTo, clientFilter,
+                serviceProviderFilter, outputFields));
+    }
+
+    /**
+     * Reads the selected operational data records in (monitoringDataTs, id) order and passes them to the consumer one
+     * by one. The records are read using a forward-only cursor and are not kept in the session, so the memory
+     * usage does not depend on the number of records.
+     * @param selection the selected records
+     * @param consumer the consumer of the records
+     * @throws Exception if an error occurs
+     */
+    static void streamRecords(OperationalDataSelection selection, Consumer<OperationalDataRecord> consumer)
+            throws Exception {
+        doInTransaction(session -> streamInTransaction(session, selection, consumer));
+    }
+
     private static Void storeInTransaction(Session session, List<OperationalDataRecord> records, long timestamp) {
         int storedCount = 0;
         int batchSize = getConfiguredBatchSize(session);
@@ -129,84 +172,111 @@ final class OperationalDataRecordManager {
         return new OperationalDataRecords(session.createCriteria(OperationalDataRecord.class).list());
     }
 
-    /**
-     * Queries operational data records from the database using search criteria parameters. The number of returned
-     * records is limited by the configured value maxRecordsInPayload plus overflow records with the same
-     * monitorindDataTs timestamp as the last included record.
-     * @param session database session
-     * @param recordsFrom records from timestamp seconds
-     * @param recordsTo records to timestamp seconds
-     * @param clientFilter filter records by client (if not null)
-     * @param serviceProviderFilter filter records by service provider (if not null)
-     * @param outputFields list of the requested operational data field
-     * @return operational data records.
-     */
-    @SuppressWarnings("unchecked")
-    private static OperationalDataRecords queryOperationalDataInTransaction(Session session, long recordsFrom,
+    private static OperationalDataSelection selectInTransaction(Session session, long recordsFrom,
             long recordsTo, ClientId clientFilter, ClientId serviceProviderFilter, Set<String> outputFields) {
-        Criteria criteria = createCriteria(session, recordsFrom, recordsTo, clientFilter, serviceProviderFilter,
-                outputFields);
-        OperationalDataRecords records = new OperationalDataRecords(criteria.list());
+        // The keys of the matching records are read in (monitoringDataTs, id) order, so a single query
+        // gives the end of the selection, the number of records in it and whether any records are left.
+        ScrollableResults results = createCriteria(session, recordsFrom, recordsTo, clientFilter,
+                serviceProviderFilter)
+                .setProjection(Projections.projectionList()
+                        .add(Projections.property(MONITORING_DATA_TS))
+                        .add(Projections.id()))
+                .addOrder(Order.asc(MONITORING_DATA_TS))
+                .addOrder(Order.asc(ID))
+                .setFetchSize(STREAM_FETCH_SIZE)
+                .setReadOnly(true)
+                .scroll(ScrollMode.FORWARD_ONLY);
+
+        long recordsCount = 0;
+        Long lastMonitoringDataTs = null;
+        Long lastId = null;
+        Long nextRecordsFrom = null;
+
+        try {
+            while (results.next()) {
+                long monitoringDataTs = results.getLong(0);
+
+                // All the records with the timestamp of the last record that fits in the payload are included.
+                if (maxRecordsInPayload > 0 && recordsCount >= maxRecordsInPayload
+                        && monitoringDataTs != lastMonitoringDataTs) {
+                    log.debug("Records overflow, set nextRecordsFrom to {}", lastMonitoringDataTs + 1);
+
+                    nextRecordsFrom = lastMonitoringDataTs + 1;
+
+                    break;
+                }
+
+                recordsCount++;
+                lastMonitoringDataTs = monitoringDataTs;
+                lastId = results.getLong(1);
+            }
+        } finally {
+            results.close();
+        }
 
-        // Check overflow.
-        if (records.size() == maxRecordsInPayload) {
-            log.trace("Check possible records overflow");
+        return new OperationalDataSelection(recordsFrom, lastMonitoringDataTs != null ? lastMonitoringDataTs
+                : recordsTo, lastId, clientFilter, serviceProviderFilter, outputFields, recordsCount,
+                nextRecordsFrom);
+    }
 
-            long lastMonitoringDataTs = records.getLastMonitoringDataTs();
+    private static Void streamInTransaction(Session session, OperationalDataSelection selection,
+            Consumer<OperationalDataRecord> consumer) {
+        if (selection.getLastId() == null) {
+            return null;
+        }
 
-            Criteria overflowCriteria = createOverflowCriteria(session, lastMonitoringDataTs, clientFilter,
-                    serviceProviderFilter, outputFields);
-            OperationalDataRecords overflowRecords = new OperationalDataRecords(overflowCriteria.list());
+        Set<String> outputFields = selection.getOutputFields();
+        boolean removeMonitoringDataTs = !outputFields.isEmpty() && !outputFields.contains(MONITORING_DATA_TS);
 
-            records.removeRecordsByMonitoringDataTs(lastMonitoringDataTs);
-            records.append(overflowRecords);
+        Criteria criteria = createCriteria(session, selection.getClientFilter(),
+                selection.getServiceProviderFilter(), outputFields);
 
-            if (recordsOverflow(session, lastMonitoringDataTs, recordsTo, clientFilter, serviceProviderFilter)) {
-                log.debug("Records overflow, set nextRecordsFrom to {}", lastMonitoringDataTs + 1);
+        // The selection ends with the key (recordsTo, lastId), so exactly the selected records are read even
+        // if more records with the last timestamp are stored in the meantime. BETWEEN treats the endpoint
+        // values as included in the range.
+        criteria.add(Restrictions.between(MONITORING_DATA_TS, selection.getRecordsFrom(),
+                selection.getRecordsTo()));
+        criteria.add(Restrictions.or(Restrictions.lt(MONITORING_DATA_TS, selection.getRecordsTo()),
+                Restrictions.le(ID, selection.getLastId())));
+        criteria.addOrder(Order.asc(MONITORING_DATA_TS));
+        criteria.addOrder(Order.asc(ID));
+        criteria.setFetchSize(STREAM_FETCH_SIZE);
+        criteria.setReadOnly(true);
 
-                records.setNextRecordsFrom(lastMonitoringDataTs + 1);
-            }
-        }
+        ScrollableResults results = criteria.scroll(ScrollMode.FORWARD_ONLY);
 
-        return records;
-    }
+        try {
+            int count = 0;
 
-    private static void removeMonitoringDataTsIfNotSpecified(OperationalDataRecords records, Set<String> outputFields) {
-        if (!outputFields.isEmpty() && !outputFields.contains(MONITORING_DATA_TS)) {
-            records.getRecords().forEach(i -> i.setMonitoringDataTs(null));
-        }
-    }
+            while (results.next()) {
+                OperationalDataRecord record = (OperationalDataRecord) results.get(0);
 
-    private static boolean recordsOverflow(Session session, long lastMonitoringDataTs, long recordsTo,
-            ClientId clientFilter, ClientId serviceProviderFilter) {
-        // Indicate overflow only if some records are not included.
-        return lastMonitoringDataTs < recordsTo && hasRecordsLeft(session, lastMonitoringDataTs, recordsTo,
-                clientFilter, serviceProviderFilter);
-    }
+                // Output fields are always projected, so the record is not a managed entity here.
+                if (removeMonitoringDataTs) {
+                    record.setMonitoringDataTs(null);
+                }
 
-    private static boolean hasRecordsLeft(Session session, long lastMonitoringDataTs, long recordsTo,
-            ClientId clientFilter, ClientId serviceProviderFilter) {
-        if (lastMonitoringDataTs == recordsTo) {
-            return false;
-        }
+                consumer.accept(record);
 
-        Criteria criteria = createCriteria(session, clientFilter, serviceProviderFilter,
-                Collections.singleton(MONITORING_DATA_TS));
-        // BETWEEN treats the endpoint values as included in the range.
-        criteria.add(Restrictions.between(MONITORING_DATA_TS, lastMonitoringDataTs + 1, recordsTo));
-        criteria.setMaxResults(1);
+                if (++count % STREAM_FETCH_SIZE == 0) {
+                    session.clear();
+                }
+            }
+        } finally {
+            results.close();
+        }
 
-        return criteria.list().size() > 0;
+        return null;
     }
 
     private static Criteria createCriteria(Session session, long recordsFrom, long recordsTo, ClientId clientFilter,
-            ClientId serviceProviderFilter, Set<String> outputFields) {
-        Criteria criteria = createCriteria(session, clientFilter, serviceProviderFilter, outputFields);
+            ClientId serviceProviderFilter) {
+        Criteria criteria = session.createCriteria(OperationalDataRecord.class);
+
+        configureClientAndServiceProviderFilters(criteria, clientFilter, serviceProviderFilter);
 
         // BETWEEN treats the endpoint values as included in the range.
         criteria.add(Restrictions.between(MONITORING_DATA_TS, recordsFrom, recordsTo));
-        criteria.addOrder(Order.asc(MONITORING_DATA_TS));
-        criteria.setMaxResults(maxRecordsInPayload);
 
         return criteria;
     }
@@ -288,13 +358,4 @@ final class OperationalDataRecordManager {
                         : Restrictions.eq(isClient ? CLIENT_SUBSYSTEM_CODE : SERVICE_SUBSYSTEM_CODE,
                         member.getSubsystemCode()));
     }
-
-    private static Criteria createOverflowCriteria(Session session, long monitoringDataTs, ClientId clientFilter,
-            ClientId serviceProviderFilter, Set<String> outputFields) {
-        Criteria criteria = createCriteria(session, clientFilter, serviceProviderFilter, outputFields);
-
-        criteria.add(Restrictions.eq(MONITORING_DATA_TS, monitoringDataTs));
-
-        return criteria;
-    }
 }
@@ -28,7 +28,6 @@ import ee.ria.xroad.common.conf.monitoringconf.MonitoringConf;
 import ee.ria.xroad.common.identifier.ClientId;
 import ee.ria.xroad.common.identifier.SecurityServerId;
 import ee.ria.xroad.common.message.MultipartSoapMessageEncoder;
-import ee.ria.xroad.common.message.SoapMessageEncoder;
 import ee.ria.xroad.common.message.SoapMessageImpl;
 import ee.ria.xroad.common.opmonitoring.OpMonitoringSystemProperties;
 import ee.ria.xroad.common.util.MimeTypes;
@@ -37,18 +36,21 @@ import ee.ria.xroad.opmonitordaemon.message.GetSecurityServerOperationalDataResp
 import ee.ria.xroad.opmonitordaemon.message.GetSecurityServerOperationalDataType;
 import ee.ria.xroad.opmonitordaemon.message.SearchCriteriaType;
 
+import com.google.gson.stream.JsonWriter;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
 import javax.xml.bind.JAXBElement;
 import javax.xml.bind.Marshaller;
 
-import java.io.IOException;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.function.Consumer;
+import java.util.zip.GZIPOutputStream;
 
 import static ee.ria.xroad.common.ErrorCodes.CLIENT_X;
 import static ee.ria.xroad.common.ErrorCodes.X_INTERNAL_ERROR;
@@ -68,6 +70,10 @@ class OperationalDataRequestHandler extends QueryRequestHandler {
 
     protected static final String CID = "operational-monitoring-data.json.gz";
 
+    private static final String RECORDS = "records";
+
+    private static final int GZIP_BUFFER_SIZE = 8192;
+
     @Override
     public void handle(SoapMessageImpl requestSoap, OutputStream out,
             Consumer<String> contentTypeCallback) throws Exception {
@@ -105,19 +111,25 @@ class OperationalDataRequestHandler extends QueryRequestHandler {
                         recordsTo, serviceProviderId, outputFields,
                         recordsAvailableBefore);
 
-        try (SoapMessageEncoder responseEncoder = new MultipartSoapMessageEncoder(out)) {
-            contentTypeCallback.accept(responseEncoder.getContentType());
+        MultipartSoapMessageEncoder responseEncoder =
+                new MultipartSoapMessageEncoder(out);
+        contentTypeCallback.accept(responseEncoder.getContentType());
 
-            SoapEncoderAttachmentMarshaller attachmentMarshaller =
-                    new SoapEncoderAttachmentMarshaller(responseEncoder);
-            Marshaller marshaller = createMarshaller(attachmentMarshaller);
+        SoapEncoderAttachmentMarshaller attachmentMarshaller =
+                new SoapEncoderAttachmentMarshaller(responseEncoder);
+        Marshaller marshaller = createMarshaller(attachmentMarshaller);
 
-            SoapMessageImpl response = createResponse(requestSoap, marshaller,
-                    createResponseElement(opDataResponse));
-            responseEncoder.soap(response, new HashMap<>());
+        SoapMessageImpl response = createResponse(requestSoap, marshaller,
+                createResponseElement(opDataResponse));
+        responseEncoder.soap(response, new HashMap<>());
 
-            attachmentMarshaller.encodeAttachments();
-        }
+        attachmentMarshaller.encodeAttachments();
+
+        // Closing the encoder terminates the multipart message, so it is
+        // closed only after the records have been written. Otherwise a
+        // failure while streaming the records would leave a complete looking
+        // response with a truncated attachment.
+        responseEncoder.close();
     }
 
     static void checkTimestamps(long recordsFrom, long recordsTo,
@@ -160,9 +172,7 @@ class OperationalDataRequestHandler extends QueryRequestHandler {
     protected GetSecurityServerOperationalDataResponseType
             buildOperationalDataResponse(ClientId filterByClient,
             long recordsFrom, long recordsTo, ClientId filterByServiceProvider,
-            Set<String> outputFields, long recordsAvailableBefore)
-            throws IOException {
-        OperationalDataRecords responseRecords;
+            Set<String> outputFields, long recordsAvailableBefore) {
         GetSecurityServerOperationalDataResponseType opDataResponse =
                 OBJECT_FACTORY
                         .createGetSecurityServerOperationalDataResponseType();
@@ -177,38 +187,49 @@ class OperationalDataRequestHandler extends QueryRequestHandler {
             opDataResponse.setNextRecordsFrom(recordsAvailableBefore);
         }
 
-        responseRecords = getOperationalDataRecords(filterByClient,
-                recordsFrom, recordsTo, filterByServiceProvider, outputFields);
-
-        opDataResponse.setRecordsCount(responseRecords.size());
-        String payload = responseRecords.getPayload(GSON);
+        OperationalDataSelection selection = selectOperationalDataRecords(
+                filterByClient, recordsFrom, recordsTo, filterByServiceProvider,
+                outputFields);
 
-        // Optimize memory usage: release records memory before compressing
-        // operation.
-        responseRecords.getRecords().clear();
+        opDataResponse.setRecordsCount((int) selection.getRecordsCount());
 
-        opDataResponse.setRecords(createAttachmentDataSource(compress(payload),
-                CID, MimeTypes.GZIP));
+        // The records are read from the database and compressed only when
+        // the attachment is written to the response.
+        opDataResponse.setRecords(createStreamingAttachment(CID,
+                MimeTypes.GZIP, out -> writePayload(selection, out)));
 
-        if (responseRecords.getNextRecordsFrom() != null) {
-            opDataResponse.setNextRecordsFrom(
-                    responseRecords.getNextRecordsFrom());
+        if (selection.getNextRecordsFrom() != null) {
+            opDataResponse.setNextRecordsFrom(selection.getNextRecordsFrom());
         }
 
         return opDataResponse;
     }
 
+    private void writePayload(OperationalDataSelection selection,
+            OutputStream out) throws Exception {
+        try (JsonWriter writer = GSON.newJsonWriter(new OutputStreamWriter(
+                new GZIPOutputStream(out, GZIP_BUFFER_SIZE),
+                StandardCharsets.UTF_8))) {
+            writer.beginObject().name(RECORDS).beginArray();
+
+            streamOperationalDataRecords(selection, record -> GSON.toJson(
+                    record, OperationalDataRecord.class, writer));
+
+            writer.endArray().endObject();
+        }
+    }
+
     private static JAXBElement<?> createResponseElement(
             GetSecurityServerOperationalDataResponseType opDataResponse) {
         return OBJECT_FACTORY.createGetSecurityServerOperationalDataResponse(
                 opDataResponse);
     }
 
-    protected OperationalDataRecords getOperationalDataRecords(
+    protected OperationalDataSelection selectOperationalDataRecords(
             ClientId filterByClient, long recordsFrom, long recordsTo,
             ClientId filterByServiceProvider, Set<String> outputFields) {
         try {
-            return OperationalDataRecordManager.queryRecords(recordsFrom,
+            return OperationalDataRecordManager.selectRecords(recordsFrom,
                     recordsTo, filterByClient, filterByServiceProvider,
                     outputFields);
         } catch (Exception e) {
@@ -219,6 +240,12 @@ class OperationalDataRequestHandler extends QueryRequestHandler {
         }
     }
 
+    protected void streamOperationalDataRecords(
+            OperationalDataSelection selection,
+            Consumer<OperationalDataRecord> consumer) throws Exception {
+        OperationalDataRecordManager.streamRecords(selection, consumer);
+    }
+
     protected ClientId getClientForFilter(ClientId clientId,
             SecurityServerId serverId) throws Exception {
         return !isMonitoringClient(clientId)
@@ -0,0 +1,61 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.opmonitordaemon;
+
+import ee.ria.xroad.common.identifier.ClientId;
+
+import lombok.Value;
+
+import java.util.Set;
+
+/**
+ * Operational data records selected by the search criteria of a request: the key range that limits
+ * the records to the configured payload size, the number of records in the range and the start of the
+ * next range in case of overflow. The records themselves are streamed from the database using
+ * OperationalDataRecordManager.streamRecords().
+ */
+@Value
+class OperationalDataSelection {
+
+    long recordsFrom;
+
+    long recordsTo;
+
+    /**
+     * The id of the last selected record with the timestamp recordsTo, null if no records were selected.
+     */
+    Long lastId;
+
+    ClientId clientFilter;
+
+    ClientId serviceProviderFilter;
+
+    Set<String> outputFields;
+
+    long recordsCount;
+
+    /**
+     * Indicates queried records overflow if not null.
+     */
+    Long nextRecordsFrom;
+}
@@ -24,7 +24,7 @@ package ee.ria.xroad.opmonitordaemon;
 
 import ee.ria.xroad.common.CodedException;
 import ee.ria.xroad.common.message.JaxbUtils;
-import ee.ria.xroad.common.message.SoapMessageEncoder;
+import ee.ria.xroad.common.message.MultipartSoapMessageEncoder;
 import ee.ria.xroad.common.message.SoapMessageImpl;
 import ee.ria.xroad.common.message.SoapUtils;
 import ee.ria.xroad.common.util.JsonUtils;
@@ -32,11 +32,9 @@ import ee.ria.xroad.common.util.ResourceUtils;
 import ee.ria.xroad.opmonitordaemon.message.ObjectFactory;
 
 import com.google.gson.Gson;
-import com.sun.istack.ByteArrayDataSource;
 import com.sun.xml.bind.api.AccessorException;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.io.output.ByteArrayOutputStream;
 import org.apache.commons.lang3.StringUtils;
 import org.xml.sax.SAXException;
 
@@ -55,13 +53,11 @@ import javax.xml.validation.SchemaFactory;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.UUID;
 import java.util.function.Consumer;
-import java.util.zip.GZIPOutputStream;
 
 import static ee.ria.xroad.common.ErrorCodes.CLIENT_X;
 import static ee.ria.xroad.common.ErrorCodes.X_INTERNAL_ERROR;
@@ -179,27 +175,9 @@ abstract class QueryRequestHandler {
         return marshaller;
     }
 
-    static DataHandler createAttachmentDataSource(
-            byte[] payload, String cid, String contentType) {
-        return new DataHandler(new ByteArrayDataSource(payload, contentType)) {
-            @Override
-            public String getName() {
-                return cid;
-            }
-        };
-    }
-
-    static byte[] compress(String data) throws IOException {
-        byte[] dataBytes = data.getBytes(StandardCharsets.UTF_8);
-
-        try (ByteArrayOutputStream bos = new ByteArrayOutputStream(
-                dataBytes.length)) {
-            GZIPOutputStream gzip = new GZIPOutputStream(bos);
-            gzip.write(dataBytes);
-            gzip.close();
-
-            return bos.toByteArray();
-        }
+    static DataHandler createStreamingAttachment(String cid,
+            String contentType, AttachmentWriter writer) {
+        return new StreamingAttachment(cid, contentType, writer);
     }
 
     private static Map<String, String> getAdditionalAttachmentHeaders(
@@ -217,15 +195,24 @@ abstract class QueryRequestHandler {
             extends AttachmentMarshaller {
         private static final String CID_PREFIX = "cid:";
 
-        private final SoapMessageEncoder responseEncoder;
+        private final MultipartSoapMessageEncoder responseEncoder;
 
         private final Map<String, DataHandler> attachments = new HashMap<>();
 
         void encodeAttachments() throws Exception {
             for (Entry<String, DataHandler> attach : attachments.entrySet()) {
-                responseEncoder.attachment(attach.getValue().getContentType(),
-                        attach.getValue().getInputStream(),
-                        getAdditionalAttachmentHeaders(attach.getKey()));
+                DataHandler data = attach.getValue();
+                Map<String, String> headers =
+                        getAdditionalAttachmentHeaders(attach.getKey());
+
+                if (data instanceof StreamingAttachment) {
+                    ((StreamingAttachment) data).writer.write(
+                            responseEncoder.attachment(data.getContentType(),
+                                    headers));
+                } else {
+                    responseEncoder.attachment(data.getContentType(),
+                            data.getInputStream(), headers);
+                }
             }
         }
 
@@ -257,4 +244,45 @@ abstract class QueryRequestHandler {
             return null;
         }
     }
+
+    /**
+     * Writes the content of an attachment directly into the response.
+     */
+    @FunctionalInterface
+    interface AttachmentWriter {
+        void write(OutputStream out) throws Exception;
+    }
+
+    /**
+     * Attachment whose content is produced by the writer at the time the
+     * attachment is encoded, instead of being held in memory.
+     */
+    private static final class StreamingAttachment extends DataHandler {
+        private final String cid;
+        private final AttachmentWriter writer;
+
+        StreamingAttachment(String cid, String contentType,
+                AttachmentWriter writer) {
+            super(writer, contentType);
+
+            this.cid = cid;
+            this.writer = writer;
+        }
+
+        @Override
+        public String getName() {
+            return cid;
+        }
+
+        @Override
+        public void writeTo(OutputStream os) throws IOException {
+            try {
+                writer.write(os);
+            } catch (IOException | RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException(e);
+            }
+        }
+    }
 }
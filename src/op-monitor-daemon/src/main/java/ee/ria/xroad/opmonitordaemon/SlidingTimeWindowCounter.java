@@ -22,15 +22,17 @@
  */
 package ee.ria.xroad.opmonitordaemon;
 
+import com.codahale.metrics.Clock;
 import com.codahale.metrics.Counter;
-import com.codahale.metrics.Reservoir;
-import com.codahale.metrics.SlidingTimeWindowReservoir;
 
 import java.util.concurrent.TimeUnit;
 
 /**
- * A counter metric that uses the sliding time window reservoir internally to
- * support periodic and configurable resetting.
+ * A counter metric that counts the increments of a sliding time window, to
+ * support periodic and configurable resetting. The window is divided into a
+ * ring of buckets, each holding the count of its slice of the window, so the
+ * memory use and the cost of getCount() do not depend on the count. The
+ * window slides one bucket at a time.
  * This counter does not support manually decrementing the count (the dec()
  * methods raise a runtime exception).
  * We extend Counter instead of implementing the Metric and Counting
@@ -39,36 +41,79 @@ import java.util.concurrent.TimeUnit;
  */
 class SlidingTimeWindowCounter extends Counter {
 
-    private final Reservoir reservoir;
+    private final Clock clock;
+
+    private final long bucketNanos;
+
+    private final long[] epochs;
+
+    private final long[] counts;
+
+    /**
+     * Creates a counter with the given window of time.
+     *
+     * @param window      the window of time
+     * @param windowUnit  the unit of {@code window}
+     * @param bucketCount the number of buckets the window is divided into
+     */
+    SlidingTimeWindowCounter(long window, TimeUnit windowUnit, int bucketCount) {
+        this(window, windowUnit, bucketCount, Clock.defaultClock());
+    }
 
     /**
      * Creates a counter with the given window of time.
      *
-     * @param window     the window of time
-     * @param windowUnit the unit of {@code window}
+     * @param window      the window of time
+     * @param windowUnit  the unit of {@code window}
+     * @param bucketCount the number of buckets the window is divided into
+     * @param clock       the clock used for dividing increments into buckets
      */
-    SlidingTimeWindowCounter(long window, TimeUnit windowUnit) {
-        reservoir = new SlidingTimeWindowReservoir(window, windowUnit);
+    SlidingTimeWindowCounter(long window, TimeUnit windowUnit, int bucketCount,
+            Clock clock) {
+        this.clock = clock;
+        this.bucketNanos = Math.max(1,
+                windowUnit.toNanos(window) / bucketCount);
+        this.epochs = new long[bucketCount];
+        this.counts = new long[bucketCount];
     }
 
     /**
-     * @return the snapshot size of the sliding time window reservoir.
+     * @return the number of increments in the sliding time window.
      */
     @Override
-    public long getCount() {
-        return reservoir.getSnapshot().size();
+    public synchronized long getCount() {
+        long epoch = currentEpoch();
+        long count = 0;
+
+        for (int i = 0; i < counts.length; i++) {
+            if (epochs[i] > epoch - counts.length) {
+                count += counts[i];
+            }
+        }
+
+        return count;
     }
 
     @Override
     public void inc() {
-        reservoir.update(1L);
+        inc(1L);
     }
 
     @Override
-    public void inc(long n) {
-        for (int i = 0; i < n; ++i) {
-            inc();
+    public synchronized void inc(long n) {
+        if (n <= 0) {
+            return;
         }
+
+        long epoch = currentEpoch();
+        int index = (int) Math.floorMod(epoch, (long) counts.length);
+
+        if (epochs[index] != epoch) {
+            epochs[index] = epoch;
+            counts[index] = 0;
+        }
+
+        counts[index] += n;
     }
 
     @Override
@@ -81,4 +126,8 @@ class SlidingTimeWindowCounter extends Counter {
         throw new RuntimeException("This counter can be incremented only");
     }
 
+    private long currentEpoch() {
+        return Math.floorDiv(clock.getTick(), bucketNanos);
+    }
+
 }
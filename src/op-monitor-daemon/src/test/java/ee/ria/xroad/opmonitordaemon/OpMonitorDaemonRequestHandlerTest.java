@@ -0,0 +1,182 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.opmonitordaemon;
+
+import ee.ria.xroad.common.identifier.ClientId;
+import ee.ria.xroad.common.identifier.SecurityServerId;
+import ee.ria.xroad.common.message.SoapMessageImpl;
+import ee.ria.xroad.common.message.SoapParserImpl;
+import ee.ria.xroad.common.util.MimeTypes;
+import ee.ria.xroad.common.util.MimeUtils;
+
+import com.codahale.metrics.MetricRegistry;
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jetty.server.LocalConnector;
+import org.eclipse.jetty.server.Server;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static ee.ria.xroad.common.opmonitoring.OpMonitoringDaemonEndpoints.QUERY_DATA_PATH;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for verifying how the request handler reports query errors.
+ */
+public class OpMonitorDaemonRequestHandlerTest {
+
+    private static final String OPERATIONAL_DATA_REQUEST =
+            "src/test/resources/operationaldata.request";
+
+    // Small enough for the SOAP part alone to commit the response.
+    private static final int RESPONSE_BUFFER_SIZE = 256;
+
+    private static final Pattern CONTENT_TYPE =
+            Pattern.compile("Content-Type: (.*)\r\n");
+
+    private Server server;
+    private LocalConnector connector;
+
+    /**
+     * Starts a server with a local connector and a request handler whose
+     * operational data records fail to stream.
+     * @throws Exception in case of any errors
+     */
+    @Before
+    public void startServer() throws Exception {
+        server = new Server();
+        connector = new LocalConnector(server);
+
+        server.addConnector(connector);
+        server.setHandler(new FailingRequestHandler());
+        server.start();
+    }
+
+    /**
+     * Stops the server.
+     * @throws Exception in case of any errors
+     */
+    @After
+    public void stopServer() throws Exception {
+        server.stop();
+    }
+
+    /**
+     * Ensure that a failure after the response has been committed aborts the
+     * connection instead of appending a SOAP fault to the multipart response.
+     */
+    @Test
+    public void abortConnectionWhenStreamingRecordsFails() throws Exception {
+        byte[] body = FileUtils.readFileToByteArray(
+                new File(OPERATIONAL_DATA_REQUEST));
+
+        LocalConnector.LocalEndPoint endPoint = connector.executeRequest(
+                "POST " + QUERY_DATA_PATH + " HTTP/1.1\r\n"
+                + "Host: localhost\r\n"
+                + "Content-Type: " + MimeTypes.TEXT_XML_UTF8 + "\r\n"
+                + "Content-Length: " + body.length + "\r\n"
+                + "\r\n"
+                + new String(body, StandardCharsets.UTF_8));
+
+        endPoint.waitUntilClosedOrIdleFor(10, TimeUnit.SECONDS);
+
+        String response = endPoint.takeOutputString();
+
+        assertTrue(response.startsWith("HTTP/1.1 200"));
+        assertTrue(response.contains("getSecurityServerOperationalDataResponse"));
+        assertFalse(response.contains("Fault"));
+
+        // Neither the multipart message nor the chunked response is
+        // terminated, so the client cannot mistake it for a complete one.
+        assertFalse(response.contains("--" + getBoundary(response) + "--"));
+        assertFalse(response.endsWith("\r\n0\r\n\r\n"));
+        assertTrue(endPoint.isOutputShutdown());
+    }
+
+    private static String getBoundary(String response) {
+        Matcher matcher = CONTENT_TYPE.matcher(response);
+
+        assertTrue(matcher.find());
+
+        return MimeUtils.getBoundary(matcher.group(1));
+    }
+
+    private static class FailingRequestHandler
+            extends OpMonitorDaemonRequestHandler {
+
+        FailingRequestHandler() {
+            super(new MetricRegistry());
+        }
+
+        @Override
+        void processQueryRequest(HttpServletRequest request,
+                HttpServletResponse response) throws Exception {
+            response.setBufferSize(RESPONSE_BUFFER_SIZE);
+
+            SoapMessageImpl requestSoap = (SoapMessageImpl)
+                    new SoapParserImpl().parse(request.getContentType(),
+                            request.getInputStream());
+
+            new FailingOperationalDataRequestHandler().handle(requestSoap,
+                    response.getOutputStream(), response::setContentType);
+        }
+    }
+
+    private static class FailingOperationalDataRequestHandler
+            extends OperationalDataRequestHandler {
+
+        @Override
+        protected OperationalDataSelection selectOperationalDataRecords(
+                ClientId filterByClient, long recordsFrom, long recordsTo,
+                ClientId filterByServiceProvider, Set<String> outputFields) {
+            return new OperationalDataSelection(recordsFrom, recordsTo,
+                    null, filterByClient, filterByServiceProvider, outputFields,
+                    1, null);
+        }
+
+        @Override
+        protected void streamOperationalDataRecords(
+                OperationalDataSelection selection,
+                Consumer<OperationalDataRecord> consumer) {
+            throw new RuntimeException("Reading records failed");
+        }
+
+        @Override
+        protected ClientId getClientForFilter(ClientId clientId,
+                SecurityServerId serverId) throws Exception {
+            return null;
+        }
+    }
+}
@@ -35,13 +35,17 @@ import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
 import java.lang.reflect.Field;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 
 import static ee.ria.xroad.opmonitordaemon.OpMonitorDaemonDatabaseCtx.doInTransaction;
 import static ee.ria.xroad.opmonitordaemon.OperationalDataRecordManager.queryAllRecords;
 import static ee.ria.xroad.opmonitordaemon.OperationalDataRecordManager.queryRecords;
+import static ee.ria.xroad.opmonitordaemon.OperationalDataRecordManager.selectRecords;
 import static ee.ria.xroad.opmonitordaemon.OperationalDataRecordManager.storeRecords;
+import static ee.ria.xroad.opmonitordaemon.OperationalDataRecordManager.streamRecords;
 import static ee.ria.xroad.opmonitordaemon.OperationalDataTestUtil.GSON;
 import static ee.ria.xroad.opmonitordaemon.OperationalDataTestUtil.formatFullOperationalDataAsJson;
 import static ee.ria.xroad.opmonitordaemon.OperationalDataTestUtil.storeFullOperationalDataRecord;
@@ -188,6 +192,36 @@ public class OperationalDataRecordManagerTest extends BaseTestUsingDB {
         assertEquals(1474968982L, result.getNextRecordsFrom().longValue());
     }
 
+    @Test
+    public void streamSelectedRecordsOnly() throws Exception {
+        storeFullOperationalDataRecords(3, 1474968980L);
+        storeFullOperationalDataRecords(2, 1474968981L);
+
+        OperationalDataRecordManager.setMaxRecordsInPayload(2);
+        OperationalDataSelection selection = selectRecords(1474968960L,
+                1474968990L, null, null, new HashSet<>());
+        assertEquals(3, selection.getRecordsCount());
+        assertEquals(1474968980L, selection.getRecordsTo());
+        assertEquals(1474968981L, selection.getNextRecordsFrom().longValue());
+
+        // Records stored with the last selected timestamp after the
+        // selection are not streamed.
+        storeFullOperationalDataRecords(2, 1474968980L);
+
+        List<OperationalDataRecord> records = new ArrayList<>();
+        streamRecords(selection, records::add);
+        assertEquals(3, records.size());
+
+        long lastId = 0;
+
+        for (OperationalDataRecord record : records) {
+            assertEquals(1474968980L, record.getMonitoringDataTs().longValue());
+            assertTrue(record.getId() > lastId);
+
+            lastId = record.getId();
+        }
+    }
+
     @Test
     public void storeAndQueryDataFilteringByOutputFields() throws Exception {
         ClientId client = ClientId.create(
@@ -338,6 +372,25 @@ public class OperationalDataRecordManagerTest extends BaseTestUsingDB {
         assertEquals(1, result.size());
     }
 
+    @Test
+    public void cleanupLogRecordsInChunks() throws Exception {
+        storeFullOperationalDataRecords(5, 1474968970L);
+        storeFullOperationalDataRecords(2, 1474968980L);
+
+        System.setProperty("xroad.op-monitor.clean-chunk-size", "2");
+
+        try {
+            assertEquals(5, OperationalDataRecordCleaner.cleanRecords(
+                    new DateTime(1474968975000L)));
+        } finally {
+            System.clearProperty("xroad.op-monitor.clean-chunk-size");
+        }
+
+        OperationalDataRecords result = queryRecords(1474968960L, 1474968980L);
+
+        assertEquals(2, result.size());
+    }
+
     @Test
     public void stringTruncation() throws Exception {
         OperationalDataRecord record = GSON.fromJson(
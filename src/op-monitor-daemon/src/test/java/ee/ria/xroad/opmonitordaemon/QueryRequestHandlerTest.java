@@ -44,15 +44,18 @@ import org.apache.commons.io.IOUtils;
 import org.junit.Test;
 import org.w3c.dom.Element;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.FileInputStream;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
 
 import static ee.ria.xroad.opmonitordaemon.OperationalDataTestUtil.GSON;
 import static ee.ria.xroad.opmonitordaemon.OperationalDataTestUtil.formatFullOperationalDataAsJson;
@@ -92,11 +95,21 @@ public class QueryRequestHandlerTest {
 
         QueryRequestHandler handler = new OperationalDataRequestHandler() {
             @Override
-            protected OperationalDataRecords getOperationalDataRecords(
+            protected OperationalDataSelection selectOperationalDataRecords(
                     ClientId filterByClient, long recordsFrom, long recordsTo,
                     ClientId filterByServiceProvider,
                     Set<String> outputFields) {
-                return new OperationalDataRecords(Collections.emptyList());
+                return new OperationalDataSelection(recordsFrom, recordsTo,
+                        null, filterByClient, filterByServiceProvider, outputFields,
+                        2, null);
+            }
+
+            @Override
+            protected void streamOperationalDataRecords(
+                    OperationalDataSelection selection,
+                    Consumer<OperationalDataRecord> consumer) {
+                consumer.accept(new OperationalDataRecord());
+                consumer.accept(new OperationalDataRecord());
             }
 
             @Override
@@ -106,7 +119,7 @@ public class QueryRequestHandlerTest {
             }
         };
 
-        OutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
 
         handler.handle(request, out, ct -> testContentType = ct);
 
@@ -128,6 +141,8 @@ public class QueryRequestHandlerTest {
                 String expectedCid = "<" + OperationalDataRequestHandler.CID
                         + ">";
                 assertEquals(expectedCid, additionalHeaders.get("content-id"));
+                assertEquals("{\"records\":[{},{}]}", IOUtils.toString(
+                        new GZIPInputStream(content), StandardCharsets.UTF_8));
             }
 
             @Override
@@ -146,7 +161,7 @@ public class QueryRequestHandlerTest {
             }
         });
 
-        decoder.parse(IOUtils.toInputStream(out.toString()));
+        decoder.parse(new ByteArrayInputStream(out.toByteArray()));
     }
 
     @SneakyThrows
@@ -0,0 +1,78 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.opmonitordaemon;
+
+import com.codahale.metrics.Clock;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for the sliding time window counter.
+ */
+public class SlidingTimeWindowCounterTest {
+
+    @Test
+    public void countsIncrementsInWindow() {
+        ManualClock clock = new ManualClock();
+        SlidingTimeWindowCounter counter = new SlidingTimeWindowCounter(
+                10, TimeUnit.SECONDS, 10, clock);
+
+        counter.inc();
+        counter.inc(2);
+        clock.advance(5);
+        counter.inc();
+
+        assertEquals(4, counter.getCount());
+
+        clock.advance(5);
+
+        // The increments of the first second have left the window.
+        assertEquals(1, counter.getCount());
+
+        clock.advance(5);
+        counter.inc();
+
+        assertEquals(1, counter.getCount());
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void cannotDecrement() {
+        new SlidingTimeWindowCounter(10, TimeUnit.SECONDS, 10).dec();
+    }
+
+    private static final class ManualClock extends Clock {
+        private long tick;
+
+        void advance(long seconds) {
+            tick += TimeUnit.SECONDS.toNanos(seconds);
+        }
+
+        @Override
+        public long getTick() {
+            return tick;
+        }
+    }
+}
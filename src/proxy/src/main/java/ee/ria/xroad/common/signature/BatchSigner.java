@@ -23,6 +23,8 @@
 package ee.ria.xroad.common.signature;
 
 import ee.ria.xroad.common.CodedException;
+import ee.ria.xroad.common.SystemProperties;
+import ee.ria.xroad.common.util.ProcessMetrics;
 import ee.ria.xroad.signer.protocol.SignerClient;
 import ee.ria.xroad.signer.protocol.message.GetTokenBatchSigningEnabled;
 import ee.ria.xroad.signer.protocol.message.Sign;
@@ -30,22 +32,27 @@ import ee.ria.xroad.signer.protocol.message.SignResponse;
 
 import akka.actor.ActorRef;
 import akka.actor.ActorSystem;
+import akka.actor.Cancellable;
 import akka.actor.Props;
 import akka.actor.UntypedActor;
 import akka.actor.UntypedActorWithStash;
-import akka.pattern.Patterns;
 import akka.util.Timeout;
+import com.codahale.metrics.Histogram;
 import lombok.Data;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import org.bouncycastle.operator.OperatorCreationException;
-import scala.concurrent.Await;
+import scala.concurrent.duration.Duration;
 
 import java.io.IOException;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 
 import static ee.ria.xroad.common.ErrorCodes.SIGNER_X;
@@ -62,7 +69,10 @@ import static ee.ria.xroad.common.util.CryptoUtils.getDigestAlgorithmId;
  *
  * Moreover, multiple signing requests for the same signing certificate
  * (and thus the same key id) are signed in batch and the resulting hash
- * chain is produced for each request.
+ * chain is produced for each request. A batch collects the requests that
+ * arrive while the token is busy, and otherwise the requests that arrive
+ * within the batching window (see {@link SystemProperties#getBatchSignerWindowMicros()}
+ * and {@link SystemProperties#getBatchSignerMaxBatchSize()}).
  *
  * The batch signer is an Akka actor, it creates child actors per
  * signing certificate, which means there is essentially one batch signer
@@ -73,21 +83,39 @@ public class BatchSigner extends UntypedActor {
 
     private static final Timeout DEFAULT_TIMEOUT = new Timeout(30000, TimeUnit.MILLISECONDS);
 
-    // Holds the actor instance, which sends and receives messages.
+    private static final int MAX_CACHED_WORKER_NAMES = 1000;
+
+    private static final String BATCH_SIZE_METRIC = "batchSigner.batchSize";
+
+    private static final Histogram BATCH_SIZE = ProcessMetrics.getRegistry().histogram(BATCH_SIZE_METRIC);
+
+    // Holds the actor system and the actor instance, which receives the requests.
+    private static ActorSystem actorSystem;
     private static ActorRef instance;
 
+    // Worker names by signing certificate, so the certificate is not hashed for every request.
+    private final Map<X509Certificate, String> workerNames =
+            new LinkedHashMap<X509Certificate, String>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<X509Certificate, String> eldest) {
+                    return size() > MAX_CACHED_WORKER_NAMES;
+                }
+            };
+
     /**
      * Initializes the batch signer with the given actor system.
-     * @param actorSystem actor system the batch signer should use
+     * @param system actor system the batch signer should use
      */
-    public static void init(ActorSystem actorSystem) {
+    public static void init(ActorSystem system) {
         if (instance == null) {
-            instance = actorSystem.actorOf(Props.create(BatchSigner.class));
+            actorSystem = system;
+            instance = system.actorOf(Props.create(BatchSigner.class));
         }
     }
 
     /**
-     * Submits the given signing request for batch signing.
+     * Submits the given signing request for batch signing and waits for
+     * the signature.
      * @param keyId the signing key
      * @param signatureAlgorithmId ID of the signature algorithm to use
      * @param request the signing request
@@ -96,46 +124,76 @@ public class BatchSigner extends UntypedActor {
      */
     public static SignatureData sign(String keyId, String signatureAlgorithmId, SigningRequest request)
             throws Exception {
+        try {
+            return signAsync(keyId, signatureAlgorithmId, request).get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
+    /**
+     * Submits the given signing request for batch signing. The returned
+     * future is completed by the batch signer actor, so dependent actions
+     * that may block should use the asynchronous variants of the
+     * CompletableFuture methods.
+     * @param keyId the signing key
+     * @param signatureAlgorithmId ID of the signature algorithm to use
+     * @param request the signing request
+     * @return future of the signature data, completed exceptionally in case
+     * of errors or if the signature is not created in 30 seconds
+     */
+    public static CompletableFuture<SignatureData> signAsync(String keyId, String signatureAlgorithmId,
+            SigningRequest request) {
         if (instance == null) {
             throw new IllegalStateException("BatchSigner is not initialized");
         }
 
-        // Send the signing request to the actor instance (itself)
-        return SignerClient.result(Await.result(Patterns.ask(instance, new SigningRequestWrapper(
-                keyId, signatureAlgorithmId, request), DEFAULT_TIMEOUT.duration().length()),
-                DEFAULT_TIMEOUT.duration()));
+        CompletableFuture<SignatureData> result = new CompletableFuture<>();
+
+        Cancellable timeout = actorSystem.scheduler().scheduleOnce(DEFAULT_TIMEOUT.duration(),
+                () -> result.completeExceptionally(
+                        new CodedException(X_INTERNAL_ERROR, "Signature creation timed out")),
+                actorSystem.dispatcher());
+
+        result.whenComplete((signatureData, error) -> timeout.cancel());
+
+        // Send the signing request to the actor instance
+        instance.tell(new SigningRequestWrapper(keyId, signatureAlgorithmId, request, result), ActorRef.noSender());
+
+        return result;
     }
 
     @Override
     public void onReceive(Object message) throws Exception {
-        try {
-            if (message instanceof SigningRequestWrapper) {
-                handle((SigningRequestWrapper) message);
-            } else {
-                log.trace("unhandled({})", message);
+        if (message instanceof SigningRequestWrapper) {
+            handle((SigningRequestWrapper) message);
+        } else {
+            log.trace("unhandled({})", message);
 
-                unhandled(message);
-            }
-        } catch (Exception e) {
-            log.error("Error in signing worker", e);
-
-            getSender().tell(e, getSelf());
+            unhandled(message);
         }
     }
 
-    private void handle(SigningRequestWrapper signRequest) throws Exception {
+    private void handle(SigningRequestWrapper signRequest) {
         // New incoming sign request. Find the corresponding batch signer actor
         // (if not found, create one) and relay the sign request to the worker.
         try {
-            getWorker(signRequest).tell(signRequest, getSender());
+            getWorker(signRequest).tell(signRequest, getSelf());
         } catch (Exception e) {
-            throw new RuntimeException("Unable to get worker", e);
+            log.error("Error in signing worker", e);
+
+            signRequest.getResult().completeExceptionally(new RuntimeException("Unable to get worker", e));
         }
     }
 
     private ActorRef getWorker(SigningRequestWrapper signRequest) throws Exception {
         // Signing worker based on cert hash.
-        String name = calculateCertHexHash(signRequest.getSigningCert());
+        String name = workerNames.get(signRequest.getSigningCert());
+
+        if (name == null) {
+            name = calculateCertHexHash(signRequest.getSigningCert());
+            workerNames.put(signRequest.getSigningCert(), name);
+        }
 
         ActorRef worker = getContext().getChild(name);
 
@@ -153,16 +211,27 @@ public class BatchSigner extends UntypedActor {
      */
     private static class WorkerImpl extends UntypedActorWithStash {
 
+        private static final Object CLOSE_BATCH = new Object();
+
+        private final long batchWindowNanos =
+                TimeUnit.MICROSECONDS.toNanos(SystemProperties.getBatchSignerWindowMicros());
+
+        private final int maxBatchSize = SystemProperties.getBatchSignerMaxBatchSize();
+
         // The currently active signing ctx.
         private BatchSignatureCtx workingSigningCtx;
 
         // The next signing ctx, if batch signing.
         private BatchSignatureCtx nextSigningCtx;
 
+        private long nextBatchStartTime;
+        private boolean closeBatchPending;
+
         private long signStartTime;
         private boolean workerBusy;
 
         private Boolean batchSigningEnabled;
+        private boolean batchSigningQueryPending;
 
         @Override
         public void onReceive(Object message) throws Exception {
@@ -170,8 +239,12 @@ public class BatchSigner extends UntypedActor {
 
             if (message instanceof SigningRequestWrapper) {
                 handleSignRequest((SigningRequestWrapper) message);
+            } else if (message == CLOSE_BATCH) {
+                handleCloseBatch();
             } else if (message instanceof SignResponse) {
                 handleSignResponse((SignResponse) message);
+            } else if (message instanceof BatchSigningEnabledResponse) {
+                handleBatchSigningEnabled((BatchSigningEnabledResponse) message);
             } else if (message instanceof Exception) {
                 handleException((Exception) message);
             } else {
@@ -182,18 +255,30 @@ public class BatchSigner extends UntypedActor {
         private void handleSignRequest(SigningRequestWrapper signRequest) throws Exception {
             log.trace("handleSignRequest()");
 
+            if (signRequest.getResult().isDone()) {
+                log.trace("Signing request has timed out, skipping");
+
+                return;
+            }
+
             // If we do not know whether batch signing is enabled for the token,
-            // we ask from Signer. This call will block until response is
-            // received or error occurs.
+            // we ask from Signer. The requests are stashed until the response
+            // is received, so the worker is not blocked meanwhile.
             if (batchSigningEnabled == null) {
-                queryBatchSigningEnabled(signRequest.getKeyId());
+                if (!batchSigningQueryPending) {
+                    queryBatchSigningEnabled(signRequest.getKeyId());
+                }
+
+                stash();
+
+                return;
             }
 
-            // Handle incoming sign request. If the token worker is currently
-            // busy (signing, generating key, etc...) and batch signing is
-            // enabled then create signing context and collect all following
-            // sign requests to be signed in batch. Otherwise just sign the
-            // data straight away.
+            // Handle incoming sign request. If batch signing is enabled, then
+            // collect the request to the next batch, which is signed when the
+            // token worker is no longer busy (signing, generating key, etc...)
+            // and the batching window has closed. Otherwise sign the data
+            // straight away or stash the request until the worker is done.
             if (isWorkerBusy()) {
                 if (batchSigningEnabled) {
                     doBatchSign(signRequest);
@@ -203,36 +288,96 @@ public class BatchSigner extends UntypedActor {
                     // so stash this message for future.
                     stash();
                 }
+            } else if (batchSigningEnabled) {
+                doBatchSign(signRequest);
             } else {
                 doSign(signRequest);
             }
         }
 
         private void queryBatchSigningEnabled(String keyId) {
-            try {
-                batchSigningEnabled = SignerClient.execute(new GetTokenBatchSigningEnabled(keyId));
-            } catch (Exception e) {
-                log.error("Failed to query if batch signing is enabled for token with key {}", keyId, e);
+            ActorRef self = getSelf();
+
+            batchSigningQueryPending = true;
+
+            SignerClient.<Boolean>executeAsync(new GetTokenBatchSigningEnabled(keyId)).whenComplete(
+                    (enabled, error) -> self.tell(new BatchSigningEnabledResponse(keyId, enabled, error),
+                            ActorRef.noSender()));
+        }
+
+        private void handleBatchSigningEnabled(BatchSigningEnabledResponse response) {
+            log.trace("handleBatchSigningEnabled({})", response.getEnabled());
+
+            batchSigningQueryPending = false;
+
+            if (response.getError() != null) {
+                // Queried again with the next request
+                log.error("Failed to query if batch signing is enabled for token with key {}",
+                        response.getKeyId(), response.getError());
+            } else {
+                batchSigningEnabled = response.getEnabled();
             }
+
+            unstashAll();
         }
 
         private void doBatchSign(SigningRequestWrapper wrapper) {
             log.trace("doBatchSign()");
 
+            if (nextSigningCtx != null && nextSigningCtx.getClients().size() >= maxBatchSize) {
+                // The next batch is full, wait until it is started
+                stash();
+
+                return;
+            }
+
             if (nextSigningCtx == null) {
                 nextSigningCtx = new BatchSignatureCtx(wrapper.getKeyId(), wrapper.getSignatureAlgorithmId());
+                nextBatchStartTime = System.nanoTime();
+            }
+
+            nextSigningCtx.add(wrapper.getResult(), wrapper.getRequest());
+
+            if (!workerBusy) {
+                if (nextSigningCtx.getClients().size() >= maxBatchSize) {
+                    startNextBatchSigning();
+                } else if (!closeBatchPending) {
+                    // The message is received after the requests already in
+                    // the mailbox, which are thus collected to this batch.
+                    closeBatchPending = true;
+                    getSelf().tell(CLOSE_BATCH, getSelf());
+                }
+            }
+        }
+
+        private void handleCloseBatch() {
+            closeBatchPending = false;
+
+            // If the worker is busy, the batch is started when it is done.
+            if (nextSigningCtx == null || workerBusy) {
+                return;
             }
 
-            nextSigningCtx.add(getSender(), wrapper.getRequest());
+            long remainingNanos = batchWindowNanos - (System.nanoTime() - nextBatchStartTime);
+
+            if (remainingNanos <= 0) {
+                startNextBatchSigning();
+            } else {
+                closeBatchPending = true;
+                getContext().system().scheduler().scheduleOnce(
+                        Duration.create(remainingNanos, TimeUnit.NANOSECONDS), getSelf(), CLOSE_BATCH,
+                        getContext().dispatcher(), getSelf());
+            }
         }
 
         private void doSign(SigningRequestWrapper wrapper) throws Exception {
             log.trace("doSign()");
 
             BatchSignatureCtx ctx = new BatchSignatureCtx(wrapper.getKeyId(), wrapper.getSignatureAlgorithmId());
-            ctx.add(getSender(), wrapper.getRequest());
+            ctx.add(wrapper.getResult(), wrapper.getRequest());
 
             workingSigningCtx = ctx;
+            BATCH_SIZE.update(1);
 
             doCalculateSignature(ctx.getKeyId(), ctx.getSignatureAlgorithmId(), ctx.getDataToBeSigned());
         }
@@ -246,14 +391,7 @@ public class BatchSigner extends UntypedActor {
             // from Signer -- send the signature to the clients.
             sendResponse(signResponse);
 
-            // If batch signing is not enabled, then start signing the next
-            // stashed messages.
-            if (!batchSigningEnabled) {
-                unstashAll();
-            } else if (nextSigningCtx != null) {
-                // Start the next batch signing (if any).
-                startNextBatchSigning();
-            }
+            continueSigning();
         }
 
         private void handleException(Exception exception) {
@@ -262,6 +400,19 @@ public class BatchSigner extends UntypedActor {
             workerBusy = false;
 
             sendResponse(exception);
+
+            continueSigning();
+        }
+
+        private void continueSigning() {
+            // If batch signing is not enabled, then start signing the next
+            // stashed messages.
+            if (!Boolean.TRUE.equals(batchSigningEnabled)) {
+                unstashAll();
+            } else if (nextSigningCtx != null) {
+                // Start the next batch signing (if any).
+                startNextBatchSigning();
+            }
         }
 
         private void startNextBatchSigning() {
@@ -270,13 +421,18 @@ public class BatchSigner extends UntypedActor {
             workingSigningCtx = nextSigningCtx;
             nextSigningCtx = null;
 
+            // Requests that did not fit into the batch go to the next one
+            unstashAll();
+
+            BATCH_SIZE.update(workingSigningCtx.getClients().size());
+
             try {
                 doCalculateSignature(workingSigningCtx.getKeyId(), workingSigningCtx.getSignatureAlgorithmId(),
                         workingSigningCtx.getDataToBeSigned());
             } catch (Exception e) {
                 sendResponse(workingSigningCtx, translateException(e));
 
-                workerBusy = true;
+                workerBusy = false;
                 workingSigningCtx = null;
             }
         }
@@ -314,7 +470,7 @@ public class BatchSigner extends UntypedActor {
                     if (message instanceof SignResponse) {
                         sendSignatureResponse(workingSigningCtx, ((SignResponse) message).getSignature());
                     } else {
-                        sendResponse(workingSigningCtx, message);
+                        sendResponse(workingSigningCtx, (Exception) message);
                     }
                 } catch (Exception e) {
                     sendResponse(workingSigningCtx, e);
@@ -332,43 +488,47 @@ public class BatchSigner extends UntypedActor {
             // Each client gets corresponding hash chain -- client index in the
             // clients list determines the hash chain.
             for (int i = 0; i < ctx.getClients().size(); i++) {
-                ActorRef client = ctx.getClients().get(i);
-                client.tell(ctx.createSignatureData(signature, i), getSelf());
-            }
-        }
-
-        private void sendResponse(BatchSignatureCtx ctx, Object message) {
-            for (ActorRef client : ctx.getClients()) {
-                sendResponse(client, message);
+                ctx.getClients().get(i).complete(ctx.createSignatureData(signature, i));
             }
         }
 
-        private void sendResponse(ActorRef client, Object message) {
-            if (client != ActorRef.noSender()) {
-                if (message instanceof CodedException) {
-                    client.tell(((CodedException) message).withPrefix(SIGNER_X), getSelf());
+        private void sendResponse(BatchSignatureCtx ctx, Exception exception) {
+            for (CompletableFuture<SignatureData> client : ctx.getClients()) {
+                if (exception instanceof CodedException) {
+                    client.completeExceptionally(((CodedException) exception).withPrefix(SIGNER_X));
                 } else {
-                    client.tell(message, getSelf());
+                    client.completeExceptionally(exception);
                 }
             }
         }
     }
 
     /**
-     * Convenience class that wraps the request along with the keyId
-     * and algorithm id.
+     * Convenience class that wraps the request along with the keyId,
+     * algorithm id and the future of the result.
      */
     @Data
     private static class SigningRequestWrapper {
         private final String keyId;
         private final String signatureAlgorithmId;
         private final SigningRequest request;
+        private final CompletableFuture<SignatureData> result;
 
         X509Certificate getSigningCert() {
             return request.getSigningCert();
         }
     }
 
+    /**
+     * Result of querying if batch signing is enabled for the token.
+     */
+    @Data
+    private static class BatchSigningEnabledResponse {
+        private final String keyId;
+        private final Boolean enabled;
+        private final Throwable error;
+    }
+
     /**
      * This signature context is used for batch signing where there might
      * be more than one signature receiver (client).
@@ -376,7 +536,7 @@ public class BatchSigner extends UntypedActor {
     private static class BatchSignatureCtx extends SignatureCtx {
 
         @Getter
-        private final List<ActorRef> clients = new ArrayList<>();
+        private final List<CompletableFuture<SignatureData>> clients = new ArrayList<>();
 
         @Getter
         private final String keyId;
@@ -387,7 +547,7 @@ public class BatchSigner extends UntypedActor {
             this.keyId = keyId;
         }
 
-        void add(ActorRef client, SigningRequest request) {
+        void add(CompletableFuture<SignatureData> client, SigningRequest request) {
             clients.add(client);
             add(request);
         }
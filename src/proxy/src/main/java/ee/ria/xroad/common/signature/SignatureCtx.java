@@ -25,16 +25,11 @@ package ee.ria.xroad.common.signature;
 import ee.ria.xroad.common.CodedException;
 import ee.ria.xroad.common.hashchain.HashChainBuilder;
 import ee.ria.xroad.common.util.CryptoUtils;
-import ee.ria.xroad.common.util.MessageFileNames;
 
 import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.xml.security.signature.XMLSignatureInput;
-import org.apache.xml.security.utils.resolver.ResourceResolverContext;
-import org.apache.xml.security.utils.resolver.ResourceResolverException;
-import org.apache.xml.security.utils.resolver.ResourceResolverSpi;
 
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
@@ -117,16 +112,15 @@ class SignatureCtx {
 
         // If only one single hash (message), then no hash chain
         if (requests.size() == 1 && firstRequest.isSingleMessage()) {
-            return builder.createDataToBeSigned(MESSAGE, createResourceResolver(
-                    firstRequest.getParts().get(0).getSoap()), signatureAlgorithmUri);
+            return builder.createDataToBeSigned(MESSAGE, firstRequest.getParts().get(0).getSoap(),
+                    signatureAlgorithmUri);
         }
 
         buildHashChain();
 
         byte[] hashChainResultBytes = hashChainResult.getBytes(StandardCharsets.UTF_8);
 
-        return builder.createDataToBeSigned(SIG_HASH_CHAIN_RESULT, createResourceResolver(hashChainResultBytes),
-                signatureAlgorithmUri);
+        return builder.createDataToBeSigned(SIG_HASH_CHAIN_RESULT, hashChainResultBytes, signatureAlgorithmUri);
     }
 
     private void buildHashChain() throws Exception {
@@ -150,32 +144,4 @@ class SignatureCtx {
                 .toArray(size -> new byte[size][]);
     }
 
-    /**
-     * This resource resolver will provide the message or hash chain data to be digested.
-     */
-    private ResourceResolverSpi createResourceResolver(final byte[] data) {
-        if (data == null) {
-            throw new IllegalArgumentException("Data must not be null");
-        }
-
-        return new ResourceResolverSpi() {
-            @Override
-            public boolean engineCanResolveURI(ResourceResolverContext context) {
-                switch (context.attr.getValue()) {
-                    case MessageFileNames.MESSAGE:
-                    case MessageFileNames.SIG_HASH_CHAIN_RESULT:
-                        return true;
-                    default:
-                        return false;
-                }
-            }
-
-            @Override
-            public XMLSignatureInput engineResolveURI(ResourceResolverContext context)
-                    throws ResourceResolverException {
-                return new XMLSignatureInput(data);
-            }
-        };
-    }
-
 }
@@ -22,6 +22,7 @@
  */
 package ee.ria.xroad.common.signature;
 
+import ee.ria.xroad.common.SystemProperties;
 import ee.ria.xroad.common.util.MessageFileNames;
 import ee.ria.xroad.common.util.MimeTypes;
 import ee.ria.xroad.common.util.XmlUtils;
@@ -31,7 +32,10 @@ import org.apache.xml.security.signature.ObjectContainer;
 import org.apache.xml.security.signature.SignedInfo;
 import org.apache.xml.security.signature.XMLSignature;
 import org.apache.xml.security.signature.XMLSignatureException;
+import org.apache.xml.security.signature.XMLSignatureInput;
 import org.apache.xml.security.utils.Base64;
+import org.apache.xml.security.utils.resolver.ResourceResolverContext;
+import org.apache.xml.security.utils.resolver.ResourceResolverException;
 import org.apache.xml.security.utils.resolver.ResourceResolverSpi;
 import org.bouncycastle.cert.ocsp.OCSPResp;
 import org.w3c.dom.Document;
@@ -44,6 +48,7 @@ import javax.xml.crypto.dsig.DigestMethod;
 import java.io.IOException;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.List;
 import java.util.TimeZone;
@@ -107,19 +112,22 @@ import static ee.ria.xroad.common.util.CryptoUtils.getDigestAlgorithmURI;
 
 /**
  * Encapsulates the AsiC XAdES signature profile. This class creates the signature used in signing the messages.
+ *
+ * The signature is rendered from the precomputed templates of {@link SignatureXmlTemplate} unless they are
+ * disabled or cannot reproduce the output, in which case it is built through DOM and Santuario.
  */
 final class SignatureXmlBuilder {
 
-    private static final String SIGNATURE_POLICY_IDENTIFIER = "urn:oid:1.3.6.1.4.1.3516.16.2";
-    private static final String SIGNATURE_POLICY_DESCRIPTION =
+    static final String SIGNATURE_POLICY_IDENTIFIER = "urn:oid:1.3.6.1.4.1.3516.16.2";
+    static final String SIGNATURE_POLICY_DESCRIPTION =
             "Profile for High Performance Digital Signatures (version 1.2)";
-    private static final String SIGNATURE_POLICY_DIGEST_METHOD = DigestMethod.SHA512;
-    private static final String SIGNATURE_POLICY_SHA512_DIGEST =
+    static final String SIGNATURE_POLICY_DIGEST_METHOD = DigestMethod.SHA512;
+    static final String SIGNATURE_POLICY_SHA512_DIGEST =
             "BuO0EDNfkxSVlUbxCzmQPzX1AUF1/xx9ytWHk3/6SAOePxQiniEfDYk+90QeYb3lWpV3Izhuz9fKaYyE+lTcXw==";
-    private static final String SIGNATURE_POLICY_QUALIFIER_SPURI = "https://repo.cyber.ee/dsig-profile-1.2.pdf";
+    static final String SIGNATURE_POLICY_QUALIFIER_SPURI = "https://repo.cyber.ee/dsig-profile-1.2.pdf";
 
     // The identifier is an Object IDentifier encoded as an URN.
-    private static final String OID_AS_URN = "OIDAsURN";
+    static final String OID_AS_URN = "OIDAsURN";
 
     private static final int MAX_LINE_LENGTH = 76;
 
@@ -129,31 +137,52 @@ final class SignatureXmlBuilder {
     private final X509Certificate signingCert;
     private final String hashAlgorithmId;
     private final String hashAlgorithmURI;
+    private final boolean useTemplates;
+    private final Calendar signatureSigningTime;
 
     private Document document;
     private XMLSignature signature;
     private ObjectContainer objectContainer;
     private String documentName;
 
+    private SignatureXmlTemplate template;
+    private String[] signedInfoDigests;
+    private String[] signedPropertyValues;
+
     SignatureXmlBuilder(SigningRequest request, String hashAlgorithmId) throws Exception {
+        this(request, hashAlgorithmId, SystemProperties.isSignatureXmlTemplatesEnabled(),
+                Calendar.getInstance(TimeZone.getTimeZone("UTC")));
+    }
+
+    SignatureXmlBuilder(SigningRequest request, String hashAlgorithmId, boolean useTemplates,
+            Calendar signatureSigningTime) throws Exception {
         this.signingCert = request.getSigningCert();
         this.extraCertificates.addAll(request.getExtraCertificates());
         this.ocspResponses.addAll(request.getOcspResponses());
         this.hashAlgorithmId = hashAlgorithmId;
         this.hashAlgorithmURI = getDigestAlgorithmURI(hashAlgorithmId);
+        this.useTemplates = useTemplates && SignatureXmlTemplate.isSupported();
+        this.signatureSigningTime = signatureSigningTime;
     }
 
-    byte[] createDataToBeSigned(String docName, ResourceResolverSpi resourceResolver, String signatureAlgorithmUri)
-            throws Exception {
+    byte[] createDataToBeSigned(String docName, byte[] data, String signatureAlgorithmUri) throws Exception {
+        if (data == null) {
+            throw new IllegalArgumentException("Data must not be null");
+        }
+
         this.documentName = docName;
 
+        if (useTemplates) {
+            return createDataToBeSignedFromTemplate(data, signatureAlgorithmUri);
+        }
+
         document = createDocument();
 
         signature = createSignatureElement(document, signatureAlgorithmUri);
         signature.addKeyInfo(signingCert);
 
         signature.addResourceResolver(new IdResolver(document));
-        signature.addResourceResolver(resourceResolver);
+        signature.addResourceResolver(createResourceResolver(data));
 
         signature.addDocument(docName, null, getHashAlgorithmURI(), getSignatureRefereceIdForMessage(), null);
 
@@ -164,6 +193,10 @@ final class SignatureXmlBuilder {
     }
 
     String createSignatureXml(byte[] signatureValue) throws Exception {
+        if (useTemplates) {
+            return createSignatureXmlFromTemplate(signatureValue);
+        }
+
         Element signatureValueElement = XmlUtils.getFirstElementByTagName(document, PREFIX_DS + SIGNATURE_VALUE_TAG)
                 .orElseThrow(() -> elementNotFound(PREFIX_DS + SIGNATURE_VALUE_TAG));
 
@@ -171,18 +204,78 @@ final class SignatureXmlBuilder {
             signatureValueElement.removeChild(signatureValueElement.getFirstChild());
         }
 
+        Text textNode = document.createTextNode(getSignatureValueText(signatureValue));
+
+        signatureValueElement.appendChild(textNode);
+        signatureValueElement.setAttribute(ID_ATTRIBUTE, SIGNATURE_VALUE_ID);
+
+        return XmlUtils.toXml(document);
+    }
+
+    private byte[] createDataToBeSignedFromTemplate(byte[] data, String signatureAlgorithmUri) throws Exception {
+        template = SignatureXmlTemplate.get(signatureAlgorithmUri, getHashAlgorithmURI(), documentName);
+
+        signedPropertyValues = new String[] {
+            getSigningTime(),
+            digest(signingCert, getHashAlgorithmId()),
+            getIssuerName(signingCert),
+            getSerialNumber(signingCert)
+        };
+
+        // Santuario encodes the reference digests with line breaks, so do the same
+        signedInfoDigests = new String[] {
+            Base64.encode(calculateDigest(getHashAlgorithmId(), data)),
+            Base64.encode(calculateDigest(getHashAlgorithmId(),
+                    template.renderCanonicalSignedProperties(signedPropertyValues)))
+        };
+
+        return template.renderCanonicalSignedInfo(signedInfoDigests);
+    }
+
+    private String createSignatureXmlFromTemplate(byte[] signatureValue) throws Exception {
+        List<String[]> certRefs = new ArrayList<>();
+        List<String> certificates = new ArrayList<>();
+
+        for (X509Certificate cert : extraCertificates) {
+            certRefs.add(new String[] {digest(cert, getHashAlgorithmId()), getIssuerName(cert), getSerialNumber(cert)});
+            certificates.add(encodeBase64(cert.getEncoded()));
+        }
+
+        List<String> encodedOcspResponses = new ArrayList<>();
+
+        for (OCSPResp ocspResp : ocspResponses) {
+            encodedOcspResponses.add(encodeBase64(ocspResp.getEncoded()));
+        }
+
+        List<String> values = new ArrayList<>(Arrays.asList(signedInfoDigests));
+        values.add(getSignatureValueText(signatureValue));
+        values.add("\n" + Base64.encode(signingCert.getEncoded()) + "\n");
+        values.addAll(Arrays.asList(signedPropertyValues));
+
+        return template.renderSignatureXml(values.toArray(new String[values.size()]), certRefs, certificates,
+                encodedOcspResponses);
+    }
+
+    private static String getSignatureValueText(byte[] signatureValue) {
         String base64codedValue = Base64.encode(signatureValue);
 
         if (base64codedValue.length() > MAX_LINE_LENGTH && !org.apache.xml.security.utils.XMLUtils.ignoreLineBreaks()) {
             base64codedValue = "\n" + base64codedValue + "\n";
         }
 
-        Text textNode = document.createTextNode(base64codedValue);
+        return base64codedValue;
+    }
 
-        signatureValueElement.appendChild(textNode);
-        signatureValueElement.setAttribute(ID_ATTRIBUTE, SIGNATURE_VALUE_ID);
+    private String getSigningTime() {
+        return DatatypeConverter.printDateTime(signatureSigningTime);
+    }
 
-        return XmlUtils.toXml(document);
+    private static String getIssuerName(X509Certificate cert) {
+        return cert.getIssuerX500Principal().getName();
+    }
+
+    private static String getSerialNumber(X509Certificate cert) {
+        return cert.getSerialNumber().toString();
     }
 
     private String getHashAlgorithmId() {
@@ -245,9 +338,8 @@ final class SignatureXmlBuilder {
 
     private void createSigningTime(Element signedSignatureProperties) {
         Element signingTime = createXadesElement(signedSignatureProperties, SIGNING_TIME_TAG);
-        Calendar signatureSigningTime = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
 
-        signingTime.setTextContent(DatatypeConverter.printDateTime(signatureSigningTime));
+        signingTime.setTextContent(getSigningTime());
     }
 
     private void createSigningCertificate(Element signedSignatureProperties) throws Exception {
@@ -329,10 +421,10 @@ final class SignatureXmlBuilder {
 
     private void createCertId(X509Certificate cert, Element element) {
         Element issuerName = createDsElement(element, X509_ISSUER_NAME_TAG);
-        issuerName.setTextContent(cert.getIssuerX500Principal().getName());
+        issuerName.setTextContent(getIssuerName(cert));
 
         Element issuerNumber = createDsElement(element, X509_SERIAL_NUMBER_TAG);
-        issuerNumber.setTextContent(cert.getSerialNumber().toString());
+        issuerNumber.setTextContent(getSerialNumber(cert));
     }
 
     private Element createUnsignedProperties() throws Exception {
@@ -421,6 +513,30 @@ final class SignatureXmlBuilder {
         return document.createElement(PREFIX_DS + name);
     }
 
+    /**
+     * This resource resolver will provide the message or hash chain data to be digested.
+     */
+    private static ResourceResolverSpi createResourceResolver(final byte[] data) {
+        return new ResourceResolverSpi() {
+            @Override
+            public boolean engineCanResolveURI(ResourceResolverContext context) {
+                switch (context.attr.getValue()) {
+                    case MessageFileNames.MESSAGE:
+                    case MessageFileNames.SIG_HASH_CHAIN_RESULT:
+                        return true;
+                    default:
+                        return false;
+                }
+            }
+
+            @Override
+            public XMLSignatureInput engineResolveURI(ResourceResolverContext context)
+                    throws ResourceResolverException {
+                return new XMLSignatureInput(data);
+            }
+        };
+    }
+
     private static String digest(X509Certificate cert, String method) throws Exception {
         return digest(cert.getEncoded(), method);
     }
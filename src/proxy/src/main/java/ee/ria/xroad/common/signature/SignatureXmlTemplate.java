@@ -0,0 +1,511 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.signature;
+
+import ee.ria.xroad.common.util.MessageFileNames;
+import ee.ria.xroad.common.util.MimeTypes;
+
+import org.apache.xml.security.c14n.Canonicalizer;
+import org.apache.xml.security.utils.Constants;
+import org.apache.xml.security.utils.XMLUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static ee.ria.xroad.common.signature.Helper.ALGORITHM_ATTRIBUTE;
+import static ee.ria.xroad.common.signature.Helper.ASIC_TAG;
+import static ee.ria.xroad.common.signature.Helper.CERTIFFICATE_VALUES_TAG;
+import static ee.ria.xroad.common.signature.Helper.CERT_DIGEST_TAG;
+import static ee.ria.xroad.common.signature.Helper.CERT_REFS_TAG;
+import static ee.ria.xroad.common.signature.Helper.CERT_TAG;
+import static ee.ria.xroad.common.signature.Helper.COMPLETE_CERTIFICATE_REFS_ID;
+import static ee.ria.xroad.common.signature.Helper.COMPLETE_CERTIFICATE_REFS_TAG;
+import static ee.ria.xroad.common.signature.Helper.DATAOBJECTFORMAT_TAG;
+import static ee.ria.xroad.common.signature.Helper.DESCRIPTION_TAG;
+import static ee.ria.xroad.common.signature.Helper.DIGEST_METHOD_TAG;
+import static ee.ria.xroad.common.signature.Helper.DIGEST_VALUE_TAG;
+import static ee.ria.xroad.common.signature.Helper.ENCAPSULATED_CERT_ID;
+import static ee.ria.xroad.common.signature.Helper.ENCAPSULATED_OCSP_VALUE_TAG;
+import static ee.ria.xroad.common.signature.Helper.ENCAPSULATED_X509_CERTIFICATE_TAG;
+import static ee.ria.xroad.common.signature.Helper.IDENTIFIER_TAG;
+import static ee.ria.xroad.common.signature.Helper.ID_ATTRIBUTE;
+import static ee.ria.xroad.common.signature.Helper.ID_SIGNATURE;
+import static ee.ria.xroad.common.signature.Helper.ISSUER_SERIAL_TAG;
+import static ee.ria.xroad.common.signature.Helper.MIMETYPE_TAG;
+import static ee.ria.xroad.common.signature.Helper.NS_ASIC;
+import static ee.ria.xroad.common.signature.Helper.NS_DS;
+import static ee.ria.xroad.common.signature.Helper.NS_SIG_PROP;
+import static ee.ria.xroad.common.signature.Helper.NS_XADES;
+import static ee.ria.xroad.common.signature.Helper.NS_XSI;
+import static ee.ria.xroad.common.signature.Helper.OBJECTREFERENCE_ATTR;
+import static ee.ria.xroad.common.signature.Helper.OCSP_RESPONSE_ID;
+import static ee.ria.xroad.common.signature.Helper.OCSP_VALUES_TAG;
+import static ee.ria.xroad.common.signature.Helper.PREFIX_DS;
+import static ee.ria.xroad.common.signature.Helper.PREFIX_XADES;
+import static ee.ria.xroad.common.signature.Helper.QUALIFIER_ATTR;
+import static ee.ria.xroad.common.signature.Helper.QUALIFYING_PROPS_TAG;
+import static ee.ria.xroad.common.signature.Helper.REVOCATION_VALUES_TAG;
+import static ee.ria.xroad.common.signature.Helper.SIGNATURE_POLICY_IDENTIFIER_TAG;
+import static ee.ria.xroad.common.signature.Helper.SIGNATURE_POLICY_ID_TAG;
+import static ee.ria.xroad.common.signature.Helper.SIGNATURE_VALUE_ID;
+import static ee.ria.xroad.common.signature.Helper.SIGNED_DATAOBJ_TAG;
+import static ee.ria.xroad.common.signature.Helper.SIGNED_PROPS_TAG;
+import static ee.ria.xroad.common.signature.Helper.SIGNED_SIGNATURE_PROPS_TAG;
+import static ee.ria.xroad.common.signature.Helper.SIGNING_CERTIFICATE_TAG;
+import static ee.ria.xroad.common.signature.Helper.SIGNING_TIME_TAG;
+import static ee.ria.xroad.common.signature.Helper.SIG_POLICY_HASH_TAG;
+import static ee.ria.xroad.common.signature.Helper.SIG_POLICY_ID_TAG;
+import static ee.ria.xroad.common.signature.Helper.SIG_POLICY_QUALIFIERS_TAG;
+import static ee.ria.xroad.common.signature.Helper.SIG_POLICY_QUALIFIER_TAG;
+import static ee.ria.xroad.common.signature.Helper.SPURI_TAG;
+import static ee.ria.xroad.common.signature.Helper.TARGET_ATTR;
+import static ee.ria.xroad.common.signature.Helper.UNSIGNED_PROPS_TAG;
+import static ee.ria.xroad.common.signature.Helper.UNSIGNED_SIGNATURE_PROPS_TAG;
+import static ee.ria.xroad.common.signature.Helper.URI_ATTRIBUTE;
+import static ee.ria.xroad.common.signature.Helper.X509_ISSUER_NAME_TAG;
+import static ee.ria.xroad.common.signature.Helper.X509_SERIAL_NUMBER_TAG;
+import static ee.ria.xroad.common.signature.Helper.getSignatureRefereceIdForMessage;
+import static ee.ria.xroad.common.signature.Helper.getSignatureReferenceIdForSignedProperties;
+import static ee.ria.xroad.common.signature.SignatureXmlBuilder.OID_AS_URN;
+import static ee.ria.xroad.common.signature.SignatureXmlBuilder.SIGNATURE_POLICY_DESCRIPTION;
+import static ee.ria.xroad.common.signature.SignatureXmlBuilder.SIGNATURE_POLICY_DIGEST_METHOD;
+import static ee.ria.xroad.common.signature.SignatureXmlBuilder.SIGNATURE_POLICY_IDENTIFIER;
+import static ee.ria.xroad.common.signature.SignatureXmlBuilder.SIGNATURE_POLICY_QUALIFIER_SPURI;
+import static ee.ria.xroad.common.signature.SignatureXmlBuilder.SIGNATURE_POLICY_SHA512_DIGEST;
+
+/**
+ * Precomputed templates of the AsiC XAdES signature created by {@link SignatureXmlBuilder}.
+ *
+ * The templates reproduce the output of the DOM based path character by character: the canonical SignedInfo that
+ * is signed, the canonical SignedProperties that the second reference digests and the serialized signature
+ * document. Only the digests, the signing time, the certificates, the OCSP responses and the signature value are
+ * spliced in, so a signature costs a few string appends instead of a DOM tree, Santuario objects and two
+ * canonicalizations. The templates depend only on the signature algorithm, the digest algorithm and the name of
+ * the signed document, and are cached for each combination.
+ */
+final class SignatureXmlTemplate {
+
+    private static final String SLOT = "\u0000";
+
+    private static final String LINE_BREAK = "\n";
+
+    private static final String[] NAMESPACE_DECLARATIONS = {
+        "xmlns:asic", NS_ASIC,
+        "xmlns:ds", NS_DS,
+        "xmlns:xades", NS_XADES,
+        "xmlns:xsi", NS_XSI
+    };
+
+    private static final String XML_DECLARATION = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>";
+
+    private static final Map<List<String>, SignatureXmlTemplate> TEMPLATES = new ConcurrentHashMap<>();
+
+    private final String hashAlgorithmUri;
+
+    // Slots: message digest, signed properties digest
+    private final Template canonicalSignedInfo;
+
+    // Slots: signing time, signing certificate digest, issuer name, serial number
+    private final Template canonicalSignedProperties;
+
+    // Slots: message digest, signed properties digest, signature value, signing certificate, signing time,
+    // signing certificate digest, issuer name, serial number
+    private final Template signatureHead;
+
+    private SignatureXmlTemplate(String signatureAlgorithmUri, String hashAlgorithmUri, String documentName) {
+        this.hashAlgorithmUri = hashAlgorithmUri;
+
+        canonicalSignedInfo = signedInfo(new Xml(true), signatureAlgorithmUri, hashAlgorithmUri, documentName)
+                .toTemplate();
+        canonicalSignedProperties = signedProperties(new Xml(true), hashAlgorithmUri, documentName).toTemplate();
+
+        Xml head = new Xml(false).raw(XML_DECLARATION)
+                .start(ASIC_TAG, NAMESPACE_DECLARATIONS)
+                .start(PREFIX_DS + Constants._TAG_SIGNATURE, ID_ATTRIBUTE, ID_SIGNATURE).raw(LINE_BREAK);
+
+        signedInfo(head, signatureAlgorithmUri, hashAlgorithmUri, documentName).raw(LINE_BREAK)
+                .start(PREFIX_DS + Constants._TAG_SIGNATUREVALUE, ID_ATTRIBUTE, SIGNATURE_VALUE_ID).slot()
+                .end(PREFIX_DS + Constants._TAG_SIGNATUREVALUE).raw(LINE_BREAK)
+                .start(PREFIX_DS + Constants._TAG_KEYINFO).raw(LINE_BREAK)
+                .start(PREFIX_DS + Constants._TAG_X509DATA).raw(LINE_BREAK)
+                .start(PREFIX_DS + Constants._TAG_X509CERTIFICATE).slot()
+                .end(PREFIX_DS + Constants._TAG_X509CERTIFICATE).raw(LINE_BREAK)
+                .end(PREFIX_DS + Constants._TAG_X509DATA).raw(LINE_BREAK)
+                .end(PREFIX_DS + Constants._TAG_KEYINFO).raw(LINE_BREAK)
+                .start(PREFIX_DS + Constants._TAG_OBJECT)
+                .start(PREFIX_XADES + QUALIFYING_PROPS_TAG, TARGET_ATTR, "#" + ID_SIGNATURE);
+
+        signatureHead = signedProperties(head, hashAlgorithmUri, documentName).toTemplate();
+    }
+
+    /**
+     * Returns true if the templates can reproduce the DOM output with the current Santuario settings.
+     */
+    static boolean isSupported() {
+        // With line breaks ignored, Santuario leaves out the whitespace that the templates contain.
+        return !XMLUtils.ignoreLineBreaks();
+    }
+
+    /**
+     * Returns the templates for the given algorithms and the name of the signed document.
+     */
+    static SignatureXmlTemplate get(String signatureAlgorithmUri, String hashAlgorithmUri, String documentName) {
+        return TEMPLATES.computeIfAbsent(Arrays.asList(signatureAlgorithmUri, hashAlgorithmUri, documentName),
+                key -> new SignatureXmlTemplate(signatureAlgorithmUri, hashAlgorithmUri, documentName));
+    }
+
+    /**
+     * Renders the canonical SignedProperties element.
+     * @param signedProperties the signing time, signing certificate digest, issuer name and serial number
+     */
+    byte[] renderCanonicalSignedProperties(String... signedProperties) {
+        return canonicalSignedProperties.render(new StringBuilder(), signedProperties).toString()
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Renders the canonical SignedInfo element, that is the data to be signed.
+     * @param digests the message digest and the SignedProperties digest
+     */
+    byte[] renderCanonicalSignedInfo(String... digests) {
+        return canonicalSignedInfo.render(new StringBuilder(), digests).toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Renders the signature document.
+     * @param values the values of the slots of the signature head, in order
+     * @param certRefs the digests, issuer names and serial numbers of the extra certificates
+     * @param certificates the base64 encoded extra certificates
+     * @param ocspResponses the base64 encoded OCSP responses
+     */
+    String renderSignatureXml(String[] values, List<String[]> certRefs, List<String> certificates,
+            List<String> ocspResponses) {
+        StringBuilder out = signatureHead.render(new StringBuilder(), values);
+
+        Xml xml = new Xml(false, out).start(PREFIX_XADES + UNSIGNED_PROPS_TAG)
+                .start(PREFIX_XADES + UNSIGNED_SIGNATURE_PROPS_TAG);
+
+        if (!certificates.isEmpty()) {
+            xml.start(PREFIX_XADES + COMPLETE_CERTIFICATE_REFS_TAG, ID_ATTRIBUTE, COMPLETE_CERTIFICATE_REFS_ID)
+                    .start(PREFIX_XADES + CERT_REFS_TAG);
+
+            int c = 1;
+
+            for (String[] certRef : certRefs) {
+                xml.start(PREFIX_XADES + CERT_TAG, URI_ATTRIBUTE, "#" + ENCAPSULATED_CERT_ID + (c++));
+                certDigestAndIssuerSerial(xml, hashAlgorithmUri, certRef).end(PREFIX_XADES + CERT_TAG);
+            }
+
+            xml.end(PREFIX_XADES + CERT_REFS_TAG).end(PREFIX_XADES + COMPLETE_CERTIFICATE_REFS_TAG)
+                    .start(PREFIX_XADES + CERTIFFICATE_VALUES_TAG);
+
+            c = 1;
+
+            for (String certificate : certificates) {
+                xml.element(PREFIX_XADES + ENCAPSULATED_X509_CERTIFICATE_TAG, certificate,
+                        ID_ATTRIBUTE, ENCAPSULATED_CERT_ID + (c++));
+            }
+
+            xml.end(PREFIX_XADES + CERTIFFICATE_VALUES_TAG);
+        }
+
+        xml.start(PREFIX_XADES + REVOCATION_VALUES_TAG);
+
+        if (ocspResponses.isEmpty()) {
+            xml.empty(PREFIX_XADES + OCSP_VALUES_TAG);
+        } else {
+            xml.start(PREFIX_XADES + OCSP_VALUES_TAG);
+
+            int c = 1;
+
+            for (String ocspResponse : ocspResponses) {
+                xml.element(PREFIX_XADES + ENCAPSULATED_OCSP_VALUE_TAG, ocspResponse,
+                        ID_ATTRIBUTE, OCSP_RESPONSE_ID + (c++));
+            }
+
+            xml.end(PREFIX_XADES + OCSP_VALUES_TAG);
+        }
+
+        xml.end(PREFIX_XADES + REVOCATION_VALUES_TAG)
+                .end(PREFIX_XADES + UNSIGNED_SIGNATURE_PROPS_TAG)
+                .end(PREFIX_XADES + UNSIGNED_PROPS_TAG)
+                .end(PREFIX_XADES + QUALIFYING_PROPS_TAG)
+                .end(PREFIX_DS + Constants._TAG_OBJECT).raw(LINE_BREAK)
+                .end(PREFIX_DS + Constants._TAG_SIGNATURE)
+                .end(ASIC_TAG);
+
+        return out.toString();
+    }
+
+    private static Xml signedInfo(Xml xml, String signatureAlgorithmUri, String hashAlgorithmUri,
+            String documentName) {
+        String signedInfo = PREFIX_DS + Constants._TAG_SIGNEDINFO;
+        String reference = PREFIX_DS + Constants._TAG_REFERENCE;
+
+        if (xml.canonical) {
+            xml.start(signedInfo, NAMESPACE_DECLARATIONS);
+        } else {
+            xml.start(signedInfo);
+        }
+
+        return xml.raw(LINE_BREAK)
+                .empty(PREFIX_DS + Constants._TAG_CANONICALIZATIONMETHOD,
+                        ALGORITHM_ATTRIBUTE, Canonicalizer.ALGO_ID_C14N_OMIT_COMMENTS).raw(LINE_BREAK)
+                .empty(PREFIX_DS + Constants._TAG_SIGNATUREMETHOD,
+                        ALGORITHM_ATTRIBUTE, signatureAlgorithmUri).raw(LINE_BREAK)
+                .start(reference, ID_ATTRIBUTE, getSignatureRefereceIdForMessage(),
+                        URI_ATTRIBUTE, documentName).raw(LINE_BREAK)
+                .empty(PREFIX_DS + DIGEST_METHOD_TAG, ALGORITHM_ATTRIBUTE, hashAlgorithmUri).raw(LINE_BREAK)
+                .start(PREFIX_DS + DIGEST_VALUE_TAG).slot().end(PREFIX_DS + DIGEST_VALUE_TAG).raw(LINE_BREAK)
+                .end(reference).raw(LINE_BREAK)
+                .start(reference, ID_ATTRIBUTE, getSignatureReferenceIdForSignedProperties(),
+                        Constants._ATT_TYPE, NS_SIG_PROP, URI_ATTRIBUTE, "#signed-properties").raw(LINE_BREAK)
+                .empty(PREFIX_DS + DIGEST_METHOD_TAG, ALGORITHM_ATTRIBUTE, hashAlgorithmUri).raw(LINE_BREAK)
+                .start(PREFIX_DS + DIGEST_VALUE_TAG).slot().end(PREFIX_DS + DIGEST_VALUE_TAG).raw(LINE_BREAK)
+                .end(reference).raw(LINE_BREAK)
+                .end(signedInfo);
+    }
+
+    private static Xml signedProperties(Xml xml, String hashAlgorithmUri, String documentName) {
+        String signedProperties = PREFIX_XADES + SIGNED_PROPS_TAG;
+
+        if (xml.canonical) {
+            String[] attributes = Arrays.copyOf(NAMESPACE_DECLARATIONS, NAMESPACE_DECLARATIONS.length + 2);
+            attributes[NAMESPACE_DECLARATIONS.length] = ID_ATTRIBUTE;
+            attributes[NAMESPACE_DECLARATIONS.length + 1] = "signed-properties";
+
+            xml.start(signedProperties, attributes);
+        } else {
+            xml.start(signedProperties, ID_ATTRIBUTE, "signed-properties");
+        }
+
+        xml.start(PREFIX_XADES + SIGNED_SIGNATURE_PROPS_TAG)
+                .start(PREFIX_XADES + SIGNING_TIME_TAG).slot().end(PREFIX_XADES + SIGNING_TIME_TAG)
+                .start(PREFIX_XADES + SIGNING_CERTIFICATE_TAG)
+                .start(PREFIX_XADES + CERT_TAG);
+
+        certDigestAndIssuerSerial(xml, hashAlgorithmUri, SLOT, SLOT, SLOT)
+                .end(PREFIX_XADES + CERT_TAG)
+                .end(PREFIX_XADES + SIGNING_CERTIFICATE_TAG)
+                .start(PREFIX_XADES + SIGNATURE_POLICY_IDENTIFIER_TAG)
+                .start(PREFIX_XADES + SIGNATURE_POLICY_ID_TAG)
+                .start(PREFIX_XADES + SIG_POLICY_ID_TAG)
+                .element(PREFIX_XADES + IDENTIFIER_TAG, SIGNATURE_POLICY_IDENTIFIER, QUALIFIER_ATTR, OID_AS_URN)
+                .element(PREFIX_XADES + DESCRIPTION_TAG, SIGNATURE_POLICY_DESCRIPTION)
+                .end(PREFIX_XADES + SIG_POLICY_ID_TAG)
+                .start(PREFIX_XADES + SIG_POLICY_HASH_TAG)
+                .empty(PREFIX_DS + DIGEST_METHOD_TAG, ALGORITHM_ATTRIBUTE, SIGNATURE_POLICY_DIGEST_METHOD)
+                .element(PREFIX_DS + DIGEST_VALUE_TAG, SIGNATURE_POLICY_SHA512_DIGEST)
+                .end(PREFIX_XADES + SIG_POLICY_HASH_TAG)
+                .start(PREFIX_XADES + SIG_POLICY_QUALIFIERS_TAG)
+                .start(PREFIX_XADES + SIG_POLICY_QUALIFIER_TAG)
+                .element(PREFIX_XADES + SPURI_TAG, SIGNATURE_POLICY_QUALIFIER_SPURI)
+                .end(PREFIX_XADES + SIG_POLICY_QUALIFIER_TAG)
+                .end(PREFIX_XADES + SIG_POLICY_QUALIFIERS_TAG)
+                .end(PREFIX_XADES + SIGNATURE_POLICY_ID_TAG)
+                .end(PREFIX_XADES + SIGNATURE_POLICY_IDENTIFIER_TAG)
+                .end(PREFIX_XADES + SIGNED_SIGNATURE_PROPS_TAG)
+                .start(PREFIX_XADES + SIGNED_DATAOBJ_TAG)
+                .start(PREFIX_XADES + DATAOBJECTFORMAT_TAG,
+                        OBJECTREFERENCE_ATTR, "#" + getSignatureRefereceIdForMessage())
+                .element(PREFIX_XADES + MIMETYPE_TAG, MessageFileNames.SIG_HASH_CHAIN_RESULT.equals(documentName)
+                        ? MimeTypes.HASH_CHAIN_RESULT : MimeTypes.TEXT_XML)
+                .end(PREFIX_XADES + DATAOBJECTFORMAT_TAG)
+                .end(PREFIX_XADES + SIGNED_DATAOBJ_TAG)
+                .end(signedProperties);
+
+        return xml;
+    }
+
+    private static Xml certDigestAndIssuerSerial(Xml xml, String hashAlgorithmUri, String... certRef) {
+        return xml.start(PREFIX_XADES + CERT_DIGEST_TAG)
+                .empty(PREFIX_DS + DIGEST_METHOD_TAG, ALGORITHM_ATTRIBUTE, hashAlgorithmUri)
+                .element(PREFIX_DS + DIGEST_VALUE_TAG, certRef[0])
+                .end(PREFIX_XADES + CERT_DIGEST_TAG)
+                .start(PREFIX_XADES + ISSUER_SERIAL_TAG)
+                .element(PREFIX_DS + X509_ISSUER_NAME_TAG, certRef[1])
+                .element(PREFIX_DS + X509_SERIAL_NUMBER_TAG, certRef[2])
+                .end(PREFIX_XADES + ISSUER_SERIAL_TAG);
+    }
+
+    /**
+     * Text split at the slots; the values are escaped as the form of the template requires.
+     */
+    private static final class Template {
+        private final boolean canonical;
+        private final String[] fragments;
+
+        Template(boolean canonical, String text) {
+            this.canonical = canonical;
+            this.fragments = text.split(SLOT, -1);
+        }
+
+        StringBuilder render(StringBuilder out, String... values) {
+            if (values.length != fragments.length - 1) {
+                throw new IllegalArgumentException("Expected " + (fragments.length - 1) + " values, got "
+                        + values.length);
+            }
+
+            out.append(fragments[0]);
+
+            for (int i = 0; i < values.length; i++) {
+                appendText(out, values[i], canonical);
+                out.append(fragments[i + 1]);
+            }
+
+            return out;
+        }
+    }
+
+    /**
+     * Writes XML either in the canonical form (inclusive C14N) or as serialized by {@link
+     * ee.ria.xroad.common.util.XmlUtils#toXml}. Attributes are given as name-value pairs and must be in the
+     * canonical order.
+     */
+    private static final class Xml {
+        private final boolean canonical;
+        private final StringBuilder out;
+
+        Xml(boolean canonical) {
+            this(canonical, new StringBuilder());
+        }
+
+        Xml(boolean canonical, StringBuilder out) {
+            this.canonical = canonical;
+            this.out = out;
+        }
+
+        Xml start(String name, String... attributes) {
+            openTag(name, attributes);
+            out.append('>');
+
+            return this;
+        }
+
+        Xml end(String name) {
+            out.append("</").append(name).append('>');
+
+            return this;
+        }
+
+        Xml empty(String name, String... attributes) {
+            openTag(name, attributes);
+
+            if (canonical) {
+                out.append("></").append(name).append('>');
+            } else {
+                out.append("/>");
+            }
+
+            return this;
+        }
+
+        Xml element(String name, String text, String... attributes) {
+            start(name, attributes);
+            appendText(out, text, canonical);
+
+            return end(name);
+        }
+
+        Xml slot() {
+            out.append(SLOT);
+
+            return this;
+        }
+
+        Xml raw(String text) {
+            out.append(text);
+
+            return this;
+        }
+
+        Template toTemplate() {
+            return new Template(canonical, out.toString());
+        }
+
+        private void openTag(String name, String... attributes) {
+            out.append('<').append(name);
+
+            for (int i = 0; i < attributes.length; i += 2) {
+                out.append(' ').append(attributes[i]).append("=\"");
+                appendAttributeValue(out, attributes[i + 1], canonical);
+                out.append('"');
+            }
+        }
+    }
+
+    private static void appendText(StringBuilder out, String text, boolean canonical) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+
+            switch (c) {
+                case '&':
+                    out.append("&amp;");
+                    break;
+                case '<':
+                    out.append("&lt;");
+                    break;
+                case '>':
+                    out.append("&gt;");
+                    break;
+                case '\r':
+                    out.append(canonical ? "&#xD;" : "&#13;");
+                    break;
+                default:
+                    out.append(c);
+            }
+        }
+    }
+
+    private static void appendAttributeValue(StringBuilder out, String value, boolean canonical) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+
+            switch (c) {
+                case '&':
+                    out.append("&amp;");
+                    break;
+                case '<':
+                    out.append("&lt;");
+                    break;
+                case '"':
+                    out.append("&quot;");
+                    break;
+                case '\t':
+                    out.append(canonical ? "&#x9;" : "&#9;");
+                    break;
+                case '\n':
+                    out.append(canonical ? "&#xA;" : "&#10;");
+                    break;
+                case '\r':
+                    out.append(canonical ? "&#xD;" : "&#13;");
+                    break;
+                default:
+                    out.append(c);
+            }
+        }
+    }
+}
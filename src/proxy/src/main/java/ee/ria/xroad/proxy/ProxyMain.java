@@ -36,6 +36,7 @@ import ee.ria.xroad.common.signature.BatchSigner;
 import ee.ria.xroad.common.util.AdminPort;
 import ee.ria.xroad.common.util.JobManager;
 import ee.ria.xroad.common.util.JsonUtils;
+import ee.ria.xroad.common.util.ProcessMetrics;
 import ee.ria.xroad.common.util.StartStop;
 import ee.ria.xroad.common.util.healthcheck.HealthCheckPort;
 import ee.ria.xroad.proxy.addon.AddOn;
@@ -99,6 +100,8 @@ public final class ProxyMain {
     private static final int DIAGNOSTICS_CONNECTION_TIMEOUT_MS = 1200;
     private static final int DIAGNOSTICS_READ_TIMEOUT_MS = 15000; // 15 seconds
 
+    private static final String JMX_METRICS_DOMAIN = "xroad.proxy";
+
     private static final List<StartStop> SERVICES = new ArrayList<>();
 
     private static ActorSystem actorSystem;
@@ -196,6 +199,7 @@ public final class ProxyMain {
         }
 
         SERVICES.add(jobManager);
+        SERVICES.add(new ProcessMetrics(JMX_METRICS_DOMAIN));
         SERVICES.add(new ClientProxy());
         SERVICES.add(new ServerProxy());
 
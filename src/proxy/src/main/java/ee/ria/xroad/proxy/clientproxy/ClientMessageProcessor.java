@@ -48,6 +48,7 @@ import ee.ria.xroad.common.monitoring.MonitorAgent;
 import ee.ria.xroad.common.opmonitoring.OpMonitoringData;
 import ee.ria.xroad.common.util.HttpSender;
 import ee.ria.xroad.common.util.MimeUtils;
+import ee.ria.xroad.common.util.ProcessMetrics;
 import ee.ria.xroad.proxy.ProxyMain;
 import ee.ria.xroad.proxy.conf.KeyConf;
 import ee.ria.xroad.proxy.messagelog.MessageLog;
@@ -56,6 +57,8 @@ import ee.ria.xroad.proxy.protocol.ProxyMessageDecoder;
 import ee.ria.xroad.proxy.protocol.ProxyMessageEncoder;
 import ee.ria.xroad.proxy.util.MessageProcessorBase;
 
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
 import lombok.EqualsAndHashCode;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
@@ -84,11 +87,12 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static ee.ria.xroad.common.ErrorCodes.X_INCONSISTENT_RESPONSE;
 import static ee.ria.xroad.common.ErrorCodes.X_INTERNAL_ERROR;
@@ -118,6 +122,11 @@ class ClientMessageProcessor extends MessageProcessorBase {
      */
     private static final int WAIT_FOR_SOAP_TIMEOUT = 30; // seconds
 
+    /**
+     * Time after which idle SOAP handler threads are terminated.
+     */
+    private static final int SOAP_HANDLER_KEEP_ALIVE_TIME = 60; // seconds
+
     /**
      * By using a count down latch we can make the main thread wait for the
      * request handler thread to read the SOAP request, since we cannot open
@@ -161,19 +170,43 @@ class ClientMessageProcessor extends MessageProcessorBase {
     //** Holds operational monitoring data. */
     private volatile OpMonitoringData opMonitoringData;
 
-    private static final ExecutorService SOAP_HANDLER_EXECUTOR =
-            createSoapHandlerExecutor();
+    private static final String SOAP_HANDLER_ACTIVE_METRIC = "clientproxy.soapHandler.active";
+    private static final String SOAP_HANDLER_QUEUED_METRIC = "clientproxy.soapHandler.queued";
 
-    private static ExecutorService createSoapHandlerExecutor() {
-        return Executors.newCachedThreadPool(new ThreadFactory() {
-            @Override
-            public Thread newThread(Runnable r) {
-                Thread handlerThread = new Thread(r);
-                handlerThread.setName(Thread.currentThread().getName() + "-soap");
+    /**
+     * Reads, signs and encodes the client requests. The pool is bounded, requests exceeding the pool size wait in
+     * the queue (at most WAIT_FOR_SOAP_TIMEOUT seconds) instead of each getting a thread of its own.
+     */
+    private static final ThreadPoolExecutor SOAP_HANDLER_EXECUTOR =
+            createSoapHandlerExecutor(SystemProperties.getClientProxySoapHandlerThreads());
 
-                return handlerThread;
-            }
-        });
+    static {
+        MetricRegistry registry = ProcessMetrics.getRegistry();
+
+        registry.remove(SOAP_HANDLER_ACTIVE_METRIC);
+        registry.register(SOAP_HANDLER_ACTIVE_METRIC, (Gauge<Integer>) SOAP_HANDLER_EXECUTOR::getActiveCount);
+
+        registry.remove(SOAP_HANDLER_QUEUED_METRIC);
+        registry.register(SOAP_HANDLER_QUEUED_METRIC, (Gauge<Integer>) () -> SOAP_HANDLER_EXECUTOR.getQueue().size());
+    }
+
+    static ThreadPoolExecutor createSoapHandlerExecutor(int threads) {
+        AtomicInteger threadCounter = new AtomicInteger();
+        ThreadFactory threadFactory = r -> {
+            Thread handlerThread = new Thread(r);
+            handlerThread.setName("clientproxy-soap-" + threadCounter.incrementAndGet());
+            handlerThread.setDaemon(true);
+
+            return handlerThread;
+        };
+
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, SOAP_HANDLER_KEEP_ALIVE_TIME,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<>(), threadFactory);
+
+        // Let the pool shrink back when the load is gone
+        executor.allowCoreThreadTimeOut(true);
+
+        return executor;
     }
 
     ClientMessageProcessor(HttpServletRequest servletRequest, HttpServletResponse servletResponse,
@@ -183,7 +216,8 @@ class ClientMessageProcessor extends MessageProcessorBase {
 
         this.clientCert = clientCert;
         this.opMonitoringData = opMonitoringData;
-        this.reqIns = new PipedInputStream();
+        // The buffer holds a typical request, so the handler can finish without waiting for the network
+        this.reqIns = new PipedInputStream(SystemProperties.getClientProxyRequestBufferSize());
         this.reqOuts = new PipedOutputStream(reqIns);
     }
 
@@ -736,6 +770,11 @@ class ClientMessageProcessor extends MessageProcessorBase {
 
         private SoapHeaderHandler headerHandler;
 
+        @Override
+        protected boolean isProcessedXmlSupported() {
+            return true;
+        }
+
         // do not write processed XML beyond the header if not a central
         // service request, use raw request XML instead
         @Override
@@ -29,7 +29,7 @@ import ee.ria.xroad.common.conf.globalconf.AuthKey;
 import ee.ria.xroad.common.conf.serverconf.ServerConf;
 import ee.ria.xroad.common.identifier.ClientId;
 import ee.ria.xroad.common.identifier.SecurityServerId;
-import ee.ria.xroad.common.util.FileContentChangeChecker;
+import ee.ria.xroad.common.util.filewatcher.FileWatcherRunner;
 import ee.ria.xroad.signer.protocol.SignerClient;
 import ee.ria.xroad.signer.protocol.dto.AuthKeyInfo;
 import ee.ria.xroad.signer.protocol.dto.MemberSigningInfo;
@@ -39,18 +39,31 @@ import ee.ria.xroad.signer.protocol.message.GetMemberSigningInfo;
 import lombok.extern.slf4j.Slf4j;
 import org.bouncycastle.cert.ocsp.OCSPResp;
 
+import java.nio.file.Paths;
 import java.security.PrivateKey;
 import java.security.cert.X509Certificate;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import static ee.ria.xroad.common.ErrorCodes.X_CANNOT_CREATE_SIGNATURE;
 import static ee.ria.xroad.common.util.CryptoUtils.readCertificate;
 
 /**
  * Encapsulates KeyConf related functionality.
+ *
+ * Signing and authentication info is cached per key. Concurrent misses for
+ * the same key share a single signer request and entries nearing the end of
+ * the cache period are refreshed in the background. The cache is cleared when
+ * the key conf file changes, which is detected by a file watcher instead of
+ * checking the file on every call.
  */
 @Slf4j
 class CachingKeyConfImpl extends KeyConfImpl {
@@ -58,28 +71,41 @@ class CachingKeyConfImpl extends KeyConfImpl {
     // Specifies how long data is cached
     private static final int CACHE_PERIOD_SECONDS = 300;
 
-    private final FileContentChangeChecker keyConfChangeChecker;
+    // Specifies how long before the end of the cache period data is refreshed
+    private static final int REFRESH_AHEAD_SECONDS = 60;
+
+    // The authentication key is the only entry of its cache
+    private static final String AUTH_KEY = "authKey";
+
+    private final ConcurrentMap<ClientId, CompletableFuture<CachedSigningInfoImpl>> signingInfoCache =
+            new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, CompletableFuture<CachedAuthKeyInfoImpl>> authKeyInfoCache =
+            new ConcurrentHashMap<>();
+
+    private final Set<Object> refreshing = ConcurrentHashMap.newKeySet();
 
-    private final Map<ClientId, CachedSigningInfoImpl> signingInfoCache = new HashMap<>();
+    private final ExecutorService refresher = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "KeyConfRefresher");
+        thread.setDaemon(true);
 
-    private CachedAuthKeyInfoImpl authKeyInfo;
+        return thread;
+    });
+
+    private final FileWatcherRunner keyConfWatcher;
 
     CachingKeyConfImpl() throws Exception {
-        keyConfChangeChecker = new FileContentChangeChecker(SystemProperties.getKeyConfFile());
+        keyConfWatcher = FileWatcherRunner.create()
+                .watchForChangesIn(Paths.get(SystemProperties.getKeyConfFile()))
+                .listenToCreate().listenToModify()
+                .andOnChangeNotify(this::keyConfChanged)
+                .buildAndStartWatcher();
     }
 
     @Override
     public SigningCtx getSigningCtx(ClientId clientId) {
-        CachedSigningInfoImpl signingInfo = signingInfoCache.get(clientId);
-
         try {
-            if (hasExpired(signingInfo) || keyConfHasChanged()) {
-                signingInfo = getSigningInfo(clientId);
-            }
-
-            signingInfoCache.put(clientId, signingInfo);
-
-            return signingInfo.getSigningCtx();
+            return getCached(signingInfoCache, clientId, () -> getSigningInfo(clientId)).getSigningCtx();
         } catch (Exception e) {
             throw new CodedException(X_CANNOT_CREATE_SIGNATURE, "Failed to get signing info for member '%s': %s",
                     clientId, e);
@@ -89,11 +115,7 @@ class CachingKeyConfImpl extends KeyConfImpl {
     @Override
     public AuthKey getAuthKey() {
         try {
-            if (hasExpired(authKeyInfo) || keyConfHasChanged()) {
-                authKeyInfo = getAuthKeyInfo();
-            }
-
-            return authKeyInfo.getAuthKey();
+            return getCached(authKeyInfoCache, AUTH_KEY, this::getAuthKeyInfo).getAuthKey();
         } catch (Exception e) {
             log.error("Failed to get authentication key", e);
 
@@ -101,17 +123,98 @@ class CachingKeyConfImpl extends KeyConfImpl {
         }
     }
 
-    boolean keyConfHasChanged() {
-        try {
-            boolean changed = keyConfChangeChecker.hasChanged();
+    /**
+     * Stops watching the key conf file and refreshing the cached data.
+     */
+    void close() {
+        keyConfWatcher.stop();
+        refresher.shutdownNow();
+    }
+
+    void keyConfChanged() {
+        log.debug("KeyConf has changed, clearing cached signing and authentication info");
+
+        signingInfoCache.clear();
+        authKeyInfoCache.clear();
+    }
+
+    /**
+     * Returns the cached info for the key, loading it if missing or expired.
+     * Only one of the threads asking for the same key loads the info, the
+     * others wait for its result.
+     */
+    <K, V extends AbstractCachedInfo> V getCached(ConcurrentMap<K, CompletableFuture<V>> cache, K key,
+            Callable<V> loader) throws Exception {
+        while (true) {
+            CompletableFuture<V> entry = cache.get(key);
+            boolean loadedHere = false;
+
+            if (entry == null) {
+                CompletableFuture<V> loading = new CompletableFuture<>();
+                entry = cache.putIfAbsent(key, loading);
+
+                if (entry == null) {
+                    entry = loading;
+                    loadedHere = true;
+
+                    load(loading, loader);
+                }
+            }
 
-            log.trace("KeyConf has{} changed!", !changed ? " not" : "");
+            V info;
 
-            return changed;
+            try {
+                info = entry.get();
+            } catch (ExecutionException e) {
+                cache.remove(key, entry);
+
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            }
+
+            // Freshly loaded info is returned even if not valid, the caller deals with it
+            if (!loadedHere && hasExpired(info)) {
+                cache.remove(key, entry);
+
+                continue;
+            }
+
+            if (shouldRefresh(info)) {
+                refreshAhead(cache, key, entry, loader);
+            }
+
+            return info;
+        }
+    }
+
+    private static <V> void load(CompletableFuture<V> loading, Callable<V> loader) {
+        try {
+            loading.complete(loader.call());
         } catch (Exception e) {
-            log.error("Failed to check if key conf has changed", e);
+            loading.completeExceptionally(e);
+        }
+    }
 
-            return true;
+    private <K, V extends AbstractCachedInfo> void refreshAhead(ConcurrentMap<K, CompletableFuture<V>> cache, K key,
+            CompletableFuture<V> entry, Callable<V> loader) {
+        if (!refreshing.add(key)) {
+            return;
+        }
+
+        try {
+            refresher.execute(() -> {
+                try {
+                    // Replaces only the entry the refresh was started for, not one loaded after clearing the cache
+                    cache.replace(key, entry, CompletableFuture.completedFuture(loader.call()));
+                } catch (Exception e) {
+                    log.warn("Failed to refresh cached info for '{}'", key, e);
+                } finally {
+                    refreshing.remove(key);
+                }
+            });
+        } catch (RuntimeException e) {
+            refreshing.remove(key);
+
+            log.warn("Failed to schedule refreshing cached info for '{}'", key, e);
         }
     }
 
@@ -147,8 +250,11 @@ class CachingKeyConfImpl extends KeyConfImpl {
     private static boolean hasExpired(AbstractCachedInfo cachedInfo) {
         log.trace("CachingKeyConfImpl.hasExpired cachedInfo={}", cachedInfo);
 
-        return cachedInfo == null
-                || cachedInfo.getCreatedAt().plusSeconds(CACHE_PERIOD_SECONDS).isBeforeNow()
+        return cachedInfo.getCreatedAt().plusSeconds(CACHE_PERIOD_SECONDS).isBeforeNow()
                 || !cachedInfo.verifyValidity(new Date());
     }
+
+    private static boolean shouldRefresh(AbstractCachedInfo cachedInfo) {
+        return cachedInfo.getCreatedAt().plusSeconds(CACHE_PERIOD_SECONDS - REFRESH_AHEAD_SECONDS).isBeforeNow();
+    }
 }
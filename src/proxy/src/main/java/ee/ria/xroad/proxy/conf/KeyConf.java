@@ -109,6 +109,7 @@ public final class KeyConf {
     public static void reload(KeyConfProvider conf) {
         LOG.trace("reload({})", conf.getClass());
 
+        closeInstance();
         instance = conf;
     }
 
@@ -214,6 +215,7 @@ public final class KeyConf {
     // ------------------------------------------------------------------------
 
     private static void initInstance() {
+        closeInstance();
         instance = null;
         try {
             instance = new CachingKeyConfImpl();
@@ -223,4 +225,10 @@ public final class KeyConf {
             throw initializationError;
         }
     }
+
+    private static void closeInstance() {
+        if (instance instanceof CachingKeyConfImpl) {
+            ((CachingKeyConfImpl) instance).close();
+        }
+    }
 }
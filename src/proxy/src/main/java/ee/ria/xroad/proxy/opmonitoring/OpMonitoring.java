@@ -31,6 +31,8 @@ import akka.actor.ActorSystem;
 import akka.actor.Props;
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.function.Consumer;
+
 /**
  * Contains method for storing operational monitoring data.
  */
@@ -44,6 +46,8 @@ public final class OpMonitoring {
 
     private static ActorRef opMonitoringBuffer;
 
+    private static volatile Consumer<OpMonitoringData> directStore;
+
     private OpMonitoring() {
     }
 
@@ -69,12 +73,28 @@ public final class OpMonitoring {
         log.trace("store()");
 
         try {
-            tell(data);
+            Consumer<OpMonitoringData> store = directStore;
+
+            if (store != null) {
+                store.accept(data);
+            } else {
+                tell(data);
+            }
         } catch (Throwable t) {
             log.error("Storing operational monitoring data failed", t);
         }
     }
 
+    /**
+     * Sets the store that receives the operational monitoring data directly in the calling thread,
+     * bypassing the mailbox of the buffer actor. Meant for buffer implementations that can be
+     * written concurrently.
+     * @param store the store or null if the data should be sent to the buffer actor
+     */
+    public static void setDirectStore(Consumer<OpMonitoringData> store) {
+        directStore = store;
+    }
+
     @SuppressWarnings("unchecked")
     private static Class<? extends AbstractOpMonitoringBuffer>
             getOpMonitoringManagerImpl() {
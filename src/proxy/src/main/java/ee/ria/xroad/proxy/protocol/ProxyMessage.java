@@ -38,14 +38,17 @@ import org.bouncycastle.cert.ocsp.OCSPResp;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
+import java.io.SequenceInputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
 /**
  * Reads in all of the proxy message, extracts the parts and is later able
- * to convert the message to SOAP. Note: any attachments are cached in the
- * file system.
+ * to convert the message to SOAP. Note: any attachments are cached in
+ * memory or, if they are large, in the file system.
  *
  * To load the message pass this object to a proxy message producer that
  * fills in the parts. After that, you can query the message parts and
@@ -122,13 +125,18 @@ public class ProxyMessage implements ProxyMessageConsumer {
      */
     public InputStream getSoapContent() throws Exception {
         if (isMimeEncodedSoap()) {
-            ByteArrayOutputStream out = new ByteArrayOutputStream();
-            MultipartEncoder mp = new MultipartEncoder(out, originalMimeBoundary);
+            // Only the part headers and the closing boundary are encoded, the SOAP bytes are not copied
+            ByteArrayOutputStream headers = new ByteArrayOutputStream();
+            MultipartEncoder mp = new MultipartEncoder(headers, originalMimeBoundary);
             mp.startPart(getSoap().getContentType(), MimeUtils.toHeaders(soapPartHeaders));
-            mp.write(getSoap().getBytes());
-            mp.close();
 
-            return new ByteArrayInputStream(out.toByteArray());
+            ByteArrayOutputStream trailer = new ByteArrayOutputStream();
+            new MultipartEncoder(trailer, originalMimeBoundary).close();
+
+            return new SequenceInputStream(Collections.enumeration(Arrays.asList(
+                    new ByteArrayInputStream(headers.toByteArray()),
+                    new ByteArrayInputStream(getSoap().getBytes()),
+                    new ByteArrayInputStream(trailer.toByteArray()))));
         } else if (hasAttachments()) {
             // Finish writing to the attachment cache.
             encoder.close();
@@ -683,6 +683,11 @@ class ServerMessageProcessor extends MessageProcessorBase {
         private int bufferedOffset;
         private int bufferedLength;
 
+        @Override
+        protected boolean isProcessedXmlSupported() {
+            return true;
+        }
+
         // force usage of processed XML since we need to write the request hash
         @Override
         protected boolean isProcessedXmlRequired() {
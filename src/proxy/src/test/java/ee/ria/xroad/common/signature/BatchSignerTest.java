@@ -0,0 +1,286 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.signature;
+
+import ee.ria.xroad.common.CodedException;
+import ee.ria.xroad.common.SystemProperties;
+import ee.ria.xroad.common.TestCertUtil;
+import ee.ria.xroad.common.TestSecurityUtil;
+import ee.ria.xroad.common.util.MessageFileNames;
+import ee.ria.xroad.signer.protocol.SignerClient;
+import ee.ria.xroad.signer.protocol.message.GetTokenBatchSigningEnabled;
+import ee.ria.xroad.signer.protocol.message.Sign;
+import ee.ria.xroad.signer.protocol.message.SignResponse;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import akka.actor.UntypedActor;
+import akka.testkit.JavaTestKit;
+import com.typesafe.config.ConfigFactory;
+import com.typesafe.config.ConfigValueFactory;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static ee.ria.xroad.common.ErrorCodes.X_INTERNAL_ERROR;
+import static ee.ria.xroad.common.util.CryptoUtils.SHA512WITHRSA_ID;
+import static ee.ria.xroad.common.util.CryptoUtils.SHA512_ID;
+import static ee.ria.xroad.common.util.CryptoUtils.calculateDigest;
+import static ee.ria.xroad.signer.protocol.ComponentNames.REQUEST_PROCESSOR;
+import static ee.ria.xroad.signer.protocol.ComponentNames.SIGNER;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the batch signer against a stub signer. Every test uses a different signing certificate, so it is handled
+ * by a worker of its own.
+ */
+public class BatchSignerTest {
+
+    private static final String KEY_ID = "key";
+
+    private static final int MAX_BATCH_SIZE = 2;
+    private static final long BATCH_WINDOW_MICROS = 1000;
+
+    private static final long NO_MESSAGE_MILLIS = 200;
+    private static final long RESULT_TIMEOUT_SECONDS = 10;
+
+    private static final byte[] SIGNATURE = new byte[] {1, 2, 3, 4};
+
+    private static ActorSystem actorSystem;
+    private static JavaTestKit signer;
+
+    static {
+        TestSecurityUtil.initSecurity();
+    }
+
+    /**
+     * Starts the stub signer and initializes the batch signer.
+     * @throws Exception in case of any unexpected errors
+     */
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        int port;
+
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+
+        System.setProperty(SystemProperties.SIGNER_PORT, Integer.toString(port));
+        System.setProperty("xroad.proxy.batch-signer-max-batch-size", Integer.toString(MAX_BATCH_SIZE));
+        System.setProperty("xroad.proxy.batch-signer-window-micros", Long.toString(BATCH_WINDOW_MICROS));
+
+        // The batch signer and the stub signer share the actor system, which has the address of the signer
+        actorSystem = ActorSystem.create(SIGNER, ConfigFactory.load().getConfig("proxy")
+                .withValue("akka.remote.netty.tcp.port", ConfigValueFactory.fromAnyRef(port)));
+
+        signer = new JavaTestKit(actorSystem);
+        actorSystem.actorOf(Props.create(StubSigner.class, signer.getRef()), REQUEST_PROCESSOR);
+
+        SignerClient.init(actorSystem);
+        BatchSigner.init(actorSystem);
+    }
+
+    /**
+     * Stops the actor system.
+     */
+    @AfterClass
+    public static void tearDownClass() {
+        JavaTestKit.shutdownActorSystem(actorSystem);
+    }
+
+    /**
+     * Checks that no test leaves unexpected messages to the signer.
+     */
+    @After
+    public void tearDown() {
+        signer.expectNoMsg(JavaTestKit.duration(NO_MESSAGE_MILLIS + " millis"));
+    }
+
+    /**
+     * Test that the requests received while the token is busy are signed in one batch when the token is done.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void signsRequestsReceivedWhileBusyInBatch() throws Exception {
+        X509Certificate cert = TestCertUtil.getConsumer().certChain[0];
+
+        CompletableFuture<SignatureData> first = sign(cert);
+        expectBatchSigningQuery(true);
+        ActorRef firstSign = expectSign();
+
+        CompletableFuture<SignatureData> second = sign(cert);
+        CompletableFuture<SignatureData> third = sign(cert);
+        signer.expectNoMsg(JavaTestKit.duration(NO_MESSAGE_MILLIS + " millis"));
+
+        firstSign.tell(new SignResponse(SIGNATURE), ActorRef.noSender());
+        assertNull(getResult(first).getHashChainResult());
+
+        expectSign().tell(new SignResponse(SIGNATURE), ActorRef.noSender());
+        assertNotNull(getResult(second).getHashChainResult());
+        assertNotNull(getResult(third).getHashChainResult());
+    }
+
+    /**
+     * Test that the requests that do not fit into a full batch are signed in the following batches.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void signsFullBatchOverflowInNextBatches() throws Exception {
+        X509Certificate cert = TestCertUtil.getProducer().certChain[0];
+
+        CompletableFuture<SignatureData> first = sign(cert);
+        expectBatchSigningQuery(true);
+        ActorRef firstSign = expectSign();
+
+        List<CompletableFuture<SignatureData>> results = new ArrayList<>();
+
+        for (int i = 0; i < 2 * MAX_BATCH_SIZE + 1; i++) {
+            results.add(sign(cert));
+        }
+
+        firstSign.tell(new SignResponse(SIGNATURE), ActorRef.noSender());
+        getResult(first);
+
+        // Two full batches and one with the remaining request
+        for (int i = 0; i < 3; i++) {
+            expectSign().tell(new SignResponse(SIGNATURE), ActorRef.noSender());
+        }
+
+        for (CompletableFuture<SignatureData> result : results) {
+            getResult(result);
+        }
+    }
+
+    /**
+     * Test that a request that has timed out while waiting is not signed.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void skipsTimedOutRequests() throws Exception {
+        X509Certificate cert = TestCertUtil.getCa2TestOrg().certChain[0];
+
+        CompletableFuture<SignatureData> first = sign(cert);
+        expectBatchSigningQuery(false);
+        ActorRef firstSign = expectSign();
+
+        // Batch signing is not enabled, so the request waits until the token is done
+        CompletableFuture<SignatureData> timedOut = sign(cert);
+        timedOut.completeExceptionally(new CodedException(X_INTERNAL_ERROR, "Signature creation timed out"));
+
+        firstSign.tell(new SignResponse(SIGNATURE), ActorRef.noSender());
+        getResult(first);
+
+        signer.expectNoMsg(JavaTestKit.duration(NO_MESSAGE_MILLIS + " millis"));
+
+        CompletableFuture<SignatureData> next = sign(cert);
+        expectSign().tell(new SignResponse(SIGNATURE), ActorRef.noSender());
+        assertNull(getResult(next).getHashChainResult());
+    }
+
+    /**
+     * Test that a signing error is returned to the requests of the failed batch and the next batch is still signed.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void signsNextBatchAfterError() throws Exception {
+        X509Certificate cert = TestCertUtil.getOcspSigner().certChain[0];
+
+        CompletableFuture<SignatureData> first = sign(cert);
+        expectBatchSigningQuery(true);
+        ActorRef firstSign = expectSign();
+
+        CompletableFuture<SignatureData> second = sign(cert);
+        CompletableFuture<SignatureData> third = sign(cert);
+        signer.expectNoMsg(JavaTestKit.duration(NO_MESSAGE_MILLIS + " millis"));
+
+        firstSign.tell(new CodedException(X_INTERNAL_ERROR, "Signing failed"), ActorRef.noSender());
+
+        try {
+            getResult(first);
+
+            fail("Expected the signing to fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof CodedException);
+        }
+
+        expectSign().tell(new SignResponse(SIGNATURE), ActorRef.noSender());
+        getResult(second);
+        getResult(third);
+    }
+
+    private static CompletableFuture<SignatureData> sign(X509Certificate cert) throws Exception {
+        byte[] message = "message".getBytes(StandardCharsets.UTF_8);
+        MessagePart part = new MessagePart(MessageFileNames.MESSAGE, SHA512_ID,
+                calculateDigest(SHA512_ID, message), message);
+
+        return BatchSigner.signAsync(KEY_ID, SHA512WITHRSA_ID, new SigningRequest(cert,
+                Collections.singletonList(part)));
+    }
+
+    private static void expectBatchSigningQuery(boolean enabled) {
+        signer.expectMsgClass(GetTokenBatchSigningEnabled.class);
+        signer.reply(enabled);
+    }
+
+    private static ActorRef expectSign() {
+        signer.expectMsgClass(Sign.class);
+
+        return signer.getLastSender();
+    }
+
+    private static SignatureData getResult(CompletableFuture<SignatureData> result) throws Exception {
+        return result.get(RESULT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Forwards the requests to the signer to the test kit, keeping the sender for the replies.
+     */
+    static class StubSigner extends UntypedActor {
+
+        private final ActorRef target;
+
+        StubSigner(ActorRef target) {
+            this.target = target;
+        }
+
+        @Override
+        public void onReceive(Object message) throws Exception {
+            target.forward(message, getContext());
+        }
+    }
+}
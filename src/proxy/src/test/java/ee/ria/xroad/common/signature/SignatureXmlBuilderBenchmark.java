@@ -0,0 +1,157 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.signature;
+
+import ee.ria.xroad.common.OcspTestUtils;
+import ee.ria.xroad.common.TestCertUtil;
+import ee.ria.xroad.common.TestSecurityUtil;
+import ee.ria.xroad.common.util.CryptoUtils;
+import ee.ria.xroad.common.util.MessageFileNames;
+
+import lombok.extern.slf4j.Slf4j;
+import org.bouncycastle.cert.ocsp.CertificateStatus;
+import org.bouncycastle.cert.ocsp.OCSPResp;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Compares rendering the message signature from templates with building it through DOM. Every operation creates
+ * the data to be signed and the signature XML of one message, like SignatureCtx does; the signature value itself
+ * is not calculated. Reports the throughput and the bytes allocated per signature.
+ *
+ * Usage: gradle runSignatureXmlBuilderBenchmark -Pargs="[threads] [seconds]"
+ */
+@Slf4j
+public final class SignatureXmlBuilderBenchmark {
+
+    private static final int DEFAULT_THREADS = 4;
+    private static final int DEFAULT_SECONDS = 10;
+    private static final int WARMUP_SECONDS = 5;
+
+    private static final int MESSAGE_SIZE = 4096;
+    private static final int SIGNATURE_SIZE = 256;
+
+    static {
+        TestSecurityUtil.initSecurity();
+    }
+
+    private SignatureXmlBuilderBenchmark() {
+    }
+
+    /**
+     * Main function.
+     * @param args optional number of threads and measurement time
+     * @throws Exception if an error occurs
+     */
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_THREADS;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_SECONDS;
+
+        X509Certificate subjectCert = TestCertUtil.getConsumer().certChain[0];
+        OCSPResp ocsp = OcspTestUtils.createOCSPResponse(subjectCert, TestCertUtil.getCaCert(),
+                TestCertUtil.getOcspSigner().certChain[0], TestCertUtil.getOcspSigner().key,
+                CertificateStatus.GOOD, new Date(), null);
+
+        SigningRequest request = new SigningRequest(subjectCert, Collections.emptyList());
+        request.getOcspResponses().add(ocsp);
+
+        byte[] message = new byte[MESSAGE_SIZE];
+        Arrays.fill(message, (byte) 'x');
+
+        run("dom", request, message, false, threads, seconds);
+        run("template", request, message, true, threads, seconds);
+    }
+
+    private static void run(String name, SigningRequest request, byte[] message, boolean useTemplates, int threads,
+            int seconds) throws Exception {
+        measure(request, message, useTemplates, threads, WARMUP_SECONDS);
+
+        long[] result = measure(request, message, useTemplates, threads, seconds);
+        long ops = Math.max(result[0], 1);
+
+        log.info("{}: {} threads, {} signatures/s, {} us per signature, {} bytes allocated per signature", name,
+                threads, ops / seconds, TimeUnit.SECONDS.toMicros(seconds) * threads / ops, result[1] / ops);
+    }
+
+    private static long[] measure(SigningRequest request, byte[] message, boolean useTemplates, int threads,
+            int seconds) throws Exception {
+        com.sun.management.ThreadMXBean threadBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        String signatureAlgorithmUri = CryptoUtils.getSignatureAlgorithmURI(CryptoUtils.SHA512WITHRSA_ID);
+        byte[] signatureValue = new byte[SIGNATURE_SIZE];
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        AtomicBoolean running = new AtomicBoolean(true);
+        CountDownLatch started = new CountDownLatch(threads);
+        LongAdder ops = new LongAdder();
+        LongAdder allocated = new LongAdder();
+
+        for (int t = 0; t < threads; t++) {
+            executor.execute(() -> {
+                long threadId = Thread.currentThread().getId();
+
+                started.countDown();
+
+                long allocatedBefore = threadBean.getThreadAllocatedBytes(threadId);
+
+                while (running.get()) {
+                    try {
+                        SignatureXmlBuilder builder = new SignatureXmlBuilder(request, CryptoUtils.SHA512_ID,
+                                useTemplates, Calendar.getInstance(TimeZone.getTimeZone("UTC")));
+
+                        builder.createDataToBeSigned(MessageFileNames.MESSAGE, message, signatureAlgorithmUri);
+                        builder.createSignatureXml(signatureValue).getBytes(StandardCharsets.UTF_8);
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+
+                    ops.increment();
+                }
+
+                allocated.add(threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore);
+            });
+        }
+
+        started.await();
+        TimeUnit.SECONDS.sleep(seconds);
+        running.set(false);
+
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+
+        return new long[] {ops.sum(), allocated.sum()};
+    }
+}
@@ -0,0 +1,171 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.signature;
+
+import ee.ria.xroad.common.OcspTestUtils;
+import ee.ria.xroad.common.SystemProperties;
+import ee.ria.xroad.common.TestCertUtil;
+import ee.ria.xroad.common.TestSecurityUtil;
+import ee.ria.xroad.common.conf.globalconf.GlobalConf;
+import ee.ria.xroad.common.conf.globalconf.TestGlobalConfImpl;
+import ee.ria.xroad.common.identifier.ClientId;
+import ee.ria.xroad.common.util.CryptoUtils;
+import ee.ria.xroad.common.util.MessageFileNames;
+
+import org.bouncycastle.cert.ocsp.CertificateStatus;
+import org.bouncycastle.cert.ocsp.OCSPResp;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests that the signature rendered from templates is identical to the one built through DOM.
+ */
+public class SignatureXmlTemplateTest {
+
+    private static final String MESSAGE = "<message>template & DOM</message>";
+
+    private static final Date CORRECT_VALIDATION_DATE = createDate(30, 9, 2014);
+
+    private static final ClientId CONSUMER_ID = ClientId.create("EE", "BUSINESS", "consumer");
+
+    private static X509Certificate subjectCert;
+    private static PrivateKey subjectKey;
+    private static OCSPResp ocsp;
+
+    static {
+        TestSecurityUtil.initSecurity();
+    }
+
+    /**
+     * Set up certificates and global configuration.
+     * @throws Exception in case of any unexpected error
+     */
+    @BeforeClass
+    public static void setUpBeforeClass() throws Exception {
+        System.setProperty(SystemProperties.CONFIGURATION_PATH, "../common-util/src/test/resources/globalconf_good_v2");
+        System.setProperty(SystemProperties.CONFIGURATION_ANCHOR_FILE,
+                "../common-util/src/test/resources/configuration-anchor1.xml");
+
+        GlobalConf.reload(new TestGlobalConfImpl(false) {
+            @Override
+            public X509Certificate getCaCert(String instanceIdentifier, X509Certificate memberCert) {
+                return TestCertUtil.getCaCert();
+            }
+        });
+
+        subjectCert = TestCertUtil.getConsumer().certChain[0];
+        subjectKey = TestCertUtil.getConsumer().key;
+
+        ocsp = OcspTestUtils.createOCSPResponse(subjectCert, TestCertUtil.getCaCert(),
+                TestCertUtil.getOcspSigner().certChain[0], TestCertUtil.getOcspSigner().key,
+                CertificateStatus.GOOD, CORRECT_VALIDATION_DATE, null);
+    }
+
+    /**
+     * Test to ensure the templates reproduce the DOM output of a single message signature.
+     * @throws Exception in case of any unexpected error
+     */
+    @Test
+    public void singleMessageSignatureEqualsDomOutput() throws Exception {
+        SigningRequest request = createRequest();
+        request.getOcspResponses().add(ocsp);
+
+        assertSameOutput(request, CryptoUtils.SHA512_ID, CryptoUtils.SHA512WITHRSA_ID, MessageFileNames.MESSAGE,
+                MESSAGE.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Test to ensure the templates reproduce the DOM output of a hash chain signature with extra certificates.
+     * @throws Exception in case of any unexpected error
+     */
+    @Test
+    public void hashChainSignatureWithExtraCertsEqualsDomOutput() throws Exception {
+        SigningRequest request = createRequest();
+        request.getExtraCertificates().addAll(Arrays.asList(TestCertUtil.getCaCert(), subjectCert));
+        request.getOcspResponses().addAll(Arrays.asList(ocsp, ocsp));
+
+        assertSameOutput(request, CryptoUtils.SHA256_ID, CryptoUtils.SHA256WITHRSA_ID,
+                MessageFileNames.SIG_HASH_CHAIN_RESULT, "<hashChainResult/>".getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Test to ensure the signature rendered from templates is accepted by the signature verifier.
+     * @throws Exception in case of any unexpected error
+     */
+    @Test
+    public void templateSignatureIsVerified() throws Exception {
+        byte[] message = MESSAGE.getBytes(StandardCharsets.UTF_8);
+        MessagePart part = new MessagePart(MessageFileNames.MESSAGE, CryptoUtils.SHA512_ID,
+                CryptoUtils.calculateDigest(CryptoUtils.SHA512_ID, message), message);
+
+        SignatureBuilder builder = new SignatureBuilder();
+        builder.addPart(part);
+        builder.setSigningCert(subjectCert);
+        builder.addOcspResponses(Collections.singletonList(ocsp));
+
+        SignatureData data = builder.build(new TestSigningKey(subjectKey), CryptoUtils.SHA512_ID);
+
+        SignatureVerifier verifier = new SignatureVerifier(data);
+        verifier.addPart(part);
+        verifier.verify(CONSUMER_ID, CORRECT_VALIDATION_DATE);
+    }
+
+    private static void assertSameOutput(SigningRequest request, String hashAlgorithmId,
+            String signatureAlgorithmId, String documentName, byte[] data) throws Exception {
+        Calendar signingTime = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        String signatureAlgorithmUri = CryptoUtils.getSignatureAlgorithmURI(signatureAlgorithmId);
+        byte[] signatureValue = new byte[256];
+        Arrays.fill(signatureValue, (byte) 7);
+
+        SignatureXmlBuilder dom = new SignatureXmlBuilder(request, hashAlgorithmId, false, signingTime);
+        SignatureXmlBuilder template = new SignatureXmlBuilder(request, hashAlgorithmId, true, signingTime);
+
+        assertArrayEquals(dom.createDataToBeSigned(documentName, data, signatureAlgorithmUri),
+                template.createDataToBeSigned(documentName, data, signatureAlgorithmUri));
+        assertEquals(dom.createSignatureXml(signatureValue), template.createSignatureXml(signatureValue));
+    }
+
+    private static SigningRequest createRequest() {
+        return new SigningRequest(subjectCert, Collections.emptyList());
+    }
+
+    private static Date createDate(int day, int month, int year) {
+        Calendar cal = Calendar.getInstance();
+        cal.clear();
+        cal.set(year, month, day);
+
+        return cal.getTime();
+    }
+}
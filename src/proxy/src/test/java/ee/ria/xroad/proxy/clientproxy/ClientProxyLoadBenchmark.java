@@ -0,0 +1,216 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.proxy.clientproxy;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Load benchmark of the client proxy request hand-off between the SOAP
+ * handler and the HTTP sender. Every simulated client runs on its own thread
+ * (like a Jetty request thread), submits the handler that writes the encoded
+ * request to the pipe and reads the pipe to the end like the HTTP sender
+ * does. Compares the unbounded cached pool with the default 1 KB pipe to the
+ * bounded pool and buffer used by ClientMessageProcessor, and reports the
+ * number of handler threads and the request latency percentiles.
+ *
+ * Usage: gradle runClientProxyLoadBenchmark
+ *   -Pargs="[clients] [seconds] [message bytes] [handler threads] [buffer]"
+ */
+@Slf4j
+public final class ClientProxyLoadBenchmark {
+
+    private static final int DEFAULT_CLIENTS = 2000;
+    private static final int DEFAULT_SECONDS = 20;
+    private static final int DEFAULT_MESSAGE_SIZE = 16 * 1024;
+    private static final int DEFAULT_HANDLER_THREADS = 256;
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private static final int LEGACY_BUFFER_SIZE = 1024;
+    private static final int WRITE_CHUNK_SIZE = 512;
+    private static final int READ_CHUNK_SIZE = 4096;
+
+    private ClientProxyLoadBenchmark() {
+    }
+
+    /**
+     * Main function.
+     * @param args optional number of clients, measurement time, message size,
+     * handler pool size and pipe buffer size
+     * @throws Exception if an error occurs
+     */
+    public static void main(String[] args) throws Exception {
+        int clients = intArg(args, 0, DEFAULT_CLIENTS);
+        int seconds = intArg(args, 1, DEFAULT_SECONDS);
+        int messageSize = intArg(args, 2, DEFAULT_MESSAGE_SIZE);
+        int handlerThreads = intArg(args, 3, DEFAULT_HANDLER_THREADS);
+        int bufferSize = intArg(args, 4, DEFAULT_BUFFER_SIZE);
+
+        ThreadPoolExecutor cachedPool = new ThreadPoolExecutor(0,
+                Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
+                new SynchronousQueue<>());
+
+        run("cached pool, 1 KB pipe", cachedPool, LEGACY_BUFFER_SIZE, clients,
+                seconds, messageSize);
+
+        run("bounded pool (" + handlerThreads + "), " + bufferSize
+                + " B pipe", ClientMessageProcessor.createSoapHandlerExecutor(
+                        handlerThreads), bufferSize, clients, seconds,
+                messageSize);
+    }
+
+    private static void run(String name, ThreadPoolExecutor executor,
+            int bufferSize, int clients, int seconds, int messageSize)
+            throws Exception {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        threads.resetPeakThreadCount();
+
+        byte[] message = new byte[messageSize];
+        AtomicBoolean running = new AtomicBoolean(true);
+        CountDownLatch finished = new CountDownLatch(clients);
+        List<long[]> latencies = Collections.synchronizedList(
+                new ArrayList<>());
+
+        List<Thread> clientThreads = new ArrayList<>(clients);
+
+        for (int c = 0; c < clients; c++) {
+            Thread clientThread = new Thread(() -> {
+                List<Long> own = new ArrayList<>();
+
+                try {
+                    while (running.get()) {
+                        long start = System.nanoTime();
+                        request(executor, bufferSize, message);
+                        own.add(System.nanoTime() - start);
+                    }
+                } catch (Exception e) {
+                    log.error("Request failed", e);
+                } finally {
+                    latencies.add(own.stream().mapToLong(Long::longValue)
+                            .toArray());
+                    finished.countDown();
+                }
+            });
+
+            clientThread.setDaemon(true);
+            clientThreads.add(clientThread);
+        }
+
+        clientThreads.forEach(Thread::start);
+
+        TimeUnit.SECONDS.sleep(seconds);
+        running.set(false);
+        finished.await();
+
+        long[] all = latencies.stream().flatMapToLong(java.util.Arrays::stream)
+                .sorted().toArray();
+
+        log.info("{}: {} clients, {} requests/s, handler threads {}, "
+                + "peak JVM threads {}, latency p50 {} ms, p99 {} ms, "
+                + "max {} ms", name, clients, all.length / seconds,
+                executor.getLargestPoolSize(), threads.getPeakThreadCount(),
+                millis(percentile(all, 50)), millis(percentile(all, 99)),
+                millis(all.length > 0 ? all[all.length - 1] : 0));
+
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Mirrors ClientMessageProcessor: the handler encodes the request into
+     * the pipe while the request thread sends the pipe contents onward.
+     */
+    private static void request(ThreadPoolExecutor executor, int bufferSize,
+            byte[] message) throws Exception {
+        PipedInputStream in = new PipedInputStream(bufferSize);
+        PipedOutputStream out = new PipedOutputStream(in);
+        CountDownLatch soapParsed = new CountDownLatch(1);
+
+        executor.submit(() -> {
+            try (OutputStream os = out) {
+                soapParsed.countDown();
+
+                for (int pos = 0; pos < message.length;
+                        pos += WRITE_CHUNK_SIZE) {
+                    os.write(message, pos,
+                            Math.min(WRITE_CHUNK_SIZE, message.length - pos));
+                }
+            }
+
+            return null;
+        });
+
+        soapParsed.await();
+
+        try (InputStream is = in) {
+            byte[] buf = new byte[READ_CHUNK_SIZE];
+
+            long sent = 0;
+            int count;
+
+            // Discard, as the HTTP sender would write to the socket
+            while ((count = is.read(buf)) != -1) {
+                sent += count;
+            }
+
+            if (sent != message.length) {
+                throw new IllegalStateException("Sent " + sent + " bytes of "
+                        + message.length);
+            }
+        }
+    }
+
+    private static long percentile(long[] sorted, int percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+
+        return sorted[Math.max(0, index)];
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.1f",
+                nanos / (double) TimeUnit.MILLISECONDS.toNanos(1));
+    }
+
+    private static int intArg(String[] args, int index, int defaultValue) {
+        return args.length > index ? Integer.parseInt(args[index])
+                : defaultValue;
+    }
+}
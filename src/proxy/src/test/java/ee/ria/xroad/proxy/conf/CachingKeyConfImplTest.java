@@ -0,0 +1,242 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.proxy.conf;
+
+import ee.ria.xroad.common.SystemProperties;
+import ee.ria.xroad.common.identifier.ClientId;
+
+import org.joda.time.DateTimeUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the loading and refreshing of cached info in CachingKeyConfImpl.
+ */
+public class CachingKeyConfImplTest {
+
+    private static final ClientId CLIENT = ClientId.create("EE", "BUSINESS", "consumer");
+
+    private static final int THREADS = 16;
+
+    private final ConcurrentMap<ClientId, CompletableFuture<TestInfo>> cache = new ConcurrentHashMap<>();
+
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private File keyConfFile;
+
+    private CachingKeyConfImpl keyConf;
+
+    /**
+     * Creates the key conf.
+     * @throws Exception in case of any errors
+     */
+    @Before
+    public void setUp() throws Exception {
+        keyConfFile = tempFolder.newFile("keyconf.xml");
+        System.setProperty(SystemProperties.KEY_CONFIGURATION_FILE, keyConfFile.getAbsolutePath());
+
+        keyConf = new CachingKeyConfImpl();
+    }
+
+    /**
+     * Stops the key conf and restores the clock.
+     */
+    @After
+    public void tearDown() {
+        keyConf.close();
+        DateTimeUtils.setCurrentMillisSystem();
+        System.clearProperty(SystemProperties.KEY_CONFIGURATION_FILE);
+    }
+
+    /**
+     * Test that concurrent misses for the same key are served by a single load.
+     * @throws Exception in case of any errors
+     */
+    @Test
+    public void concurrentMissesLoadOnce() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+
+        try {
+            List<Future<TestInfo>> results = new ArrayList<>();
+
+            for (int i = 0; i < THREADS; i++) {
+                results.add(executor.submit(() -> keyConf.getCached(cache, CLIENT, () -> {
+                    release.await();
+
+                    return load();
+                })));
+            }
+
+            TimeUnit.MILLISECONDS.sleep(100);
+            release.countDown();
+
+            TestInfo first = results.get(0).get();
+
+            for (Future<TestInfo> result : results) {
+                assertSame(first, result.get());
+            }
+
+            assertEquals(1, loads.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Test that a failed load is not cached.
+     * @throws Exception in case of any errors
+     */
+    @Test
+    public void failedLoadIsNotCached() throws Exception {
+        try {
+            keyConf.getCached(cache, CLIENT, () -> {
+                throw new IllegalStateException("signer not available");
+            });
+
+            fail("Expected the load to fail");
+        } catch (IllegalStateException expected) {
+            // expected
+        }
+
+        keyConf.getCached(cache, CLIENT, this::load);
+
+        assertEquals(1, loads.get());
+    }
+
+    /**
+     * Test that expired and invalid info is loaded again.
+     * @throws Exception in case of any errors
+     */
+    @Test
+    public void expiredInfoIsReloaded() throws Exception {
+        TestInfo info = keyConf.getCached(cache, CLIENT, this::load);
+
+        DateTimeUtils.setCurrentMillisOffset(TimeUnit.SECONDS.toMillis(301));
+
+        assertNotSame(info, keyConf.getCached(cache, CLIENT, this::load));
+
+        DateTimeUtils.setCurrentMillisSystem();
+
+        TestInfo current = keyConf.getCached(cache, CLIENT, this::load);
+        current.valid = false;
+
+        assertNotSame(current, keyConf.getCached(cache, CLIENT, this::load));
+        assertEquals(3, loads.get());
+    }
+
+    /**
+     * Test that info nearing the end of the cache period is refreshed in the
+     * background while the cached info is still returned.
+     * @throws Exception in case of any errors
+     */
+    @Test
+    public void infoIsRefreshedAhead() throws Exception {
+        TestInfo info = keyConf.getCached(cache, CLIENT, this::load);
+
+        DateTimeUtils.setCurrentMillisOffset(TimeUnit.SECONDS.toMillis(250));
+
+        assertSame(info, keyConf.getCached(cache, CLIENT, this::load));
+
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(5);
+
+        while (cache.get(CLIENT).get() == info && System.currentTimeMillis() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+
+        DateTimeUtils.setCurrentMillisSystem();
+
+        assertNotSame(info, keyConf.getCached(cache, CLIENT, this::load));
+        assertEquals(2, loads.get());
+    }
+
+    /**
+     * Test that a change of the key conf file is noticed without calls to the key conf.
+     * @throws Exception in case of any errors
+     */
+    @Test
+    public void keyConfFileChangeIsDetected() throws Exception {
+        CountDownLatch changed = new CountDownLatch(1);
+
+        keyConf.close();
+        keyConf = new CachingKeyConfImpl() {
+            @Override
+            void keyConfChanged() {
+                changed.countDown();
+            }
+        };
+
+        // The watcher is started asynchronously, keep changing the file until it notices
+        for (int i = 0; i < 100 && changed.getCount() > 0; i++) {
+            Files.write(keyConfFile.toPath(), ("<keyConf>" + i + "</keyConf>").getBytes(StandardCharsets.UTF_8));
+
+            changed.await(50, TimeUnit.MILLISECONDS);
+        }
+
+        assertTrue(changed.await(0, TimeUnit.MILLISECONDS));
+    }
+
+    private TestInfo load() {
+        loads.incrementAndGet();
+
+        return new TestInfo();
+    }
+
+    private static final class TestInfo extends AbstractCachedInfo {
+
+        private volatile boolean valid = true;
+
+        @Override
+        boolean verifyValidity(Date atDate) {
+            return valid;
+        }
+    }
+}
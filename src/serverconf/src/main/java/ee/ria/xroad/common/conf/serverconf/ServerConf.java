@@ -22,6 +22,7 @@
  */
 package ee.ria.xroad.common.conf.serverconf;
 
+import ee.ria.xroad.common.SystemProperties;
 import ee.ria.xroad.common.conf.InternalSSLKey;
 import ee.ria.xroad.common.identifier.ClientId;
 import ee.ria.xroad.common.identifier.SecurityCategoryId;
@@ -50,7 +51,9 @@ public class ServerConf {
      */
     protected static ServerConfProvider getInstance() {
         if (instance == null) {
-            instance = new CachingServerConfImpl();
+            instance = SystemProperties.isServerConfSnapshotEnabled()
+                    ? new SnapshotServerConfImpl()
+                    : new CachingServerConfImpl();
         }
 
         return instance;
@@ -0,0 +1,281 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.conf.serverconf;
+
+import ee.ria.xroad.common.CodedException;
+import ee.ria.xroad.common.conf.serverconf.model.AccessRightType;
+import ee.ria.xroad.common.conf.serverconf.model.CertificateType;
+import ee.ria.xroad.common.conf.serverconf.model.ClientType;
+import ee.ria.xroad.common.conf.serverconf.model.GroupMemberType;
+import ee.ria.xroad.common.conf.serverconf.model.LocalGroupType;
+import ee.ria.xroad.common.conf.serverconf.model.ServerConfType;
+import ee.ria.xroad.common.conf.serverconf.model.ServiceType;
+import ee.ria.xroad.common.conf.serverconf.model.TspType;
+import ee.ria.xroad.common.conf.serverconf.model.WsdlType;
+import ee.ria.xroad.common.identifier.ClientId;
+import ee.ria.xroad.common.identifier.GlobalGroupId;
+import ee.ria.xroad.common.identifier.LocalGroupId;
+import ee.ria.xroad.common.identifier.SecurityCategoryId;
+import ee.ria.xroad.common.identifier.SecurityServerId;
+import ee.ria.xroad.common.identifier.ServiceId;
+import ee.ria.xroad.common.identifier.XRoadId;
+
+import lombok.Getter;
+import org.apache.commons.lang3.ObjectUtils;
+import org.apache.commons.lang3.StringUtils;
+
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiPredicate;
+
+import static ee.ria.xroad.common.ErrorCodes.X_MALFORMED_SERVERCONF;
+import static ee.ria.xroad.common.util.CryptoUtils.readCertificate;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.unmodifiableList;
+
+/**
+ * Immutable, hash-indexed copy of the whole server configuration. Built once
+ * from the database and then read without any locking or database access.
+ */
+final class ServerConfSnapshot {
+
+    private final SecurityServerId identifier;
+
+    @Getter
+    private final List<ClientId> members;
+
+    @Getter
+    private final List<X509Certificate> allIsCerts;
+
+    @Getter
+    private final List<String> tspUrls;
+
+    private final Map<ClientId, ClientEntry> clients = new HashMap<>();
+    private final Map<ServiceId, ServiceEntry> services = new HashMap<>();
+
+    /**
+     * Builds the snapshot from the given configuration. Must be called inside
+     * an open transaction, since lazy collections are traversed.
+     * @param conf the server conf entity
+     */
+    ServerConfSnapshot(ServerConfType conf) {
+        identifier = conf.getOwner() != null
+                ? SecurityServerId.create(conf.getOwner().getIdentifier(),
+                        conf.getServerCode())
+                : null;
+
+        List<ClientId> memberList = new ArrayList<>();
+        List<X509Certificate> isCertList = new ArrayList<>();
+
+        for (ClientType client : conf.getClient()) {
+            List<ServiceId> clientServices = new ArrayList<>();
+
+            for (WsdlType wsdl : client.getWsdl()) {
+                for (ServiceType service : wsdl.getService()) {
+                    ServiceId serviceId = ServiceId.create(
+                            client.getIdentifier(), service.getServiceCode(),
+                            service.getServiceVersion());
+
+                    clientServices.add(serviceId);
+                    services.put(serviceId, new ServiceEntry(service, wsdl));
+                }
+            }
+
+            ClientEntry entry = new ClientEntry(client, clientServices);
+
+            memberList.add(client.getIdentifier());
+            isCertList.addAll(entry.getIsCerts());
+            clients.put(client.getIdentifier(), entry);
+        }
+
+        List<String> tspUrlList = new ArrayList<>();
+        for (TspType tsp : conf.getTsp()) {
+            if (StringUtils.isNotBlank(tsp.getUrl())) {
+                tspUrlList.add(tsp.getUrl());
+            }
+        }
+
+        members = unmodifiableList(memberList);
+        allIsCerts = unmodifiableList(isCertList);
+        tspUrls = unmodifiableList(tspUrlList);
+    }
+
+    /**
+     * @return the identifier of this security server
+     */
+    SecurityServerId getIdentifier() {
+        if (identifier == null) {
+            throw new CodedException(X_MALFORMED_SERVERCONF,
+                    "Owner is not set");
+        }
+
+        return identifier;
+    }
+
+    /**
+     * @param clientId the client identifier
+     * @return the client entry or null if the client is not found
+     */
+    ClientEntry getClient(ClientId clientId) {
+        return clientId != null ? clients.get(clientId) : null;
+    }
+
+    /**
+     * @param serviceId the service identifier
+     * @return the service entry or null if the service is not found
+     */
+    ServiceEntry getService(ServiceId serviceId) {
+        return serviceId != null ? services.get(serviceId) : null;
+    }
+
+    /**
+     * Checks the access rights given by the owner of the service.
+     * @param client the client identifier
+     * @param service the service identifier
+     * @param inGlobalGroup resolves global group membership, which is not
+     * part of the server configuration
+     * @return true, if the client is allowed to invoke the service
+     */
+    boolean isQueryAllowed(ClientId client, ServiceId service,
+            BiPredicate<ClientId, GlobalGroupId> inGlobalGroup) {
+        if (client == null) {
+            return false;
+        }
+
+        ClientEntry provider = clients.get(service.getClientId());
+        if (provider == null) {
+            return false;
+        }
+
+        for (XRoadId subjectId : provider.getAcl(service.getServiceCode())) {
+            if (subjectId instanceof GlobalGroupId) {
+                if (inGlobalGroup.test(client, (GlobalGroupId) subjectId)) {
+                    return true;
+                }
+            } else if (subjectId instanceof LocalGroupId) {
+                if (provider.isLocalGroupMember(client,
+                        ((LocalGroupId) subjectId).getGroupCode())) {
+                    return true;
+                }
+            } else if (subjectId instanceof ClientId) {
+                if (client.equals(subjectId)) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Indexed view of a single client.
+     */
+    static final class ClientEntry {
+
+        @Getter
+        private final String clientStatus;
+
+        @Getter
+        private final IsAuthentication isAuthentication;
+
+        @Getter
+        private final List<X509Certificate> isCerts;
+
+        @Getter
+        private final List<ServiceId> services;
+
+        private final Map<String, List<XRoadId>> aclByServiceCode =
+                new HashMap<>();
+        private final Map<String, Set<ClientId>> localGroupMembers =
+                new HashMap<>();
+
+        private ClientEntry(ClientType client, List<ServiceId> services) {
+            this.clientStatus = client.getClientStatus();
+            this.isAuthentication = client.getIsAuthentication() != null
+                    ? IsAuthentication.valueOf(client.getIsAuthentication())
+                    : IsAuthentication.NOSSL;
+            this.services = unmodifiableList(services);
+
+            List<X509Certificate> certs = new ArrayList<>();
+            for (CertificateType cert : client.getIsCert()) {
+                certs.add(readCertificate(cert.getData()));
+            }
+
+            this.isCerts = unmodifiableList(certs);
+
+            for (AccessRightType accessRight : client.getAcl()) {
+                aclByServiceCode.computeIfAbsent(accessRight.getServiceCode(),
+                        k -> new ArrayList<>()).add(accessRight.getSubjectId());
+            }
+
+            for (LocalGroupType group : client.getLocalGroup()) {
+                Set<ClientId> groupMembers = localGroupMembers.computeIfAbsent(
+                        group.getGroupCode(), k -> new HashSet<>());
+
+                for (GroupMemberType member : group.getGroupMember()) {
+                    groupMembers.add(member.getGroupMemberId());
+                }
+            }
+        }
+
+        List<XRoadId> getAcl(String serviceCode) {
+            List<XRoadId> acl = aclByServiceCode.get(serviceCode);
+            return acl != null ? acl : emptyList();
+        }
+
+        boolean isLocalGroupMember(ClientId member, String groupCode) {
+            Set<ClientId> groupMembers = localGroupMembers.get(groupCode);
+            return groupMembers != null && groupMembers.contains(member);
+        }
+    }
+
+    /**
+     * Indexed view of a single service.
+     */
+    @Getter
+    static final class ServiceEntry {
+
+        private final String url;
+        private final int timeout;
+        private final boolean sslAuthentication;
+        private final List<SecurityCategoryId> requiredCategories;
+        private final boolean disabled;
+        private final String disabledNotice;
+
+        private ServiceEntry(ServiceType service, WsdlType wsdl) {
+            this.url = service.getUrl();
+            this.timeout = service.getTimeout();
+            this.sslAuthentication = ObjectUtils.defaultIfNull(
+                    service.getSslAuthentication(), true);
+            this.requiredCategories = unmodifiableList(
+                    new ArrayList<>(service.getRequiredSecurityCategory()));
+            this.disabled = wsdl.isDisabled();
+            this.disabledNotice = wsdl.getDisabledNotice();
+        }
+    }
+}
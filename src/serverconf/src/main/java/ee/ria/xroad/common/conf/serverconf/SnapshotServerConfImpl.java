@@ -0,0 +1,261 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.conf.serverconf;
+
+import ee.ria.xroad.common.CodedException;
+import ee.ria.xroad.common.SystemProperties;
+import ee.ria.xroad.common.conf.globalconf.GlobalConf;
+import ee.ria.xroad.common.conf.serverconf.ServerConfSnapshot.ClientEntry;
+import ee.ria.xroad.common.conf.serverconf.ServerConfSnapshot.ServiceEntry;
+import ee.ria.xroad.common.identifier.ClientId;
+import ee.ria.xroad.common.identifier.SecurityCategoryId;
+import ee.ria.xroad.common.identifier.SecurityServerId;
+import ee.ria.xroad.common.identifier.ServiceId;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.security.cert.X509Certificate;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static ee.ria.xroad.common.ErrorCodes.X_UNKNOWN_SERVICE;
+import static java.util.Collections.emptyList;
+
+/**
+ * Server conf implementation that serves all queries from an immutable
+ * in-memory snapshot of the configuration. The snapshot is reloaded from the
+ * database in a background thread and swapped atomically, so readers never
+ * open a transaction or take a lock.
+ */
+@Slf4j
+public class SnapshotServerConfImpl extends ServerConfImpl {
+
+    // default service connection timeout in seconds
+    private static final int DEFAULT_SERVICE_TIMEOUT = 30;
+
+    private final ScheduledExecutorService refresher;
+
+    private volatile ServerConfSnapshot snapshot;
+
+    /**
+     * Creates the server conf and schedules reloading the snapshot at the
+     * interval of server conf cache period.
+     */
+    public SnapshotServerConfImpl() {
+        this(SystemProperties.getServerConfCachePeriod());
+    }
+
+    /**
+     * Creates the server conf and schedules reloading the snapshot.
+     * @param refreshIntervalSeconds snapshot reload interval in seconds,
+     * non-positive value disables background reloading
+     */
+    public SnapshotServerConfImpl(int refreshIntervalSeconds) {
+        if (refreshIntervalSeconds > 0) {
+            refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "ServerConfSnapshotRefresher");
+                t.setDaemon(true);
+                return t;
+            });
+
+            refresher.scheduleWithFixedDelay(this::refreshQuietly,
+                    refreshIntervalSeconds, refreshIntervalSeconds,
+                    TimeUnit.SECONDS);
+        } else {
+            refresher = null;
+        }
+    }
+
+    /**
+     * Reloads the configuration snapshot from the database and publishes it.
+     */
+    public void refresh() {
+        ServerConfSnapshot newSnapshot =
+                tx(session -> new ServerConfSnapshot(getConf()));
+
+        snapshot = newSnapshot;
+    }
+
+    /**
+     * Stops the background reloading of the snapshot.
+     */
+    public void close() {
+        if (refresher != null) {
+            refresher.shutdownNow();
+        }
+    }
+
+    @Override
+    public SecurityServerId getIdentifier() {
+        return getSnapshot().getIdentifier();
+    }
+
+    @Override
+    public boolean serviceExists(ServiceId service) {
+        return getSnapshot().getService(service) != null;
+    }
+
+    @Override
+    public String getServiceAddress(ServiceId service) {
+        ServiceEntry entry = getSnapshot().getService(service);
+
+        return entry != null ? entry.getUrl() : null;
+    }
+
+    @Override
+    public int getServiceTimeout(ServiceId service) {
+        ServiceEntry entry = getSnapshot().getService(service);
+
+        return entry != null ? entry.getTimeout() : DEFAULT_SERVICE_TIMEOUT;
+    }
+
+    @Override
+    public List<ServiceId> getAllServices(ClientId serviceProvider) {
+        ClientEntry entry = getSnapshot().getClient(serviceProvider);
+
+        return entry != null ? entry.getServices() : emptyList();
+    }
+
+    @Override
+    public List<ServiceId> getAllowedServices(ClientId serviceProvider,
+            ClientId client) {
+        ServerConfSnapshot current = getSnapshot();
+
+        ClientEntry entry = current.getClient(serviceProvider);
+        if (entry == null) {
+            return emptyList();
+        }
+
+        return entry.getServices().stream()
+                .filter(s -> isQueryAllowed(current, client, s))
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public boolean isSslAuthentication(ServiceId service) {
+        ServiceEntry entry = getSnapshot().getService(service);
+        if (entry != null) {
+            return entry.isSslAuthentication();
+        }
+
+        throw new CodedException(X_UNKNOWN_SERVICE,
+                "Service '%s' not found", service);
+    }
+
+    @Override
+    public List<ClientId> getMembers() {
+        return getSnapshot().getMembers();
+    }
+
+    @Override
+    public String getMemberStatus(ClientId memberId) {
+        ClientEntry entry = getSnapshot().getClient(memberId);
+
+        return entry != null ? entry.getClientStatus() : null;
+    }
+
+    @Override
+    public IsAuthentication getIsAuthentication(ClientId client) {
+        ClientEntry entry = getSnapshot().getClient(client);
+
+        return entry != null ? entry.getIsAuthentication() : null;
+    }
+
+    @Override
+    public List<X509Certificate> getIsCerts(ClientId client) {
+        ClientEntry entry = getSnapshot().getClient(client);
+
+        return entry != null ? entry.getIsCerts() : emptyList();
+    }
+
+    @Override
+    public List<X509Certificate> getAllIsCerts() {
+        return getSnapshot().getAllIsCerts();
+    }
+
+    @Override
+    public String getDisabledNotice(ServiceId service) {
+        ServiceEntry entry = getSnapshot().getService(service);
+        if (entry != null && entry.isDisabled()) {
+            if (entry.getDisabledNotice() == null) {
+                return String.format("Service '%s' is disabled", service);
+            }
+
+            return entry.getDisabledNotice();
+        }
+
+        return null;
+    }
+
+    @Override
+    public boolean isQueryAllowed(ClientId client, ServiceId service) {
+        return isQueryAllowed(getSnapshot(), client, service);
+    }
+
+    @Override
+    public List<SecurityCategoryId> getRequiredCategories(ServiceId service) {
+        ServiceEntry entry = getSnapshot().getService(service);
+
+        return entry != null ? entry.getRequiredCategories() : emptyList();
+    }
+
+    @Override
+    public List<String> getTspUrl() {
+        return getSnapshot().getTspUrls();
+    }
+
+    // ------------------------------------------------------------------------
+
+    private static boolean isQueryAllowed(ServerConfSnapshot current,
+            ClientId client, ServiceId service) {
+        return current.isQueryAllowed(client, service,
+                GlobalConf::isSubjectInGlobalGroup);
+    }
+
+    private ServerConfSnapshot getSnapshot() {
+        ServerConfSnapshot current = snapshot;
+        if (current == null) {
+            synchronized (this) {
+                if (snapshot == null) {
+                    refresh();
+                }
+
+                current = snapshot;
+            }
+        }
+
+        return current;
+    }
+
+    private void refreshQuietly() {
+        try {
+            refresh();
+        } catch (Exception e) {
+            log.error("Failed to reload server conf snapshot, "
+                    + "keeping the previous one", e);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.proxy.conf;
+
+import ee.ria.xroad.common.conf.serverconf.CachingServerConfImpl;
+import ee.ria.xroad.common.conf.serverconf.ServerConfImpl;
+import ee.ria.xroad.common.conf.serverconf.ServerConfProvider;
+import ee.ria.xroad.common.conf.serverconf.SnapshotServerConfImpl;
+import ee.ria.xroad.common.identifier.ClientId;
+import ee.ria.xroad.common.identifier.ServiceId;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import static ee.ria.xroad.proxy.conf.TestUtil.NUM_CLIENTS;
+import static ee.ria.xroad.proxy.conf.TestUtil.NUM_SERVICES;
+import static ee.ria.xroad.proxy.conf.TestUtil.NUM_WSDLS;
+import static ee.ria.xroad.proxy.conf.TestUtil.SERVICE_VERSION;
+import static ee.ria.xroad.proxy.conf.TestUtil.client;
+import static ee.ria.xroad.proxy.conf.TestUtil.createTestClientId;
+import static ee.ria.xroad.proxy.conf.TestUtil.createTestServiceId;
+import static ee.ria.xroad.proxy.conf.TestUtil.prepareDB;
+import static ee.ria.xroad.proxy.conf.TestUtil.service;
+
+/**
+ * Compares the throughput of the server conf implementations on the
+ * per-message lookups done by the proxy, using concurrent reader threads
+ * against the in-memory test database.
+ *
+ * Usage: gradle runServerConfBenchmark -Pargs="[threads] [seconds]"
+ */
+@Slf4j
+public final class ServerConfBenchmark {
+
+    private static final int DEFAULT_THREADS = 64;
+    private static final int DEFAULT_SECONDS = 10;
+    private static final int WARMUP_SECONDS = 3;
+
+    private ServerConfBenchmark() {
+    }
+
+    /**
+     * Main function.
+     * @param args optional number of reader threads and measurement time
+     * @throws Exception if an error occurs
+     */
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0
+                ? Integer.parseInt(args[0]) : DEFAULT_THREADS;
+        int seconds = args.length > 1
+                ? Integer.parseInt(args[1]) : DEFAULT_SECONDS;
+
+        prepareDB();
+
+        List<ClientId> clients = new ArrayList<>();
+        List<ServiceId> services = new ArrayList<>();
+
+        for (int i = 1; i < NUM_CLIENTS - 1; i++) {
+            ClientId clientId = createTestClientId(client(i));
+            clients.add(clientId);
+
+            for (int j = 0; j < NUM_WSDLS; j++) {
+                for (int k = 0; k < NUM_SERVICES; k++) {
+                    String version = k == NUM_SERVICES - 2
+                            ? null : SERVICE_VERSION;
+                    services.add(createTestServiceId(clientId, service(j, k),
+                            version));
+                }
+            }
+        }
+
+        SnapshotServerConfImpl snapshotConf = new SnapshotServerConfImpl();
+
+        run("ServerConfImpl", new ServerConfImpl(), clients, services,
+                threads, seconds);
+        run("CachingServerConfImpl", new CachingServerConfImpl(), clients,
+                services, threads, seconds);
+        run("SnapshotServerConfImpl", snapshotConf, clients, services,
+                threads, seconds);
+
+        snapshotConf.close();
+    }
+
+    private static void run(String name, ServerConfProvider conf,
+            List<ClientId> clients, List<ServiceId> services, int threads,
+            int seconds) throws Exception {
+        measure(conf, clients, services, threads, WARMUP_SECONDS);
+
+        long ops = measure(conf, clients, services, threads, seconds);
+
+        log.info("{}: {} threads, {} lookups/s", name, threads, ops / seconds);
+    }
+
+    private static long measure(ServerConfProvider conf,
+            List<ClientId> clients, List<ServiceId> services, int threads,
+            int seconds) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        AtomicBoolean running = new AtomicBoolean(true);
+        CountDownLatch started = new CountDownLatch(threads);
+        LongAdder ops = new LongAdder();
+
+        for (int t = 0; t < threads; t++) {
+            int offset = t;
+
+            executor.execute(() -> {
+                started.countDown();
+
+                int i = offset;
+                while (running.get()) {
+                    ClientId client = clients.get(i % clients.size());
+                    ServiceId service = services.get(i % services.size());
+
+                    // The lookups done by the proxy for every message
+                    if (conf.serviceExists(service)) {
+                        conf.isQueryAllowed(client, service);
+                        conf.getServiceAddress(service);
+                        conf.getServiceTimeout(service);
+                        conf.isSslAuthentication(service);
+                        conf.getRequiredCategories(service);
+                        conf.getDisabledNotice(service);
+                    }
+
+                    conf.getIsAuthentication(client);
+
+                    ops.increment();
+                    i++;
+                }
+            });
+        }
+
+        started.await();
+        TimeUnit.SECONDS.sleep(seconds);
+        running.set(false);
+
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+
+        return ops.sum();
+    }
+}
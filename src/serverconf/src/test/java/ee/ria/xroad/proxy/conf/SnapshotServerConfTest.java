@@ -0,0 +1,260 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.proxy.conf;
+
+import ee.ria.xroad.common.ExpectedCodedException;
+import ee.ria.xroad.common.conf.serverconf.IsAuthentication;
+import ee.ria.xroad.common.conf.serverconf.ServerConfDatabaseCtx;
+import ee.ria.xroad.common.conf.serverconf.SnapshotServerConfImpl;
+import ee.ria.xroad.common.conf.serverconf.dao.ServiceDAOImpl;
+import ee.ria.xroad.common.conf.serverconf.model.ServiceType;
+import ee.ria.xroad.common.identifier.ClientId;
+import ee.ria.xroad.common.identifier.SecurityCategoryId;
+import ee.ria.xroad.common.identifier.SecurityServerId;
+import ee.ria.xroad.common.identifier.ServiceId;
+
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+
+import static ee.ria.xroad.common.ErrorCodes.X_UNKNOWN_SERVICE;
+import static ee.ria.xroad.common.util.CryptoUtils.readCertificate;
+import static ee.ria.xroad.proxy.conf.TestUtil.BASE64_CERT;
+import static ee.ria.xroad.proxy.conf.TestUtil.CLIENT_CODE;
+import static ee.ria.xroad.proxy.conf.TestUtil.MEMBER_CLASS;
+import static ee.ria.xroad.proxy.conf.TestUtil.MEMBER_CODE;
+import static ee.ria.xroad.proxy.conf.TestUtil.NUM_CLIENTS;
+import static ee.ria.xroad.proxy.conf.TestUtil.NUM_SERVICES;
+import static ee.ria.xroad.proxy.conf.TestUtil.NUM_TSPS;
+import static ee.ria.xroad.proxy.conf.TestUtil.NUM_WSDLS;
+import static ee.ria.xroad.proxy.conf.TestUtil.SECURITY_CATEGORY;
+import static ee.ria.xroad.proxy.conf.TestUtil.SERVER_CODE;
+import static ee.ria.xroad.proxy.conf.TestUtil.SERVICE_CODE;
+import static ee.ria.xroad.proxy.conf.TestUtil.SERVICE_TIMEOUT;
+import static ee.ria.xroad.proxy.conf.TestUtil.SERVICE_URL;
+import static ee.ria.xroad.proxy.conf.TestUtil.SERVICE_VERSION;
+import static ee.ria.xroad.proxy.conf.TestUtil.SUBSYSTEM;
+import static ee.ria.xroad.proxy.conf.TestUtil.XROAD_INSTANCE;
+import static ee.ria.xroad.proxy.conf.TestUtil.client;
+import static ee.ria.xroad.proxy.conf.TestUtil.createTestClientId;
+import static ee.ria.xroad.proxy.conf.TestUtil.createTestServiceId;
+import static ee.ria.xroad.proxy.conf.TestUtil.prepareDB;
+import static ee.ria.xroad.proxy.conf.TestUtil.service;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the snapshot based server conf implementation.
+ */
+public class SnapshotServerConfTest {
+
+    @Rule
+    public ExpectedCodedException thrown = ExpectedCodedException.none();
+
+    private static SnapshotServerConfImpl serverConf;
+
+    /**
+     * Creates test database and the server conf without background reloading.
+     * @throws Exception if an error occurs
+     */
+    @BeforeClass
+    public static void setUpBeforeClass() throws Exception {
+        prepareDB();
+
+        serverConf = new SnapshotServerConfImpl(0);
+    }
+
+    /**
+     * Tests getting security server identifier.
+     */
+    @Test
+    public void getIdentifier() {
+        assertEquals(SecurityServerId.create(XROAD_INSTANCE, MEMBER_CLASS,
+                MEMBER_CODE, SERVER_CODE), serverConf.getIdentifier());
+    }
+
+    /**
+     * Tests getting service address and timeout.
+     */
+    @Test
+    public void getServiceAddress() {
+        ServiceId service = createTestServiceId(client(1), service(1, 1),
+                SERVICE_VERSION);
+        assertTrue(serverConf.serviceExists(service));
+        assertEquals(SERVICE_URL + 1, serverConf.getServiceAddress(service));
+        assertEquals(SERVICE_TIMEOUT, serverConf.getServiceTimeout(service));
+
+        service = createTestServiceId(client(1), service(1, NUM_SERVICES - 2),
+                null);
+        assertTrue(serverConf.serviceExists(service));
+
+        service = createTestServiceId("foo", "bar");
+        assertFalse(serverConf.serviceExists(service));
+        assertNull(serverConf.getServiceAddress(service));
+    }
+
+    /**
+     * Tests getting services of a member and of a subsystem.
+     */
+    @Test
+    public void getAllServices() {
+        assertEquals(NUM_WSDLS * NUM_SERVICES, serverConf.getAllServices(
+                createTestClientId(client(1))).size());
+        assertTrue(serverConf.getAllServices(
+                createTestClientId(client(NUM_CLIENTS - 1))).isEmpty());
+        assertEquals(NUM_WSDLS * NUM_SERVICES, serverConf.getAllServices(
+                createTestClientId(client(NUM_CLIENTS - 1), SUBSYSTEM)).size());
+    }
+
+    /**
+     * Tests access rights checks.
+     */
+    @Test
+    public void isQueryAllowed() {
+        ClientId client1 = createTestClientId(client(1));
+        ClientId client2 = createTestClientId(client(2));
+        ClientId clientX = createTestClientId(CLIENT_CODE + "X");
+        ServiceId service1 = createTestServiceId(client1.getMemberCode(),
+                service(1, 1), SERVICE_VERSION);
+        ServiceId serviceX = createTestServiceId(client1.getMemberCode(),
+                SERVICE_CODE + "X", SERVICE_VERSION + "X");
+
+        assertTrue(serverConf.isQueryAllowed(client1, service1));
+        assertFalse(serverConf.isQueryAllowed(clientX, service1));
+        assertFalse(serverConf.isQueryAllowed(clientX, serviceX));
+        assertFalse(serverConf.isQueryAllowed(client1, serviceX));
+        assertFalse(serverConf.isQueryAllowed(null, service1));
+
+        assertEquals(Arrays.asList(service1),
+                serverConf.getAllowedServices(client1, client1));
+        assertTrue(serverConf.getAllowedServices(client1, client2).isEmpty());
+    }
+
+    /**
+     * Tests getting WSDL disabled notice.
+     */
+    @Test
+    public void getDisabledNotice() {
+        assertNotNull(serverConf.getDisabledNotice(createTestServiceId(
+                client(1), service(NUM_WSDLS - 1, NUM_SERVICES - 1),
+                SERVICE_VERSION)));
+        assertNull(serverConf.getDisabledNotice(
+                createTestServiceId("foo", "bar")));
+    }
+
+    /**
+     * Tests getting required categories.
+     */
+    @Test
+    public void getRequiredCategories() {
+        Collection<SecurityCategoryId> categories =
+                serverConf.getRequiredCategories(createTestServiceId(client(1),
+                        service(1, 1), SERVICE_VERSION));
+
+        assertEquals(1, categories.size());
+        assertEquals(SecurityCategoryId.create(XROAD_INSTANCE,
+                SECURITY_CATEGORY + 1), categories.iterator().next());
+    }
+
+    /**
+     * Tests getting IS authentication and certificates.
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void getIsAuthentication() throws Exception {
+        assertEquals(IsAuthentication.SSLAUTH, serverConf.getIsAuthentication(
+                createTestClientId(client(1))));
+        assertEquals(IsAuthentication.SSLNOAUTH,
+                serverConf.getIsAuthentication(createTestClientId(client(2))));
+        assertNull(serverConf.getIsAuthentication(
+                createTestClientId(CLIENT_CODE + "X")));
+
+        assertEquals(Arrays.asList(readCertificate(BASE64_CERT)),
+                serverConf.getIsCerts(createTestClientId(client(1))));
+        assertEquals(1, serverConf.getAllIsCerts().size());
+    }
+
+    /**
+     * Tests getting members and TSPs.
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void getMembersAndTsps() throws Exception {
+        assertEquals(NUM_CLIENTS, serverConf.getMembers().size());
+        assertEquals(NUM_CLIENTS,
+                new HashSet<>(serverConf.getMembers()).size());
+        assertEquals(NUM_TSPS, serverConf.getTspUrl().size());
+    }
+
+    /**
+     * Tests getting SSL authentication of an unknown service.
+     */
+    @Test
+    public void isSslAuthenticationUnknownService() {
+        assertFalse(serverConf.isSslAuthentication(createTestServiceId(
+                client(1), service(1, 1), SERVICE_VERSION)));
+
+        thrown.expectError(X_UNKNOWN_SERVICE);
+        serverConf.isSslAuthentication(createTestServiceId(client(1),
+                service(1, NUM_SERVICES), SERVICE_VERSION));
+    }
+
+    /**
+     * Tests that changes become visible only after the snapshot is reloaded.
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void refreshSnapshot() throws Exception {
+        ServiceId serviceId = createTestServiceId(client(2), service(0, 0),
+                SERVICE_VERSION);
+        String changedUrl = "changedUrl";
+
+        assertEquals(SERVICE_URL + 0, serverConf.getServiceAddress(serviceId));
+
+        setServiceUrl(serviceId, changedUrl);
+        assertEquals(SERVICE_URL + 0, serverConf.getServiceAddress(serviceId));
+
+        serverConf.refresh();
+        assertEquals(changedUrl, serverConf.getServiceAddress(serviceId));
+
+        setServiceUrl(serviceId, SERVICE_URL + 0);
+        serverConf.refresh();
+    }
+
+    private static void setServiceUrl(ServiceId serviceId, String url)
+            throws Exception {
+        ServerConfDatabaseCtx.doInTransaction(session -> {
+            ServiceType service =
+                    new ServiceDAOImpl().getService(session, serviceId);
+            service.setUrl(url);
+            return null;
+        });
+    }
+}
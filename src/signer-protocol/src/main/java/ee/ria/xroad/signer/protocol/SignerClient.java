@@ -28,11 +28,14 @@ import ee.ria.xroad.common.SystemProperties;
 import akka.actor.ActorRef;
 import akka.actor.ActorSelection;
 import akka.actor.ActorSystem;
+import akka.dispatch.OnComplete;
+import akka.pattern.AskTimeoutException;
 import akka.pattern.Patterns;
 import akka.util.Timeout;
 import lombok.extern.slf4j.Slf4j;
 import scala.concurrent.Await;
 
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
@@ -102,6 +105,38 @@ public final class SignerClient {
         }
     }
 
+    /**
+     * Sends a message and returns a future of the response. If the response
+     * is an exception, the future is completed with it.
+     * @param <T> the type of result
+     * @param message the message
+     * @return the future of the response
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> CompletableFuture<T> executeAsync(Object message) {
+        verifyInitialized();
+
+        final Timeout timeout = Timeout.apply(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        CompletableFuture<T> result = new CompletableFuture<>();
+
+        Patterns.ask(requestProcessor, message, timeout).onComplete(new OnComplete<Object>() {
+            @Override
+            public void onComplete(Throwable failure, Object response) {
+                if (failure instanceof AskTimeoutException) {
+                    result.completeExceptionally(connectionTimeoutException((Exception) failure));
+                } else if (failure != null) {
+                    result.completeExceptionally(failure);
+                } else if (response instanceof Throwable) {
+                    result.completeExceptionally((Throwable) response);
+                } else {
+                    result.complete((T) response);
+                }
+            }
+        }, actorSystem.dispatcher());
+
+        return result;
+    }
+
     /**
      * Returns the object as the instance or throws exception, if the object
      * is throwable.
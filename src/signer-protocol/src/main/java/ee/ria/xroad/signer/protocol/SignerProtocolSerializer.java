@@ -0,0 +1,327 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.signer.protocol;
+
+import ee.ria.xroad.common.identifier.ClientId;
+import ee.ria.xroad.signer.protocol.dto.CertificateInfo;
+import ee.ria.xroad.signer.protocol.dto.MemberSigningInfo;
+import ee.ria.xroad.signer.protocol.message.ConnectionPing;
+import ee.ria.xroad.signer.protocol.message.ConnectionPong;
+import ee.ria.xroad.signer.protocol.message.GetKeyIdForCertHash;
+import ee.ria.xroad.signer.protocol.message.GetKeyIdForCertHashResponse;
+import ee.ria.xroad.signer.protocol.message.GetMemberSigningInfo;
+import ee.ria.xroad.signer.protocol.message.GetOcspResponses;
+import ee.ria.xroad.signer.protocol.message.GetOcspResponsesResponse;
+import ee.ria.xroad.signer.protocol.message.GetSignMechanism;
+import ee.ria.xroad.signer.protocol.message.GetSignMechanismResponse;
+import ee.ria.xroad.signer.protocol.message.SetOcspResponses;
+import ee.ria.xroad.signer.protocol.message.Sign;
+import ee.ria.xroad.signer.protocol.message.SignResponse;
+import ee.ria.xroad.signer.protocol.message.SuccessResponse;
+
+import akka.serialization.SerializerWithStringManifest;
+import lombok.RequiredArgsConstructor;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compact binary serializer for the signer protocol messages that are exchanged on the signing hot path
+ * (signing, member signing info and OCSP responses). The messages are written field by field with a stable,
+ * versioned layout and identified by short manifests instead of class descriptors. Messages not handled here
+ * fall back to the default Java serialization.
+ *
+ * The serializer and its bindings are configured in the reference.conf of this module.
+ */
+public class SignerProtocolSerializer extends SerializerWithStringManifest {
+
+    /** Serializer identifier, must be unique among the serializers of the actor system. */
+    public static final int IDENTIFIER = 1780;
+
+    private static final byte FORMAT_VERSION = 1;
+
+    private static final int NULL_LENGTH = -1;
+
+    private static final int INITIAL_BUFFER_SIZE = 256;
+
+    private static final Map<Class<?>, String> MANIFESTS = new HashMap<>();
+    private static final Map<String, Codec<?>> CODECS = new HashMap<>();
+
+    static {
+        register(Sign.class, "Sign",
+                (m, out) -> {
+                    writeString(out, m.getKeyId());
+                    writeString(out, m.getSignatureAlgorithmId());
+                    writeBytes(out, m.getDigest());
+                },
+                in -> new Sign(readString(in), readString(in), readBytes(in)));
+
+        register(SignResponse.class, "SignResponse",
+                (m, out) -> writeBytes(out, m.getSignature()),
+                in -> new SignResponse(readBytes(in)));
+
+        register(GetMemberSigningInfo.class, "GetMemberSigningInfo",
+                (m, out) -> writeClientId(out, m.getMemberId()),
+                in -> new GetMemberSigningInfo(readClientId(in)));
+
+        register(MemberSigningInfo.class, "MemberSigningInfo",
+                (m, out) -> {
+                    writeString(out, m.getKeyId());
+                    writeCertificateInfo(out, m.getCert());
+                    writeString(out, m.getSignMechanismName());
+                },
+                in -> new MemberSigningInfo(readString(in), readCertificateInfo(in), readString(in)));
+
+        register(CertificateInfo.class, "CertificateInfo",
+                (m, out) -> writeCertificateInfo(out, m),
+                SignerProtocolSerializer::readCertificateInfo);
+
+        register(GetSignMechanism.class, "GetSignMechanism",
+                (m, out) -> writeString(out, m.getKeyId()),
+                in -> new GetSignMechanism(readString(in)));
+
+        register(GetSignMechanismResponse.class, "GetSignMechanismResponse",
+                (m, out) -> writeString(out, m.getSignMechanismName()),
+                in -> new GetSignMechanismResponse(readString(in)));
+
+        register(GetKeyIdForCertHash.class, "GetKeyIdForCertHash",
+                (m, out) -> writeString(out, m.getCertHash()),
+                in -> new GetKeyIdForCertHash(readString(in)));
+
+        register(GetKeyIdForCertHashResponse.class, "GetKeyIdForCertHashResponse",
+                (m, out) -> {
+                    writeString(out, m.getKeyId());
+                    writeString(out, m.getSignMechanismName());
+                },
+                in -> new GetKeyIdForCertHashResponse(readString(in), readString(in)));
+
+        register(GetOcspResponses.class, "GetOcspResponses",
+                (m, out) -> writeStrings(out, m.getCertHash()),
+                in -> new GetOcspResponses(readStrings(in)));
+
+        register(GetOcspResponsesResponse.class, "GetOcspResponsesResponse",
+                (m, out) -> writeStrings(out, m.getBase64EncodedResponses()),
+                in -> new GetOcspResponsesResponse(readStrings(in)));
+
+        register(SetOcspResponses.class, "SetOcspResponses",
+                (m, out) -> {
+                    writeStrings(out, m.getCertHashes());
+                    writeStrings(out, m.getBase64EncodedResponses());
+                },
+                in -> new SetOcspResponses(readStrings(in), readStrings(in)));
+
+        register(SuccessResponse.class, "SuccessResponse", (m, out) -> { }, in -> new SuccessResponse());
+        register(ConnectionPing.class, "ConnectionPing", (m, out) -> { }, in -> new ConnectionPing());
+        register(ConnectionPong.class, "ConnectionPong", (m, out) -> { }, in -> new ConnectionPong());
+    }
+
+    @Override
+    public int identifier() {
+        return IDENTIFIER;
+    }
+
+    @Override
+    public String manifest(Object o) {
+        String manifest = MANIFESTS.get(o.getClass());
+
+        if (manifest == null) {
+            throw new IllegalArgumentException("Cannot serialize object of type " + o.getClass().getName());
+        }
+
+        return manifest;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public byte[] toBinary(Object o) {
+        Codec<Object> codec = (Codec<Object>) CODECS.get(manifest(o));
+
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(INITIAL_BUFFER_SIZE);
+            DataOutputStream out = new DataOutputStream(bytes);
+
+            out.writeByte(FORMAT_VERSION);
+            codec.writer.write(o, out);
+            out.flush();
+
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public Object fromBinary(byte[] bytes, String manifest) {
+        Codec<?> codec = CODECS.get(manifest);
+
+        if (codec == null) {
+            throw new IllegalArgumentException("Unknown signer protocol message manifest: " + manifest);
+        }
+
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+
+            byte version = in.readByte();
+
+            if (version != FORMAT_VERSION) {
+                throw new IllegalArgumentException("Unsupported signer protocol message format version: " + version);
+            }
+
+            return codec.reader.read(in);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static <T> void register(Class<T> type, String manifest, Writer<T> writer, Reader<T> reader) {
+        MANIFESTS.put(type, manifest);
+        CODECS.put(manifest, new Codec<>(writer, reader));
+    }
+
+    private static void writeCertificateInfo(DataOutputStream out, CertificateInfo cert) throws IOException {
+        out.writeBoolean(cert != null);
+
+        if (cert != null) {
+            writeClientId(out, cert.getMemberId());
+            out.writeBoolean(cert.isActive());
+            out.writeBoolean(cert.isSavedToConfiguration());
+            writeString(out, cert.getStatus());
+            writeString(out, cert.getId());
+            writeBytes(out, cert.getCertificateBytes());
+            writeBytes(out, cert.getOcspBytes());
+        }
+    }
+
+    private static CertificateInfo readCertificateInfo(DataInputStream in) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+
+        return new CertificateInfo(readClientId(in), in.readBoolean(), in.readBoolean(), readString(in),
+                readString(in), readBytes(in), readBytes(in));
+    }
+
+    private static void writeClientId(DataOutputStream out, ClientId clientId) throws IOException {
+        out.writeBoolean(clientId != null);
+
+        if (clientId != null) {
+            writeString(out, clientId.getXRoadInstance());
+            writeString(out, clientId.getMemberClass());
+            writeString(out, clientId.getMemberCode());
+            writeString(out, clientId.getSubsystemCode());
+        }
+    }
+
+    private static ClientId readClientId(DataInputStream in) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+
+        return ClientId.create(readString(in), readString(in), readString(in), readString(in));
+    }
+
+    private static void writeStrings(DataOutputStream out, String[] values) throws IOException {
+        if (values == null) {
+            out.writeInt(NULL_LENGTH);
+
+            return;
+        }
+
+        out.writeInt(values.length);
+
+        for (String value : values) {
+            writeString(out, value);
+        }
+    }
+
+    private static String[] readStrings(DataInputStream in) throws IOException {
+        int length = in.readInt();
+
+        if (length == NULL_LENGTH) {
+            return null;
+        }
+
+        String[] values = new String[length];
+
+        for (int i = 0; i < length; i++) {
+            values[i] = readString(in);
+        }
+
+        return values;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        writeBytes(out, value != null ? value.getBytes(StandardCharsets.UTF_8) : null);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = readBytes(in);
+
+        return bytes != null ? new String(bytes, StandardCharsets.UTF_8) : null;
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] value) throws IOException {
+        if (value == null) {
+            out.writeInt(NULL_LENGTH);
+        } else {
+            out.writeInt(value.length);
+            out.write(value);
+        }
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+
+        if (length == NULL_LENGTH) {
+            return null;
+        }
+
+        byte[] value = new byte[length];
+        in.readFully(value);
+
+        return value;
+    }
+
+    @FunctionalInterface
+    private interface Writer<T> {
+        void write(T message, DataOutputStream out) throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface Reader<T> {
+        T read(DataInputStream in) throws IOException;
+    }
+
+    @RequiredArgsConstructor
+    private static final class Codec<T> {
+        private final Writer<T> writer;
+        private final Reader<T> reader;
+    }
+}
@@ -0,0 +1,219 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.signer.protocol;
+
+import ee.ria.xroad.common.identifier.ClientId;
+import ee.ria.xroad.signer.protocol.dto.CertificateInfo;
+import ee.ria.xroad.signer.protocol.dto.MemberSigningInfo;
+import ee.ria.xroad.signer.protocol.message.GetMemberSigningInfo;
+import ee.ria.xroad.signer.protocol.message.GetOcspResponses;
+import ee.ria.xroad.signer.protocol.message.GetOcspResponsesResponse;
+import ee.ria.xroad.signer.protocol.message.Sign;
+import ee.ria.xroad.signer.protocol.message.SignResponse;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.ExtendedActorSystem;
+import akka.actor.Props;
+import akka.actor.UntypedActor;
+import akka.pattern.Patterns;
+import akka.util.Timeout;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import lombok.extern.slf4j.Slf4j;
+import scala.concurrent.Await;
+import scala.concurrent.duration.Duration;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import static ee.ria.xroad.common.util.CryptoUtils.encodeBase64;
+
+/**
+ * Compares the binary signer protocol serialization with Java serialization: the serialized size of the
+ * messages on the signing hot path, and the round-trip latency of a sign request between two remote actor
+ * systems on the loopback interface.
+ *
+ * Usage: gradle runSignerProtocolBenchmark -Pargs="[threads] [seconds]"
+ */
+@Slf4j
+public final class SignerProtocolBenchmark {
+
+    private static final int DEFAULT_THREADS = 8;
+    private static final int DEFAULT_SECONDS = 10;
+    private static final int WARMUP_SECONDS = 3;
+
+    private static final FiniteDuration TIMEOUT = Duration.create(10, TimeUnit.SECONDS);
+
+    private static final List<String> BOUND_MESSAGES = Arrays.asList(Sign.class.getName(),
+            SignResponse.class.getName());
+
+    private SignerProtocolBenchmark() {
+    }
+
+    /**
+     * Main function.
+     * @param args optional number of client threads and measurement time
+     * @throws Exception if an error occurs
+     */
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_THREADS;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_SECONDS;
+
+        Random random = new Random(1);
+        ClientId member = ClientId.create("EE", "BUSINESS", "producer", "subsystem");
+        CertificateInfo cert = new CertificateInfo(member, true, true, CertificateInfo.STATUS_REGISTERED,
+                "0154d0eada503b2df90202c8e8382de9f5988c01", randomBytes(random, 1500), randomBytes(random, 2000));
+
+        compareSize(new Sign("636f6e73756d6573", "SHA512withRSA", randomBytes(random, 64)));
+        compareSize(new SignResponse(randomBytes(random, 256)));
+        compareSize(new GetMemberSigningInfo(member));
+        compareSize(new MemberSigningInfo("636f6e73756d6573", cert, "CKM_RSA_PKCS"));
+        compareSize(new GetOcspResponses(new String[] {"0154d0eada503b2df90202c8e8382de9f5988c01"}));
+        compareSize(new GetOcspResponsesResponse(new String[] {encodeBase64(randomBytes(random, 2000))}));
+
+        Sign sign = new Sign("636f6e73756d6573", "SHA512withRSA", randomBytes(random, 64));
+        SignResponse signResponse = new SignResponse(randomBytes(random, 256));
+
+        measureSignRoundTrip("java", bindings("java"), sign, signResponse, threads, seconds);
+        measureSignRoundTrip("binary", bindings("signer-protocol"), sign, signResponse, threads, seconds);
+    }
+
+    private static void compareSize(Object message) throws IOException {
+        // same encoding as used by the Akka Java serializer
+        ByteArrayOutputStream javaBytes = new ByteArrayOutputStream();
+
+        try (ObjectOutputStream out = new ObjectOutputStream(javaBytes)) {
+            out.writeObject(message);
+        }
+
+        int javaSize = javaBytes.size();
+        int binarySize = new SignerProtocolSerializer().toBinary(message).length;
+
+        log.info("{}: java {} bytes, binary {} bytes", message.getClass().getSimpleName(), javaSize, binarySize);
+    }
+
+    private static Config bindings(String serializer) {
+        StringBuilder config = new StringBuilder("akka.actor.provider = \"akka.remote.RemoteActorRefProvider\"\n"
+                + "akka.remote.netty.tcp.hostname = \"127.0.0.1\"\n"
+                + "akka.remote.netty.tcp.port = 0\n");
+
+        for (String message : BOUND_MESSAGES) {
+            config.append("akka.actor.serialization-bindings.\"").append(message).append("\" = ")
+                    .append(serializer).append('\n');
+        }
+
+        return ConfigFactory.parseString(config.toString()).withFallback(ConfigFactory.load());
+    }
+
+    private static void measureSignRoundTrip(String name, Config config, Sign sign, SignResponse signResponse,
+            int threads, int seconds) throws Exception {
+        ActorSystem signerSystem = ActorSystem.create("SignerBenchmark", config);
+        ActorSystem clientSystem = ActorSystem.create("ClientBenchmark", config);
+
+        try {
+            signerSystem.actorOf(Props.create(SignActor.class, signResponse), "signer");
+
+            String signerPath = ((ExtendedActorSystem) signerSystem).provider().getDefaultAddress() + "/user/signer";
+            ActorRef signer = Await.result(clientSystem.actorSelection(signerPath).resolveOne(TIMEOUT), TIMEOUT);
+
+            measure(signer, sign, threads, WARMUP_SECONDS);
+
+            long ops = measure(signer, sign, threads, seconds);
+
+            log.info("{}: {} threads, {} sign round trips/s, {} us per round trip", name, threads, ops / seconds,
+                    TimeUnit.SECONDS.toMicros(seconds) * threads / Math.max(ops, 1));
+        } finally {
+            Await.ready(clientSystem.terminate(), Duration.Inf());
+            Await.ready(signerSystem.terminate(), Duration.Inf());
+        }
+    }
+
+    private static long measure(ActorRef signer, Sign sign, int threads, int seconds) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        AtomicBoolean running = new AtomicBoolean(true);
+        CountDownLatch started = new CountDownLatch(threads);
+        LongAdder ops = new LongAdder();
+        Timeout timeout = new Timeout(TIMEOUT);
+
+        for (int t = 0; t < threads; t++) {
+            executor.execute(() -> {
+                started.countDown();
+
+                while (running.get()) {
+                    try {
+                        Await.result(Patterns.ask(signer, sign, timeout), TIMEOUT);
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+
+                    ops.increment();
+                }
+            });
+        }
+
+        started.await();
+        TimeUnit.SECONDS.sleep(seconds);
+        running.set(false);
+
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+
+        return ops.sum();
+    }
+
+    private static byte[] randomBytes(Random random, int length) {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+
+        return bytes;
+    }
+
+    /**
+     * Replies to every sign request with the same signature.
+     */
+    static class SignActor extends UntypedActor {
+
+        private final SignResponse response;
+
+        SignActor(SignResponse response) {
+            this.response = response;
+        }
+
+        @Override
+        public void onReceive(Object message) {
+            getSender().tell(response, getSelf());
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.signer.protocol;
+
+import ee.ria.xroad.common.identifier.ClientId;
+import ee.ria.xroad.signer.protocol.dto.CertificateInfo;
+import ee.ria.xroad.signer.protocol.dto.MemberSigningInfo;
+import ee.ria.xroad.signer.protocol.message.ConnectionPing;
+import ee.ria.xroad.signer.protocol.message.GetKeyIdForCertHashResponse;
+import ee.ria.xroad.signer.protocol.message.GetMemberSigningInfo;
+import ee.ria.xroad.signer.protocol.message.GetOcspResponses;
+import ee.ria.xroad.signer.protocol.message.GetOcspResponsesResponse;
+import ee.ria.xroad.signer.protocol.message.GetSignMechanismResponse;
+import ee.ria.xroad.signer.protocol.message.ListTokens;
+import ee.ria.xroad.signer.protocol.message.SetOcspResponses;
+import ee.ria.xroad.signer.protocol.message.Sign;
+import ee.ria.xroad.signer.protocol.message.SignResponse;
+
+import akka.actor.ActorSystem;
+import akka.serialization.SerializationExtension;
+import org.junit.Test;
+import scala.concurrent.Await;
+import scala.concurrent.duration.Duration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the binary serialization of signer protocol messages.
+ */
+public class SignerProtocolSerializerTest {
+
+    private final SignerProtocolSerializer serializer = new SignerProtocolSerializer();
+
+    @Test
+    public void roundTrip() throws Exception {
+        ClientId member = ClientId.create("EE", "BUSINESS", "producer");
+        ClientId subsystem = ClientId.create("EE", "BUSINESS", "producer", "sub");
+        CertificateInfo cert = new CertificateInfo(member, true, false, CertificateInfo.STATUS_REGISTERED, "certId",
+                new byte[] {1, 2, 3}, null);
+
+        assertRoundTrip(new Sign("keyId", "SHA256withRSA", new byte[] {4, 5, 6}));
+        assertRoundTrip(new SignResponse(new byte[] {7, 8, 9}));
+        assertRoundTrip(new GetMemberSigningInfo(subsystem));
+        assertRoundTrip(new MemberSigningInfo("keyId", cert, "CKM_RSA_PKCS"));
+        assertRoundTrip(new MemberSigningInfo("keyId", null, null));
+        assertRoundTrip(cert);
+        assertRoundTrip(new CertificateInfo(null, false, true, null, "certId", new byte[0], new byte[] {1}));
+        assertRoundTrip(new GetSignMechanismResponse("CKM_RSA_PKCS"));
+        assertRoundTrip(new GetKeyIdForCertHashResponse("keyId", "CKM_RSA_PKCS"));
+        assertRoundTrip(new GetOcspResponses(new String[] {"hash1", "hash2"}));
+        assertRoundTrip(new GetOcspResponsesResponse(new String[] {"response", null}));
+        assertRoundTrip(new SetOcspResponses(new String[] {"hash"}, new String[] {"responseä"}));
+
+        Object ping = serializer.fromBinary(serializer.toBinary(new ConnectionPing()),
+                serializer.manifest(new ConnectionPing()));
+        assertTrue(ping instanceof ConnectionPing);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unsupportedMessage() {
+        serializer.toBinary(new ListTokens());
+    }
+
+    @Test
+    public void bindingsAreConfigured() throws Exception {
+        ActorSystem system = ActorSystem.create("SignerProtocolSerializerTest");
+
+        try {
+            assertEquals(SignerProtocolSerializer.IDENTIFIER, SerializationExtension.get(system)
+                    .findSerializerFor(new Sign("keyId", "SHA256withRSA", new byte[0])).identifier());
+        } finally {
+            Await.ready(system.terminate(), Duration.Inf());
+        }
+    }
+
+    private void assertRoundTrip(Object message) throws Exception {
+        byte[] bytes = serializer.toBinary(message);
+
+        assertEquals(message, serializer.fromBinary(bytes, serializer.manifest(message)));
+    }
+}
@@ -28,63 +28,74 @@ import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.io.IOUtils;
 import org.bouncycastle.cert.ocsp.OCSPResp;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.Date;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import static ee.ria.xroad.common.ErrorCodes.translateException;
 import static ee.ria.xroad.common.SystemProperties.getOcspCachePath;
 
 /**
- * OCSP cache that holds the OCSP responses on disk.
+ * OCSP cache that also holds the OCSP responses on disk.
+ *
+ * The responses are stored in a single append-only index file in the OCSP
+ * cache directory. Every new response is appended to the file and the file
+ * is read only when the cache is reloaded from disk, so lookups are always
+ * served from memory. The file is compacted on reload and whenever it holds
+ * more than twice as many records as there are responses in the cache.
+ * Responses stored by earlier versions in one file per certificate are
+ * moved into the index file on reload.
  */
 @Slf4j
 public class FileBasedOcspCache extends OcspCache {
 
-    /** The OCSP response file extension. */
+    /** The name of the index file. */
+    static final String INDEX_FILE = "ocsp-responses.idx";
+
+    /** The file extension of the responses stored one per file. */
     private static final String OCSP_FILE_EXTENSION = ".ocsp";
 
+    private static final int MIN_RECORDS_TO_COMPACT = 100;
+
+    private static final int MAX_RESPONSE_SIZE = 1024 * 1024;
+
+    private final Path directory;
+
+    // Number of records in the index file
+    private int records;
+
     /**
-     * Returns the OCSP response for the given certificate or null, if the
-     * response is not available.
-     * @param certHash for which to get the response
-     * @return the OCSP response object or null, if no response is available
+     * Creates the cache in the OCSP cache directory.
      */
-    @Override
-    protected OCSPResp getResponse(Object key, Date atDate) {
-        OCSPResp response = null;
-        if (cache.containsKey(key)) { // is the OCSP response in memory?
-            response = super.getResponse(key, atDate);
-            if (response != null) {
-                return response;
-            }
-        }
-
-        File file = getOcspResponseFile(getOcspCachePath(), key);
-        try {
-            response = loadResponseFromFileIfNotExpired(file, atDate);
-        } catch (Exception e) {
-            // Failed to load OCSP response from file
-            throw translateException(e);
-        }
+    public FileBasedOcspCache() {
+        this(Paths.get(getOcspCachePath()));
+    }
 
-        return response;
+    FileBasedOcspCache(Path directory) {
+        this.directory = directory;
     }
 
     @Override
     public OCSPResp put(String key, OCSPResp value) {
         OCSPResp response = super.put(key, value);
         try {
-            File file = getOcspResponseFile(getOcspCachePath(), key);
-            saveResponseToFile(file, value);
+            appendToIndex(key, value);
         } catch (IOException e) {
             // Failed to save OCSP response to file
             throw translateException(e);
@@ -93,51 +104,142 @@ public class FileBasedOcspCache extends OcspCache {
         return response;
     }
 
-    void reloadFromDisk() throws Exception {
-        Path path = Paths.get(getOcspCachePath());
+    synchronized void reloadFromDisk() throws Exception {
+        Map<String, OCSPResp> responses = new LinkedHashMap<>();
 
-        try (DirectoryStream<Path> stream =
-                Files.newDirectoryStream(path, this::isOcspFile)) {
-            for (Path entry : stream) {
-                loadResponseFromFileIfNotExpired(entry.toFile(), new Date());
+        List<Path> legacyFiles = loadLegacyFiles(responses);
+        loadIndex(responses);
+
+        responses.forEach((key, response) -> {
+            super.put(key, response);
+
+            // Drops the response from memory if it has expired
+            if (super.get(key) == null) {
+                log.trace("Cached OCSP response for certificate '{}' "
+                        + "has expired", key);
             }
+        });
+
+        writeIndex();
+
+        legacyFiles.forEach(FileBasedOcspCache::delete);
+    }
+
+    private synchronized void appendToIndex(String key, OCSPResp response)
+            throws IOException {
+        if (records > MIN_RECORDS_TO_COMPACT && records > 2 * cache.size()) {
+            writeIndex();
+        }
+
+        Files.createDirectories(directory);
+
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(
+                        getIndexFile().toFile(), true)))) {
+            writeRecord(out, key, response);
         }
+
+        records++;
+
+        log.trace("Saved OCSP response for '{}' to '{}'", key,
+                getIndexFile());
     }
 
-    boolean isOcspFile(Path p) {
-        return Files.isRegularFile(p)
-                && p.toString().endsWith(OCSP_FILE_EXTENSION);
+    // Rewrites the index file with the responses that are in memory
+    private void writeIndex() throws IOException {
+        Files.createDirectories(directory);
+
+        Path tempFile = directory.resolve(INDEX_FILE + ".tmp");
+        int written = 0;
+
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(
+                        new FileOutputStream(tempFile.toFile())))) {
+            for (Map.Entry<String, OCSPResp> e : entrySet()) {
+                writeRecord(out, e.getKey(), e.getValue());
+                written++;
+            }
+        }
+
+        Files.move(tempFile, getIndexFile(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+
+        records = written;
+
+        log.trace("Wrote {} OCSP responses to '{}'", written, getIndexFile());
     }
 
-    void saveResponseToFile(File file, OCSPResp ocspResponse)
-            throws IOException {
-        createIntermediateDirectories(file);
+    private void loadIndex(Map<String, OCSPResp> responses) {
+        Path indexFile = getIndexFile();
 
-        try (OutputStream os = new FileOutputStream(file)) {
-            os.write(ocspResponse.getEncoded());
+        if (!Files.exists(indexFile)) {
+            return;
         }
 
-        log.trace("Saved OCSP response to file '{}'", file);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(indexFile.toFile())))) {
+            while (true) {
+                String key;
+                try {
+                    key = in.readUTF();
+                } catch (EOFException e) {
+                    break;
+                }
+
+                int length = in.readInt();
+                if (length < 0 || length > MAX_RESPONSE_SIZE) {
+                    throw new IOException("Invalid OCSP response length "
+                            + length);
+                }
+
+                byte[] encoded = new byte[length];
+                in.readFully(encoded);
+
+                // Later records replace the earlier ones
+                responses.put(key, new OCSPResp(encoded));
+            }
+        } catch (EOFException e) {
+            log.warn("OCSP response index '{}' is truncated, ignoring "
+                    + "the last record", indexFile);
+        } catch (Exception e) {
+            log.error("Failed to read OCSP responses from '{}'",
+                    indexFile, e);
+        }
     }
 
-    OCSPResp loadResponseFromFileIfNotExpired(File file, Date atDate)
-            throws Exception {
-        OCSPResp response = loadResponseFromFile(file);
-        if (response != null) {
-            String key = getFileNameWithoutExtension(file);
-            if (!isExpired(response, atDate)) {
-                log.trace("Loaded OCSP response for cert hash {}", key);
+    private List<Path> loadLegacyFiles(Map<String, OCSPResp> responses)
+            throws IOException {
+        List<Path> files = new ArrayList<>();
 
-                super.put(key, response); // store in memory
-            } else {
-                log.trace("Cached OCSP response for certificate '{}' "
-                        + "has expired, deleting the file '{}'", key, file);
-                delete(file);
-                return null;
+        if (!Files.isDirectory(directory)) {
+            return files;
+        }
+
+        try (DirectoryStream<Path> stream =
+                Files.newDirectoryStream(directory, this::isOcspFile)) {
+            for (Path entry : stream) {
+                try {
+                    OCSPResp response = loadResponseFromFile(entry.toFile());
+                    if (response != null) {
+                        responses.put(getFileNameWithoutExtension(
+                                entry.toFile()), response);
+                    }
+                } catch (Exception e) {
+                    log.error("Failed to load OCSP response from '{}'",
+                            entry, e);
+                }
+
+                files.add(entry);
             }
         }
 
-        return response;
+        return files;
+    }
+
+    boolean isOcspFile(Path p) {
+        return Files.isRegularFile(p)
+                && p.toString().endsWith(OCSP_FILE_EXTENSION);
     }
 
     OCSPResp loadResponseFromFile(File file) throws IOException {
@@ -148,7 +250,7 @@ public class FileBasedOcspCache extends OcspCache {
         if (file.length() == 0L) {
             log.error("Cannot load OCSP response from file '{}': "
                     + "file is empty", file);
-            delete(file);
+            delete(file.toPath());
             return null;
         }
 
@@ -158,21 +260,22 @@ public class FileBasedOcspCache extends OcspCache {
         }
     }
 
-    private static void createIntermediateDirectories(File file)
-            throws IOException {
-        File path = file.getParentFile();
-        if (!path.exists() && !path.mkdirs()) {
-            throw new IOException("Could not create path " + path);
-        }
+    Path getIndexFile() {
+        return directory.resolve(INDEX_FILE);
     }
 
-    private static File getOcspResponseFile(String path, Object certHash) {
-        return new File(path, certHash + OCSP_FILE_EXTENSION);
+    private static void writeRecord(DataOutputStream out, String key,
+            OCSPResp response) throws IOException {
+        byte[] encoded = response.getEncoded();
+
+        out.writeUTF(key);
+        out.writeInt(encoded.length);
+        out.write(encoded);
     }
 
-    private static void delete(File file) {
+    private static void delete(Path file) {
         try {
-            Files.delete(file.toPath());
+            Files.deleteIfExists(file);
         } catch (Exception e) {
             log.warn("Failed to delete {}: {}", file, e);
         }
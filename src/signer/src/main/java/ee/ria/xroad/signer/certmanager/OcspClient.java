@@ -52,6 +52,7 @@ import java.util.List;
 
 /**
  * OCSP client downloads OCSP responses for specified certificates using responders defined in the Global Configuration.
+ * Connections are kept alive between requests to the same responder.
  */
 @Slf4j
 final class OcspClient {
@@ -135,7 +136,12 @@ final class OcspClient {
     }
 
     private static byte[] getResponseData(HttpURLConnection connection) throws IOException {
-        byte[] responseData = IOUtils.toByteArray((InputStream) connection.getContent());
+        byte[] responseData;
+
+        // the stream is read to the end and closed so that the connection is returned to the keep-alive cache
+        try (InputStream in = connection.getInputStream()) {
+            responseData = IOUtils.toByteArray(in);
+        }
 
         if (responseData == null || responseData.length == 0) {
             throw new IOException("No response from responder");
@@ -146,10 +152,22 @@ final class OcspClient {
 
     private static void verifyResponseCode(HttpURLConnection connection) throws IOException {
         if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+            discardErrorStream(connection);
+
             throw new IOException("Invalid http response code from responder: " + connection.getResponseCode());
         }
     }
 
+    private static void discardErrorStream(HttpURLConnection connection) {
+        try (InputStream in = connection.getErrorStream()) {
+            if (in != null) {
+                IOUtils.toByteArray(in);
+            }
+        } catch (IOException e) {
+            log.trace("Failed to read error response from {}", connection.getURL(), e);
+        }
+    }
+
     private static void sendRequest(HttpURLConnection connection, OCSPReq ocspRequest) throws IOException {
         try (DataOutputStream outStream = new DataOutputStream(
                 new BufferedOutputStream(connection.getOutputStream()))) {
@@ -26,6 +26,7 @@ import ee.ria.xroad.common.CertificationServiceDiagnostics;
 import ee.ria.xroad.common.CertificationServiceStatus;
 import ee.ria.xroad.common.DiagnosticsErrorCodes;
 import ee.ria.xroad.common.OcspResponderStatus;
+import ee.ria.xroad.common.SystemProperties;
 import ee.ria.xroad.common.cert.CertChain;
 import ee.ria.xroad.common.conf.globalconf.GlobalConf;
 import ee.ria.xroad.common.conf.globalconfextension.GlobalConfExtensions;
@@ -42,11 +43,15 @@ import ee.ria.xroad.signer.util.AbstractSignerActor;
 import ee.ria.xroad.signer.util.SignerUtil;
 
 import akka.actor.ActorRef;
+import lombok.AccessLevel;
+import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.bouncycastle.cert.ocsp.OCSPException;
 import org.bouncycastle.cert.ocsp.OCSPResp;
 
+import javax.security.auth.x500.X500Principal;
+
 import java.io.IOException;
 import java.net.ConnectException;
 import java.security.PrivateKey;
@@ -57,10 +62,18 @@ import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static ee.ria.xroad.common.util.CryptoUtils.calculateCertHexHash;
 import static ee.ria.xroad.common.util.CryptoUtils.encodeBase64;
@@ -74,7 +87,8 @@ import static java.util.Collections.emptyList;
  * This class is responsible for retrieving the OCSP responses from the OCSP
  * server and providing the responses to the message signer.
  *
- * The certificate status is queried from the server at a fixed interval.
+ * The certificate status is queried from the server at a fixed interval. Certificates are grouped by issuer and
+ * the groups are queried in parallel, so that a slow certification service does not delay the others.
  */
 @Slf4j
 @RequiredArgsConstructor
@@ -93,13 +107,36 @@ public class OcspClientWorker extends AbstractSignerActor {
 
     private GlobalConfChangeChecker changeChecker;
 
+    @Getter(AccessLevel.PACKAGE)
     private CertificationServiceDiagnostics diagnostics;
 
+    private ExecutorService fetchExecutor;
+
     @Override
     public void preStart() throws Exception {
         super.preStart();
         changeChecker = new GlobalConfChangeChecker();
         diagnostics = new CertificationServiceDiagnostics();
+        fetchExecutor = createFetchExecutor(SystemProperties.getOcspFetchThreads());
+    }
+
+    @Override
+    public void postStop() throws Exception {
+        fetchExecutor.shutdownNow();
+        super.postStop();
+    }
+
+    private static ExecutorService createFetchExecutor(int threads) {
+        AtomicInteger threadCounter = new AtomicInteger();
+        ThreadFactory threadFactory = r -> {
+            Thread fetchThread = new Thread(r);
+            fetchThread.setName("ocsp-fetch-" + threadCounter.incrementAndGet());
+            fetchThread.setDaemon(true);
+
+            return fetchThread;
+        };
+
+        return Executors.newFixedThreadPool(threads, threadFactory);
     }
 
     @Override
@@ -206,37 +243,80 @@ public class OcspClientWorker extends AbstractSignerActor {
 
         log.info("Fetching OCSP responses for {} certificates", certs.size());
 
-        Boolean failed = false;
+        Map<String, OCSPResp> statuses = queryCertStatuses(certs, new OcspVerifierOptions(
+                GlobalConfExtensions.getInstance().shouldVerifyOcspNextUpdate()));
+
+        if (statuses.size() < certs.size()) {
+            getSender().tell(FAILED, getSelf());
+        } else {
+            getSender().tell(SUCCESS, getSelf());
+        }
+
+        try {
+            updateCertStatuses(statuses);
+        } catch (Exception e) {
+            log.error("Error updating certificate statuses", e);
+        }
+    }
+
+    /**
+     * Queries the statuses of the given certificates. Certificates of the same issuer are queried one after another
+     * (reusing the keep-alive connection to the responder), different issuers are queried in parallel.
+     * @return map of certificate hashes to the OCSP responses that passed verification
+     */
+    Map<String, OCSPResp> queryCertStatuses(List<X509Certificate> certs, OcspVerifierOptions verifierOptions) {
+        List<Future<Map<String, OCSPResp>>> results = new ArrayList<>();
+
+        for (List<X509Certificate> issuerCerts : groupByIssuer(certs).values()) {
+            results.add(fetchExecutor.submit(() -> queryIssuerCertStatuses(issuerCerts, verifierOptions)));
+        }
+
+        Map<String, OCSPResp> statuses = new HashMap<>();
+
+        for (Future<Map<String, OCSPResp>> result : results) {
+            try {
+                statuses.putAll(result.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+
+                log.error("Interrupted while fetching OCSP responses");
+
+                break;
+            } catch (ExecutionException e) {
+                log.error("Error when querying certificate statuses", e.getCause());
+            }
+        }
+
+        return statuses;
+    }
+
+    private Map<String, OCSPResp> queryIssuerCertStatuses(List<X509Certificate> certs,
+            OcspVerifierOptions verifierOptions) {
         Map<String, OCSPResp> statuses = new HashMap<>();
 
         for (X509Certificate subject : certs) {
             try {
-                OCSPResp status = queryCertStatus(subject, new OcspVerifierOptions(
-                        GlobalConfExtensions.getInstance().shouldVerifyOcspNextUpdate()));
+                OCSPResp status = queryCertStatus(subject, verifierOptions);
+
                 if (status != null) {
-                    String subjectHash = calculateCertHexHash(subject);
-                    statuses.put(subjectHash, status);
-                } else {
-                    failed = true;
+                    statuses.put(calculateCertHexHash(subject), status);
                 }
             } catch (Exception e) {
-                failed = true;
-
                 log.error("Error when querying certificate '{}'", subject.getSerialNumber(), e);
             }
         }
 
-        if (failed) {
-            getSender().tell(FAILED, getSelf());
-        } else {
-            getSender().tell(SUCCESS, getSelf());
-        }
+        return statuses;
+    }
 
-        try {
-            updateCertStatuses(statuses);
-        } catch (Exception e) {
-            log.error("Error updating certificate statuses", e);
+    private static Map<X500Principal, List<X509Certificate>> groupByIssuer(List<X509Certificate> certs) {
+        Map<X500Principal, List<X509Certificate>> certsByIssuer = new LinkedHashMap<>();
+
+        for (X509Certificate cert : certs) {
+            certsByIssuer.computeIfAbsent(cert.getIssuerX500Principal(), issuer -> new ArrayList<>()).add(cert);
         }
+
+        return certsByIssuer;
     }
 
     List<X509Certificate> getCertsForOcsp() {
@@ -298,14 +378,15 @@ public class OcspClientWorker extends AbstractSignerActor {
         OCSPResp response = null;
 
         for (String responderURI : responderURIs) {
+            long start = System.nanoTime();
+
             try {
                 log.debug("Fetching response from: {}", responderURI);
 
                 response = OcspClient.fetchResponse(responderURI, subject, issuer, signerKey, signer, signAlgoId);
 
                 if (response != null) {
-                    reportOcspDiagnostics(issuer, responderURI, DiagnosticsErrorCodes.RETURN_SUCCESS, LocalTime.now(),
-                        LocalTime.now().plusSeconds(GlobalConfExtensions.getInstance().getOcspFetchInterval()));
+                    reportOcspDiagnostics(issuer, responderURI, DiagnosticsErrorCodes.RETURN_SUCCESS, start);
 
                     break;
                 }
@@ -313,20 +394,16 @@ public class OcspClientWorker extends AbstractSignerActor {
                 log.error("Parsing OCSP response from " + responderURI + " failed", e);
 
                 reportOcspDiagnostics(issuer, responderURI, DiagnosticsErrorCodes.ERROR_CODE_OCSP_RESPONSE_INVALID,
-                        LocalTime.now(),
-                        LocalTime.now().plusSeconds(GlobalConfExtensions.getInstance().getOcspFetchInterval()));
+                        start);
             } catch (IOException e) {
                 log.error("Unable to connect to responder at " + responderURI, e);
 
                 reportOcspDiagnostics(issuer, responderURI, DiagnosticsErrorCodes.ERROR_CODE_OCSP_CONNECTION_ERROR,
-                    LocalTime.now(),
-                    LocalTime.now().plusSeconds(GlobalConfExtensions.getInstance().getOcspFetchInterval()));
+                        start);
             } catch (Exception e) {
                 log.error("Unable to fetch response from responder at " + responderURI, e);
 
-                reportOcspDiagnostics(issuer, responderURI, DiagnosticsErrorCodes.ERROR_CODE_OCSP_FAILED,
-                    LocalTime.now(),
-                    LocalTime.now().plusSeconds(GlobalConfExtensions.getInstance().getOcspFetchInterval()));
+                reportOcspDiagnostics(issuer, responderURI, DiagnosticsErrorCodes.ERROR_CODE_OCSP_FAILED, start);
             }
         }
         try {
@@ -346,25 +423,21 @@ public class OcspClientWorker extends AbstractSignerActor {
         }
     }
 
-    private void reportOcspDiagnostics(X509Certificate issuer, String responderURI, int statusCode,
-            LocalTime prevUpdate, LocalTime nextUpdate) {
-
-        OcspResponderStatus responderStatus = new OcspResponderStatus(statusCode, responderURI, prevUpdate, nextUpdate);
-
-        String subjectName = issuer.getSubjectDN().toString();
+    private void reportOcspDiagnostics(X509Certificate issuer, String responderURI, int statusCode, long start) {
+        long responseTimeMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        boolean success = statusCode == DiagnosticsErrorCodes.RETURN_SUCCESS;
 
-        CertificationServiceStatus serviceStatus;
+        LocalTime prevUpdate = LocalTime.now();
+        LocalTime nextUpdate = prevUpdate.plusSeconds(GlobalConfExtensions.getInstance().getOcspFetchInterval());
 
-        Map<String, CertificationServiceStatus> serviceStatusMap = diagnostics.getCertificationServiceStatusMap();
-
-        if (!serviceStatusMap.containsKey(subjectName)) {
-            serviceStatus = new CertificationServiceStatus(subjectName);
-            serviceStatusMap.put(subjectName, serviceStatus);
-        } else {
-            serviceStatus = serviceStatusMap.get(subjectName);
-        }
+        // fetches for different issuers run in parallel, so the counters are updated atomically
+        CertificationServiceStatus serviceStatus = diagnostics.getCertificationServiceStatusMap()
+                .computeIfAbsent(issuer.getSubjectDN().toString(), CertificationServiceStatus::new);
 
-        serviceStatus.getOcspResponderStatusMap().put(responderURI, responderStatus);
+        serviceStatus.getOcspResponderStatusMap().compute(responderURI, (uri, previous) -> new OcspResponderStatus(
+                statusCode, uri, prevUpdate, nextUpdate, responseTimeMillis,
+                (previous != null ? previous.getSuccessCount() : 0) + (success ? 1 : 0),
+                (previous != null ? previous.getFailureCount() : 0) + (success ? 0 : 1)));
     }
 
     void updateCertStatuses(Map<String, OCSPResp> statuses) throws Exception {
@@ -475,8 +548,8 @@ public class OcspClientWorker extends AbstractSignerActor {
                             OcspResponderStatus responderStatus = new OcspResponderStatus(
                                     DiagnosticsErrorCodes.ERROR_CODE_OCSP_UNINITIALIZED, responderURI, null,
                                     LocalTime.now().plusSeconds(
-                                            GlobalConfExtensions.getInstance().getOcspFetchInterval()));
-                            serviceStatus.getOcspResponderStatusMap().put(responderURI, responderStatus);
+                                            GlobalConfExtensions.getInstance().getOcspFetchInterval()), 0, 0, 0);
+                            serviceStatus.getOcspResponderStatusMap().putIfAbsent(responderURI, responderStatus);
                         });
             } catch (Exception e) {
                 log.error("Error while initializing diagnostics: {}", e);
@@ -0,0 +1,198 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.signer.tokenmanager;
+
+import ee.ria.xroad.common.identifier.ClientId;
+import ee.ria.xroad.signer.model.Cert;
+import ee.ria.xroad.signer.model.Key;
+import ee.ria.xroad.signer.model.Token;
+import ee.ria.xroad.signer.protocol.dto.CertificateInfo;
+import ee.ria.xroad.signer.protocol.dto.KeyInfo;
+import ee.ria.xroad.signer.protocol.dto.KeyUsageInfo;
+import ee.ria.xroad.signer.protocol.dto.TokenInfo;
+import ee.ria.xroad.signer.tokenmanager.module.SoftwareModuleType;
+import ee.ria.xroad.signer.util.TokenAndKey;
+
+import lombok.Value;
+
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static java.util.Collections.emptyList;
+import static java.util.Collections.unmodifiableList;
+
+/**
+ * Immutable snapshot of the tokens, keys and certificates, indexed for the lookups done by {@link TokenManager}.
+ * The DTOs are created once when the snapshot is built and shared between all readers.
+ */
+final class TokenRegistry {
+
+    static final TokenRegistry EMPTY = new TokenRegistry(emptyList());
+
+    private final List<TokenInfo> tokens;
+    private final Map<String, TokenInfo> tokensById = new HashMap<>();
+    private final Map<String, String> moduleIdsByTokenId = new HashMap<>();
+    private final Set<String> batchSigningTokenIds = new HashSet<>();
+    private final String softwareTokenId;
+
+    private final Map<String, TokenAndKey> keysById = new HashMap<>();
+
+    private final List<CertificateInfo> certs;
+    private final Map<String, CertEntry> certsById = new HashMap<>();
+    private final Map<String, CertEntry> certsByHash = new HashMap<>();
+
+    private final List<MemberKey> signingKeys;
+    private final ConcurrentMap<ClientId, List<KeyInfo>> signingKeysByMember = new ConcurrentHashMap<>();
+
+    TokenRegistry(List<Token> currentTokens) {
+        List<TokenInfo> tokenInfos = new ArrayList<>(currentTokens.size());
+        List<CertificateInfo> certInfos = new ArrayList<>();
+        List<MemberKey> memberKeys = new ArrayList<>();
+        String softwareToken = null;
+
+        for (Token token : currentTokens) {
+            TokenInfo tokenInfo = token.toDTO();
+
+            tokenInfos.add(tokenInfo);
+            tokensById.putIfAbsent(token.getId(), tokenInfo);
+            moduleIdsByTokenId.putIfAbsent(token.getId(), token.getModuleId());
+
+            if (token.isBatchSigningEnabled()) {
+                batchSigningTokenIds.add(token.getId());
+            }
+
+            if (softwareToken == null && SoftwareModuleType.TYPE.equals(token.getType())) {
+                softwareToken = token.getId();
+            }
+
+            // the key DTOs are already part of the token DTO, in the same order as the keys
+            for (int i = 0; i < token.getKeys().size(); i++) {
+                Key key = token.getKeys().get(i);
+                KeyInfo keyInfo = tokenInfo.getKeyInfo().get(i);
+
+                keysById.putIfAbsent(key.getId(), new TokenAndKey(token.getId(), keyInfo));
+
+                boolean signingKey = token.isActive() && token.isAvailable() && key.isAvailable()
+                        && key.getUsage() != KeyUsageInfo.AUTHENTICATION;
+
+                for (int j = 0; j < key.getCerts().size(); j++) {
+                    Cert cert = key.getCerts().get(j);
+                    CertEntry entry = new CertEntry(keyInfo.getCerts().get(j), keyInfo, cert.getCertificate());
+
+                    certInfos.add(entry.getCertInfo());
+                    certsById.putIfAbsent(cert.getId(), entry);
+
+                    if (cert.getHash() != null) {
+                        certsByHash.putIfAbsent(cert.getHash(), entry);
+                    }
+
+                    if (signingKey && cert.isActive() && cert.getMemberId() != null) {
+                        memberKeys.add(new MemberKey(cert.getMemberId(), keyInfo));
+                    }
+                }
+            }
+        }
+
+        tokens = unmodifiableList(tokenInfos);
+        certs = unmodifiableList(certInfos);
+        signingKeys = memberKeys;
+        softwareTokenId = softwareToken;
+    }
+
+    List<TokenInfo> getTokens() {
+        return tokens;
+    }
+
+    TokenInfo getToken(String tokenId) {
+        return tokensById.get(tokenId);
+    }
+
+    String getModuleId(String tokenId) {
+        return moduleIdsByTokenId.get(tokenId);
+    }
+
+    boolean isBatchSigningEnabled(String tokenId) {
+        return batchSigningTokenIds.contains(tokenId);
+    }
+
+    String getSoftwareTokenId() {
+        return softwareTokenId;
+    }
+
+    TokenAndKey getTokenAndKey(String keyId) {
+        return keysById.get(keyId);
+    }
+
+    List<CertificateInfo> getCerts() {
+        return certs;
+    }
+
+    CertEntry getCert(String certId) {
+        return certsById.get(certId);
+    }
+
+    CertEntry getCertForHash(String certHash) {
+        return certsByHash.get(certHash);
+    }
+
+    /**
+     * @return the signing keys that have an active certificate belonging to the given member or subsystem. The
+     * result is computed once per client and snapshot.
+     */
+    List<KeyInfo> getSigningKeys(ClientId clientId) {
+        return signingKeysByMember.computeIfAbsent(clientId, id -> {
+            List<KeyInfo> keys = new ArrayList<>();
+
+            for (MemberKey memberKey : signingKeys) {
+                if (id.equals(memberKey.getMemberId()) || id.subsystemContainsMember(memberKey.getMemberId())) {
+                    keys.add(memberKey.getKey());
+                }
+            }
+
+            return unmodifiableList(keys);
+        });
+    }
+
+    /**
+     * Certificate DTO together with the DTO of the key it belongs to.
+     */
+    @Value
+    static final class CertEntry {
+        private final CertificateInfo certInfo;
+        private final KeyInfo keyInfo;
+        private final X509Certificate certificate;
+    }
+
+    @Value
+    private static final class MemberKey {
+        private final ClientId memberId;
+        private final KeyInfo key;
+    }
+}
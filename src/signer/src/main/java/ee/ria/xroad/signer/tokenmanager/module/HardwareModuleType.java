@@ -44,6 +44,8 @@ public class HardwareModuleType implements ModuleType {
 
     private final boolean batchSigningEnabled;
 
+    private final int signSessionPoolSize;
+
     private final boolean forceReadOnly;
 
     private final String signMechanismName;
@@ -176,14 +176,26 @@ public abstract class AbstractTokenWorker extends AbstractUpdateableActor {
 
             byte[] signature = sign(signRequest.getKeyId(), signRequest.getSignatureAlgorithmId(), data);
             sendResponse(new CalculatedSignature(signRequest, signature, null));
-        } catch (Exception e) { // catch-log-rethrow
-            log.error("Error while signing with key '{}'", signRequest.getKeyId(), e);
-
-            CodedException tr = translateError(customizeException(e)).withPrefix(X_CANNOT_SIGN);
-            sendResponse(new CalculatedSignature(signRequest, null, tr));
+        } catch (Exception e) {
+            sendResponse(signingFailed(signRequest, e));
         }
     }
 
+    /**
+     * Logs the signing error and creates the response for the failed request.
+     * Does not use actor state, so it may also be called outside the actor.
+     * @param signRequest the failed signing request
+     * @param e the signing error
+     * @return the response carrying the translated error
+     */
+    protected CalculatedSignature signingFailed(CalculateSignature signRequest, Exception e) {
+        log.error("Error while signing with key '{}'", signRequest.getKeyId(), e);
+
+        CodedException tr = translateError(customizeException(e)).withPrefix(X_CANNOT_SIGN);
+
+        return new CalculatedSignature(signRequest, null, tr);
+    }
+
     // ------------------------------------------------------------------------
 
     protected abstract void activateToken(ActivateToken message) throws Exception;
@@ -0,0 +1,124 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.signer.tokenmanager.token;
+
+import lombok.SneakyThrows;
+
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Calculates software token signatures, either in the calling thread or in
+ * a bounded pool of signing threads. Every thread reuses its own Signature
+ * instance.
+ */
+final class SoftwareTokenSigner {
+
+    // Use no digesting algorithm, since the input data is already a digest
+    private static final String SIGNATURE_ALGORITHM = "NONEwithRSA";
+
+    private static final int QUEUE_SIZE_PER_THREAD = 16;
+
+    private static final ThreadLocal<Signature> SIGNATURE = ThreadLocal.withInitial(
+            SoftwareTokenSigner::createSignature);
+
+    private final ExecutorService executor;
+
+    /**
+     * Creates a new signer.
+     * @param threads number of signing threads, if 0 the tasks are run in the calling thread
+     */
+    SoftwareTokenSigner(int threads) {
+        executor = threads > 0 ? createExecutor(threads) : null;
+    }
+
+    /**
+     * @return true, if the signing tasks are run in the pool of signing threads
+     */
+    boolean isParallel() {
+        return executor != null;
+    }
+
+    /**
+     * Runs the signing task in a signing thread. If all signing threads are
+     * busy and the queue is full, the task is run in the calling thread.
+     * @param task the signing task
+     */
+    void execute(Runnable task) {
+        if (executor != null) {
+            executor.execute(task);
+        } else {
+            task.run();
+        }
+    }
+
+    /**
+     * Stops the signing threads after the queued tasks have been run.
+     */
+    void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Signs the data with the private key.
+     * @param key the private key
+     * @param data the digest info to sign
+     * @return the signature
+     * @throws Exception in case of any errors
+     */
+    static byte[] sign(PrivateKey key, byte[] data) throws Exception {
+        Signature signature = SIGNATURE.get();
+        signature.initSign(key);
+        signature.update(data);
+
+        return signature.sign();
+    }
+
+    @SneakyThrows
+    private static Signature createSignature() {
+        return Signature.getInstance(SIGNATURE_ALGORITHM);
+    }
+
+    private static ExecutorService createExecutor(int threads) {
+        AtomicInteger threadCounter = new AtomicInteger();
+        ThreadFactory threadFactory = r -> {
+            Thread signingThread = new Thread(r);
+            signingThread.setName("software-token-sign-" + threadCounter.incrementAndGet());
+            signingThread.setDaemon(true);
+
+            return signingThread;
+        };
+
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(threads * QUEUE_SIZE_PER_THREAD), threadFactory,
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+}
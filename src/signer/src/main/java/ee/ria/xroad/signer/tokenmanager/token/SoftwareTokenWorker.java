@@ -34,8 +34,11 @@ import ee.ria.xroad.signer.protocol.message.ActivateToken;
 import ee.ria.xroad.signer.protocol.message.GenerateKey;
 import ee.ria.xroad.signer.protocol.message.InitSoftwareToken;
 import ee.ria.xroad.signer.tokenmanager.TokenManager;
+import ee.ria.xroad.signer.util.CalculateSignature;
+import ee.ria.xroad.signer.util.CalculatedSignature;
 import ee.ria.xroad.signer.util.SignerUtil;
 
+import akka.actor.ActorRef;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.FileNotFoundException;
@@ -46,7 +49,6 @@ import java.nio.file.Paths;
 import java.security.KeyPair;
 import java.security.KeyStore;
 import java.security.PrivateKey;
-import java.security.Signature;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -79,16 +81,19 @@ import static ee.ria.xroad.signer.util.ExceptionHelper.tokenNotInitialized;
 
 /**
  * Encapsulates the software token worker which handles software signing and key
- * management.
+ * management. Unless disabled, the private key operations of signing requests
+ * run in a bounded pool of signing threads, while everything else (including
+ * the key and token checks of signing requests) is handled by the worker.
+ * When the pool queue is full, the worker signs itself, which slows down
+ * accepting further requests.
  */
 @Slf4j
 public class SoftwareTokenWorker extends AbstractTokenWorker {
 
-    // Use no digesting algorithm, since the input data is already a digest
-    private static final String SIGNATURE_ALGORITHM = "NONEwithRSA";
-
     private final Map<String, PrivateKey> privateKeys = new HashMap<>();
 
+    private SoftwareTokenSigner signer;
+
     /**
      * Creates new worker.
      * @param tokenInfo the token info
@@ -98,6 +103,20 @@ public class SoftwareTokenWorker extends AbstractTokenWorker {
         super(tokenInfo);
     }
 
+    @Override
+    public void preStart() throws Exception {
+        super.preStart();
+
+        signer = new SoftwareTokenSigner(SystemProperties.getSoftwareTokenSigningThreads());
+    }
+
+    @Override
+    public void postStop() throws Exception {
+        signer.shutdown();
+
+        super.postStop();
+    }
+
     @Override
     protected void onUpdate() throws Exception {
         log.trace("onUpdate()");
@@ -120,6 +139,8 @@ public class SoftwareTokenWorker extends AbstractTokenWorker {
         if (message instanceof InitSoftwareToken) {
             initializeToken(((InitSoftwareToken) message).getPin());
             sendSuccessResponse();
+        } else if (message instanceof CalculateSignature && signer.isParallel()) {
+            handleCalculateSignatureInPool((CalculateSignature) message);
         } else {
             super.onMessage(message);
         }
@@ -175,10 +196,40 @@ public class SoftwareTokenWorker extends AbstractTokenWorker {
         TokenManager.removeCert(certId);
     }
 
+    private void handleCalculateSignatureInPool(CalculateSignature signRequest) {
+        ActorRef sender = getSender();
+        ActorRef self = getSelf();
+
+        try {
+            byte[] data = SignerUtil.createDataToSign(signRequest.getDigest(), signRequest.getSignatureAlgorithmId());
+            PrivateKey key = getSigningKey(signRequest.getKeyId(), signRequest.getSignatureAlgorithmId());
+
+            signer.execute(() -> {
+                CalculatedSignature response;
+
+                try {
+                    response = new CalculatedSignature(signRequest, SoftwareTokenSigner.sign(key, data), null);
+                } catch (Exception e) {
+                    response = signingFailed(signRequest, e);
+                }
+
+                if (sender != ActorRef.noSender()) {
+                    sender.tell(response, self);
+                }
+            });
+        } catch (Exception e) {
+            sendResponse(signingFailed(signRequest, e));
+        }
+    }
+
     @Override
     protected byte[] sign(String keyId, String signatureAlgorithmId, byte[] data) throws Exception {
         log.trace("sign({}, {})", keyId, signatureAlgorithmId);
 
+        return SoftwareTokenSigner.sign(getSigningKey(keyId, signatureAlgorithmId), data);
+    }
+
+    private PrivateKey getSigningKey(String keyId, String signatureAlgorithmId) throws Exception {
         checkSignatureAlgorithm(signatureAlgorithmId);
 
         if (!isTokenActive(tokenId)) {
@@ -197,11 +248,7 @@ public class SoftwareTokenWorker extends AbstractTokenWorker {
 
         log.debug("Signing with key '{}' and signature algorithm '{}'", keyId, signatureAlgorithmId);
 
-        Signature signature = Signature.getInstance(SIGNATURE_ALGORITHM);
-        signature.initSign(key);
-        signature.update(data);
-
-        return signature.sign();
+        return key;
     }
 
     private static void checkSignatureAlgorithm(String signatureAlgorithmId) throws CodedException {
@@ -31,16 +31,24 @@ import org.bouncycastle.cert.ocsp.CertificateStatus;
 import org.bouncycastle.cert.ocsp.OCSPResp;
 import org.joda.time.DateTime;
 import org.junit.BeforeClass;
+import org.junit.Rule;
 import org.junit.Test;
-import org.mockito.Mockito;
+import org.junit.rules.TemporaryFolder;
 
 import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.security.PrivateKey;
 import java.security.cert.X509Certificate;
 import java.util.Date;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
@@ -54,28 +62,42 @@ public class FileBasedOcspCacheTest {
     static X509Certificate signer;
     static PrivateKey signerKey;
 
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
     /**
      * Test.
      * @throws Exception if an error occurs
      */
     @Test
     public void putGet() throws Exception {
-        Date thisUpdate = new DateTime().plusDays(1).toDate();
-        OCSPResp ocsp = OcspTestUtils.createOCSPResponse(subject, issuer,
-                signer, signerKey, CertificateStatus.GOOD, thisUpdate, null);
+        OCSPResp ocsp = createResponse(new DateTime().plusDays(1).toDate());
 
-        FileBasedOcspCache cache = new FileBasedOcspCache();
-        FileBasedOcspCache spy = Mockito.spy(cache);
+        FileBasedOcspCache cache = new FileBasedOcspCache(tempFolder.getRoot().toPath());
 
-        Mockito.doNothing().when(spy).saveResponseToFile(
-                Mockito.any(File.class), Mockito.any(OCSPResp.class));
+        assertNull(cache.put("foo", ocsp));
+        assertNotNull(cache.get("foo"));
+        assertTrue(Files.size(cache.getIndexFile()) > 0);
+    }
 
-        spy.put("foo", ocsp);
+    /**
+     * Test.
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void expiredResponse() throws Exception {
+        OCSPResp ocsp = createResponse(new DateTime().minusDays(1).toDate());
 
-        Mockito.verify(spy).saveResponseToFile(Mockito.any(File.class),
-                Mockito.any(OCSPResp.class));
+        FileBasedOcspCache cache = new FileBasedOcspCache(tempFolder.getRoot().toPath());
 
-        assertNotNull(cache.get("foo"));
+        assertNull(cache.put("foo", ocsp));
+        assertNull(cache.get("foo"));
+
+        FileBasedOcspCache reloaded = new FileBasedOcspCache(tempFolder.getRoot().toPath());
+        reloaded.reloadFromDisk();
+
+        assertNull(reloaded.get("foo"));
+        assertTrue(reloaded.entrySet().isEmpty());
     }
 
     /**
@@ -83,22 +105,45 @@ public class FileBasedOcspCacheTest {
      * @throws Exception if an error occurs
      */
     @Test
-    public void expiredResponse() throws Exception {
-        Date thisUpdate = new DateTime().minusDays(1).toDate();
-        OCSPResp ocsp = OcspTestUtils.createOCSPResponse(subject, issuer,
-                signer, signerKey, CertificateStatus.GOOD, thisUpdate, null);
+    public void saveLoadOcspResponsesFromIndex() throws Exception {
+        OCSPResp first = createResponse(new DateTime().plusDays(1).toDate());
+        OCSPResp second = createResponse(new DateTime().plusDays(2).toDate());
 
-        FileBasedOcspCache cache = new FileBasedOcspCache();
-        FileBasedOcspCache spy = Mockito.spy(cache);
+        FileBasedOcspCache cache = new FileBasedOcspCache(tempFolder.getRoot().toPath());
+        cache.put("foo", first);
+        cache.put("bar", first);
+        cache.put("foo", second);
 
-        Mockito.doNothing().when(spy).saveResponseToFile(
-                Mockito.any(File.class), Mockito.any(OCSPResp.class));
+        FileBasedOcspCache reloaded = new FileBasedOcspCache(tempFolder.getRoot().toPath());
+        reloaded.reloadFromDisk();
 
-        Mockito.doReturn(ocsp).when(spy).loadResponseFromFile(
-                Mockito.any(File.class));
+        assertEquals(2, reloaded.entrySet().size());
+        assertArrayEquals(second.getEncoded(), reloaded.get("foo").getEncoded());
+        assertArrayEquals(first.getEncoded(), reloaded.get("bar").getEncoded());
+    }
 
-        assertNull(spy.put("foo", ocsp));
-        assertNull(spy.get("foo"));
+    /**
+     * Test.
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void indexIsCompacted() throws Exception {
+        OCSPResp ocsp = createResponse(new DateTime().plusDays(1).toDate());
+
+        FileBasedOcspCache cache = new FileBasedOcspCache(tempFolder.getRoot().toPath());
+        cache.put("foo", ocsp);
+
+        long singleRecordSize = Files.size(cache.getIndexFile());
+
+        for (int i = 0; i < 1000; i++) {
+            cache.put("foo", ocsp);
+        }
+
+        assertTrue(Files.size(cache.getIndexFile()) < 200 * singleRecordSize);
+
+        cache.reloadFromDisk();
+
+        assertEquals(singleRecordSize, Files.size(cache.getIndexFile()));
     }
 
     /**
@@ -106,28 +151,45 @@ public class FileBasedOcspCacheTest {
      * @throws Exception if an error occurs
      */
     @Test
-    public void saveLoadOcspResponseToFile() throws Exception {
-        Date thisUpdate = new DateTime().plusDays(1).toDate();
-        OCSPResp ocsp = OcspTestUtils.createOCSPResponse(subject, issuer,
-                signer, signerKey, CertificateStatus.GOOD, thisUpdate, null);
+    public void truncatedIndex() throws Exception {
+        OCSPResp ocsp = createResponse(new DateTime().plusDays(1).toDate());
+
+        FileBasedOcspCache cache = new FileBasedOcspCache(tempFolder.getRoot().toPath());
+        cache.put("foo", ocsp);
+        cache.put("bar", ocsp);
+
+        try (RandomAccessFile file = new RandomAccessFile(cache.getIndexFile().toFile(), "rw")) {
+            file.setLength(file.length() - 10);
+        }
+
+        FileBasedOcspCache reloaded = new FileBasedOcspCache(tempFolder.getRoot().toPath());
+        reloaded.reloadFromDisk();
 
-        FileBasedOcspCache cache = new FileBasedOcspCache();
-        FileBasedOcspCache spy = Mockito.spy(cache);
+        assertNotNull(reloaded.get("foo"));
+        assertNull(reloaded.get("bar"));
+    }
 
-        Mockito.doNothing().when(spy).saveResponseToFile(
-                Mockito.any(File.class), Mockito.any(OCSPResp.class));
+    /**
+     * Test.
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void legacyFilesAreMovedToIndex() throws Exception {
+        OCSPResp ocsp = createResponse(new DateTime().plusDays(1).toDate());
 
-        spy.put("foo", ocsp);
+        Path legacyFile = tempFolder.getRoot().toPath().resolve("foo.ocsp");
+        Files.write(legacyFile, ocsp.getEncoded());
 
-        Mockito.verify(spy).saveResponseToFile(Mockito.any(File.class),
-                Mockito.any(OCSPResp.class));
+        FileBasedOcspCache cache = new FileBasedOcspCache(tempFolder.getRoot().toPath());
+        cache.reloadFromDisk();
 
-        spy.clear();
+        assertNotNull(cache.get("foo"));
+        assertFalse(Files.exists(legacyFile));
 
-        Mockito.doReturn(ocsp).when(spy).loadResponseFromFile(
-                Mockito.any(File.class));
+        FileBasedOcspCache reloaded = new FileBasedOcspCache(tempFolder.getRoot().toPath());
+        reloaded.reloadFromDisk();
 
-        assertNotNull(spy.get("foo"));
+        assertNotNull(reloaded.get("foo"));
     }
 
     /**
@@ -136,7 +198,7 @@ public class FileBasedOcspCacheTest {
      */
     @Test
     public void readOcspFromEmptyFile() throws Exception {
-        FileBasedOcspCache cache = new FileBasedOcspCache();
+        FileBasedOcspCache cache = new FileBasedOcspCache(tempFolder.getRoot().toPath());
 
         File f = mock(File.class);
         when(f.exists()).thenReturn(true);
@@ -164,4 +226,9 @@ public class FileBasedOcspCacheTest {
         subject = TestCertUtil.getCertChainCert("user_0.p12");
         assertNotNull(subject);
     }
+
+    private static OCSPResp createResponse(Date thisUpdate) throws Exception {
+        return OcspTestUtils.createOCSPResponse(subject, issuer, signer, signerKey, CertificateStatus.GOOD,
+                thisUpdate, null);
+    }
 }
@@ -22,6 +22,8 @@
  */
 package ee.ria.xroad.signer.certmanager;
 
+import ee.ria.xroad.common.DiagnosticsErrorCodes;
+import ee.ria.xroad.common.OcspResponderStatus;
 import ee.ria.xroad.common.OcspTestUtils;
 import ee.ria.xroad.common.TestCertUtil;
 import ee.ria.xroad.common.conf.globalconf.GlobalConf;
@@ -66,6 +68,7 @@ import java.util.HashMap;
 import java.util.Map;
 
 import static ee.ria.xroad.common.util.CryptoUtils.calculateCertHexHash;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.fail;
 import static org.mockito.Mockito.mock;
@@ -148,6 +151,38 @@ public class OcspClientTest {
         verifier.verifyValidityAndStatus(ocsp, subject, GlobalConf.getCaCert("EE", subject));
     }
 
+    /**
+     * Test.
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void responderStatisticsAreReported() throws Exception {
+        X509Certificate subject = getDefaultClientCert();
+
+        GlobalConfProvider conf = getTestGlobalConf();
+        when(conf.getOcspResponderAddresses(Mockito.any(X509Certificate.class))).thenReturn(
+                Arrays.asList("http://127.0.0.1:1234", RESPONDER_URI));
+        GlobalConf.reload(conf);
+
+        Date thisUpdate = new DateTime().plusDays(1).toDate();
+
+        responseData = OcspTestUtils.createOCSPResponse(subject, GlobalConf.getCaCert("EE", subject), ocspResponderCert,
+                getOcspSignerKey(), CertificateStatus.GOOD, thisUpdate, null).getEncoded();
+
+        Map<String, OCSPResp> statuses = ocspClient.queryCertStatuses(Arrays.asList(subject),
+                new OcspVerifierOptions(true));
+        assertNotNull(statuses.get(hash(subject)));
+
+        Map<String, OcspResponderStatus> responderStatuses = ocspClient.getDiagnostics()
+                .getCertificationServiceStatusMap().get(GlobalConf.getCaCert("EE", subject).getSubjectDN().toString())
+                .getOcspResponderStatusMap();
+
+        assertEquals(1, responderStatuses.get("http://127.0.0.1:1234").getFailureCount());
+        assertEquals(0, responderStatuses.get("http://127.0.0.1:1234").getSuccessCount());
+        assertEquals(1, responderStatuses.get(RESPONDER_URI).getSuccessCount());
+        assertEquals(DiagnosticsErrorCodes.RETURN_SUCCESS, responderStatuses.get(RESPONDER_URI).getStatus());
+    }
+
     /**
      * Test.
      * @throws Exception if an error occurs
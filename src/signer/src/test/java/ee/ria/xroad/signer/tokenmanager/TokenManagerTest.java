@@ -0,0 +1,141 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.signer.tokenmanager;
+
+import ee.ria.xroad.common.SystemProperties;
+import ee.ria.xroad.common.identifier.ClientId;
+import ee.ria.xroad.signer.protocol.dto.CertificateInfo;
+import ee.ria.xroad.signer.protocol.dto.KeyInfo;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.contrib.java.lang.system.RestoreSystemProperties;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+import static ee.ria.xroad.common.util.CryptoUtils.calculateCertHexHash;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the {@link TokenManager} lookups.
+ */
+public class TokenManagerTest {
+
+    private static final Path KEY_CONF = Paths.get("./build/resources/test/mergetesting/"
+            + "keyconf_base_no_duplicate_keyIds.xml");
+
+    private static final String PRODUCER_KEY_ID = "70726f6475636572";
+    private static final ClientId PRODUCER = ClientId.create("EE", "BUSINESS", "producer");
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Rule
+    public final RestoreSystemProperties restoreSystemProperties = new RestoreSystemProperties();
+
+    /**
+     * Loads the test key configuration.
+     * @throws Exception if an error occurs
+     */
+    @Before
+    public void setUp() throws Exception {
+        File keyConf = temporaryFolder.newFile("keyconf-testing.xml");
+        System.setProperty(SystemProperties.KEY_CONFIGURATION_FILE, keyConf.getPath());
+
+        Files.copy(KEY_CONF, keyConf.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        TokenManager.init();
+    }
+
+    @Test
+    public void lookupsShareSnapshotUntilModified() {
+        KeyInfo keyInfo = TokenManager.getKeyInfo(PRODUCER_KEY_ID);
+
+        assertNotNull(keyInfo);
+        assertSame(keyInfo, TokenManager.getKeyInfo(PRODUCER_KEY_ID));
+        assertSame(keyInfo, TokenManager.findTokenAndKey(PRODUCER_KEY_ID).getKey());
+
+        TokenManager.setKeyFriendlyName(PRODUCER_KEY_ID, "changed");
+
+        assertEquals("changed", TokenManager.getKeyInfo(PRODUCER_KEY_ID).getFriendlyName());
+        assertEquals("changed", TokenManager.findTokenAndKey(PRODUCER_KEY_ID).getKey().getFriendlyName());
+    }
+
+    @Test
+    public void certLookupsByIdAndHash() throws Exception {
+        List<CertificateInfo> certs = TokenManager.getAllCerts();
+
+        assertFalse(certs.isEmpty());
+
+        for (CertificateInfo cert : certs) {
+            String hash = calculateCertHexHash(cert.getCertificateBytes());
+
+            // the same certificate may be under several keys, the lookups return the first one
+            assertEquals(cert.getId(), TokenManager.getCertificateInfo(cert.getId()).getId());
+            assertEquals(cert.getId(), TokenManager.getCertificateInfoForCertHash(hash).getId());
+            assertNotNull(TokenManager.getCertificateForCertHash(hash));
+            assertTrue(TokenManager.getKeyInfoForCertId(cert.getId()).getCerts().stream()
+                    .anyMatch(c -> c.getId().equals(cert.getId())));
+            assertTrue(TokenManager.getKeyInfoForCertHash(hash).getCerts().stream()
+                    .anyMatch(c -> c.getId().equals(cert.getId())));
+        }
+
+        assertNull(TokenManager.getCertificateInfo("unknown"));
+        assertNull(TokenManager.getKeyInfoForCertHash("unknown"));
+    }
+
+    @Test
+    public void memberSigningKeysFollowTokenState() {
+        String tokenId = TokenManager.findTokenIdForKeyId(PRODUCER_KEY_ID);
+        String certId = TokenManager.getKeyInfo(PRODUCER_KEY_ID).getCerts().get(0).getId();
+
+        TokenManager.setCertActive(certId, true);
+        TokenManager.setKeyAvailable(PRODUCER_KEY_ID, true);
+        TokenManager.setTokenAvailable(tokenId, true);
+        TokenManager.setTokenActive(tokenId, false);
+
+        assertTrue(TokenManager.getKeyInfo(PRODUCER).isEmpty());
+
+        TokenManager.setTokenActive(tokenId, true);
+
+        assertTrue(TokenManager.getKeyInfo(PRODUCER).stream().anyMatch(k -> k.getId().equals(PRODUCER_KEY_ID)));
+        assertTrue(TokenManager.getKeyInfo(ClientId.create("EE", "BUSINESS", "producer", "subsystem")).stream()
+                .anyMatch(k -> k.getId().equals(PRODUCER_KEY_ID)));
+
+        TokenManager.setKeyAvailable(PRODUCER_KEY_ID, false);
+
+        assertFalse(TokenManager.getKeyInfo(PRODUCER).stream().anyMatch(k -> k.getId().equals(PRODUCER_KEY_ID)));
+    }
+}
@@ -0,0 +1,173 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.signer.tokenmanager.token;
+
+import ee.ria.xroad.common.util.CryptoUtils;
+import ee.ria.xroad.signer.util.SignerUtil;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import akka.actor.UntypedActor;
+import akka.pattern.Patterns;
+import akka.util.Timeout;
+import com.typesafe.config.ConfigFactory;
+import lombok.extern.slf4j.Slf4j;
+import scala.concurrent.Await;
+
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures software token signatures per second versus the number of signing threads. Like the token worker,
+ * a single actor receives all signing requests from concurrent clients and either signs itself (0 signing
+ * threads) or hands the private key operation to the signing threads.
+ *
+ * Usage: gradle runSoftwareTokenSignerBenchmark -Pargs="[clients] [seconds] [max signing threads]"
+ */
+@Slf4j
+public final class SoftwareTokenSignerBenchmark {
+
+    private static final int DEFAULT_CLIENTS = 32;
+    private static final int DEFAULT_SECONDS = 10;
+    private static final int WARMUP_SECONDS = 5;
+
+    private static final int KEY_SIZE = 2048;
+
+    private static final Timeout TIMEOUT = new Timeout(1, TimeUnit.MINUTES);
+
+    private SoftwareTokenSignerBenchmark() {
+    }
+
+    /**
+     * Main function.
+     * @param args optional number of clients, measurement time and maximum number of signing threads
+     * @throws Exception if an error occurs
+     */
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_CLIENTS;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_SECONDS;
+        int maxThreads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(KEY_SIZE);
+        PrivateKey key = generator.generateKeyPair().getPrivate();
+
+        byte[] digest = CryptoUtils.calculateDigest(CryptoUtils.SHA256_ID, new byte[] {1});
+
+        ActorSystem actorSystem = ActorSystem.create("SoftwareTokenSignerBenchmark", ConfigFactory.defaultReference());
+
+        try {
+            run(actorSystem, key, digest, 0, clients, seconds);
+
+            for (int threads = 1; threads <= maxThreads; threads *= 2) {
+                run(actorSystem, key, digest, threads, clients, seconds);
+            }
+        } finally {
+            actorSystem.terminate();
+        }
+    }
+
+    private static void run(ActorSystem actorSystem, PrivateKey key, byte[] digest, int threads, int clients,
+            int seconds) throws Exception {
+        SoftwareTokenSigner signer = new SoftwareTokenSigner(threads);
+        ActorRef worker = actorSystem.actorOf(Props.create(SigningActor.class, signer, key));
+
+        try {
+            measure(worker, digest, clients, WARMUP_SECONDS);
+
+            long ops = measure(worker, digest, clients, seconds);
+
+            log.info("{} signing threads: {} clients, {} signatures/s", threads, clients, ops / seconds);
+        } finally {
+            actorSystem.stop(worker);
+            signer.shutdown();
+        }
+    }
+
+    private static long measure(ActorRef worker, byte[] digest, int clients, int seconds) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(clients);
+        AtomicBoolean running = new AtomicBoolean(true);
+        CountDownLatch started = new CountDownLatch(clients);
+        LongAdder ops = new LongAdder();
+
+        for (int c = 0; c < clients; c++) {
+            executor.execute(() -> {
+                started.countDown();
+
+                while (running.get()) {
+                    try {
+                        Await.result(Patterns.ask(worker, digest, TIMEOUT), TIMEOUT.duration());
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+
+                    ops.increment();
+                }
+            });
+        }
+
+        started.await();
+        TimeUnit.SECONDS.sleep(seconds);
+        running.set(false);
+
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+
+        return ops.sum();
+    }
+
+    /**
+     * Stands in for the software token worker: creates the data to sign and signs it with the signer.
+     */
+    private static final class SigningActor extends UntypedActor {
+        private final SoftwareTokenSigner signer;
+        private final PrivateKey key;
+
+        SigningActor(SoftwareTokenSigner signer, PrivateKey key) {
+            this.signer = signer;
+            this.key = key;
+        }
+
+        @Override
+        public void onReceive(Object message) throws Exception {
+            ActorRef sender = getSender();
+            ActorRef self = getSelf();
+            byte[] data = SignerUtil.createDataToSign((byte[]) message, CryptoUtils.SHA256WITHRSA_ID);
+
+            signer.execute(() -> {
+                try {
+                    sender.tell(SoftwareTokenSigner.sign(key, data), self);
+                } catch (Exception e) {
+                    sender.tell(e, self);
+                }
+            });
+        }
+    }
+}
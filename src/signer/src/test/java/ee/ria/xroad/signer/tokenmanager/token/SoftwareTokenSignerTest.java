@@ -0,0 +1,118 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.signer.tokenmanager.token;
+
+import ee.ria.xroad.common.util.CryptoUtils;
+import ee.ria.xroad.signer.util.SignerUtil;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the software token signer.
+ */
+public class SoftwareTokenSignerTest {
+
+    private static final int KEY_SIZE = 2048;
+    private static final int SIGNATURES = 32;
+
+    private static KeyPair keyPair;
+
+    /**
+     * Generates the signing key.
+     * @throws Exception if an error occurs
+     */
+    @BeforeClass
+    public static void generateKey() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(KEY_SIZE);
+        keyPair = generator.generateKeyPair();
+    }
+
+    /**
+     * Tests that signatures calculated in parallel are valid.
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void signInParallel() throws Exception {
+        SoftwareTokenSigner signer = new SoftwareTokenSigner(4);
+
+        try {
+            assertTrue(signer.isParallel());
+
+            List<CompletableFuture<byte[]>> signatures = new ArrayList<>();
+
+            for (int i = 0; i < SIGNATURES; i++) {
+                byte[] digest = CryptoUtils.calculateDigest(CryptoUtils.SHA256_ID, new byte[] {(byte) i});
+                byte[] data = SignerUtil.createDataToSign(digest, CryptoUtils.SHA256WITHRSA_ID);
+                CompletableFuture<byte[]> signature = new CompletableFuture<>();
+
+                signer.execute(() -> {
+                    try {
+                        signature.complete(SoftwareTokenSigner.sign(keyPair.getPrivate(), data));
+                    } catch (Exception e) {
+                        signature.completeExceptionally(e);
+                    }
+                });
+
+                signatures.add(signature);
+            }
+
+            for (int i = 0; i < SIGNATURES; i++) {
+                Signature verifier = Signature.getInstance("SHA256withRSA");
+                verifier.initVerify(keyPair.getPublic());
+                verifier.update(new byte[] {(byte) i});
+
+                assertTrue(verifier.verify(signatures.get(i).get(1, TimeUnit.MINUTES)));
+            }
+        } finally {
+            signer.shutdown();
+        }
+    }
+
+    /**
+     * Tests that without signing threads the tasks are run in the calling thread.
+     */
+    @Test
+    public void signInCallingThread() {
+        SoftwareTokenSigner signer = new SoftwareTokenSigner(0);
+        Thread[] signingThread = new Thread[1];
+
+        signer.execute(() -> signingThread[0] = Thread.currentThread());
+
+        assertFalse(signer.isParallel());
+        assertSame(Thread.currentThread(), signingThread[0]);
+    }
+}